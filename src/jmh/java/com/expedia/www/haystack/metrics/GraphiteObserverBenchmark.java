@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.MetricObserver;
+import com.netflix.servo.publish.graphite.GraphiteMetricObserver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+
+/**
+ * Cost of sending one poll of 10,000 metrics to a local fake Carbon listener with Servo's GraphiteMetricObserver, with
+ * NioGraphiteMetricObserver and with PickleGraphiteMetricObserver; run with "-prof gc" to compare the garbage each
+ * leaves behind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class GraphiteObserverBenchmark {
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+
+    @Param({"GraphiteMetricObserver", "NioGraphiteMetricObserver", "PickleGraphiteMetricObserver"})
+    public String observer;
+
+    @Param({"10000"})
+    public int metrics;
+
+    private FakeCarbonListener fakeCarbonListener;
+    private MetricObserver metricObserver;
+    private List<Metric> poll;
+
+    @Setup
+    public void setUp() throws IOException {
+        fakeCarbonListener = new FakeCarbonListener(false);
+        final ServoToInfluxDbViaGraphiteNamingConvention namingConvention =
+                new ServoToInfluxDbViaGraphiteNamingConvention("benchmark.host.example.com");
+        final int port = fakeCarbonListener.getPort();
+        if ("GraphiteMetricObserver".equals(observer)) {
+            metricObserver = new GraphiteMetricObserver(PREFIX, HOST + ':' + port, namingConvention);
+        } else if ("NioGraphiteMetricObserver".equals(observer)) {
+            metricObserver = new NioGraphiteMetricObserver(PREFIX, HOST, port, namingConvention);
+        } else {
+            metricObserver = new PickleGraphiteMetricObserver(PREFIX, HOST, port, namingConvention);
+        }
+        poll = new ArrayList<>(metrics);
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < metrics; i++) {
+            poll.add(new Metric(MonitorConfig.builder("METRIC_" + i)
+                    .withTag(TAG_KEY_SUBSYSTEM, "benchmark")
+                    .withTag(TAG_KEY_APPLICATION, "GraphiteObserverBenchmark")
+                    .withTag(TAG_KEY_CLASS, "Class" + (i % 100))
+                    .build(), now, i % 3 == 0 ? (Object) (i / 7.0) : (Object) (long) i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        fakeCarbonListener.close();
+    }
+
+    @Benchmark
+    public void update() {
+        metricObserver.update(poll);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the MetricObjects.createAndRegister* methods when the metric has already been registered, which is what a
+ * call site that looks its metric up on every event (for example, one Counter per error type) pays on every event,
+ * compared with the cost of the same lookups through a MetricScope.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class MetricObjectsLookupBenchmark {
+    private static final String METRIC_GROUP = "errors";
+    private static final String SUBSYSTEM = "benchmark";
+    private static final String APPLICATION = "MetricObjectsLookupBenchmark";
+    private static final String CLASS = "MetricObjectsLookupBenchmark";
+    private static final String FULLY_QUALIFIED_CLASS_NAME = "com-expedia-www-haystack-metrics-Benchmark";
+    private static final String LINE_NUMBER = "42";
+    private static final String COUNTER_NAME = "COUNTER";
+    private static final String RESETTING_COUNTER_NAME = "RESETTING_COUNTER";
+    private static final String TIMER_NAME = "TIMER";
+
+    private MetricObjects metricObjects;
+    private MetricScope metricScope;
+
+    @Setup
+    public void setUp() {
+        metricObjects = new MetricObjects();
+        metricScope = metricObjects.createMetricScope(SUBSYSTEM, APPLICATION, CLASS);
+        existingCounter();
+        existingResettingCounter();
+        existingErrorCounter();
+        existingBasicTimer();
+        scopeCounter();
+        scopeResettingCounter();
+        scopeBasicTimer();
+    }
+
+    @Benchmark
+    public Counter existingCounter() {
+        return metricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, COUNTER_NAME);
+    }
+
+    @Benchmark
+    public Counter existingResettingCounter() {
+        return metricObjects.createAndRegisterResettingCounter(SUBSYSTEM, APPLICATION, CLASS, RESETTING_COUNTER_NAME);
+    }
+
+    @Benchmark
+    public Counter existingErrorCounter() {
+        return metricObjects.createAndRegisterResettingCounter(
+                METRIC_GROUP, SUBSYSTEM, FULLY_QUALIFIED_CLASS_NAME, LINE_NUMBER, RESETTING_COUNTER_NAME);
+    }
+
+    @Benchmark
+    public Timer existingBasicTimer() {
+        return metricObjects.createAndRegisterBasicTimer(
+                SUBSYSTEM, APPLICATION, CLASS, TIMER_NAME, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public Counter scopeCounter() {
+        return metricScope.counter(COUNTER_NAME);
+    }
+
+    @Benchmark
+    public Counter scopeResettingCounter() {
+        return metricScope.resettingCounter(RESETTING_COUNTER_NAME);
+    }
+
+    @Benchmark
+    public Timer scopeBasicTimer() {
+        return metricScope.basicTimer(TIMER_NAME, TimeUnit.MILLISECONDS);
+    }
+}
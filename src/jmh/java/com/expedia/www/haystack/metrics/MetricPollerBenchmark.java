@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.BasicMonitorRegistry;
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Timer;
+import com.netflix.servo.publish.BasicMetricFilter;
+import com.netflix.servo.publish.MonitorRegistryMetricPoller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_FULLY_QUALIFIED_CLASS_NAME;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_LINE_NUMBER;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_METRIC_GROUP;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+
+/**
+ * Poll latency against registry size, for registries of 1,000 to 200,000 monitors, with Servo's
+ * MonitorRegistryMetricPoller (which MetricPublishing uses by default, each read going through a time-limiting
+ * executor), the same poller without the time limit, and ParallelMetricPoller with its default parallelism, shard size
+ * and time limit and a threshold of 1, so that it always reads in parallel. The registry is built the way
+ * PollRunnableBenchmark builds it; only the poll itself is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class MetricPollerBenchmark {
+    @Param({"1000", "10000", "100000", "200000"})
+    public int monitors;
+
+    private MonitorRegistryMetricPoller timeLimitedPoller;
+    private MonitorRegistryMetricPoller serialPoller;
+    private ParallelMetricPoller parallelPoller;
+
+    @Setup
+    public void setUp() {
+        final MonitorRegistry registry = new BasicMonitorRegistry();
+        for (int i = 0; i < monitors; i++) {
+            if (i % 10 == 9) {
+                final Timer timer = new BasicTimer(MonitorConfig.builder("TIMER_" + i)
+                        .withTag(TAG_KEY_SUBSYSTEM, "benchmark")
+                        .withTag(TAG_KEY_APPLICATION, "MetricPollerBenchmark")
+                        .withTag(TAG_KEY_CLASS, "Class" + (i % 100))
+                        .build(), TimeUnit.MILLISECONDS);
+                timer.record(i, TimeUnit.MILLISECONDS);
+                registry.register(timer);
+            } else {
+                final Counter counter = new ResettingCounter(MonitorConfig.builder("ERROR")
+                        .withTag(TAG_KEY_METRIC_GROUP, "errors")
+                        .withTag(TAG_KEY_SUBSYSTEM, "benchmark")
+                        .withTag(TAG_KEY_FULLY_QUALIFIED_CLASS_NAME, "com-expedia-Class" + (i % 1000))
+                        .withTag(TAG_KEY_LINE_NUMBER, Integer.toString(i))
+                        .build());
+                counter.increment();
+                registry.register(counter);
+            }
+        }
+        timeLimitedPoller = new MonitorRegistryMetricPoller(registry);
+        serialPoller = new MonitorRegistryMetricPoller(registry, 0, TimeUnit.MILLISECONDS, false);
+        parallelPoller = new ParallelMetricPoller(registry, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timeLimitedPoller.shutdown();
+        serialPoller.shutdown();
+        parallelPoller.shutdown();
+    }
+
+    @Benchmark
+    public Object timeLimitedPoller() {
+        return timeLimitedPoller.poll(BasicMetricFilter.MATCH_ALL, true);
+    }
+
+    @Benchmark
+    public Object serialPoller() {
+        return serialPoller.poll(BasicMetricFilter.MATCH_ALL, true);
+    }
+
+    @Benchmark
+    public Object parallelPoller() {
+        return parallelPoller.poll(BasicMetricFilter.MATCH_ALL, true);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.www.haystack.metrics.MetricObjects.METRIC_GROUP_BUCKETS;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_FULLY_QUALIFIED_CLASS_NAME;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_LINE_NUMBER;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_METRIC_GROUP;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_SERVO_BUCKET;
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+
+/**
+ * Cost of ServoToInfluxDbViaGraphiteNamingConvention.getName() for each of the metric name shapes it produces; run
+ * with "-prof gc" to see the garbage that each call leaves behind.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class NamingConventionBenchmark {
+    private ServoToInfluxDbViaGraphiteNamingConvention namingConvention;
+    private Metric counterMetric;
+    private Metric timerMetric;
+    private Metric errorMetric;
+    private Metric bucketMetric;
+
+    @Setup
+    public void setUp() {
+        namingConvention = new ServoToInfluxDbViaGraphiteNamingConvention("benchmark.host.example.com");
+        counterMetric = new Metric(MonitorConfig.builder("REQUEST")
+                .withTag(TAG_KEY_SUBSYSTEM, "pipes")
+                .withTag(TAG_KEY_APPLICATION, "kafka-producer")
+                .withTag(TAG_KEY_CLASS, "ProtobufToKafkaProducer")
+                .withTag(DataSourceType.COUNTER)
+                .build(), 0, 1L);
+        timerMetric = new Metric(MonitorConfig.builder("KAFKA_SEND")
+                .withTag(TAG_KEY_SUBSYSTEM, "pipes")
+                .withTag(TAG_KEY_APPLICATION, "kafka-producer")
+                .withTag(TAG_KEY_CLASS, "ProtobufToKafkaProducer")
+                .withTag(DataSourceType.GAUGE)
+                .withTag(TAG_KEY_STATISTIC, "max")
+                .build(), 0, 1.0);
+        errorMetric = new Metric(MonitorConfig.builder("ERROR")
+                .withTag(TAG_KEY_METRIC_GROUP, "errors")
+                .withTag(TAG_KEY_SUBSYSTEM, "pipes")
+                .withTag(TAG_KEY_FULLY_QUALIFIED_CLASS_NAME, "com-expedia-www-haystack-pipes-Producer")
+                .withTag(TAG_KEY_LINE_NUMBER, "42")
+                .withTag(DataSourceType.COUNTER)
+                .build(), 0, 1L);
+        bucketMetric = new Metric(MonitorConfig.builder("KAFKA_SEND")
+                .withTag(TAG_KEY_METRIC_GROUP, METRIC_GROUP_BUCKETS)
+                .withTag(TAG_KEY_SUBSYSTEM, "pipes")
+                .withTag(TAG_KEY_APPLICATION, "kafka-producer")
+                .withTag(TAG_KEY_SERVO_BUCKET, "bucket=0064ms")
+                .withTag(DataSourceType.NORMALIZED)
+                .withTag(TAG_KEY_STATISTIC, "count")
+                .build(), 0, 1.0);
+    }
+
+    @Benchmark
+    public String counterName() {
+        return namingConvention.getName(counterMetric);
+    }
+
+    @Benchmark
+    public String timerName() {
+        return namingConvention.getName(timerMetric);
+    }
+
+    @Benchmark
+    public String errorName() {
+        return namingConvention.getName(errorMetric);
+    }
+
+    @Benchmark
+    public String bucketName() {
+        return namingConvention.getName(bucketMetric);
+    }
+}
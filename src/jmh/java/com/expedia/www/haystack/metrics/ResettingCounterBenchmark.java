@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of Counter.increment() on a single shared ResettingCounter or StripedResettingCounter, as the number of
+ * threads incrementing it grows from 1 to 8 to 64; the implementation is chosen with the "counter" parameter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class ResettingCounterBenchmark {
+    @Param({"ResettingCounter", "StripedResettingCounter"})
+    public String counter;
+
+    private Counter sharedCounter;
+
+    @Setup
+    public void setUp() {
+        final MonitorConfig monitorConfig = MonitorConfig.builder("BENCHMARK").build();
+        sharedCounter = "ResettingCounter".equals(counter)
+                ? new ResettingCounter(monitorConfig) : new StripedResettingCounter(monitorConfig);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void increment1Thread() {
+        sharedCounter.increment();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void increment8Threads() {
+        sharedCounter.increment();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void increment64Threads() {
+        sharedCounter.increment();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of Timer.record() on the BasicTimer, BucketTimer and HistogramTimer that MetricObjects creates, from one thread
+ * and from eight threads recording into the same Timer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class TimerBenchmark {
+    private static final String SUBSYSTEM = "benchmark";
+    private static final String APPLICATION = "TimerBenchmark";
+    private static final long[] BUCKETS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+    private static final long DURATION = 42;
+
+    private Timer basicTimer;
+    private Timer bucketTimer;
+    private Timer histogramTimer;
+
+    @Setup
+    public void setUp() {
+        final MetricObjects metricObjects = new MetricObjects();
+        basicTimer = metricObjects.createAndRegisterBasicTimer(
+                SUBSYSTEM, APPLICATION, "TimerBenchmark", "BASIC_TIMER", TimeUnit.MILLISECONDS);
+        bucketTimer = metricObjects.createAndRegisterBucketTimer(
+                SUBSYSTEM, APPLICATION, "BUCKET_TIMER", TimeUnit.MILLISECONDS, BUCKETS);
+        histogramTimer = metricObjects.createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, "TimerBenchmark", "HISTOGRAM_TIMER", TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void basicTimerRecord() {
+        basicTimer.record(DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void basicTimerRecord8Threads() {
+        basicTimer.record(DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void bucketTimerRecord() {
+        bucketTimer.record(DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void bucketTimerRecord8Threads() {
+        bucketTimer.record(DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    public void histogramTimerRecord() {
+        histogramTimer.record(DURATION, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void histogramTimerRecord8Threads() {
+        histogramTimer.record(DURATION, TimeUnit.MILLISECONDS);
+    }
+}
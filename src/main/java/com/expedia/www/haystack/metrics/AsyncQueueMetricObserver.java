@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.MetricObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decouples the poller from a slow observer, as Servo's AsyncMetricObserver does: each update is put on a bounded
+ * queue, and a daemon thread passes the queued updates on to the wrapped observer. When the queue is full the oldest
+ * update is dropped to make room, and an update that has waited longer than the expire time is dropped instead of
+ * sent. Servo's class is final and keeps its queue to itself; this one reports the depth of its queue, and what it
+ * drops, through {@link PublishingMetrics}.
+ */
+public class AsyncQueueMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "AsyncQueueMetricObserver";
+    static final String UPDATE_FAILED_MSG = "Observer [%s] failed to send a queued update; it has been dropped";
+
+    private final MetricObserver observer;
+    private final BlockingQueue<Update> queue;
+    private final long expireTimeMillis;
+    private final PublishingMetrics publishingMetrics;
+    private final Logger logger;
+    private final Thread worker;
+
+    /**
+     * Creates a new AsyncQueueMetricObserver and starts the thread that sends its queued updates.
+     *
+     * @param name             the name of this observer, which is also the suffix of the name of its thread
+     * @param observer         the observer to which the queued updates are sent
+     * @param queueSize        the maximum number of updates waiting to be sent
+     * @param expireTimeMillis how long an update may wait in the queue before it is dropped
+     */
+    @SuppressWarnings("WeakerAccess")
+    public AsyncQueueMetricObserver(String name, MetricObserver observer, int queueSize, long expireTimeMillis) {
+        this(name, observer, queueSize, expireTimeMillis, PublishingMetrics.getDefault());
+    }
+
+    AsyncQueueMetricObserver(String name, MetricObserver observer, int queueSize, long expireTimeMillis,
+                             PublishingMetrics publishingMetrics) {
+        this(name, observer, new ArrayBlockingQueue<>(queueSize), expireTimeMillis, publishingMetrics,
+                LoggerFactory.getLogger(AsyncQueueMetricObserver.class));
+    }
+
+    AsyncQueueMetricObserver(String name, MetricObserver observer, BlockingQueue<Update> queue, long expireTimeMillis,
+                             PublishingMetrics publishingMetrics, Logger logger) {
+        super(name);
+        this.observer = observer;
+        this.queue = queue;
+        this.expireTimeMillis = expireTimeMillis;
+        this.publishingMetrics = publishingMetrics;
+        this.logger = logger;
+        publishingMetrics.registerQueueDepth(queue::size);
+        this.worker = new Thread(this::sendQueuedUpdates, OBSERVER_NAME_PREFIX + '-' + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues the metrics to be sent by the thread of this observer, dropping the oldest queued update if the queue is
+     * full.
+     *
+     * @param metrics the metrics to send
+     */
+    @Override
+    public void updateImpl(List<Metric> metrics) {
+        final Update update = new Update(metrics, System.currentTimeMillis() + expireTimeMillis);
+        while (!queue.offer(update)) {
+            // The queue is full; the worker may have taken the oldest update in the meantime, leaving none to drop
+            if (queue.poll() != null) {
+                publishingMetrics.recordQueueDrop();
+            }
+        }
+    }
+
+    /**
+     * Stops the thread of this observer; updates still in the queue are not sent.
+     */
+    public void stop() {
+        worker.interrupt();
+    }
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    boolean isAlive() {
+        return worker.isAlive();
+    }
+
+    private void sendQueuedUpdates() {
+        try {
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                send(queue.take());
+            }
+        } catch (InterruptedException e) {
+            // stop() was called
+        }
+    }
+
+    private void send(Update update) {
+        if (System.currentTimeMillis() > update.expireTimeMillis) {
+            publishingMetrics.recordQueueExpiration();
+            return;
+        }
+        try {
+            observer.update(update.metrics);
+        } catch (RuntimeException e) {
+            incrementFailedCount();
+            logger.warn(String.format(UPDATE_FAILED_MSG, observer.getName()), e);
+        }
+    }
+
+    static final class Update {
+        private final List<Metric> metrics;
+        private final long expireTimeMillis;
+
+        private Update(List<Metric> metrics, long expireTimeMillis) {
+            this.metrics = metrics;
+            this.expireTimeMillis = expireTimeMillis;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A Gauge for values that are expensive to read, such as the size of a concurrent collection, a directory scan or cache
+ * statistics. Unlike a BasicGauge, which reads its value on the polling thread every time it is polled, a CachedGauge
+ * returns the value of its last sample, and samples again, on a background thread, when a poll finds that the minimum
+ * sampling period has passed since the last sample ended. The poll therefore never waits for the supplier: a supplier
+ * that throws leaves the last value in place (the failure is counted and logged), and a supplier that runs for a long
+ * time, or never returns, leaves the gauge at its last value, with at most one sample of each gauge running at a time.
+ * The first sample is started when the gauge is created; the gauge has no value, and is not published, until it ends.
+ *
+ * @param <T> the type of the value of the Gauge
+ */
+public final class CachedGauge<T extends Number> extends AbstractMonitor<T> implements Gauge<T> {
+    static final String THREAD_NAME = "CachedGauge-sampler";
+    static final String NEGATIVE_PERIOD_MSG = "minSamplingPeriod must not be negative but was %d";
+    static final String SAMPLE_FAILED_MSG = "Sampling the gauge %s failed; its last value is kept";
+    // Idle sampling threads are kept for a minute, and a hung supplier holds one thread, so the pool stays small
+    private static final ExecutorService SAMPLER = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, THREAD_NAME);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<T> supplier;
+    private final long samplingPeriodNanos;
+    private final Executor executor;
+    private final LongSupplier nanoClock;
+    private final Logger logger;
+    private final AtomicBoolean sampling = new AtomicBoolean(true);
+    private final AtomicLong failedSampleCount = new AtomicLong();
+    private volatile T value;
+    private volatile long nextSampleNanos;
+
+    /**
+     * Creates a new CachedGauge and starts its first sample.
+     *
+     * @param config            the gauge configuration
+     * @param supplier          returns the current value of the gauge; it is called on a background thread
+     * @param minSamplingPeriod the minimum time between the end of one sample and the start of the next; 0 samples
+     *                          at every poll
+     * @param timeUnit          the unit of minSamplingPeriod
+     */
+    @SuppressWarnings("WeakerAccess")
+    public CachedGauge(MonitorConfig config, Supplier<T> supplier, long minSamplingPeriod, TimeUnit timeUnit) {
+        this(config, supplier, minSamplingPeriod, timeUnit, SAMPLER, System::nanoTime,
+                LoggerFactory.getLogger(CachedGauge.class));
+    }
+
+    CachedGauge(MonitorConfig config, Supplier<T> supplier, long minSamplingPeriod, TimeUnit timeUnit,
+                Executor executor, LongSupplier nanoClock, Logger logger) {
+        super(config.withAdditionalTag(DataSourceType.GAUGE));
+        if (minSamplingPeriod < 0) {
+            throw new IllegalArgumentException(String.format(NEGATIVE_PERIOD_MSG, minSamplingPeriod));
+        }
+        this.supplier = supplier;
+        this.samplingPeriodNanos = timeUnit.toNanos(minSamplingPeriod);
+        this.executor = executor;
+        this.nanoClock = nanoClock;
+        this.logger = logger;
+        // Every field has been assigned, so the sample can safely start before the constructor returns
+        executor.execute(this::sample);
+    }
+
+    /**
+     * {@inheritDoc}
+     * This is the value of the last successful sample, or null (which is not published) before the first one; it
+     * starts a new sample in the background if the minimum sampling period has passed.
+     */
+    @Override
+    public T getValue(int pollerIndex) {
+        if (nanoClock.getAsLong() - nextSampleNanos >= 0 && sampling.compareAndSet(false, true)) {
+            executor.execute(this::sample);
+        }
+        return value;
+    }
+
+    /**
+     * The number of samples whose supplier threw an exception.
+     *
+     * @return the number of failed samples
+     */
+    public long getFailedSampleCount() {
+        return failedSampleCount.get();
+    }
+
+    private void sample() {
+        try {
+            value = supplier.get();
+        } catch (RuntimeException e) {
+            failedSampleCount.incrementAndGet();
+            logger.warn(String.format(SAMPLE_FAILED_MSG, config), e);
+        }
+        nextSampleNanos = nanoClock.getAsLong() + samplingPeriodNanos;
+        sampling.set(false);
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.DefaultMonitorRegistry;
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_TIER;
+
+/**
+ * Caps the number of distinct Counters and Timers that {@link MetricObjects} creates, in total and per subsystem, so
+ * that a call site that puts an unbounded value (an ID, say) into a metric name cannot grow the heap and the Graphite
+ * database without limit. A new metric over either cap is not created; the caller gets an overflow metric of the same
+ * type instead, named "{@value #OVERFLOW_METRIC_NAME}", whose subsystem is kept if the subsystem already has metrics
+ * and whose other tags are all "{@value #OVERFLOW_TAG_VALUE}", so every rejected metric of a subsystem is folded into
+ * one series. Each rejection is counted in the ResettingCounter {@value #REJECTED_METRICS} (subsystem "metrics",
+ * application "haystack-metrics", class {@value #KLASS}), which is registered the first time a metric is rejected.
+ * MetricObjects remembers up to {@value #DEFAULT_MAX_REMEMBERED_REJECTIONS} rejected metrics as their overflow metric,
+ * so looking one of them up again neither rejects nor counts it again. There are no caps until
+ * {@link #setLimits(int, int)} is called; lowering a cap below the number of metrics that already exist only affects
+ * metrics created afterwards. Metrics of the subsystem "metrics", which describe the publishing itself, are neither
+ * counted nor capped. All methods are thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CardinalityLimiter {
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    static final int DEFAULT_MAX_REMEMBERED_REJECTIONS = 10000;
+    static final String OVERFLOW_METRIC_NAME = "CARDINALITY_OVERFLOW";
+    static final String OVERFLOW_TAG_VALUE = "overflow";
+    static final String KLASS = "CardinalityLimiter";
+    static final String REJECTED_METRICS = "REJECTED_METRICS";
+    static final String NEGATIVE_LIMIT_MSG = "A cardinality limit must not be negative but was %d";
+    static final String FIRST_REJECTION_MSG = "The cardinality limit has been reached: the metric %s, and every other "
+            + "new metric over the limit, is being folded into a " + OVERFLOW_METRIC_NAME + " metric";
+
+    private final MonitorRegistry monitorRegistry;
+    private final Logger logger;
+    private final AtomicInteger metricCount = new AtomicInteger();
+    private final ConcurrentMap<String, Integer> subsystemMetricCounts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> subsystemLimits = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicBoolean rejectedMetricsRegistered = new AtomicBoolean();
+    private final AtomicInteger rememberedRejectionCount = new AtomicInteger();
+    private final Counter rejectedMetrics;
+    private final int maxRememberedRejections;
+    private volatile int maxMetrics = UNLIMITED;
+    private volatile int maxMetricsPerSubsystem = UNLIMITED;
+
+    CardinalityLimiter() {
+        this(DefaultMonitorRegistry.getInstance(), LoggerFactory.getLogger(CardinalityLimiter.class));
+    }
+
+    CardinalityLimiter(MonitorRegistry monitorRegistry, Logger logger) {
+        this(monitorRegistry, logger, DEFAULT_MAX_REMEMBERED_REJECTIONS);
+    }
+
+    CardinalityLimiter(MonitorRegistry monitorRegistry, Logger logger, int maxRememberedRejections) {
+        this.monitorRegistry = monitorRegistry;
+        this.logger = logger;
+        this.maxRememberedRejections = maxRememberedRejections;
+        this.rejectedMetrics = new ResettingCounter(MonitorConfig.builder(REJECTED_METRICS)
+                .withTag(TAG_KEY_SUBSYSTEM, PublishingMetrics.SUBSYSTEM)
+                .withTag(TAG_KEY_APPLICATION, PublishingMetrics.APPLICATION)
+                .withTag(TAG_KEY_CLASS, KLASS)
+                .build());
+    }
+
+    /**
+     * Sets the caps on the number of metrics.
+     *
+     * @param maxMetrics             the maximum number of metrics in all subsystems together
+     * @param maxMetricsPerSubsystem the maximum number of metrics in each subsystem that has no limit of its own (see
+     *                               {@link #setSubsystemLimit(String, int)})
+     */
+    public void setLimits(int maxMetrics, int maxMetricsPerSubsystem) {
+        this.maxMetrics = checkLimit(maxMetrics);
+        this.maxMetricsPerSubsystem = checkLimit(maxMetricsPerSubsystem);
+    }
+
+    /**
+     * Sets the cap on the number of metrics in one subsystem, overriding the per-subsystem cap of
+     * {@link #setLimits(int, int)}.
+     *
+     * @param subsystem  the subsystem
+     * @param maxMetrics the maximum number of metrics in the subsystem
+     */
+    public void setSubsystemLimit(String subsystem, int maxMetrics) {
+        subsystemLimits.put(subsystem, checkLimit(maxMetrics));
+    }
+
+    /**
+     * The number of times that a new metric has been folded into an overflow metric since this JVM started; a rejected
+     * metric that is remembered is only counted the first time.
+     *
+     * @return the number of rejected metrics
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    int getMetricCount() {
+        return metricCount.get();
+    }
+
+    int getMetricCount(String subsystem) {
+        return subsystemMetricCounts.getOrDefault(subsystem, 0);
+    }
+
+    int getRememberedRejectionCount() {
+        return rememberedRejectionCount.get();
+    }
+
+    /**
+     * Counts a new metric if neither cap has been reached, or counts a rejection if one has; a metric of the subsystem
+     * "metrics" is always admitted and not counted.
+     *
+     * @param monitorConfig the configuration of the new metric, whose subsystem tag is counted against
+     * @return true if the metric may be created, false if the overflow metric should be used instead
+     */
+    boolean admit(MonitorConfig monitorConfig) {
+        final String subsystem = monitorConfig.getTags().getValue(TAG_KEY_SUBSYSTEM);
+        if (PublishingMetrics.SUBSYSTEM.equals(subsystem)) {
+            return true;
+        }
+        if (metricCount.incrementAndGet() > maxMetrics) {
+            metricCount.decrementAndGet();
+            return reject(monitorConfig);
+        }
+        if (subsystemMetricCounts.merge(subsystem, 1, Integer::sum) > subsystemLimits.getOrDefault(
+                subsystem, maxMetricsPerSubsystem)) {
+            release(monitorConfig);
+            return reject(monitorConfig);
+        }
+        return true;
+    }
+
+    /**
+     * Stops counting a metric that was admitted, for example because it has been removed.
+     *
+     * @param monitorConfig the configuration that was admitted
+     */
+    void release(MonitorConfig monitorConfig) {
+        final String subsystem = monitorConfig.getTags().getValue(TAG_KEY_SUBSYSTEM);
+        if (PublishingMetrics.SUBSYSTEM.equals(subsystem)) {
+            return;
+        }
+        metricCount.decrementAndGet();
+        subsystemMetricCounts.computeIfPresent(subsystem, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Returns the configuration of the overflow metric into which a rejected metric is folded. The subsystem is kept
+     * only if it already has metrics, which keeps the number of overflow metrics bounded even when the subsystem is the
+     * unbounded value.
+     *
+     * @param monitorConfig the configuration of the rejected metric
+     * @return the configuration of the overflow metric
+     */
+    MonitorConfig overflowConfig(MonitorConfig monitorConfig) {
+        final MonitorConfig.Builder builder = MonitorConfig.builder(OVERFLOW_METRIC_NAME);
+        for (Tag tag : monitorConfig.getTags()) {
+            final String key = tag.getKey();
+            if (TAG_KEY_TIER.equals(key)
+                    || (TAG_KEY_SUBSYSTEM.equals(key) && subsystemMetricCounts.containsKey(tag.getValue()))) {
+                builder.withTag(tag);
+            } else {
+                builder.withTag(key, OVERFLOW_TAG_VALUE);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Counts a rejected metric that is about to be remembered as its overflow metric, unless
+     * maxRememberedRejections are already remembered.
+     *
+     * @return true if the rejected metric may be remembered, false if it should be rejected again when looked up again
+     */
+    boolean rememberRejection() {
+        if (rememberedRejectionCount.incrementAndGet() > maxRememberedRejections) {
+            rememberedRejectionCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops counting a remembered rejected metric, because its overflow metric has been evicted.
+     */
+    void forgetRejection() {
+        rememberedRejectionCount.decrementAndGet();
+    }
+
+    static boolean isOverflow(Monitor<?> monitor) {
+        return OVERFLOW_METRIC_NAME.equals(monitor.getConfig().getName());
+    }
+
+    /**
+     * Whether a metric, found under a configuration, is the overflow metric that a rejected metric of that
+     * configuration is remembered as.
+     *
+     * @param monitorConfig the configuration under which the metric was found
+     * @param monitor       the metric
+     * @return true if monitorConfig is the configuration of a rejected metric, remembered as monitor
+     */
+    static boolean isRememberedRejection(MonitorConfig monitorConfig, Monitor<?> monitor) {
+        return isOverflow(monitor) && !OVERFLOW_METRIC_NAME.equals(monitorConfig.getName());
+    }
+
+    private boolean reject(MonitorConfig monitorConfig) {
+        rejectedCount.incrementAndGet();
+        rejectedMetrics.increment();
+        if (rejectedMetricsRegistered.compareAndSet(false, true)) {
+            logger.warn(String.format(FIRST_REJECTION_MSG, monitorConfig));
+            monitorRegistry.register(rejectedMetrics);
+        }
+        return false;
+    }
+
+    private static int checkLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException(String.format(NEGATIVE_LIMIT_MSG, limit));
+        }
+        return limit;
+    }
+}
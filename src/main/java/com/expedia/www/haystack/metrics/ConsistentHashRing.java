@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A consistent hash ring: each node is placed on the ring at many points (its virtual nodes), and a key belongs to the
+ * node of the first point at or after the hash of the key. Adding or removing a node therefore only moves the keys of
+ * that node, and when a node is down its keys are spread over the next nodes on the ring rather than all moved to one.
+ * The ring is two sorted arrays, so a lookup is a binary search that allocates nothing. Instances are immutable.
+ */
+final class ConsistentHashRing {
+    static final int DEFAULT_VIRTUAL_NODES = 100;
+    static final String NO_NODES_MSG = "A consistent hash ring needs at least one node";
+
+    private final int[] points;
+    private final int[] nodes;
+
+    /**
+     * Creates a new ConsistentHashRing.
+     *
+     * @param nodeNames    the names of the nodes, which place them on the ring; node i is the node named nodeNames[i]
+     * @param virtualNodes the number of points of each node
+     */
+    ConsistentHashRing(List<String> nodeNames, int virtualNodes) {
+        if (nodeNames.isEmpty()) {
+            throw new IllegalArgumentException(NO_NODES_MSG);
+        }
+        // Each point is its hash in the high half of a long and its node in the low half, so sorting sorts by hash
+        final long[] sortedPoints = new long[nodeNames.size() * virtualNodes];
+        for (int node = 0; node < nodeNames.size(); node++) {
+            for (int i = 0; i < virtualNodes; i++) {
+                final long hash = hash(nodeNames.get(node) + '#' + i);
+                sortedPoints[node * virtualNodes + i] = (hash << 32) | node;
+            }
+        }
+        Arrays.sort(sortedPoints);
+        this.points = new int[sortedPoints.length];
+        this.nodes = new int[sortedPoints.length];
+        for (int i = 0; i < sortedPoints.length; i++) {
+            points[i] = (int) (sortedPoints[i] >> 32);
+            nodes[i] = (int) sortedPoints[i];
+        }
+    }
+
+    /**
+     * Finds the node of a key: the first live node at or after the hash of the key.
+     *
+     * @param hash the hash of the key (see {@link #hash(String)})
+     * @param live whether each node is live
+     * @return the index of the node, which is the node that owns the key if no node is live
+     */
+    int nodeFor(int hash, boolean[] live) {
+        final int found = Arrays.binarySearch(points, hash);
+        final int start = found < 0 ? -found - 1 : found;
+        for (int i = 0; i < points.length; i++) {
+            final int node = nodes[(start + i) % points.length];
+            if (live[node]) {
+                return node;
+            }
+        }
+        return nodes[start % points.length];
+    }
+
+    int getPointCount() {
+        return points.length;
+    }
+
+    /**
+     * Hashes a key with String.hashCode(), followed by the finalizer of MurmurHash3, which spreads keys that differ
+     * only in their last characters (like "METRIC_1" and "METRIC_2") over the whole ring.
+     *
+     * @param key the key
+     * @return the hash
+     */
+    static int hash(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
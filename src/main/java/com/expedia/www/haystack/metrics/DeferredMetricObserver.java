@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.MetricObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Stands in for an observer that is slow to create, for example because creating it resolves the name of the local
+ * host, so that MetricPublishing.start() can return at once. The observer is created on a daemon thread of its own;
+ * until it is ready, the polls it would have been given are buffered (the oldest being dropped, and counted as queue
+ * drops in {@link PublishingMetrics}, when the buffer is full), and they are handed to it, in order, as soon as it is.
+ * The buffered polls are handed over outside the lock, so a poll that arrives meanwhile is buffered behind them instead
+ * of waiting for them to be sent. If creating the observer fails, the failure is logged and every poll is dropped.
+ */
+public class DeferredMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME = "DeferredMetricObserver";
+    static final String CREATE_FAILED_MSG = "Creating the metric observer failed; its metrics will be dropped";
+    static final String MAX_BUFFERED_POLLS_MSG = "maxBufferedPolls must be positive but was %d";
+
+    private final Callable<MetricObserver> creator;
+    private final int maxBufferedPolls;
+    private final PublishingMetrics publishingMetrics;
+    private final Logger logger;
+    private final Deque<List<Metric>> bufferedPolls;
+    private MetricObserver observer;
+    private boolean failed;
+
+    /**
+     * Creates a new DeferredMetricObserver, and starts creating the observer that it stands in for.
+     *
+     * @param creator           creates the observer; called once, on a daemon thread
+     * @param maxBufferedPolls  the maximum number of polls to keep until the observer is ready
+     * @param publishingMetrics records the polls that are dropped because the buffer is full
+     */
+    @SuppressWarnings("WeakerAccess")
+    public DeferredMetricObserver(Callable<MetricObserver> creator, int maxBufferedPolls,
+                                  PublishingMetrics publishingMetrics) {
+        this(creator, maxBufferedPolls, publishingMetrics, DeferredMetricObserver::startDaemonThread,
+                LoggerFactory.getLogger(DeferredMetricObserver.class));
+    }
+
+    DeferredMetricObserver(Callable<MetricObserver> creator, int maxBufferedPolls,
+                           PublishingMetrics publishingMetrics, Executor executor, Logger logger) {
+        super(OBSERVER_NAME);
+        if (maxBufferedPolls < 1) {
+            throw new IllegalArgumentException(String.format(MAX_BUFFERED_POLLS_MSG, maxBufferedPolls));
+        }
+        this.creator = creator;
+        this.maxBufferedPolls = maxBufferedPolls;
+        this.publishingMetrics = publishingMetrics;
+        this.logger = logger;
+        this.bufferedPolls = new ArrayDeque<>(maxBufferedPolls);
+        executor.execute(this::create);
+    }
+
+    /**
+     * Hands the metrics to the observer if it is ready, and otherwise buffers them. The lock is taken once per poll,
+     * which costs nothing worth avoiding, and it keeps the buffered polls ahead of the ones that follow them.
+     *
+     * @param metrics the metrics of one poll
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        if (observer != null) {
+            observer.update(metrics);
+        } else if (!failed) {
+            if (bufferedPolls.size() == maxBufferedPolls) {
+                bufferedPolls.removeFirst();
+                publishingMetrics.recordQueueDrop();
+            }
+            bufferedPolls.addLast(metrics);
+        }
+    }
+
+    /**
+     * @return true once the observer has been created and given the buffered polls
+     */
+    public synchronized boolean isReady() {
+        return observer != null;
+    }
+
+    synchronized int getBufferedPollCount() {
+        return bufferedPolls.size();
+    }
+
+    private void create() {
+        try {
+            ready(creator.call());
+        } catch (Exception e) {
+            logger.error(CREATE_FAILED_MSG, e);
+            fail();
+        }
+    }
+
+    private void ready(MetricObserver created) {
+        List<List<Metric>> polls = takeBufferedPolls(created);
+        while (!polls.isEmpty()) {
+            for (int i = 0; i < polls.size(); i++) {
+                created.update(polls.get(i));
+            }
+            polls = takeBufferedPolls(created);
+        }
+    }
+
+    /**
+     * Takes the buffered polls out of the buffer, or, once there are none left, makes the observer ready, so that no
+     * poll can overtake a buffered one.
+     *
+     * @return the buffered polls, oldest first, which are empty once the observer is ready
+     */
+    private synchronized List<List<Metric>> takeBufferedPolls(MetricObserver created) {
+        if (bufferedPolls.isEmpty()) {
+            observer = created;
+            return Collections.emptyList();
+        }
+        final List<List<Metric>> polls = new ArrayList<>(bufferedPolls);
+        bufferedPolls.clear();
+        return polls;
+    }
+
+    private synchronized void fail() {
+        bufferedPolls.clear();
+        failed = true;
+    }
+
+    private static void startDaemonThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, OBSERVER_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -20,6 +20,53 @@ package com.expedia.www.haystack.metrics;
  * Interface that glues configuration sources with code that needs and reads those configurations
  */
 public interface GraphiteConfig {
+    /**
+     * The value of {@link #protocol()} that sends metrics as plaintext lines, typically to port 2003
+     */
+    String PROTOCOL_PLAINTEXT = "plaintext";
+
+    /**
+     * The value of {@link #protocol()} that sends metrics as pickled batches, typically to port 2004
+     */
+    String PROTOCOL_PICKLE = "pickle";
+
+    /**
+     * The value of {@link #protocol()} that sends metrics as plaintext lines in UDP datagrams, typically to port 2003
+     */
+    String PROTOCOL_UDP = "udp";
+
+    /**
+     * The value of {@link #protocol()} that writes metrics in InfluxDB line protocol to InfluxDB's HTTP API, typically
+     * on port 8086, instead of to Graphite (see {@link InfluxDbMetricObserver})
+     */
+    String PROTOCOL_INFLUXDB = "influxdb";
+
+    /**
+     * The default value of {@link #influxdbdatabase()}
+     */
+    String DEFAULT_INFLUXDB_DATABASE = "haystack";
+
+    /**
+     * The default value of {@link #influxdbbatchsize()}, which InfluxDB suggests
+     */
+    int DEFAULT_INFLUXDB_BATCH_SIZE = 5000;
+
+    /**
+     * The value of {@link #queuetype()} that queues polls in a BlockingQueue (see {@link AsyncQueueMetricObserver})
+     */
+    String QUEUE_TYPE_BLOCKING = "blocking";
+
+    /**
+     * The value of {@link #queuetype()} that queues polls in a lock-free ring buffer (see
+     * {@link RingBufferMetricObserver})
+     */
+    String QUEUE_TYPE_RING_BUFFER = "ringbuffer";
+
+    /**
+     * The default value of {@link #spoolmaxbytes()}, 64 MiB
+     */
+    int DEFAULT_SPOOL_MAX_BYTES = 64 * 1024 * 1024;
+
     /**
      * IP address or DNS Name of the Graphite store that will receive Graphite messages
      *
@@ -34,6 +81,113 @@ public interface GraphiteConfig {
      */
     int port();
 
+    /**
+     * The Graphite relays over which to spread the metrics, instead of sending them all to {@link #host()}: each metric
+     * always goes to the same relay, chosen by consistent hashing on its name, and each relay has its own connection
+     * and queue; while a relay is down, its metrics go to the other relays (see {@link ShardingMetricObserver}), so
+     * {@link #spoolfile()} is not used
+     *
+     * @return a comma-separated list of host:port (or host, to use {@link #port()}), or null or an empty string (the
+     * default) to send every metric to {@link #host()}
+     */
+    default String relays() {
+        return null;
+    }
+
+    /**
+     * The protocol to send metrics with: the Carbon protocols {@link #PROTOCOL_PLAINTEXT}, {@link #PROTOCOL_PICKLE} or
+     * {@link #PROTOCOL_UDP}, or {@link #PROTOCOL_INFLUXDB}; make sure that {@link #port()} is the port on which the
+     * store listens for that protocol
+     *
+     * @return the protocol to use (by default {@link #PROTOCOL_PLAINTEXT})
+     */
+    default String protocol() {
+        return PROTOCOL_PLAINTEXT;
+    }
+
+    /**
+     * The InfluxDB database to write to when {@link #protocol()} is {@link #PROTOCOL_INFLUXDB}; it must already exist
+     *
+     * @return the name of the database (by default {@link #DEFAULT_INFLUXDB_DATABASE})
+     */
+    default String influxdbdatabase() {
+        return DEFAULT_INFLUXDB_DATABASE;
+    }
+
+    /**
+     * Whether to gzip the requests to InfluxDB when {@link #protocol()} is {@link #PROTOCOL_INFLUXDB}
+     *
+     * @return true to gzip each request, false (the default) to send it uncompressed
+     */
+    default boolean influxdbgzip() {
+        return false;
+    }
+
+    /**
+     * The most metrics to send to InfluxDB in one request when {@link #protocol()} is {@link #PROTOCOL_INFLUXDB}
+     *
+     * @return the batch size (by default {@link #DEFAULT_INFLUXDB_BATCH_SIZE})
+     */
+    default int influxdbbatchsize() {
+        return DEFAULT_INFLUXDB_BATCH_SIZE;
+    }
+
+    /**
+     * The file in which to keep the metrics that cannot be sent while Graphite is unreachable, so that they can be sent
+     * when it comes back (see {@link SpoolingMetricObserver}); spooling only detects the failures of the TCP protocols,
+     * not of {@link #PROTOCOL_UDP}
+     *
+     * @return the path of the spool file, or null or an empty string (the default) to drop those metrics instead
+     */
+    default String spoolfile() {
+        return null;
+    }
+
+    /**
+     * The size of the spool file, which bounds the metrics that it can keep
+     *
+     * @return the maximum size of the spool file, in bytes (by default {@link #DEFAULT_SPOOL_MAX_BYTES})
+     */
+    default int spoolmaxbytes() {
+        return DEFAULT_SPOOL_MAX_BYTES;
+    }
+
+    /**
+     * Enables a {@link SuppressingMetricObserver}, which leaves out of each poll the metrics whose value has not changed
+     * since they were last sent (such as ResettingCounters that stay at zero), but still sends each of them at least
+     * once every heartbeatintervals() polls so that its series does not go stale, and so that a value lost with a poll
+     * that could not be sent is corrected within that many polls
+     *
+     * @return the number of polls between the heartbeats of an unchanged metric, or 0 (the default) to send every
+     * metric in every poll
+     */
+    default int heartbeatintervals() {
+        return 0;
+    }
+
+    /**
+     * The resolution tier whose metrics this publisher polls (see {@link MetricObjects#forTier(String)}); a tier is
+     * usually published by its own MetricPublishing (see {@link MetricPublishing#MetricPublishing(String)}) with a
+     * {@link #pollintervalseconds()} that suits it. When metrics are published to several sinks, the tier of the first
+     * sink is polled.
+     *
+     * @return the name of the tier, or null (the default) for the metrics that are not in a tier
+     */
+    default String tier() {
+        return null;
+    }
+
+    /**
+     * The number of registered monitors above which the registry is read in parallel, by a
+     * {@link ParallelMetricPoller}, instead of one monitor at a time by Servo's MonitorRegistryMetricPoller; as with
+     * {@link #tier()}, the value of the first sink is used.
+     *
+     * @return the threshold, or 0 (the default) to always read the registry one monitor at a time
+     */
+    default int parallelpollthreshold() {
+        return 0;
+    }
+
     /**
      * How often metric elements should be polled and sent to graphite
      *
@@ -48,6 +202,36 @@ public interface GraphiteConfig {
      */
     int queuesize();
 
+    /**
+     * The kind of queue between the poller and the thread that sends to Graphite: {@link #QUEUE_TYPE_BLOCKING} or
+     * {@link #QUEUE_TYPE_RING_BUFFER}
+     *
+     * @return the queue type (by default {@link #QUEUE_TYPE_BLOCKING})
+     */
+    default String queuetype() {
+        return QUEUE_TYPE_BLOCKING;
+    }
+
+    /**
+     * How the thread that sends to Graphite waits for polls when {@link #queuetype()} is
+     * {@link #QUEUE_TYPE_RING_BUFFER}: the name of a {@link RingBufferMetricObserver.WaitStrategy}, in any case
+     *
+     * @return the wait strategy (by default "blocking")
+     */
+    default String queuewaitstrategy() {
+        return RingBufferMetricObserver.WaitStrategy.BLOCKING.name();
+    }
+
+    /**
+     * Which poll to drop when the queue is full and {@link #queuetype()} is {@link #QUEUE_TYPE_RING_BUFFER}: the name
+     * of a {@link RingBufferMetricObserver.OverflowPolicy}, in any case
+     *
+     * @return the overflow policy (by default "drop_oldest", which is what the blocking queue does)
+     */
+    default String queueoverflowpolicy() {
+        return RingBufferMetricObserver.OverflowPolicy.DROP_OLDEST.name();
+    }
+
     /**
      * Indicates if the metric should be sent as a rate, or not
      *
@@ -16,9 +16,16 @@
  */
 package com.expedia.www.haystack.metrics;
 
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.OverflowPolicy;
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.WaitStrategy;
+
 /**
  * A trivial implementation of the GraphiteConfig interface, useful if not using cfg4j. (When using cfg4j, the
- * ConfigurationProvider.bind() method makes this GraphiteConfigImpl class unnecessary.)
+ * ConfigurationProvider.bind() method makes this GraphiteConfigImpl class unnecessary.) The constructors set the
+ * older options; {@link #builder(String, int, int, int, boolean)} sets any of them, for example
+ * <pre>
+ * GraphiteConfigImpl.builder("graphite", 2003, 60, 10, false).withRelays("graphite2:2003").build()
+ * </pre>
  */
 public class GraphiteConfigImpl implements GraphiteConfig {
     private final String host;
@@ -26,14 +33,87 @@ public class GraphiteConfigImpl implements GraphiteConfig {
     private final int pollintervalseconds;
     private final int queuesize;
     private final boolean sendasrate;
+    private final String protocol;
+    private final String spoolfile;
+    private final int spoolmaxbytes;
+    private final int heartbeatintervals;
+    private final String tier;
+    private final String relays;
+    private final String influxdbdatabase;
+    private final boolean influxdbgzip;
+    private final int influxdbbatchsize;
+    private final int parallelpollthreshold;
+    private final String queuetype;
+    private final String queuewaitstrategy;
+    private final String queueoverflowpolicy;
 
     @SuppressWarnings("WeakerAccess")
     public GraphiteConfigImpl(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate) {
-        this.host = host;
-        this.port = port;
-        this.pollintervalseconds = pollintervalseconds;
-        this.queuesize = queuesize;
-        this.sendasrate = sendasrate;
+        this(host, port, pollintervalseconds, queuesize, sendasrate, PROTOCOL_PLAINTEXT);
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public GraphiteConfigImpl(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate,
+                              String protocol) {
+        this(host, port, pollintervalseconds, queuesize, sendasrate, protocol, null, DEFAULT_SPOOL_MAX_BYTES);
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public GraphiteConfigImpl(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate,
+                              String protocol, String spoolfile, int spoolmaxbytes) {
+        this(host, port, pollintervalseconds, queuesize, sendasrate, protocol, spoolfile, spoolmaxbytes, 0);
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public GraphiteConfigImpl(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate,
+                              String protocol, String spoolfile, int spoolmaxbytes, int heartbeatintervals) {
+        this(host, port, pollintervalseconds, queuesize, sendasrate, protocol, spoolfile, spoolmaxbytes,
+                heartbeatintervals, null);
+    }
+
+    @SuppressWarnings("WeakerAccess")
+    public GraphiteConfigImpl(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate,
+                              String protocol, String spoolfile, int spoolmaxbytes, int heartbeatintervals,
+                              String tier) {
+        this(builder(host, port, pollintervalseconds, queuesize, sendasrate).withProtocol(protocol)
+                .withSpoolfile(spoolfile).withSpoolmaxbytes(spoolmaxbytes).withHeartbeatintervals(heartbeatintervals)
+                .withTier(tier));
+    }
+
+    private GraphiteConfigImpl(Builder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.pollintervalseconds = builder.pollintervalseconds;
+        this.queuesize = builder.queuesize;
+        this.sendasrate = builder.sendasrate;
+        this.protocol = builder.protocol;
+        this.spoolfile = builder.spoolfile;
+        this.spoolmaxbytes = builder.spoolmaxbytes;
+        this.heartbeatintervals = builder.heartbeatintervals;
+        this.tier = builder.tier;
+        this.relays = builder.relays;
+        this.influxdbdatabase = builder.influxdbdatabase;
+        this.influxdbgzip = builder.influxdbgzip;
+        this.influxdbbatchsize = builder.influxdbbatchsize;
+        this.parallelpollthreshold = builder.parallelpollthreshold;
+        this.queuetype = builder.queuetype;
+        this.queuewaitstrategy = builder.queuewaitstrategy;
+        this.queueoverflowpolicy = builder.queueoverflowpolicy;
+    }
+
+    /**
+     * Starts building a GraphiteConfigImpl; every option that is not set keeps the default of {@link GraphiteConfig}.
+     *
+     * @param host                the host name or IP address of the Graphite server
+     * @param port                the port of the Graphite server
+     * @param pollintervalseconds how often to poll the metrics
+     * @param queuesize           the size of the queue between the poller and the observer
+     * @param sendasrate          whether to send counters as rates
+     * @return a new Builder
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static Builder builder(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate) {
+        return new Builder(host, port, pollintervalseconds, queuesize, sendasrate);
     }
 
     @Override
@@ -61,6 +141,71 @@ public class GraphiteConfigImpl implements GraphiteConfig {
         return sendasrate;
     }
 
+    @Override
+    public String protocol() {
+        return protocol;
+    }
+
+    @Override
+    public String spoolfile() {
+        return spoolfile;
+    }
+
+    @Override
+    public int spoolmaxbytes() {
+        return spoolmaxbytes;
+    }
+
+    @Override
+    public int heartbeatintervals() {
+        return heartbeatintervals;
+    }
+
+    @Override
+    public String tier() {
+        return tier;
+    }
+
+    @Override
+    public String relays() {
+        return relays;
+    }
+
+    @Override
+    public String influxdbdatabase() {
+        return influxdbdatabase;
+    }
+
+    @Override
+    public boolean influxdbgzip() {
+        return influxdbgzip;
+    }
+
+    @Override
+    public int influxdbbatchsize() {
+        return influxdbbatchsize;
+    }
+
+    @Override
+    public int parallelpollthreshold() {
+        return parallelpollthreshold;
+    }
+
+    @Override
+    public String queuetype() {
+        return queuetype;
+    }
+
+    @Override
+    public String queuewaitstrategy() {
+        return queuewaitstrategy;
+    }
+
+    @Override
+    public String queueoverflowpolicy() {
+        return queueoverflowpolicy;
+    }
+
     @SuppressWarnings("SimplifiableIfStatement")
     @Override
     public boolean equals(Object o) {
@@ -73,7 +218,23 @@ public class GraphiteConfigImpl implements GraphiteConfig {
         if (pollintervalseconds != that.pollintervalseconds) return false;
         if (queuesize != that.queuesize) return false;
         if (sendasrate != that.sendasrate) return false;
-        return host != null ? host.equals(that.host) : that.host == null;
+        if (spoolmaxbytes != that.spoolmaxbytes) return false;
+        if (heartbeatintervals != that.heartbeatintervals) return false;
+        if (influxdbgzip != that.influxdbgzip) return false;
+        if (influxdbbatchsize != that.influxdbbatchsize) return false;
+        if (parallelpollthreshold != that.parallelpollthreshold) return false;
+        if (host != null ? !host.equals(that.host) : that.host != null) return false;
+        if (protocol != null ? !protocol.equals(that.protocol) : that.protocol != null) return false;
+        if (spoolfile != null ? !spoolfile.equals(that.spoolfile) : that.spoolfile != null) return false;
+        if (tier != null ? !tier.equals(that.tier) : that.tier != null) return false;
+        if (relays != null ? !relays.equals(that.relays) : that.relays != null) return false;
+        if (influxdbdatabase != null ? !influxdbdatabase.equals(that.influxdbdatabase) : that.influxdbdatabase != null)
+            return false;
+        if (queuetype != null ? !queuetype.equals(that.queuetype) : that.queuetype != null) return false;
+        if (queuewaitstrategy != null ? !queuewaitstrategy.equals(that.queuewaitstrategy)
+                : that.queuewaitstrategy != null) return false;
+        return queueoverflowpolicy != null ? queueoverflowpolicy.equals(that.queueoverflowpolicy)
+                : that.queueoverflowpolicy == null;
     }
 
     @Override
@@ -83,6 +244,121 @@ public class GraphiteConfigImpl implements GraphiteConfig {
         result = 31 * result + pollintervalseconds;
         result = 31 * result + queuesize;
         result = 31 * result + (sendasrate ? 1 : 0);
+        result = 31 * result + (protocol != null ? protocol.hashCode() : 0);
+        result = 31 * result + (spoolfile != null ? spoolfile.hashCode() : 0);
+        result = 31 * result + spoolmaxbytes;
+        result = 31 * result + heartbeatintervals;
+        result = 31 * result + (tier != null ? tier.hashCode() : 0);
+        result = 31 * result + (relays != null ? relays.hashCode() : 0);
+        result = 31 * result + (influxdbdatabase != null ? influxdbdatabase.hashCode() : 0);
+        result = 31 * result + (influxdbgzip ? 1 : 0);
+        result = 31 * result + influxdbbatchsize;
+        result = 31 * result + parallelpollthreshold;
+        result = 31 * result + (queuetype != null ? queuetype.hashCode() : 0);
+        result = 31 * result + (queuewaitstrategy != null ? queuewaitstrategy.hashCode() : 0);
+        result = 31 * result + (queueoverflowpolicy != null ? queueoverflowpolicy.hashCode() : 0);
         return result;
     }
+
+    /**
+     * Builds a GraphiteConfigImpl; each withX method sets the option x of {@link GraphiteConfig}.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static class Builder {
+        private final String host;
+        private final int port;
+        private final int pollintervalseconds;
+        private final int queuesize;
+        private final boolean sendasrate;
+        private String protocol = PROTOCOL_PLAINTEXT;
+        private String spoolfile = null;
+        private int spoolmaxbytes = DEFAULT_SPOOL_MAX_BYTES;
+        private int heartbeatintervals = 0;
+        private String tier = null;
+        private String relays = null;
+        private String influxdbdatabase = DEFAULT_INFLUXDB_DATABASE;
+        private boolean influxdbgzip = false;
+        private int influxdbbatchsize = DEFAULT_INFLUXDB_BATCH_SIZE;
+        private int parallelpollthreshold = 0;
+        private String queuetype = QUEUE_TYPE_BLOCKING;
+        private String queuewaitstrategy = WaitStrategy.BLOCKING.name();
+        private String queueoverflowpolicy = OverflowPolicy.DROP_OLDEST.name();
+
+        private Builder(String host, int port, int pollintervalseconds, int queuesize, boolean sendasrate) {
+            this.host = host;
+            this.port = port;
+            this.pollintervalseconds = pollintervalseconds;
+            this.queuesize = queuesize;
+            this.sendasrate = sendasrate;
+        }
+
+        public Builder withProtocol(String protocol) {
+            this.protocol = protocol;
+            return this;
+        }
+
+        public Builder withSpoolfile(String spoolfile) {
+            this.spoolfile = spoolfile;
+            return this;
+        }
+
+        public Builder withSpoolmaxbytes(int spoolmaxbytes) {
+            this.spoolmaxbytes = spoolmaxbytes;
+            return this;
+        }
+
+        public Builder withHeartbeatintervals(int heartbeatintervals) {
+            this.heartbeatintervals = heartbeatintervals;
+            return this;
+        }
+
+        public Builder withTier(String tier) {
+            this.tier = tier;
+            return this;
+        }
+
+        public Builder withRelays(String relays) {
+            this.relays = relays;
+            return this;
+        }
+
+        public Builder withInfluxdbdatabase(String influxdbdatabase) {
+            this.influxdbdatabase = influxdbdatabase;
+            return this;
+        }
+
+        public Builder withInfluxdbgzip(boolean influxdbgzip) {
+            this.influxdbgzip = influxdbgzip;
+            return this;
+        }
+
+        public Builder withInfluxdbbatchsize(int influxdbbatchsize) {
+            this.influxdbbatchsize = influxdbbatchsize;
+            return this;
+        }
+
+        public Builder withParallelpollthreshold(int parallelpollthreshold) {
+            this.parallelpollthreshold = parallelpollthreshold;
+            return this;
+        }
+
+        public Builder withQueuetype(String queuetype) {
+            this.queuetype = queuetype;
+            return this;
+        }
+
+        public Builder withQueuewaitstrategy(String queuewaitstrategy) {
+            this.queuewaitstrategy = queuewaitstrategy;
+            return this;
+        }
+
+        public Builder withQueueoverflowpolicy(String queueoverflowpolicy) {
+            this.queueoverflowpolicy = queueoverflowpolicy;
+            return this;
+        }
+
+        public GraphiteConfigImpl build() {
+            return new GraphiteConfigImpl(this);
+        }
+    }
 }
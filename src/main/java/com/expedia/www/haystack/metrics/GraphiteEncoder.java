@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes metrics into ByteBuffers in one of the Graphite wire protocols, for the observers that send them. Metrics are
+ * written in batches: the observer calls {@link #startBatch} on an empty buffer, then {@link #encode} once per metric
+ * for as long as {@link #maxLength} bytes are left, then {@link #endBatch}, after which the buffer holds a complete
+ * message in the protocol. Implementations are not thread-safe.
+ */
+interface GraphiteEncoder {
+    /**
+     * Writes whatever the protocol needs before the first metric of a batch.
+     *
+     * @param buffer the empty buffer that will hold the batch
+     */
+    void startBatch(ByteBuffer buffer);
+
+    /**
+     * Writes whatever the protocol needs after the last metric of a batch.
+     *
+     * @param buffer the buffer holding the batch
+     */
+    void endBatch(ByteBuffer buffer);
+
+    /**
+     * The number of bytes that {@link #startBatch} and {@link #endBatch} write between them.
+     *
+     * @return the per-batch overhead, in bytes
+     */
+    int batchOverhead();
+
+    /**
+     * Returns the name of the metric, as cached by the naming convention; the encoder adds the server prefix.
+     *
+     * @param metric the metric
+     * @return the name, to be passed to {@link #maxLength} and {@link #encode}
+     */
+    String name(Metric metric);
+
+    /**
+     * The largest number of bytes that {@link #encode} can write for a metric with this name.
+     *
+     * @param name the name returned by {@link #name}
+     * @return the largest possible encoded length of the metric
+     */
+    int maxLength(String name);
+
+    /**
+     * Writes one metric into the batch, which must have at least {@link #maxLength} bytes left.
+     *
+     * @param buffer          the buffer holding the batch
+     * @param name            the name returned by {@link #name}
+     * @param value           the value of the metric
+     * @param timestampMillis the timestamp of the metric, in milliseconds; Graphite wants seconds
+     */
+    void encode(ByteBuffer buffer, String name, Number value, long timestampMillis);
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes metrics as Graphite plaintext protocol lines ("prefix.name value timestamp\n") directly into a ByteBuffer.
+ * The name comes from the naming convention, which caches it, and is written by a {@link Utf8Encoder} after the prefix
+ * bytes; numbers are written by a {@link NumberEncoder}. Encoding a metric whose name is cached therefore allocates
+ * nothing (except for the few Doubles that NumberEncoder writes with Double.toString()). Plaintext needs nothing around
+ * a batch of lines, so batches are simply the lines they hold. Instances are not thread-safe.
+ */
+final class GraphiteLineEncoder implements GraphiteEncoder {
+    static final int MAX_VALUE_AND_TIMESTAMP_BYTES = 64;
+    private static final byte SPACE = ' ';
+    private static final byte NEWLINE = '\n';
+
+    private final byte[] prefixBytes;
+    private final GraphiteNamingConvention namingConvention;
+    private final Utf8Encoder utf8Encoder = new Utf8Encoder();
+    private final NumberEncoder numberEncoder = new NumberEncoder();
+
+    GraphiteLineEncoder(String serverPrefix, GraphiteNamingConvention namingConvention) {
+        this.prefixBytes = (serverPrefix + '.').getBytes(StandardCharsets.UTF_8);
+        this.namingConvention = namingConvention;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Plaintext lines need nothing before them.
+     */
+    @Override
+    public void startBatch(ByteBuffer buffer) {
+        // Nothing to write
+    }
+
+    /**
+     * {@inheritDoc}
+     * Plaintext lines need nothing after them.
+     */
+    @Override
+    public void endBatch(ByteBuffer buffer) {
+        // Nothing to write
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int batchOverhead() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name(Metric metric) {
+        return namingConvention.getName(metric);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int maxLength(String name) {
+        return prefixBytes.length + utf8Encoder.length(name) + MAX_VALUE_AND_TIMESTAMP_BYTES;
+    }
+
+    /**
+     * Writes one complete line into the buffer, which must have at least {@link #maxLength(String)} bytes left.
+     *
+     * @param buffer          the buffer to write to
+     * @param name            the name returned by {@link #name(Metric)}
+     * @param value           the value of the metric
+     * @param timestampMillis the timestamp of the metric, in milliseconds; Graphite wants seconds
+     */
+    @Override
+    public void encode(ByteBuffer buffer, String name, Number value, long timestampMillis) {
+        buffer.put(prefixBytes);
+        utf8Encoder.put(buffer, name);
+        buffer.put(SPACE);
+        numberEncoder.putNumber(buffer, value);
+        buffer.put(SPACE);
+        numberEncoder.putLong(buffer, timestampMillis / 1000);
+        buffer.put(NEWLINE);
+    }
+}
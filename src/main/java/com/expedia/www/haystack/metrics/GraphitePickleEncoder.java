@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes metrics in the Graphite pickle protocol, which Carbon listens for on port 2004: each batch is a 4-byte
+ * big-endian length followed by a pickle (protocol 2) of a list of (path, (timestamp, value)) tuples. Only the opcodes
+ * that Carbon's safe unpickler accepts are used: strings are BINUNICODE, timestamps are BININT (or BINFLOAT after
+ * 2038), and values are BINFLOAT. Each path is written as the prefix bytes followed by the name that the naming
+ * convention caches, written by a {@link Utf8Encoder}, so encoding a metric whose name is cached allocates nothing.
+ * Instances are not thread-safe.
+ */
+final class GraphitePickleEncoder implements GraphiteEncoder {
+    static final byte PROTO = (byte) 0x80;
+    static final byte PROTOCOL_VERSION = 2;
+    static final byte EMPTY_LIST = ']';
+    static final byte MARK = '(';
+    static final byte APPENDS = 'e';
+    static final byte STOP = '.';
+    static final byte BINUNICODE = 'X';
+    static final byte BININT = 'J';
+    static final byte BINFLOAT = 'G';
+    static final byte TUPLE2 = (byte) 0x86;
+    static final int LENGTH_HEADER_BYTES = 4;
+    // Length header, PROTO and its version, EMPTY_LIST, MARK; then APPENDS and STOP
+    private static final int BATCH_OVERHEAD = LENGTH_HEADER_BYTES + 4 + 2;
+    // BINUNICODE and its length
+    private static final int PATH_OVERHEAD = 1 + 4;
+    // BININT or BINFLOAT timestamp, BINFLOAT value, two TUPLE2s
+    private static final int MAX_TIMESTAMP_AND_VALUE_BYTES = 9 + 9 + 2;
+
+    private final byte[] prefixBytes;
+    private final GraphiteNamingConvention namingConvention;
+    private final Utf8Encoder utf8Encoder = new Utf8Encoder();
+
+    GraphitePickleEncoder(String serverPrefix, GraphiteNamingConvention namingConvention) {
+        this.prefixBytes = (serverPrefix + '.').getBytes(StandardCharsets.UTF_8);
+        this.namingConvention = namingConvention;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Reserves the length header and opens the pickled list.
+     */
+    @Override
+    public void startBatch(ByteBuffer buffer) {
+        buffer.putInt(0);
+        buffer.put(PROTO);
+        buffer.put(PROTOCOL_VERSION);
+        buffer.put(EMPTY_LIST);
+        buffer.put(MARK);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Closes the pickled list and fills in the length header.
+     */
+    @Override
+    public void endBatch(ByteBuffer buffer) {
+        buffer.put(APPENDS);
+        buffer.put(STOP);
+        buffer.putInt(0, buffer.position() - LENGTH_HEADER_BYTES);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int batchOverhead() {
+        return BATCH_OVERHEAD;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String name(Metric metric) {
+        return namingConvention.getName(metric);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int maxLength(String name) {
+        return PATH_OVERHEAD + prefixBytes.length + utf8Encoder.length(name) + MAX_TIMESTAMP_AND_VALUE_BYTES;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void encode(ByteBuffer buffer, String name, Number value, long timestampMillis) {
+        buffer.put(BINUNICODE);
+        putLittleEndianInt(buffer, prefixBytes.length + utf8Encoder.length(name));
+        buffer.put(prefixBytes);
+        utf8Encoder.put(buffer, name);
+        final long timestampSeconds = timestampMillis / 1000;
+        if (timestampSeconds <= Integer.MAX_VALUE) {
+            buffer.put(BININT);
+            putLittleEndianInt(buffer, (int) timestampSeconds);
+        } else {
+            buffer.put(BINFLOAT);
+            buffer.putDouble(timestampSeconds);
+        }
+        buffer.put(BINFLOAT);
+        buffer.putDouble(value.doubleValue());
+        buffer.put(TUPLE2);
+        buffer.put(TUPLE2);
+    }
+
+    private static void putLittleEndianInt(ByteBuffer buffer, int value) {
+        buffer.put((byte) value);
+        buffer.put((byte) (value >>> 8));
+        buffer.put((byte) (value >>> 16));
+        buffer.put((byte) (value >>> 24));
+    }
+}
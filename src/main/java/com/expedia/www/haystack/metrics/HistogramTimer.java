@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.TimedStopwatch;
+import com.netflix.servo.monitor.Timer;
+import com.netflix.servo.tag.Tags;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+
+/**
+ * A Timer that reports latency percentiles, in the manner of HdrHistogram. Durations are counted in a fixed-size,
+ * log-linear histogram: every power of two is split into 64 linear sub-buckets, so each recorded duration is known to
+ * within 1/64 (about 1.6%) of its value, in a fixed amount of memory however many durations are recorded (26 KB for a
+ * millisecond timer, 56 KB for a nanosecond one). Recording a duration is an atomic increment of one bucket (and, for a
+ * new maximum, a compare-and-set loop), so it takes no lock and allocates nothing. Each interval, the timer publishes
+ * the count, p50, p90, p99, p999 and max of the durations recorded since the last interval, as gauges tagged
+ * statistic=count, p50 and so on; percentiles are reported as the highest duration of their bucket, so they are never
+ * lower than the true percentile. Durations longer than one hour are counted in the last bucket, but the max is always
+ * exact.
+ */
+public final class HistogramTimer extends AbstractMonitor<Long>
+        implements Timer, CompositeMonitor<Long>, UpdateTracking {
+    static final String TAG_KEY_UNIT = "unit";
+    static final String STATISTIC_COUNT = "count";
+    static final String STATISTIC_MAX = "max";
+    static final String[] STATISTIC_PERCENTILES = {"p50", "p90", "p99", "p999"};
+    // The percentiles above, in thousandths
+    static final int[] PERCENTILE_PERMILLES = {500, 900, 990, 999};
+    static final int SUB_BUCKET_BITS = 6;
+    static final long HIGHEST_TRACKABLE_HOURS = 1;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int COUNT_INDEX = 0;
+    private static final int MAX_INDEX = PERCENTILE_PERMILLES.length + 1;
+    private static final int ALL_STATISTICS_READ = (1 << (MAX_INDEX + 1)) - 1;
+
+    private final TimeUnit timeUnit;
+    private final int bucketCount;
+    private final long highestTrackableValue;
+    private final List<Monitor<?>> monitors;
+    // Each array holds the bucket counts followed by the max; durations are recorded into active, while the other
+    // array holds the previous interval until it has been read, cleared and swapped in by takeSnapshot()
+    private volatile AtomicLongArray active;
+    private AtomicLongArray inactive;
+    // The bucket counts of the interval being snapshotted, as they were when each bucket was cleared
+    private final long[] bucketCounts;
+    private final long[] snapshot = new long[MAX_INDEX + 1];
+    // A bit for each statistic that has been read since the snapshot was taken; all set, so the first read takes one
+    private int statisticsRead = ALL_STATISTICS_READ;
+    private volatile boolean updated;
+
+    /**
+     * Create a new instance with the specified configuration and time unit.
+     *
+     * @param config   the timer configuration
+     * @param timeUnit the unit of the durations recorded and reported, typically TimeUnit.MILLISECONDS
+     */
+    @SuppressWarnings("WeakerAccess")
+    public HistogramTimer(MonitorConfig config, TimeUnit timeUnit) {
+        super(config.withAdditionalTag(Tags.newTag(TAG_KEY_UNIT, timeUnit.name())));
+        this.timeUnit = timeUnit;
+        this.highestTrackableValue =
+                Math.max(SUB_BUCKET_COUNT, timeUnit.convert(HIGHEST_TRACKABLE_HOURS, TimeUnit.HOURS));
+        this.bucketCount = bucketIndex(highestTrackableValue) + 1;
+        this.active = new AtomicLongArray(bucketCount + 1);
+        this.inactive = new AtomicLongArray(bucketCount + 1);
+        this.bucketCounts = new long[bucketCount];
+        final List<Monitor<?>> statisticMonitors = new ArrayList<>(MAX_INDEX + 1);
+        statisticMonitors.add(new StatisticGauge(STATISTIC_COUNT, COUNT_INDEX));
+        for (int i = 0; i < STATISTIC_PERCENTILES.length; i++) {
+            statisticMonitors.add(new StatisticGauge(STATISTIC_PERCENTILES[i], i + 1));
+        }
+        statisticMonitors.add(new StatisticGauge(STATISTIC_MAX, MAX_INDEX));
+        this.monitors = Collections.unmodifiableList(statisticMonitors);
+    }
+
+    /**
+     * {@inheritDoc}
+     * The gauges are count, p50, p90, p99, p999 and max, in that order.
+     */
+    @Override
+    public List<Monitor<?>> getMonitors() {
+        return monitors;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stopwatch start() {
+        final Stopwatch stopwatch = new TimedStopwatch(this);
+        stopwatch.start();
+        return stopwatch;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void record(long duration) {
+        final long value = duration < 0 ? 0 : duration;
+        final AtomicLongArray counts = active;
+        counts.getAndIncrement(bucketIndex(Math.min(value, highestTrackableValue)));
+        if (value > counts.get(bucketCount)) {
+            counts.accumulateAndGet(bucketCount, value, Math::max);
+        }
+        if (!updated) {
+            updated = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void record(long duration, TimeUnit unit) {
+        record(timeUnit.convert(duration, unit));
+    }
+
+    /**
+     * {@inheritDoc}
+     * This is the count of the last interval whose statistics have been published; reading it resets nothing.
+     */
+    @Override
+    public synchronized Long getValue(int pollerIndex) {
+        return snapshot[COUNT_INDEX];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean checkAndClearUpdated() {
+        if (updated) {
+            updated = false;
+            return true;
+        }
+        return false;
+    }
+
+    int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Returns one statistic of the last snapshot. Reading a statistic that has already been read from the snapshot ends
+     * the interval: the durations recorded since the snapshot was taken are summarized into a new snapshot and the
+     * histogram is reset. A poll reads each gauge once, so whichever gauge it reads first takes the snapshot and the
+     * rest of the poll reads the same snapshot, in any order and whether or not a filter leaves some gauges out. Like
+     * a ResettingCounter, a timer read by two pollers gives each poll the durations recorded since the previous poll.
+     */
+    synchronized long getStatistic(int index) {
+        final int statistic = 1 << index;
+        if ((statisticsRead & statistic) != 0) {
+            takeSnapshot();
+            statisticsRead = 0;
+        }
+        statisticsRead |= statistic;
+        return snapshot[index];
+    }
+
+    private void takeSnapshot() {
+        final AtomicLongArray counts = active;
+        active = inactive;
+        inactive = counts;
+        // A thread that read active before the swap can still be recording into counts. Reading and clearing each
+        // bucket in one getAndSet means that its duration is either counted now or left in the array for the next time
+        // it is snapshotted, and never lost; the percentiles are then computed from exactly the counts that were taken.
+        long total = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            bucketCounts[i] = counts.getAndSet(i, 0);
+            total += bucketCounts[i];
+        }
+        // The max is taken after the buckets, because record() updates it after incrementing a bucket
+        final long max = counts.getAndSet(bucketCount, 0);
+        snapshot[COUNT_INDEX] = total;
+        snapshot[MAX_INDEX] = max;
+        int percentile = 0;
+        long cumulative = 0;
+        for (int i = 0; i < bucketCount; i++) {
+            cumulative += bucketCounts[i];
+            while (percentile < PERCENTILE_PERMILLES.length && total > 0
+                    && cumulative * 1000 >= total * PERCENTILE_PERMILLES[percentile]) {
+                snapshot[percentile + 1] = Math.min(highestValueInBucket(i), max);
+                percentile++;
+            }
+        }
+        for (; percentile < PERCENTILE_PERMILLES.length; percentile++) {
+            snapshot[percentile + 1] = 0;
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long subBucket = SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1));
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof HistogramTimer)) {
+            return false;
+        }
+        // The config includes the unit tag, so timers with different time units are never equal
+        HistogramTimer m = (HistogramTimer) obj;
+        return config.equals(m.getConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return config.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "HistogramTimer{config=" + config + ", timeUnit=" + timeUnit + '}';
+    }
+
+    private final class StatisticGauge extends AbstractMonitor<Long> implements Gauge<Long> {
+        private final int index;
+
+        private StatisticGauge(String statistic, int index) {
+            super(HistogramTimer.this.config
+                    .withAdditionalTag(Tags.newTag(TAG_KEY_STATISTIC, statistic))
+                    .withAdditionalTag(DataSourceType.GAUGE));
+            this.index = index;
+        }
+
+        @Override
+        public Long getValue(int pollerIndex) {
+            return getStatistic(index);
+        }
+    }
+}
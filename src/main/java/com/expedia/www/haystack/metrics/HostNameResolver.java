@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Looks up the name of the local host once, on a daemon thread of its own, because InetAddress.getLocalHost() can take
+ * several seconds in some containers. The lookup starts when the resolver is created; a caller that would wait longer
+ * than the timeout is given the HOSTNAME environment variable instead (or, if it is not set, a fixed name), and callers
+ * that come after the lookup has finished are given its result.
+ */
+final class HostNameResolver {
+    static final String THREAD_NAME = "HostNameResolver";
+    static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    static final String HOST_NAME_ENVIRONMENT_VARIABLE = "HOSTNAME";
+    static final String HOST_NAME_UNRESOLVED = "HostName-Unresolved";
+    static final String LOOKUP_FAILED_MSG = "Looking up the local host name failed or took more than %d ms; using [%s]";
+
+    private final FutureTask<String> lookup;
+    private final long timeoutMillis;
+    private final Map<String, String> environmentVariables;
+    private final Logger logger;
+
+    HostNameResolver(Callable<String> lookup, long timeoutMillis, Map<String, String> environmentVariables,
+                     Logger logger) {
+        this.lookup = new FutureTask<>(lookup);
+        this.timeoutMillis = timeoutMillis;
+        this.environmentVariables = environmentVariables;
+        this.logger = logger;
+        final Thread thread = new Thread(this.lookup, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the name of the local host, or the fallback if the lookup fails or does not finish within the timeout
+     */
+    String get() {
+        try {
+            return lookup.get(timeoutMillis, MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback(e);
+        } catch (ExecutionException | TimeoutException e) {
+            return fallback(e);
+        }
+    }
+
+    private String fallback(Exception e) {
+        final String hostName = environmentVariables.get(HOST_NAME_ENVIRONMENT_VARIABLE);
+        final String fallback = hostName == null || hostName.isEmpty() ? HOST_NAME_UNRESOLVED : hostName;
+        logger.warn(String.format(LOOKUP_FAILED_MSG, timeoutMillis, fallback), e);
+        return fallback;
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_TIER;
+
+/**
+ * Evicts the Counters and Timers created by {@link MetricObjects} that have not been updated for a number of
+ * intervals, for services whose metrics churn (per-customer or per-partition counters, for example), whose heap would
+ * otherwise grow without limit and whose every poll would read metrics that will never change again. A caller that
+ * keeps a reference to an evicted metric, in a static final field say, can still update it, but those updates are
+ * never published, so only metrics that are looked up when they are used can be evicted: those cached by a
+ * {@link MetricScope}, and those of the subsystems named with {@link #evictSubsystem(String)}. The metrics of the
+ * subsystem "metrics", which the publishing keeps references to, are never evicted, and neither are Gauges. Once
+ * started, the evictor checks every such metric once per interval; a metric that has not been updated in
+ * idleIntervals consecutive checks is unregistered from its registry, forgotten by MetricObjects and by every
+ * MetricScope, and no longer counted by the {@link CardinalityLimiter}, so that creating or looking it up again returns
+ * a fresh instance. The metrics created by this library track their updates (see {@link UpdateTracking}); a
+ * BasicCounter, which cannot, is idle while its value does not change.
+ */
+@SuppressWarnings("WeakerAccess")
+public class IdleMetricEvictor {
+    static final String SCHEDULER_NAME = "IdleMetricEvictor";
+    static final String IDLE_INTERVALS_MSG = "idleIntervals must be positive but was %d";
+    static final String EVICTED_MSG = "Evicted %d metrics that had not been updated for %d intervals";
+    static final String PUBLISHING_SUBSYSTEM_MSG =
+            "The metrics of the subsystem \"" + PublishingMetrics.SUBSYSTEM + "\" are never evicted";
+
+    private final List<ConcurrentMap<MonitorConfig, ? extends Monitor<?>>> metricMaps;
+    private final Function<String, MonitorRegistry> monitorRegistries;
+    private final CardinalityLimiter cardinalityLimiter;
+    private final PublishingScheduler scheduler;
+    private final Logger logger;
+    private final List<WeakReference<MetricScope>> metricScopes = new CopyOnWriteArrayList<>();
+    private final Set<String> subsystems = ConcurrentHashMap.newKeySet();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private Map<Monitor<?>, Idleness> idleness = new IdentityHashMap<>();
+    private volatile int idleIntervals;
+
+    IdleMetricEvictor(List<ConcurrentMap<MonitorConfig, ? extends Monitor<?>>> metricMaps,
+                      CardinalityLimiter cardinalityLimiter) {
+        this(metricMaps, MetricObjects::getMonitorRegistry, cardinalityLimiter, new PublishingScheduler(SCHEDULER_NAME),
+                LoggerFactory.getLogger(IdleMetricEvictor.class));
+    }
+
+    IdleMetricEvictor(List<ConcurrentMap<MonitorConfig, ? extends Monitor<?>>> metricMaps,
+                      Function<String, MonitorRegistry> monitorRegistries,
+                      CardinalityLimiter cardinalityLimiter,
+                      PublishingScheduler scheduler,
+                      Logger logger) {
+        this.metricMaps = metricMaps;
+        this.monitorRegistries = monitorRegistries;
+        this.cardinalityLimiter = cardinalityLimiter;
+        this.scheduler = scheduler;
+        this.logger = logger;
+    }
+
+    /**
+     * Starts checking the metrics on a daemon thread of its own, typically with the poll interval of the publisher, so
+     * that idleIntervals is a number of polls. Like {@link MetricPublishing#start}, calls to start() and stop() are
+     * counted; only the first start() starts the thread, but each one sets idleIntervals.
+     *
+     * @param idleIntervals the number of consecutive intervals without an update after which a metric is evicted
+     * @param interval      the time between checks
+     * @param timeUnit      the unit of interval
+     */
+    public synchronized void start(int idleIntervals, long interval, TimeUnit timeUnit) {
+        if (idleIntervals <= 0) {
+            throw new IllegalArgumentException(String.format(IDLE_INTERVALS_MSG, idleIntervals));
+        }
+        this.idleIntervals = idleIntervals;
+        if (scheduler.start()) {
+            scheduler.schedule(this::evictIdleMetrics, interval, timeUnit);
+        }
+    }
+
+    /**
+     * Stops checking the metrics once every start() has been matched by a stop().
+     */
+    public void stop() {
+        scheduler.stop();
+    }
+
+    /**
+     * Lets the idle metrics of a subsystem be evicted even when they were not looked up through a MetricScope; call
+     * this only for a subsystem whose code looks each of its metrics up when it uses it, rather than keeping it.
+     *
+     * @param subsystem the subsystem, which must not be "metrics"
+     */
+    public void evictSubsystem(String subsystem) {
+        if (PublishingMetrics.SUBSYSTEM.equals(subsystem)) {
+            throw new IllegalArgumentException(PUBLISHING_SUBSYSTEM_MSG);
+        }
+        subsystems.add(subsystem);
+    }
+
+    /**
+     * The number of metrics evicted since this JVM started.
+     *
+     * @return the number of evicted metrics
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * Remembers a MetricScope, so that the metrics it has cached can be evicted from it; the scope is only weakly
+     * referenced, so registering it does not keep it alive.
+     *
+     * @param metricScope the MetricScope
+     */
+    void register(MetricScope metricScope) {
+        metricScopes.removeIf(reference -> reference.get() == null);
+        metricScopes.add(new WeakReference<>(metricScope));
+    }
+
+    /**
+     * Checks every metric that can be evicted once, and evicts the ones that have been idle for idleIntervals checks;
+     * run once per interval by the thread started by start().
+     */
+    synchronized void evictIdleMetrics() {
+        final Map<Monitor<?>, Idleness> checkedIdleness = new IdentityHashMap<>(idleness.size());
+        final Set<Monitor<?>> evicted = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<Monitor<?>> scopedMetrics = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (WeakReference<MetricScope> reference : metricScopes) {
+            final MetricScope metricScope = reference.get();
+            if (metricScope != null) {
+                metricScope.addMetricsTo(scopedMetrics);
+            }
+        }
+        for (ConcurrentMap<MonitorConfig, ? extends Monitor<?>> metrics : metricMaps) {
+            final Iterator<? extends Map.Entry<MonitorConfig, ? extends Monitor<?>>> iterator =
+                    metrics.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<MonitorConfig, ? extends Monitor<?>> entry = iterator.next();
+                final Monitor<?> monitor = entry.getValue();
+                if (CardinalityLimiter.isRememberedRejection(entry.getKey(), monitor)) {
+                    // Checked, and evicted, as the overflow metric itself
+                    continue;
+                }
+                if (!isEvictable(entry.getKey(), monitor, scopedMetrics)) {
+                    continue;
+                }
+                final Idleness monitorIdleness = idleness.computeIfAbsent(monitor, key -> new Idleness());
+                if (monitorIdleness.check(monitor) < idleIntervals) {
+                    checkedIdleness.put(monitor, monitorIdleness);
+                    continue;
+                }
+                // Unregistering while the entry still holds the monitor means that no fresh instance with its config
+                // exists yet, so a registry that unregisters by config, as Servo's JMX registry does, cannot remove one
+                monitorRegistries.apply(entry.getKey().getTags().getValue(TAG_KEY_TIER)).unregister(monitor);
+                iterator.remove();
+                if (!CardinalityLimiter.isOverflow(monitor)) {
+                    cardinalityLimiter.release(entry.getKey());
+                }
+                evicted.add(monitor);
+            }
+        }
+        idleness = checkedIdleness;
+        if (!evicted.isEmpty()) {
+            forgetRememberedRejections(evicted);
+            for (WeakReference<MetricScope> reference : metricScopes) {
+                final MetricScope metricScope = reference.get();
+                if (metricScope != null) {
+                    metricScope.evict(evicted);
+                }
+            }
+            evictedCount.addAndGet(evicted.size());
+            logger.info(String.format(EVICTED_MSG, evicted.size(), idleIntervals));
+        }
+    }
+
+    private boolean isEvictable(MonitorConfig monitorConfig, Monitor<?> monitor, Set<Monitor<?>> scopedMetrics) {
+        final String subsystem = monitorConfig.getTags().getValue(TAG_KEY_SUBSYSTEM);
+        return !PublishingMetrics.SUBSYSTEM.equals(subsystem)
+                && (subsystems.contains(subsystem) || scopedMetrics.contains(monitor));
+    }
+
+    /**
+     * Forgets the rejected metrics that were remembered as an overflow metric that has been evicted, so that they are
+     * rejected again, into a fresh overflow metric, when they are next looked up.
+     */
+    private void forgetRememberedRejections(Set<Monitor<?>> evicted) {
+        for (ConcurrentMap<MonitorConfig, ? extends Monitor<?>> metrics : metricMaps) {
+            final Iterator<? extends Monitor<?>> iterator = metrics.values().iterator();
+            while (iterator.hasNext()) {
+                if (evicted.contains(iterator.next())) {
+                    iterator.remove();
+                    cardinalityLimiter.forgetRejection();
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of consecutive checks in which a metric has not been updated.
+     */
+    private static final class Idleness {
+        private int idleChecks;
+        private Object lastValue;
+
+        /**
+         * Checks the metric once; a metric seen for the first time counts as updated.
+         *
+         * @return the number of consecutive checks, this one included, in which the metric has not been updated
+         */
+        private int check(Monitor<?> monitor) {
+            final boolean updated;
+            if (monitor instanceof UpdateTracking) {
+                updated = ((UpdateTracking) monitor).checkAndClearUpdated() || lastValue == null;
+                lastValue = Boolean.TRUE;
+            } else {
+                final Object value = monitor.getValue();
+                updated = !value.equals(lastValue);
+                lastValue = value;
+            }
+            idleChecks = updated ? 0 : idleChecks + 1;
+            return idleChecks;
+        }
+    }
+}
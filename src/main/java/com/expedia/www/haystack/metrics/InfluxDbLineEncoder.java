@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.Tag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Encodes metrics as InfluxDB line protocol lines ("name,tag1=value1,tag2=value2 value=42 timestamp\n") directly into a
+ * ByteBuffer. The name of the metric is the measurement, every Servo tag becomes an InfluxDB tag, a "host" tag is added
+ * (unless the metric has a tag of that name), and the value is written as the float field "value", which is how
+ * InfluxDB's Graphite listener stores the values it receives. Tags are sorted by key, as InfluxDB recommends. The
+ * "name,tags value=" start of each line is cached in a {@link MonitorConfigCache} of at most nameCacheMaxSize entries,
+ * and numbers are written by a {@link NumberEncoder}, so encoding a metric whose start is cached allocates nothing.
+ * Timestamps are written in milliseconds, so the write request must say precision=ms. Instances are not thread-safe.
+ */
+final class InfluxDbLineEncoder {
+    static final String TAG_KEY_HOST = "host";
+    static final String FIELD_KEY_VALUE = "value";
+    static final int MAX_VALUE_AND_TIMESTAMP_BYTES = GraphiteLineEncoder.MAX_VALUE_AND_TIMESTAMP_BYTES;
+    private static final int INITIAL_KEY_CAPACITY = 128;
+    private static final byte SPACE = ' ';
+    private static final byte NEWLINE = '\n';
+
+    private final String hostName;
+    private final MonitorConfigCache<byte[]> keyBytesCache;
+    private final NumberEncoder numberEncoder = new NumberEncoder();
+
+    InfluxDbLineEncoder(String hostName) {
+        this(hostName, ServoToInfluxDbViaGraphiteNamingConvention.DEFAULT_NAME_CACHE_MAX_SIZE);
+    }
+
+    InfluxDbLineEncoder(String hostName, int nameCacheMaxSize) {
+        this.hostName = hostName;
+        this.keyBytesCache = new MonitorConfigCache<>(
+                nameCacheMaxSize, config -> buildKey(config).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tells whether InfluxDB can store the value of a metric: it must be a number, and InfluxDB rejects the whole
+     * request when a float is NaN or infinite.
+     *
+     * @param metric the metric to check
+     * @return true if the metric can be encoded
+     */
+    static boolean canEncode(Metric metric) {
+        if (!metric.hasNumberValue()) {
+            return false;
+        }
+        final Number value = metric.getNumberValue();
+        return !(value instanceof Double || value instanceof Float) || Double.isFinite(value.doubleValue());
+    }
+
+    /**
+     * Returns the bytes of the "name,tags value=" start of the metric's line, from the cache if possible.
+     *
+     * @param metric the metric whose key bytes are wanted
+     * @return the UTF-8 bytes of the escaped measurement, the tags, a space and the field key
+     */
+    byte[] keyBytes(Metric metric) {
+        return keyBytesCache.get(metric.getConfig());
+    }
+
+    /**
+     * The most bytes that the line of a metric can take.
+     *
+     * @param keyBytes the bytes returned by {@link #keyBytes(Metric)}
+     * @return the maximum length of the line
+     */
+    int maxLength(byte[] keyBytes) {
+        return keyBytes.length + MAX_VALUE_AND_TIMESTAMP_BYTES;
+    }
+
+    /**
+     * Writes one complete line into the buffer, which must have at least {@link #maxLength(byte[])} bytes left.
+     *
+     * @param buffer          the buffer to write to
+     * @param keyBytes        the bytes returned by {@link #keyBytes(Metric)}
+     * @param value           the value of the metric, for which {@link #canEncode(Metric)} is true
+     * @param timestampMillis the timestamp of the metric, in milliseconds
+     */
+    void encode(ByteBuffer buffer, byte[] keyBytes, Number value, long timestampMillis) {
+        buffer.put(keyBytes);
+        numberEncoder.putNumber(buffer, value);
+        buffer.put(SPACE);
+        numberEncoder.putLong(buffer, timestampMillis);
+        buffer.put(NEWLINE);
+    }
+
+    int getNameCacheSize() {
+        return keyBytesCache.size();
+    }
+
+    private String buildKey(MonitorConfig config) {
+        final Map<String, String> tags = new TreeMap<>();
+        tags.put(TAG_KEY_HOST, hostName);
+        for (Tag tag : config.getTags()) {
+            tags.put(tag.getKey(), tag.getValue());
+        }
+        final StringBuilder key = new StringBuilder(INITIAL_KEY_CAPACITY);
+        escape(key, config.getName(), false);
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            key.append(',');
+            escape(key, tag.getKey(), true);
+            key.append('=');
+            escape(key, tag.getValue(), true);
+        }
+        return key.append(' ').append(FIELD_KEY_VALUE).append('=').toString();
+    }
+
+    private static void escape(StringBuilder builder, String value, boolean escapeEquals) {
+        for (int i = 0; i < value.length(); i++) {
+            // A newline would end the line, and line protocol has no escape for it, so it becomes a space
+            final char c = value.charAt(i) == '\n' ? ' ' : value.charAt(i);
+            if (c == ',' || c == ' ' || (c == '=' && escapeEquals)) {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.BaseMetricObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An observer that writes metrics to InfluxDB's HTTP write endpoint in line protocol (see {@link InfluxDbLineEncoder}),
+ * so that Servo tags become InfluxDB tags directly, instead of being packed into a Graphite path by
+ * {@link ServoToInfluxDbViaGraphiteNamingConvention} and unpacked again by InfluxDB's Graphite templates. Each poll is
+ * sent in batches of at most batchSize metrics, one POST per batch, optionally gzipped; the JDK keeps the HTTP
+ * connection alive between requests, so a connection is normally made once rather than once per batch. The lines of a
+ * batch are encoded into one reusable buffer, which grows when a batch needs more room. When a request fails, or
+ * InfluxDB answers with an error, the rest of the poll is dropped and the update counted as failed (so that a
+ * {@link SpoolingMetricObserver} can keep the poll). The time spent encoding and writing each poll, the bytes written
+ * and the failed updates are recorded in {@link PublishingMetrics}.
+ */
+public class InfluxDbMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "InfluxDbMetricObserver";
+    static final String WRITE_URL_FORMAT = "http://%s:%d/write?db=%s&precision=ms";
+    static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    static final int READ_TIMEOUT_MILLIS = 10000;
+    static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+    static final String GZIP = "gzip";
+    static final String BATCH_SIZE_MSG = "batchSize must be positive but was %d";
+    static final String WRITE_FAILED_MSG =
+            "Writing %d metrics to InfluxDB at [%s] failed; the rest of this poll has been dropped";
+    static final String HTTP_ERROR_MSG = "InfluxDB answered %d: %s";
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+    private static final String HEX_DIGITS = "0123456789ABCDEF";
+
+    private final String writeUrl;
+    private final InfluxDbLineEncoder encoder;
+    private final boolean gzip;
+    private final int batchSize;
+    private final Logger logger;
+    private final PublishingMetrics publishingMetrics;
+    private final ExposedByteArrayOutputStream compressed = new ExposedByteArrayOutputStream();
+    private final byte[] drainBuffer = new byte[DRAIN_BUFFER_SIZE];
+    private ByteBuffer buffer;
+    private URL url;
+    private int batchedMetricCount;
+    private long writeNanos;
+    private long writtenBytes;
+
+    /**
+     * Creates a new InfluxDbMetricObserver; nothing is sent until the first update.
+     *
+     * @param prefix    the suffix of the name of this observer, typically "haystack"
+     * @param host      the host name or IP address of the InfluxDB server
+     * @param port      the InfluxDB HTTP port, typically 8086
+     * @param database  the database to write to, which must already exist
+     * @param hostName  the value of the "host" tag of every metric, typically the name of this host
+     * @param gzip      whether to gzip each request, which trades CPU for (typically ten times) fewer bytes
+     * @param batchSize the most metrics to send in one request
+     */
+    @SuppressWarnings("WeakerAccess")
+    public InfluxDbMetricObserver(String prefix, String host, int port, String database, String hostName,
+                                  boolean gzip, int batchSize) {
+        this(prefix, host, port, database, hostName, gzip, batchSize, PublishingMetrics.getDefault());
+    }
+
+    InfluxDbMetricObserver(String prefix, String host, int port, String database, String hostName, boolean gzip,
+                           int batchSize, PublishingMetrics publishingMetrics) {
+        this(OBSERVER_NAME_PREFIX + prefix, String.format(WRITE_URL_FORMAT, host, port, encode(database)),
+                new InfluxDbLineEncoder(hostName), gzip, batchSize,
+                LoggerFactory.getLogger(InfluxDbMetricObserver.class), publishingMetrics);
+    }
+
+    InfluxDbMetricObserver(String name, String writeUrl, InfluxDbLineEncoder encoder, boolean gzip, int batchSize,
+                           Logger logger, PublishingMetrics publishingMetrics) {
+        super(name);
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException(String.format(BATCH_SIZE_MSG, batchSize));
+        }
+        this.writeUrl = writeUrl;
+        this.encoder = encoder;
+        this.gzip = gzip;
+        this.batchSize = batchSize;
+        this.logger = logger;
+        this.publishingMetrics = publishingMetrics;
+        this.buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    /**
+     * Percent-encodes a query parameter value, so that a database name like "my db" or "a&b" reaches InfluxDB intact.
+     *
+     * @param value the value to encode
+     * @return the UTF-8 bytes of value, with every byte other than an unreserved character written as %XX
+     */
+    static String encode(String value) {
+        final StringBuilder encoded = new StringBuilder(value.length());
+        for (final byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            final char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~') {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(HEX_DIGITS.charAt(c >> 4)).append(HEX_DIGITS.charAt(c & 0xF));
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Writes the metrics to InfluxDB.
+     *
+     * @param metrics the metrics to write
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        try {
+            final long startNanos = System.nanoTime();
+            writeNanos = 0;
+            writtenBytes = 0;
+            // An indexed loop, rather than an Iterator, keeps the encoding allocation-free
+            for (int i = 0; i < metrics.size(); i++) {
+                append(metrics.get(i));
+            }
+            flush();
+            publishingMetrics.recordUpdate(System.nanoTime() - startNanos - writeNanos, writeNanos, writtenBytes);
+        } catch (IOException e) {
+            logger.warn(String.format(WRITE_FAILED_MSG, metrics.size(), writeUrl), e);
+            publishingMetrics.recordSendFailure();
+            incrementFailedCount();
+            buffer.clear();
+            batchedMetricCount = 0;
+        }
+    }
+
+    String getWriteUrl() {
+        return writeUrl;
+    }
+
+    int getBufferCapacity() {
+        return buffer.capacity();
+    }
+
+    private void append(Metric metric) throws IOException {
+        if (!InfluxDbLineEncoder.canEncode(metric)) {
+            return;
+        }
+        final byte[] keyBytes = encoder.keyBytes(metric);
+        final int maxLength = encoder.maxLength(keyBytes);
+        if (buffer.remaining() < maxLength) {
+            final ByteBuffer grownBuffer = ByteBuffer.allocate(Math.max(2 * buffer.capacity(),
+                    buffer.position() + maxLength));
+            buffer.flip();
+            buffer = grownBuffer.put(buffer);
+        }
+        encoder.encode(buffer, keyBytes, metric.getNumberValue(), metric.getTimestamp());
+        if (++batchedMetricCount == batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (batchedMetricCount == 0) {
+            return;
+        }
+        if (gzip) {
+            compressed.reset();
+            final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+            gzipOutputStream.write(buffer.array(), 0, buffer.position());
+            gzipOutputStream.close();
+            post(compressed.getBuffer(), compressed.size());
+        } else {
+            post(buffer.array(), buffer.position());
+        }
+        buffer.clear();
+        batchedMetricCount = 0;
+    }
+
+    private void post(byte[] body, int length) throws IOException {
+        final long startNanos = System.nanoTime();
+        if (url == null) {
+            url = new URL(writeUrl);
+        }
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(length);
+        connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+        if (gzip) {
+            connection.setRequestProperty("Content-Encoding", GZIP);
+        }
+        final OutputStream outputStream = connection.getOutputStream();
+        outputStream.write(body, 0, length);
+        outputStream.close();
+        final int status = connection.getResponseCode();
+        if (status / 100 != 2) {
+            throw new IOException(String.format(HTTP_ERROR_MSG, status, readError(connection)));
+        }
+        // Reading the (normally empty) response to its end is what lets the JDK reuse the connection
+        drain(connection.getInputStream());
+        writeNanos += System.nanoTime() - startNanos;
+        writtenBytes += length;
+    }
+
+    private String readError(HttpURLConnection connection) throws IOException {
+        final InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return connection.getResponseMessage();
+        }
+        final ByteArrayOutputStream error = new ByteArrayOutputStream();
+        for (int count = errorStream.read(drainBuffer); count >= 0; count = errorStream.read(drainBuffer)) {
+            error.write(drainBuffer, 0, count);
+        }
+        errorStream.close();
+        return new String(error.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    private void drain(InputStream inputStream) throws IOException {
+        while (inputStream.read(drainBuffer) >= 0) {
+            // Discard the response
+        }
+        inputStream.close();
+    }
+
+    /**
+     * A ByteArrayOutputStream whose array can be read without the copy that toByteArray() makes
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
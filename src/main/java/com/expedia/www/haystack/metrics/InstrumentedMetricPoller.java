@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.MetricFilter;
+import com.netflix.servo.publish.MetricPoller;
+
+import java.util.List;
+
+/**
+ * A MetricPoller that records, in {@link PublishingMetrics}, how long each poll of the MetricPoller it wraps takes and
+ * how many metrics it returns.
+ */
+class InstrumentedMetricPoller implements MetricPoller {
+    private final MetricPoller poller;
+    private final PublishingMetrics publishingMetrics;
+
+    InstrumentedMetricPoller(MetricPoller poller, PublishingMetrics publishingMetrics) {
+        this.poller = poller;
+        this.publishingMetrics = publishingMetrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Metric> poll(MetricFilter filter) {
+        return poll(filter, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Metric> poll(MetricFilter filter, boolean reset) {
+        final long startNanos = System.nanoTime();
+        final List<Metric> metrics = poller.poll(filter, reset);
+        publishingMetrics.recordPoll(System.nanoTime() - startNanos, metrics.size());
+        return metrics;
+    }
+}
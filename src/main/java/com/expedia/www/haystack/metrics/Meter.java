@@ -0,0 +1,306 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.Tags;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+
+/**
+ * A Counter that also knows its own current rate, for code that needs live rates (load shedding and admission control,
+ * for example) without a second metrics stack; the rates that Graphite shows are computed on the publishing side, so
+ * the application cannot read them. A Meter keeps the one, five and fifteen minute exponentially weighted moving
+ * average rates, in events per second (as the Unix load averages do), and the count of the events of a rolling window,
+ * one minute by default. Incrementing it is a LongAdder increment and a clock read, with no lock; every five seconds,
+ * the first thread to increment or read the Meter folds the events of the last five seconds into the averages and the
+ * window. Reading a rate or the window count is a few volatile reads. The rolling window moves in five second steps,
+ * so the window count covers between the window and the window less five seconds, plus the events not yet folded in.
+ * Each interval, the Meter publishes the rates and the window count, as gauges tagged statistic=rate1m, rate5m,
+ * rate15m and windowCount.
+ */
+public final class Meter extends AbstractMonitor<Number> implements Counter, CompositeMonitor<Number>, UpdateTracking {
+    static final String STATISTIC_RATE_1M = "rate1m";
+    static final String STATISTIC_RATE_5M = "rate5m";
+    static final String STATISTIC_RATE_15M = "rate15m";
+    static final String STATISTIC_WINDOW_COUNT = "windowCount";
+    static final long TICK_NANOS = TimeUnit.SECONDS.toNanos(5);
+    static final long DEFAULT_WINDOW_SECONDS = 60;
+    static final String WINDOW_MSG = "window must be positive but was %d";
+    private static final double TICK_SECONDS = 5.0;
+    private static final double DECAY_1M = Math.exp(-TICK_SECONDS / 60);
+    private static final double DECAY_5M = Math.exp(-TICK_SECONDS / (5 * 60));
+    private static final double DECAY_15M = Math.exp(-TICK_SECONDS / (15 * 60));
+
+    private final LongSupplier nanoClock;
+    private final List<Monitor<?>> monitors;
+    private final LongAdder count = new LongAdder();
+    private final AtomicLong lastTickNanos;
+    // The events of each of the last ticks, oldest first from windowIndex; written only by tick()
+    private final long[] window;
+    private int windowIndex;
+    private boolean ticked;
+    private volatile long tickedCount;
+    private volatile long windowCount;
+    private volatile double rate1m;
+    private volatile double rate5m;
+    private volatile double rate15m;
+    private volatile boolean updated;
+
+    /**
+     * Create a new instance with the specified configuration and a one minute window.
+     *
+     * @param config the meter configuration
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Meter(MonitorConfig config) {
+        this(config, DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Create a new instance with the specified configuration and window.
+     *
+     * @param config   the meter configuration
+     * @param window   the length of the rolling window, rounded up to a multiple of five seconds
+     * @param timeUnit the unit of window
+     */
+    @SuppressWarnings("WeakerAccess")
+    public Meter(MonitorConfig config, long window, TimeUnit timeUnit) {
+        this(config, window, timeUnit, System::nanoTime);
+    }
+
+    Meter(MonitorConfig config, long window, TimeUnit timeUnit, LongSupplier nanoClock) {
+        super(config);
+        if (window <= 0) {
+            throw new IllegalArgumentException(String.format(WINDOW_MSG, window));
+        }
+        this.nanoClock = nanoClock;
+        this.lastTickNanos = new AtomicLong(nanoClock.getAsLong());
+        this.window = new long[(int) ((timeUnit.toNanos(window) + TICK_NANOS - 1) / TICK_NANOS)];
+        this.monitors = Collections.unmodifiableList(Arrays.asList(
+                new StatisticGauge(STATISTIC_RATE_1M, this::getOneMinuteRate),
+                new StatisticGauge(STATISTIC_RATE_5M, this::getFiveMinuteRate),
+                new StatisticGauge(STATISTIC_RATE_15M, this::getFifteenMinuteRate),
+                new StatisticGauge(STATISTIC_WINDOW_COUNT, this::getWindowCount)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The gauges are rate1m, rate5m, rate15m and windowCount, in that order.
+     */
+    @Override
+    public List<Monitor<?>> getMonitors() {
+        return monitors;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment() {
+        increment(1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment(long amount) {
+        tickIfNecessary();
+        count.add(amount);
+        if (!updated) {
+            updated = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * This is the number of events since the Meter was created; reading it resets nothing.
+     */
+    @Override
+    public Number getValue(int pollerIndex) {
+        return getCount();
+    }
+
+    /**
+     * The number of events since the Meter was created.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * The one minute exponentially weighted moving average rate.
+     *
+     * @return the rate, in events per second
+     */
+    public double getOneMinuteRate() {
+        tickIfNecessary();
+        return rate1m;
+    }
+
+    /**
+     * The five minute exponentially weighted moving average rate.
+     *
+     * @return the rate, in events per second
+     */
+    public double getFiveMinuteRate() {
+        tickIfNecessary();
+        return rate5m;
+    }
+
+    /**
+     * The fifteen minute exponentially weighted moving average rate.
+     *
+     * @return the rate, in events per second
+     */
+    public double getFifteenMinuteRate() {
+        tickIfNecessary();
+        return rate15m;
+    }
+
+    /**
+     * The number of events in the rolling window.
+     *
+     * @return the count
+     */
+    public long getWindowCount() {
+        tickIfNecessary();
+        return windowCount + count.sum() - tickedCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean checkAndClearUpdated() {
+        if (updated) {
+            updated = false;
+            return true;
+        }
+        return false;
+    }
+
+    int getWindowTicks() {
+        return window.length;
+    }
+
+    private void tickIfNecessary() {
+        final long lastTick = lastTickNanos.get();
+        final long age = nanoClock.getAsLong() - lastTick;
+        // Only the thread that moves lastTickNanos on ticks, so the others never wait
+        if (age >= TICK_NANOS && lastTickNanos.compareAndSet(lastTick, lastTick + age - age % TICK_NANOS)) {
+            tick(age / TICK_NANOS);
+        }
+    }
+
+    private synchronized void tick(long ticks) {
+        final long total = count.sum();
+        final long events = total - tickedCount;
+        // The events are spread evenly over the ticks, which is exact for a constant rate
+        final double instantRate = events / (ticks * TICK_SECONDS);
+        rate1m = decay(rate1m, instantRate, DECAY_1M, ticks);
+        rate5m = decay(rate5m, instantRate, DECAY_5M, ticks);
+        rate15m = decay(rate15m, instantRate, DECAY_15M, ticks);
+        ticked = true;
+        final long steps = Math.min(ticks, window.length);
+        long sum = windowCount;
+        for (long i = 1; i <= steps; i++) {
+            sum -= window[windowIndex];
+            window[windowIndex] = i == steps ? events : 0;
+            sum += window[windowIndex];
+            windowIndex = (windowIndex + 1) % window.length;
+        }
+        windowCount = sum;
+        tickedCount = total;
+    }
+
+    private double decay(double rate, double instantRate, double decayPerTick, long ticks) {
+        // The first tick starts the average at the rate of that tick, rather than ramping it up from 0
+        if (!ticked) {
+            return instantRate;
+        }
+        return instantRate + (rate - instantRate) * Math.pow(decayPerTick, ticks);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof Meter)) {
+            return false;
+        }
+        Meter m = (Meter) obj;
+        return config.equals(m.getConfig()) && getCount() == m.getCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = config.hashCode();
+        long n = getCount();
+        result = 31 * result + (int) (n ^ (n >>> 32));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "Meter{config=" + config + ", count=" + getCount() + '}';
+    }
+
+    private final class StatisticGauge extends AbstractMonitor<Number> implements Gauge<Number> {
+        private final Supplier<Number> statistic;
+
+        private StatisticGauge(String statisticName, Supplier<Number> statistic) {
+            super(Meter.this.config
+                    .withAdditionalTag(Tags.newTag(TAG_KEY_STATISTIC, statisticName))
+                    .withAdditionalTag(DataSourceType.GAUGE));
+            this.statistic = statistic;
+        }
+
+        @Override
+        public Number getValue(int pollerIndex) {
+            return statistic.get();
+        }
+    }
+}
@@ -19,10 +19,11 @@ package com.expedia.www.haystack.metrics;
 import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.MonitorRegistry;
 import com.netflix.servo.monitor.BasicCounter;
-import com.netflix.servo.monitor.BasicTimer;
+import com.netflix.servo.monitor.BasicGauge;
 import com.netflix.servo.monitor.BucketConfig;
-import com.netflix.servo.monitor.BucketTimer;
 import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.Monitor;
 import com.netflix.servo.monitor.MonitorConfig;
 import com.netflix.servo.monitor.Timer;
 import com.netflix.servo.tag.BasicTagList;
@@ -33,13 +34,22 @@ import com.netflix.servo.tag.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
  * Creates Servo's Counter and Timer objects, registering them with the default monitor registry when creating them.
+ * The metrics created through a MetricObjects of a resolution tier (see {@link #forTier(String)}) carry a
+ * "{@value #TAG_KEY_TIER}" tag instead, and are registered with the registry of that tier, which only a publisher
+ * configured for the tier (see {@link GraphiteConfig#tier()}) polls. The number of Counters and Timers that can be
+ * created is capped by the {@link CardinalityLimiter} returned by {@link #getCardinalityLimiter()}.
  */
 @SuppressWarnings("WeakerAccess")
 public class MetricObjects {
@@ -49,15 +59,25 @@ public class MetricObjects {
     static final String TAG_KEY_FULLY_QUALIFIED_CLASS_NAME = "fullyQualifiedClassName";
     static final String TAG_KEY_CLASS = "class";
     static final String TAG_KEY_LINE_NUMBER = "lineNumber";
+    static final String TAG_KEY_TIER = "tier";
     static final String COUNTER_ALREADY_REGISTERED = "The Counter %s has already been registered";
     static final String TIMER_ALREADY_REGISTERED = "The Timer %s has already been registered";
+    static final String METER_ALREADY_REGISTERED = "The Meter %s has already been registered";
     static final String METRIC_GROUP_BUCKETS = "buckets";
     static final ConcurrentMap<MonitorConfig, Counter> BASIC_COUNTERS = new ConcurrentHashMap<>();
     static final ConcurrentMap<MonitorConfig, Counter> RESETTING_NON_RATE_COUNTERS = new ConcurrentHashMap<>();
     static final ConcurrentMap<MonitorConfig, Timer> TIMERS = new ConcurrentHashMap<>();
+    static final ConcurrentMap<MonitorConfig, Meter> METERS = new ConcurrentHashMap<>();
+    static final ConcurrentMap<MonitorConfig, Gauge<?>> GAUGES = new ConcurrentHashMap<>();
+    static final ConcurrentMap<String, MonitorRegistry> TIER_REGISTRIES = new ConcurrentHashMap<>();
+    static final CardinalityLimiter CARDINALITY_LIMITER = new CardinalityLimiter();
+    static final IdleMetricEvictor IDLE_METRIC_EVICTOR = new IdleMetricEvictor(
+            Arrays.asList(BASIC_COUNTERS, RESETTING_NON_RATE_COUNTERS, TIMERS, METERS), CARDINALITY_LIMITER);
 
     private final Factory factory;
     private final Logger logger;
+    private final String tier;
+    private final CardinalityLimiter cardinalityLimiter;
 
     /**
      * Create a new instance of MetricObjects; intended to be used by non-unit-test code.
@@ -73,8 +93,71 @@ public class MetricObjects {
      * @param factory The Factory to use to obtain a MonitorRegistry
      */
     MetricObjects(Factory factory, Logger logger) {
+        this(factory, logger, null, factory.getCardinalityLimiter());
+    }
+
+    private MetricObjects(Factory factory, Logger logger, String tier, CardinalityLimiter cardinalityLimiter) {
         this.logger = logger;
         this.factory = factory;
+        this.tier = tier;
+        this.cardinalityLimiter = cardinalityLimiter;
+    }
+
+    /**
+     * Returns the CardinalityLimiter that caps the number of Counters and Timers created by every MetricObjects in this
+     * JVM; there are no caps until its limits are set.
+     *
+     * @return the CardinalityLimiter
+     */
+    public static CardinalityLimiter getCardinalityLimiter() {
+        return CARDINALITY_LIMITER;
+    }
+
+    /**
+     * Returns the IdleMetricEvictor that evicts the Counters and Timers, created by every MetricObjects in this JVM and
+     * looked up through a MetricScope or in a subsystem named to the evictor, that have not been updated for a number
+     * of intervals; nothing is evicted until it is started.
+     *
+     * @return the IdleMetricEvictor
+     */
+    public static IdleMetricEvictor getIdleMetricEvictor() {
+        return IDLE_METRIC_EVICTOR;
+    }
+
+    /**
+     * Returns a MetricObjects whose metrics belong to a resolution tier, such as "5s" for the few metrics that need to be
+     * published every five seconds. Those metrics are tagged with the tier, are registered with the registry of the
+     * tier instead of the default registry, and are published by the MetricPublishing whose GraphiteConfig names the
+     * tier, on its own schedule; the publisher of everything else never polls them. The tier tag is not part of the
+     * Graphite name, so a metric must not be created with the same name in two tiers.
+     *
+     * @param tier the name of the tier
+     * @return a MetricObjects, and through {@link #createMetricScope} MetricScopes, that create metrics in the tier
+     */
+    public MetricObjects forTier(String tier) {
+        return new MetricObjects(factory, logger, tier, cardinalityLimiter);
+    }
+
+    /**
+     * The resolution tier of the metrics created through this MetricObjects.
+     *
+     * @return the name of the tier, or null for the default tier
+     */
+    public String getTier() {
+        return tier;
+    }
+
+    /**
+     * Returns the registry that holds the metrics of a resolution tier, creating it the first time.
+     *
+     * @param tier the name of the tier, or null for the default tier
+     * @return the registry of the tier; for the default tier, Servo's DefaultMonitorRegistry
+     */
+    static MonitorRegistry getMonitorRegistry(String tier) {
+        if (tier == null) {
+            return DefaultMonitorRegistry.getInstance();
+        }
+        return TIER_REGISTRIES.computeIfAbsent(tier, key -> new TierMonitorRegistry());
     }
 
     /**
@@ -94,8 +177,7 @@ public class MetricObjects {
      */
     public Counter createAndRegisterCounter(String subsystem, String application, String klass, String counterName) {
         final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, counterName);
-        return checkForExistingCounter(
-                monitorConfig, new BasicCounter(monitorConfig), BASIC_COUNTERS);
+        return checkForExisting(monitorConfig, BasicCounter::new, BASIC_COUNTERS, COUNTER_ALREADY_REGISTERED);
     }
 
     /**
@@ -115,8 +197,8 @@ public class MetricObjects {
      */
     public Counter createAndRegisterResettingCounter(String subsystem, String application, String klass, String counterName) {
         final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, counterName);
-        return checkForExistingCounter(
-                monitorConfig, new ResettingCounter(monitorConfig), RESETTING_NON_RATE_COUNTERS);
+        return checkForExisting(
+                monitorConfig, ResettingCounter::new, RESETTING_NON_RATE_COUNTERS, COUNTER_ALREADY_REGISTERED);
     }
 
     /**
@@ -143,20 +225,126 @@ public class MetricObjects {
                                                      String counterName) {
         final MonitorConfig monitorConfig = buildMonitorConfigForErrors(
                 metricGroup, subsystem, fullyQualifiedClassName, lineNumber, counterName);
-        return checkForExistingCounter(
-                monitorConfig, new ResettingCounter(monitorConfig), RESETTING_NON_RATE_COUNTERS);
+        return checkForExisting(
+                monitorConfig, ResettingCounter::new, RESETTING_NON_RATE_COUNTERS, COUNTER_ALREADY_REGISTERED);
+    }
+
+    /**
+     * Creates a new StripedResettingCounter with three tags; use this method instead of
+     * {@link #createAndRegisterResettingCounter(String, String, String, String)} for counters that many threads
+     * increment at the same time. The returned Counter shares its identity with the ResettingCounter of the same
+     * arguments: if either has already been registered, the existing Counter is returned.
+     * This method is thread-safe; see the comments in {@link #createAndRegisterCounter}.
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Counter.
+     * @param counterName the name of the Counter, usually the name of the variable holding the Counter instance;
+     *                    using upper case for counterName is recommended.
+     * @return a new Counter that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Counter createAndRegisterStripedResettingCounter(
+            String subsystem, String application, String klass, String counterName) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, counterName);
+        return checkForExisting(
+                monitorConfig, StripedResettingCounter::new, RESETTING_NON_RATE_COUNTERS, COUNTER_ALREADY_REGISTERED);
+    }
+
+    /**
+     * Creates a new ThreadLocalResettingCounter with three tags; use this method instead of
+     * {@link #createAndRegisterStripedResettingCounter(String, String, String, String)} for counters incremented so
+     * often that even a striped atomic increment is too expensive, and whose counts may be reported an interval late
+     * (see {@link ThreadLocalResettingCounter}). The returned Counter shares its identity with the ResettingCounter of the
+     * same arguments: if either has already been registered, the existing Counter is returned.
+     * This method is thread-safe; see the comments in {@link #createAndRegisterCounter}.
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Counter.
+     * @param counterName the name of the Counter, usually the name of the variable holding the Counter instance;
+     *                    using upper case for counterName is recommended.
+     * @return a new Counter that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Counter createAndRegisterThreadLocalCounter(
+            String subsystem, String application, String klass, String counterName) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, counterName);
+        return checkForExisting(monitorConfig, ThreadLocalResettingCounter::new, RESETTING_NON_RATE_COUNTERS,
+                COUNTER_ALREADY_REGISTERED);
+    }
+
+    /**
+     * Creates a new StripedResettingCounter with four tags; use this method instead of
+     * {@link #createAndRegisterResettingCounter(String, String, String, String, String)} for counters that many threads
+     * increment at the same time. The returned Counter shares its identity with the ResettingCounter of the same
+     * arguments: if either has already been registered, the existing Counter is returned.
+     * This method is thread-safe; see the comments in {@link #createAndRegisterCounter}.
+     *
+     * @param metricGroup             the metric group, typically "errors".
+     * @param subsystem               the subsystem, typically something like "pipes" or "trends".
+     * @param fullyQualifiedClassName the fully (package) qualified class name, with '.' replaced by '-'.
+     * @param lineNumber              the line number of the source code at which the error occurred or was logged
+     * @param counterName             the name of the Counter, usually the name of the variable holding the Counter
+     *                                instance; using upper case for counterName is recommended.
+     * @return a new Counter that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Counter createAndRegisterStripedResettingCounter(String metricGroup,
+                                                            String subsystem,
+                                                            String fullyQualifiedClassName,
+                                                            String lineNumber,
+                                                            String counterName) {
+        final MonitorConfig monitorConfig = buildMonitorConfigForErrors(
+                metricGroup, subsystem, fullyQualifiedClassName, lineNumber, counterName);
+        return checkForExisting(
+                monitorConfig, StripedResettingCounter::new, RESETTING_NON_RATE_COUNTERS, COUNTER_ALREADY_REGISTERED);
     }
 
-    private Counter checkForExistingCounter(MonitorConfig monitorConfig,
-                                            Counter counter,
-                                            Map<MonitorConfig, Counter> counters) {
-        final Counter existingCounter = counters.putIfAbsent(monitorConfig, counter);
-        if (existingCounter != null) {
-            logger.warn(String.format(COUNTER_ALREADY_REGISTERED, existingCounter.toString()));
-            return existingCounter;
+    /**
+     * Creates a MetricScope, a handle on the subsystem, application and class tags through which Counters and Timers
+     * with those tags can be looked up by name, on every event if need be, without allocating; see {@link MetricScope}.
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the metrics.
+     * @return a new MetricScope that creates and registers its metrics through this MetricObjects
+     */
+    public MetricScope createMetricScope(String subsystem, String application, String klass) {
+        final MetricScope metricScope = new MetricScope(this, subsystem, application, klass);
+        IDLE_METRIC_EVICTOR.register(metricScope);
+        return metricScope;
+    }
+
+    /**
+     * Returns the metric already created with the configuration, or else creates and registers it, unless the
+     * {@link CardinalityLimiter} rejects it, in which case the overflow metric that it is folded into is returned, and
+     * remembered under the configuration so that the metric is only rejected once.
+     */
+    private <M extends Monitor<?>> M checkForExisting(MonitorConfig monitorConfig,
+                                                      Function<MonitorConfig, M> constructor,
+                                                      ConcurrentMap<MonitorConfig, M> monitors,
+                                                      String alreadyRegisteredFormat) {
+        final M existingMonitor = monitors.get(monitorConfig);
+        if (existingMonitor != null) {
+            if (!CardinalityLimiter.isRememberedRejection(monitorConfig, existingMonitor)) {
+                logger.warn(String.format(alreadyRegisteredFormat, existingMonitor.toString()));
+            }
+            return existingMonitor;
+        }
+        // Admitting inside computeIfAbsent() counts a metric once even when several threads create it at the same time
+        final M monitor = monitors.computeIfAbsent(monitorConfig,
+                config -> cardinalityLimiter.admit(config) ? register(constructor.apply(config)) : null);
+        if (monitor != null) {
+            return monitor;
         }
-        factory.getMonitorRegistry().register(counter);
-        return counter;
+        final M overflowMonitor = monitors.computeIfAbsent(cardinalityLimiter.overflowConfig(monitorConfig),
+                config -> register(constructor.apply(config)));
+        final M rememberedMonitor = monitors.computeIfAbsent(monitorConfig,
+                config -> cardinalityLimiter.rememberRejection() ? overflowMonitor : null);
+        return rememberedMonitor != null ? rememberedMonitor : overflowMonitor;
+    }
+
+    private <M extends Monitor<?>> M register(M monitor) {
+        getMonitorRegistry().register(monitor);
+        return monitor;
     }
 
     /**
@@ -177,7 +365,57 @@ public class MetricObjects {
     public Timer createAndRegisterBasicTimer(
             String subsystem, String application, String klass, String timerName, TimeUnit timeUnit) {
         final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, timerName);
-        return checkForExistingTimer(monitorConfig, new BasicTimer(monitorConfig, timeUnit));
+        return checkForExisting(
+                monitorConfig, config -> new UpdateTrackingBasicTimer(config, timeUnit), TIMERS,
+                TIMER_ALREADY_REGISTERED);
+    }
+
+    /**
+     * Creates a new HistogramTimer, which publishes the count, p50, p90, p99, p999 and max of the durations recorded in
+     * each interval; you should only call this method once for each HistogramTimer in your code.
+     * This method is thread-safe; see the comments in {@link #createAndRegisterCounter}.
+     * If you call the method twice with the same arguments, the Timer created during the first call will be returned
+     * by the second call. Note that the Timer configuration specified by the first four arguments to this method must
+     * be unique across all Timers (BasicTimer, BucketTimer, HistogramTimer and StatsTimer).
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Timer.
+     * @param timerName   the name of the Timer, usually the name of the variable holding the Timer instance;
+     *                    using upper case for timerName is recommended.
+     * @param timeUnit    desired precision, typically TimeUnit.MILLISECONDS.
+     * @return a new HistogramTimer that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Timer createAndRegisterHistogramTimer(
+            String subsystem, String application, String klass, String timerName, TimeUnit timeUnit) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, timerName);
+        return checkForExisting(
+                monitorConfig, config -> new HistogramTimer(config, timeUnit), TIMERS, TIMER_ALREADY_REGISTERED);
+    }
+
+    /**
+     * Creates a new ThreadLocalTimer, which publishes the count, total time and max of the durations recorded in each
+     * interval, and records without any atomic work, for timers recorded so often that the other timers are too
+     * expensive and whose durations may be reported an interval late (see {@link ThreadLocalTimer}); you should only
+     * call this method once for each ThreadLocalTimer in your code.
+     * This method is thread-safe; see the comments in {@link #createAndRegisterCounter}.
+     * If you call the method twice with the same arguments, the Timer created during the first call will be returned
+     * by the second call. Note that the Timer configuration specified by the first four arguments to this method must
+     * be unique across all Timers (BasicTimer, BucketTimer, HistogramTimer, ThreadLocalTimer and StatsTimer).
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Timer.
+     * @param timerName   the name of the Timer, usually the name of the variable holding the Timer instance;
+     *                    using upper case for timerName is recommended.
+     * @param timeUnit    desired precision, typically TimeUnit.MILLISECONDS.
+     * @return a new ThreadLocalTimer that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Timer createAndRegisterThreadLocalTimer(
+            String subsystem, String application, String klass, String timerName, TimeUnit timeUnit) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, timerName);
+        return checkForExisting(
+                monitorConfig, config -> new ThreadLocalTimer(config, timeUnit), TIMERS, TIMER_ALREADY_REGISTERED);
     }
 
     /**
@@ -203,17 +441,164 @@ public class MetricObjects {
         final MonitorConfig monitorConfig = buildMonitorConfigForBuckets(
                 subsystem, application, timerName);
         final BucketConfig bucketConfig = new BucketConfig.Builder().withBuckets(buckets).build();
-        return checkForExistingTimer(monitorConfig, new BucketTimer(monitorConfig, bucketConfig, timeUnit));
+        return checkForExisting(monitorConfig,
+                config -> new UpdateTrackingBucketTimer(config, bucketConfig, timeUnit), TIMERS,
+                TIMER_ALREADY_REGISTERED);
     }
 
-    private Timer checkForExistingTimer(MonitorConfig monitorConfig, Timer timer) {
-        final Timer existingTimer = TIMERS.putIfAbsent(monitorConfig, timer);
-        if (existingTimer != null) {
-            logger.warn(String.format(TIMER_ALREADY_REGISTERED, existingTimer.toString()));
-            return existingTimer;
+    /**
+     * Creates a new Meter with a one minute rolling window; a Meter is a Counter whose one, five and fifteen minute rates
+     * and rolling window count can be read by the application itself (see {@link Meter}).
+     * This method is thread-safe; see the comments in {@link #createAndRegisterCounter}.
+     * If you call the method twice with the same arguments, the Meter created during the first call will be returned
+     * by the second call.
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Meter.
+     * @param meterName   the name of the Meter, usually the name of the variable holding the Meter instance;
+     *                    using upper case for meterName is recommended.
+     * @return a new Meter that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Meter createAndRegisterMeter(String subsystem, String application, String klass, String meterName) {
+        return createAndRegisterMeter(
+                subsystem, application, klass, meterName, Meter.DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a new Meter with the specified rolling window; see
+     * {@link #createAndRegisterMeter(String, String, String, String)}. The window of a Meter that has already been
+     * created is not changed.
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Meter.
+     * @param meterName   the name of the Meter, usually the name of the variable holding the Meter instance;
+     *                    using upper case for meterName is recommended.
+     * @param window      the length of the rolling window, rounded up to a multiple of five seconds
+     * @param timeUnit    the unit of window
+     * @return a new Meter that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Meter createAndRegisterMeter(String subsystem,
+                                       String application,
+                                       String klass,
+                                       String meterName,
+                                       long window,
+                                       TimeUnit timeUnit) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, meterName);
+        return checkForExisting(
+                monitorConfig, config -> new Meter(config, window, timeUnit), METERS, METER_ALREADY_REGISTERED);
+    }
+
+    /**
+     * Creates a new BasicGauge, whose value is read from the Callable each time it is polled, and registers it. Unlike
+     * the other methods of this class, calling this method again with the same tags replaces (and unregisters) the
+     * Gauge registered by the earlier call, because a Gauge is bound to the object whose state it reads.
+     *
+     * @param subsystem   the subsystem, typically something like "pipes" or "trends".
+     * @param application the application in the subsystem.
+     * @param klass       the metric class, frequently (but not necessarily) the class containing the Gauge.
+     * @param gaugeName   the name of the Gauge; using upper case for gaugeName is recommended.
+     * @param callable    returns the current value of the Gauge
+     * @param <T>         the type of the value of the Gauge
+     * @return a new Gauge that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    <T extends Number> Gauge<T> registerGauge(
+            String subsystem, String application, String klass, String gaugeName, Callable<T> callable) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, gaugeName);
+        return replaceGauge(monitorConfig, new BasicGauge<>(monitorConfig, callable));
+    }
+
+    /**
+     * Creates a new CachedGauge, whose value is sampled from the Supplier on a background thread at most once per
+     * minimum sampling period, and registers it; polling the Gauge returns the value of the last sample, so an
+     * expensive, failing or slow supplier never stalls the poll (see {@link CachedGauge}). Unlike the methods that create
+     * Counters and Timers, calling this method again with the same tags replaces (and unregisters) the Gauge registered
+     * by the earlier call, because a Gauge is bound to the object whose state it reads.
+     *
+     * @param subsystem         the subsystem, typically something like "pipes" or "trends".
+     * @param application       the application in the subsystem.
+     * @param klass             the metric class, frequently (but not necessarily) the class containing the Gauge.
+     * @param gaugeName         the name of the Gauge; using upper case for gaugeName is recommended.
+     * @param supplier          returns the current value of the Gauge
+     * @param minSamplingPeriod the minimum time between the end of one sample and the start of the next
+     * @param timeUnit          the unit of minSamplingPeriod
+     * @param <T>               the type of the value of the Gauge
+     * @return a new Gauge that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public <T extends Number> Gauge<T> createAndRegisterGauge(String subsystem,
+                                                              String application,
+                                                              String klass,
+                                                              String gaugeName,
+                                                              Supplier<T> supplier,
+                                                              long minSamplingPeriod,
+                                                              TimeUnit timeUnit) {
+        final MonitorConfig monitorConfig = buildMonitorConfig(subsystem, application, klass, gaugeName);
+        return replaceGauge(monitorConfig, new CachedGauge<>(monitorConfig, supplier, minSamplingPeriod, timeUnit));
+    }
+
+    /**
+     * Creates a new CachedGauge of a long value; see
+     * {@link #createAndRegisterGauge(String, String, String, String, Supplier, long, TimeUnit)}.
+     *
+     * @param subsystem         the subsystem, typically something like "pipes" or "trends".
+     * @param application       the application in the subsystem.
+     * @param klass             the metric class, frequently (but not necessarily) the class containing the Gauge.
+     * @param gaugeName         the name of the Gauge; using upper case for gaugeName is recommended.
+     * @param supplier          returns the current value of the Gauge
+     * @param minSamplingPeriod the minimum time between the end of one sample and the start of the next
+     * @param timeUnit          the unit of minSamplingPeriod
+     * @return a new Gauge that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Gauge<Long> createAndRegisterLongGauge(String subsystem,
+                                                  String application,
+                                                  String klass,
+                                                  String gaugeName,
+                                                  LongSupplier supplier,
+                                                  long minSamplingPeriod,
+                                                  TimeUnit timeUnit) {
+        return createAndRegisterGauge(
+                subsystem, application, klass, gaugeName, supplier::getAsLong, minSamplingPeriod, timeUnit);
+    }
+
+    /**
+     * Creates a new CachedGauge of a double value; see
+     * {@link #createAndRegisterGauge(String, String, String, String, Supplier, long, TimeUnit)}.
+     *
+     * @param subsystem         the subsystem, typically something like "pipes" or "trends".
+     * @param application       the application in the subsystem.
+     * @param klass             the metric class, frequently (but not necessarily) the class containing the Gauge.
+     * @param gaugeName         the name of the Gauge; using upper case for gaugeName is recommended.
+     * @param supplier          returns the current value of the Gauge
+     * @param minSamplingPeriod the minimum time between the end of one sample and the start of the next
+     * @param timeUnit          the unit of minSamplingPeriod
+     * @return a new Gauge that this method registers in the DefaultMonitorRegistry before returning it.
+     */
+    public Gauge<Double> createAndRegisterDoubleGauge(String subsystem,
+                                                      String application,
+                                                      String klass,
+                                                      String gaugeName,
+                                                      DoubleSupplier supplier,
+                                                      long minSamplingPeriod,
+                                                      TimeUnit timeUnit) {
+        return createAndRegisterGauge(
+                subsystem, application, klass, gaugeName, supplier::getAsDouble, minSamplingPeriod, timeUnit);
+    }
+
+    /**
+     * Registers the Gauge, first unregistering the Gauge with the same configuration, if there is one.
+     */
+    private <T extends Number> Gauge<T> replaceGauge(MonitorConfig monitorConfig, Gauge<T> gauge) {
+        final Gauge<?> replacedGauge = GAUGES.put(monitorConfig, gauge);
+        if (replacedGauge != null) {
+            getMonitorRegistry().unregister(replacedGauge);
         }
-        factory.getMonitorRegistry().register(timer);
-        return timer;
+        getMonitorRegistry().register(gauge);
+        return gauge;
+    }
+
+    private MonitorRegistry getMonitorRegistry() {
+        return tier == null ? factory.getMonitorRegistry() : factory.getMonitorRegistry(tier);
     }
 
     private MonitorConfig buildMonitorConfigForErrors(String metricGroup,
@@ -236,31 +621,38 @@ public class MetricObjects {
         return MonitorConfig.builder(monitorName).withTags(taggingContext.getTags()).build();
     }
 
-    private static TagList getTagsForErrors(
+    private TagList getTagsForErrors(
             String metricGroup, String subsystem, String fullyQualifiedClassName, String lineNumber) {
-        final SmallTagMap.Builder builder = new SmallTagMap.Builder(4);
+        final SmallTagMap.Builder builder = new SmallTagMap.Builder(5);
         builder.add(Tags.newTag(TAG_KEY_METRIC_GROUP, metricGroup));
         builder.add(Tags.newTag(TAG_KEY_LINE_NUMBER, lineNumber));
         builder.add(Tags.newTag(TAG_KEY_SUBSYSTEM, subsystem));
         builder.add(Tags.newTag(TAG_KEY_FULLY_QUALIFIED_CLASS_NAME, fullyQualifiedClassName));
-        return new BasicTagList(builder.result());
+        return toTagList(builder);
     }
 
     @SuppressWarnings("Duplicates")
-    private static TagList getTagsForBuckets(String subsystem, String application) {
-        final SmallTagMap.Builder builder = new SmallTagMap.Builder(3);
+    private TagList getTagsForBuckets(String subsystem, String application) {
+        final SmallTagMap.Builder builder = new SmallTagMap.Builder(4);
         builder.add(Tags.newTag(TAG_KEY_METRIC_GROUP, METRIC_GROUP_BUCKETS));
         builder.add(Tags.newTag(TAG_KEY_SUBSYSTEM, subsystem));
         builder.add(Tags.newTag(TAG_KEY_APPLICATION, application));
-        return new BasicTagList(builder.result());
+        return toTagList(builder);
     }
 
     @SuppressWarnings("Duplicates")
-    private static TagList getTags(String subsystem, String application, String klass) {
-        final SmallTagMap.Builder builder = new SmallTagMap.Builder(3);
+    private TagList getTags(String subsystem, String application, String klass) {
+        final SmallTagMap.Builder builder = new SmallTagMap.Builder(4);
         builder.add(Tags.newTag(TAG_KEY_SUBSYSTEM, subsystem));
         builder.add(Tags.newTag(TAG_KEY_APPLICATION, application));
         builder.add(Tags.newTag(TAG_KEY_CLASS, klass));
+        return toTagList(builder);
+    }
+
+    private TagList toTagList(SmallTagMap.Builder builder) {
+        if (tier != null) {
+            builder.add(Tags.newTag(TAG_KEY_TIER, tier));
+        }
         return new BasicTagList(builder.result());
     }
 
@@ -275,6 +667,14 @@ public class MetricObjects {
         MonitorRegistry getMonitorRegistry() {
             return DefaultMonitorRegistry.getInstance();
         }
+
+        MonitorRegistry getMonitorRegistry(String tier) {
+            return MetricObjects.getMonitorRegistry(tier);
+        }
+
+        CardinalityLimiter getCardinalityLimiter() {
+            return CARDINALITY_LIMITER;
+        }
     }
 }
 
@@ -16,83 +16,202 @@
  */
 package com.expedia.www.haystack.metrics;
 
-import com.netflix.servo.publish.AsyncMetricObserver;
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.OverflowPolicy;
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.WaitStrategy;
+import com.netflix.servo.publish.BaseMetricObserver;
 import com.netflix.servo.publish.BasicMetricFilter;
 import com.netflix.servo.publish.CounterToRateMetricTransform;
+import com.netflix.servo.publish.MetricFilter;
 import com.netflix.servo.publish.MetricObserver;
 import com.netflix.servo.publish.MetricPoller;
-import com.netflix.servo.publish.MonitorRegistryMetricPoller;
 import com.netflix.servo.publish.PollRunnable;
-import com.netflix.servo.publish.PollScheduler;
-import com.netflix.servo.publish.graphite.GraphiteMetricObserver;
 import com.netflix.servo.util.VisibleForTesting;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
  * Publishes metrics to InfluxDb on a regular interval. The frequency of publishing is controlled by configuration.
- * Each application that uses this class must call MetricPublishing.start() in its main() method.
+ * Each application that uses this class must call MetricPublishing.start() in its main() method. Every MetricPublishing
+ * created with the no-argument constructor shares one publisher per JVM, which only the first start() configures; a
+ * MetricPublishing created with a name is an independent publisher, with its own thread, poll interval, sinks and
+ * (optionally) filter, so that, for example, a few critical metrics can be published every second alongside a
+ * publisher that sends everything else every minute.
  */
 @SuppressWarnings("WeakerAccess")
 public class MetricPublishing {
     static final String ASYNC_METRIC_OBSERVER_NAME = "haystack";
     static final int POLL_INTERVAL_SECONDS_TO_EXPIRE_TIME_MULTIPLIER = 2000;
     static final String HOST_NAME_UNKNOWN_HOST_EXCEPTION = "HostName-UnknownHostException";
-    static final String GRAPHITE_OBSERVER_DEBUG_MSG = "Creating GraphiteObserver with hostAndPort [%s] sendasrate [%b]";
+    static final String GRAPHITE_OBSERVER_DEBUG_MSG =
+            "Creating GraphiteObserver with hostAndPort [%s] protocol [%s] sendasrate [%b]";
+    static final String SPOOL_OPEN_FAILED_MSG =
+            "Opening the metric spool file [%s] failed; metrics that cannot be sent will be dropped";
+    static final String UNKNOWN_PROTOCOL_MSG = "Unknown Graphite protocol [%s]; expected [%s], [%s], [%s] or [%s]";
+    static final String NO_GRAPHITE_CONFIGS_MSG = "At least one GraphiteConfig is required";
+    static final String DISAGREEING_CONFIGS_MSG = "GraphiteConfig %d has a different tier, pollintervalseconds or "
+            + "parallelpollthreshold than GraphiteConfig 0; sinks that poll differently need publishers of their own";
 
-    private static final AtomicInteger POLL_SCHEDULER_START_COUNT = new AtomicInteger(0);
-    private static final PollScheduler POLL_SCHEDULER = PollScheduler.getInstance();
+    private static final PublishingScheduler SHARED_SCHEDULER = new PublishingScheduler(null);
+    private static final List<String> PROTOCOLS = Arrays.asList(GraphiteConfig.PROTOCOL_PLAINTEXT,
+            GraphiteConfig.PROTOCOL_PICKLE, GraphiteConfig.PROTOCOL_UDP, GraphiteConfig.PROTOCOL_INFLUXDB);
     private static final String PREFIX = "${";
     private static final String SUFFIX = "}";
 
     private final Factory factory;
     private final Logger logger;
+    private final String name;
+    private final PublishingScheduler scheduler;
 
     /**
-     * Creates a new instance of MetricPublishing; intended to be used by non-unit-test code.
+     * Creates a new instance of MetricPublishing that controls the publisher shared by the whole JVM; intended to be
+     * used by non-unit-test code.
      */
     public MetricPublishing() {
-        this(new Factory(), LoggerFactory.getLogger(MetricPublishing.class));
+        this(new Factory(), LoggerFactory.getLogger(MetricPublishing.class), null, SHARED_SCHEDULER);
     }
 
     /**
-     * Creates a new instance of MetricPublishing with a user-specified Factory; intended to be used by unit-test code
-     * so that the Factory can be mocked.
+     * Creates a new, independent publisher, which has its own thread (named "MetricPublishing-" followed by the name),
+     * and whose publishing metrics (see "Monitoring the publishing itself" in the README) have classes that end with
+     * "-" and the name. Polling a ResettingCounter resets it, so independent publishers should be given filters that
+     * select different metrics; see {@link #start(List, MetricFilter)}.
      *
-     * @param factory The factory to use.
+     * @param name the name of the publisher, such as "critical"
      */
-    MetricPublishing(Factory factory, Logger logger) {
+    public MetricPublishing(String name) {
+        this(new Factory(), LoggerFactory.getLogger(MetricPublishing.class), name, new PublishingScheduler(name));
+    }
+
+    /**
+     * Creates a new instance of MetricPublishing with a user-specified Factory and scheduler; intended to be used by
+     * unit-test code so that the Factory can be mocked.
+     *
+     * @param factory   The factory to use.
+     * @param name      The name of the publisher, or null for the shared publisher.
+     * @param scheduler The scheduler that runs the poll task.
+     */
+    MetricPublishing(Factory factory, Logger logger, String name, PublishingScheduler scheduler) {
         this.factory = factory;
         this.logger = logger;
+        this.name = name;
+        this.scheduler = scheduler;
     }
 
     /**
      * Starts the polling that will publish metrics at regular intervals. This start() method should be called by
      * the main() method of the application. Calling this method more than once is allowed, but will have no effect if
-     * the polling has already been started.
+     * the polling has already been started. The configuration is checked at once, but start() returns without waiting
+     * for the Graphite observers to be created, as that needs the name of the local host; they are created in the
+     * background, and the first polls are buffered until they are ready.
      *
      * @param graphiteConfig Tells the library how to talk to Graphite
+     * @throws IllegalArgumentException if the protocol, a relay address or a queue option is not valid
      */
     public void start(GraphiteConfig graphiteConfig) {
-        synchronized (POLL_SCHEDULER) {
-            POLL_SCHEDULER_START_COUNT.addAndGet(1);
-            if(!POLL_SCHEDULER.isStarted()) {
-                POLL_SCHEDULER.start();
-                final MetricPoller monitorRegistryMetricPoller = factory.createMonitorRegistryMetricPoller();
-                final List<MetricObserver> observers = Collections.singletonList(createGraphiteObserver(graphiteConfig));
-                final PollRunnable task = factory.createTask(monitorRegistryMetricPoller, observers);
-                POLL_SCHEDULER.addPoller(task, graphiteConfig.pollintervalseconds(), SECONDS);
+        start(Collections.singletonList(graphiteConfig));
+    }
+
+    /**
+     * Starts the polling that will publish metrics at regular intervals to several sinks, for example a primary and a
+     * secondary Graphite cluster; see {@link #start(GraphiteConfig)}. The sinks share one poll, so every GraphiteConfig
+     * must have the same tier(), pollintervalseconds() and parallelpollthreshold(): the registry of that tier is polled
+     * once per interval, and the metrics of that poll are handed to every sink. Sinks that need another tier or
+     * interval need a publisher of their own (see {@link #MetricPublishing(String)}). Each sink has its own
+     * asynchronous queue and thread, so a slow or unreachable sink delays neither the other sinks nor the poll.
+     *
+     * @param graphiteConfigs Tell the library how to talk to each Graphite sink
+     * @throws IllegalArgumentException if the GraphiteConfigs disagree on the tier or the interval of the poll, or one
+     *                                  of them is not valid (see {@link #start(GraphiteConfig)})
+     */
+    public void start(List<GraphiteConfig> graphiteConfigs) {
+        start(graphiteConfigs, BasicMetricFilter.MATCH_ALL);
+    }
+
+    /**
+     * Starts the polling that will publish the metrics that the filter selects; see {@link #start(List)}. A filter is
+     * typically only useful for a publisher created with {@link #MetricPublishing(String)}, as it lets several
+     * publishers divide the metrics between them.
+     *
+     * @param graphiteConfigs Tell the library how to talk to each Graphite sink
+     * @param filter          Selects the metrics to publish, by their MonitorConfig
+     */
+    public void start(List<GraphiteConfig> graphiteConfigs, MetricFilter filter) {
+        start(graphiteConfigs, filter, Collections.emptyList());
+    }
+
+    /**
+     * Starts the polling that will publish the metrics that the filter selects to each Graphite sink and to each of the
+     * other observers, such as a {@link PrometheusEndpoint}, which then share every poll; see
+     * {@link #start(List, MetricFilter)}. Sharing the poll matters: polling a registry resets its ResettingCounters, so
+     * two pollers of one registry would each see only some of the counts.
+     *
+     * @param graphiteConfigs Tell the library how to talk to each Graphite sink
+     * @param filter          Selects the metrics to publish, by their MonitorConfig
+     * @param otherObservers  Also observe each poll, after the Graphite sinks
+     */
+    public void start(List<GraphiteConfig> graphiteConfigs, MetricFilter filter, List<MetricObserver> otherObservers) {
+        if (graphiteConfigs.isEmpty()) {
+            throw new IllegalArgumentException(NO_GRAPHITE_CONFIGS_MSG);
+        }
+        synchronized (scheduler) {
+            if (!scheduler.isStarted()) {
+                validate(graphiteConfigs);
+            }
+            if (scheduler.start()) {
+                final GraphiteConfig firstGraphiteConfig = graphiteConfigs.get(0);
+                final MetricPoller metricPoller = factory.createMonitorRegistryMetricPoller(firstGraphiteConfig.tier(),
+                        firstGraphiteConfig.parallelpollthreshold(), factory.getPublishingMetrics(name, 0), scheduler);
+                final List<MetricObserver> observers = deferGraphiteObservers(graphiteConfigs);
+                observers.addAll(otherObservers);
+                final PollRunnable task = factory.createTask(metricPoller, filter, observers);
+                scheduler.schedule(task, firstGraphiteConfig.pollintervalseconds(), SECONDS);
+            }
+        }
+    }
+
+    /**
+     * Checks the GraphiteConfigs before the publisher is started, so that a bad configuration fails start() instead of
+     * being found, or ignored, later; everything but the host names, which the observers only need once they are
+     * created in the background, is checked here.
+     */
+    void validate(List<GraphiteConfig> graphiteConfigs) {
+        final GraphiteConfig firstGraphiteConfig = graphiteConfigs.get(0);
+        for (int i = 0; i < graphiteConfigs.size(); i++) {
+            final GraphiteConfig graphiteConfig = graphiteConfigs.get(i);
+            if (i > 0 && (!Objects.equals(graphiteConfig.tier(), firstGraphiteConfig.tier())
+                    || graphiteConfig.pollintervalseconds() != firstGraphiteConfig.pollintervalseconds()
+                    || graphiteConfig.parallelpollthreshold() != firstGraphiteConfig.parallelpollthreshold())) {
+                throw new IllegalArgumentException(String.format(DISAGREEING_CONFIGS_MSG, i));
+            }
+            final String protocol = graphiteConfig.protocol();
+            if (!PROTOCOLS.contains(protocol)) {
+                throw unknownProtocol(protocol);
+            }
+            final String relays = graphiteConfig.relays();
+            if (relays != null && !relays.isEmpty()) {
+                parseRelays(graphiteConfig, relays);
+            }
+            if (GraphiteConfig.QUEUE_TYPE_RING_BUFFER.equals(graphiteConfig.queuetype())) {
+                waitStrategy(graphiteConfig);
+                overflowPolicy(graphiteConfig);
             }
         }
     }
@@ -102,31 +221,126 @@ public class MetricPublishing {
      */
     public void stop() {
         // Log4j2 start-up calls start() twice for a particular appender, and therefore calls stop() twice, but (as it
-        // turns out) calls start() twice before the first call to stop()! As a result we have to count the number of
-        // times that start() was called and not actually stop until the last call. The <code><= 0</code> check in this
-        // method allows the unit test to execute the <code>catch(IllegalStateException e)</code> by calling stop()
-        // before ever calling start().
-        try {
-            if(POLL_SCHEDULER_START_COUNT.decrementAndGet() <= 0) {
-                POLL_SCHEDULER.stop();
-            }
-        } catch(IllegalStateException e) {
-            // The poller wasn't started; just ignore this error
+        // turns out) calls start() twice before the first call to stop()! As a result the scheduler counts the number
+        // of times that start() was called and does not actually stop until the last call.
+        scheduler.stop();
+    }
+
+    /**
+     * Creates each Graphite observer on a thread of its own, because creating one resolves the name of the local host,
+     * which can take seconds; until it is ready, its DeferredMetricObserver buffers up to queuesize() polls.
+     */
+    List<MetricObserver> deferGraphiteObservers(List<GraphiteConfig> graphiteConfigs) {
+        final List<MetricObserver> observers = new ArrayList<>(graphiteConfigs.size());
+        for (int i = 0; i < graphiteConfigs.size(); i++) {
+            final GraphiteConfig graphiteConfig = graphiteConfigs.get(i);
+            final PublishingMetrics publishingMetrics = factory.getPublishingMetrics(name, i);
+            observers.add(factory.createDeferredMetricObserver(
+                    () -> createGraphiteObserver(graphiteConfig, publishingMetrics), graphiteConfig.queuesize(),
+                    publishingMetrics));
         }
+        return observers;
     }
 
-    MetricObserver createGraphiteObserver(GraphiteConfig graphiteConfig) {
-        final String host = getHost(graphiteConfig);
-        final String hostAndPort = host + ":" + graphiteConfig.port();
-        final MetricObserver graphiteMetricObserver = factory.createGraphiteMetricObserver(
-                ASYNC_METRIC_OBSERVER_NAME, hostAndPort);
-        final MetricObserver async = async(graphiteConfig, graphiteMetricObserver);
+    MetricObserver createGraphiteObserver(GraphiteConfig graphiteConfig, PublishingMetrics publishingMetrics) {
+        final String protocol = graphiteConfig.protocol();
+        final String relays = graphiteConfig.relays();
+        final String hostAndPort;
+        final MetricObserver async;
+        if (relays == null || relays.isEmpty()) {
+            final String host = getHost(graphiteConfig);
+            final int port = graphiteConfig.port();
+            hostAndPort = host + ":" + port;
+            final MetricObserver graphiteMetricObserver = spool(graphiteConfig,
+                    createGraphiteMetricObserver(graphiteConfig, protocol, host, port, publishingMetrics));
+            async = async(graphiteConfig, graphiteMetricObserver, publishingMetrics);
+        } else {
+            hostAndPort = relays;
+            async = shard(graphiteConfig, protocol, relays, publishingMetrics);
+        }
+        final MetricObserver suppressing = suppress(graphiteConfig, async);
         final boolean sendasrate = graphiteConfig.sendasrate();
-        final MetricObserver metricObserver = sendasrate ? rateTransform(graphiteConfig, async) : async;
-        logger.info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, hostAndPort, sendasrate));
+        final MetricObserver metricObserver = sendasrate ? rateTransform(graphiteConfig, suppressing) : suppressing;
+        logger.info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, hostAndPort, protocol, sendasrate));
         return metricObserver;
     }
 
+    private BaseMetricObserver createGraphiteMetricObserver(GraphiteConfig graphiteConfig, String protocol,
+                                                            String host, int port,
+                                                            PublishingMetrics publishingMetrics) {
+        if (GraphiteConfig.PROTOCOL_PLAINTEXT.equals(protocol)) {
+            return factory.createGraphiteMetricObserver(ASYNC_METRIC_OBSERVER_NAME, host, port, publishingMetrics);
+        }
+        if (GraphiteConfig.PROTOCOL_PICKLE.equals(protocol)) {
+            return factory.createPickleGraphiteMetricObserver(
+                    ASYNC_METRIC_OBSERVER_NAME, host, port, publishingMetrics);
+        }
+        if (GraphiteConfig.PROTOCOL_UDP.equals(protocol)) {
+            return factory.createUdpGraphiteMetricObserver(ASYNC_METRIC_OBSERVER_NAME, host, port, publishingMetrics);
+        }
+        if (GraphiteConfig.PROTOCOL_INFLUXDB.equals(protocol)) {
+            return factory.createInfluxDbMetricObserver(ASYNC_METRIC_OBSERVER_NAME, host, port,
+                    graphiteConfig.influxdbdatabase(), graphiteConfig.influxdbgzip(),
+                    graphiteConfig.influxdbbatchsize(), publishingMetrics);
+        }
+        throw unknownProtocol(protocol);
+    }
+
+    private static IllegalArgumentException unknownProtocol(String protocol) {
+        return new IllegalArgumentException(String.format(UNKNOWN_PROTOCOL_MSG, protocol,
+                GraphiteConfig.PROTOCOL_PLAINTEXT, GraphiteConfig.PROTOCOL_PICKLE, GraphiteConfig.PROTOCOL_UDP,
+                GraphiteConfig.PROTOCOL_INFLUXDB));
+    }
+
+    MetricObserver shard(GraphiteConfig graphiteConfig, String protocol, String relays,
+                         PublishingMetrics publishingMetrics) {
+        final List<InetSocketAddress> relayAddresses = parseRelays(graphiteConfig, relays);
+        final List<String> relayNames = new ArrayList<>(relayAddresses.size());
+        final List<MetricObserver> relayObservers = new ArrayList<>(relayAddresses.size());
+        final List<BaseMetricObserver> senders = new ArrayList<>(relayAddresses.size());
+        for (int i = 0; i < relayAddresses.size(); i++) {
+            final String host = relayAddresses.get(i).getHostString();
+            final int port = relayAddresses.get(i).getPort();
+            final PublishingMetrics relayPublishingMetrics = publishingMetrics.forRelay(i);
+            final BaseMetricObserver sender = createGraphiteMetricObserver(
+                    graphiteConfig, protocol, host, port, relayPublishingMetrics);
+            relayNames.add(host + ':' + port);
+            senders.add(sender);
+            relayObservers.add(async(graphiteConfig, sender, relayPublishingMetrics));
+        }
+        return factory.createShardingMetricObserver(relayNames, relayObservers, senders);
+    }
+
+    /**
+     * Parses the comma-separated host:port addresses of the relays, without resolving the host names; a relay without
+     * a port has the port() of the GraphiteConfig.
+     */
+    private static List<InetSocketAddress> parseRelays(GraphiteConfig graphiteConfig, String relays) {
+        final String[] relayAddresses = relays.split(",");
+        final List<InetSocketAddress> parsed = new ArrayList<>(relayAddresses.length);
+        for (String address : relayAddresses) {
+            final String relayAddress = address.trim();
+            final int colon = relayAddress.lastIndexOf(':');
+            final String host = colon < 0 ? relayAddress : relayAddress.substring(0, colon);
+            final int port = colon < 0 ? graphiteConfig.port() : Integer.parseInt(relayAddress.substring(colon + 1));
+            parsed.add(InetSocketAddress.createUnresolved(host, port));
+        }
+        return parsed;
+    }
+
+    MetricObserver spool(GraphiteConfig graphiteConfig, BaseMetricObserver observer) {
+        final String spoolFile = graphiteConfig.spoolfile();
+        if (spoolFile == null || spoolFile.isEmpty()) {
+            return observer;
+        }
+        try {
+            return factory.createSpoolingMetricObserver(observer, spoolFile, graphiteConfig.spoolmaxbytes());
+        } catch (IOException e) {
+            logger.error(String.format(SPOOL_OPEN_FAILED_MSG, spoolFile), e);
+            return observer;
+        }
+    }
+
     @VisibleForTesting
     String getHost(GraphiteConfig graphiteConfig) {
         final String graphiteConfigHost = graphiteConfig.host();
@@ -143,16 +357,38 @@ public class MetricPublishing {
         return factory.createCounterToRateMetricTransform(observer, graphiteConfig.pollintervalseconds(), SECONDS);
     }
 
-    MetricObserver async(GraphiteConfig graphiteConfig, MetricObserver observer) {
+    MetricObserver suppress(GraphiteConfig graphiteConfig, MetricObserver observer) {
+        final int heartbeatIntervals = graphiteConfig.heartbeatintervals();
+        if (heartbeatIntervals <= 0) {
+            return observer;
+        }
+        return factory.createSuppressingMetricObserver(observer, heartbeatIntervals);
+    }
+
+    MetricObserver async(GraphiteConfig graphiteConfig, MetricObserver observer, PublishingMetrics publishingMetrics) {
         final long expireTime = POLL_INTERVAL_SECONDS_TO_EXPIRE_TIME_MULTIPLIER * graphiteConfig.pollintervalseconds();
         final int queueSize = graphiteConfig.queuesize();
-        return factory.createAsyncMetricObserver(observer, queueSize, expireTime);
+        if (GraphiteConfig.QUEUE_TYPE_RING_BUFFER.equals(graphiteConfig.queuetype())) {
+            return factory.createRingBufferMetricObserver(observer, queueSize, expireTime,
+                    waitStrategy(graphiteConfig), overflowPolicy(graphiteConfig), publishingMetrics);
+        }
+        return factory.createAsyncMetricObserver(observer, queueSize, expireTime, publishingMetrics);
+    }
+
+    private static WaitStrategy waitStrategy(GraphiteConfig graphiteConfig) {
+        return WaitStrategy.valueOf(graphiteConfig.queuewaitstrategy().toUpperCase(Locale.ROOT));
+    }
+
+    private static OverflowPolicy overflowPolicy(GraphiteConfig graphiteConfig) {
+        return OverflowPolicy.valueOf(graphiteConfig.queueoverflowpolicy().toUpperCase(Locale.ROOT));
     }
 
     /**
      * Factory to wrap static or final methods; this Factory facilitates unit testing
      */
     static class Factory {
+        private HostNameResolver hostNameResolver;
+
         Factory() {
             // default constructor
         }
@@ -165,8 +401,46 @@ public class MetricPublishing {
             }
         }
 
-        MetricObserver createAsyncMetricObserver(MetricObserver observer, int queueSize, long expireTime) {
-            return new AsyncMetricObserver(ASYNC_METRIC_OBSERVER_NAME, observer, queueSize, expireTime);
+        /**
+         * @return the name of the local host, looked up once per Factory, and waited for no longer than
+         * HostNameResolver.DEFAULT_TIMEOUT_MILLIS
+         */
+        String resolveLocalHostName() {
+            return getHostNameResolver().get();
+        }
+
+        synchronized HostNameResolver getHostNameResolver() {
+            if (hostNameResolver == null) {
+                hostNameResolver = new HostNameResolver(() -> getLocalHostName(this),
+                        HostNameResolver.DEFAULT_TIMEOUT_MILLIS, getEnvironmentVariables(),
+                        LoggerFactory.getLogger(HostNameResolver.class));
+            }
+            return hostNameResolver;
+        }
+
+        MetricObserver createDeferredMetricObserver(
+                Callable<MetricObserver> creator, int maxBufferedPolls, PublishingMetrics publishingMetrics) {
+            return new DeferredMetricObserver(creator, maxBufferedPolls, publishingMetrics);
+        }
+
+        MetricObserver createAsyncMetricObserver(
+                MetricObserver observer, int queueSize, long expireTime, PublishingMetrics publishingMetrics) {
+            return new AsyncQueueMetricObserver(
+                    ASYNC_METRIC_OBSERVER_NAME, observer, queueSize, expireTime, publishingMetrics);
+        }
+
+        MetricObserver createRingBufferMetricObserver(MetricObserver observer, int capacity, long expireTime,
+                                                      WaitStrategy waitStrategy, OverflowPolicy overflowPolicy,
+                                                      PublishingMetrics publishingMetrics) {
+            return new RingBufferMetricObserver(ASYNC_METRIC_OBSERVER_NAME, observer, capacity, expireTime,
+                    waitStrategy, overflowPolicy, publishingMetrics);
+        }
+
+        MetricObserver createShardingMetricObserver(List<String> relayNames, List<MetricObserver> relayObservers,
+                                                    List<BaseMetricObserver> senders) {
+            final String hostName = resolveLocalHostName();
+            return new ShardingMetricObserver(new ServoToInfluxDbViaGraphiteNamingConvention(hostName), relayNames,
+                    relayObservers, senders);
         }
 
         MetricObserver createCounterToRateMetricTransform(
@@ -178,18 +452,63 @@ public class MetricPublishing {
             return InetAddress.getLocalHost();
         }
 
-        MetricObserver createGraphiteMetricObserver(String prefix, String host) {
-            final String hostName = Factory.getLocalHostName(this);
-            return new GraphiteMetricObserver(prefix, host,
-                    new ServoToInfluxDbViaGraphiteNamingConvention(hostName));
+        BaseMetricObserver createGraphiteMetricObserver(
+                String prefix, String host, int port, PublishingMetrics publishingMetrics) {
+            final String hostName = resolveLocalHostName();
+            return new NioGraphiteMetricObserver(prefix, host, port,
+                    new ServoToInfluxDbViaGraphiteNamingConvention(hostName), publishingMetrics);
+        }
+
+        BaseMetricObserver createPickleGraphiteMetricObserver(
+                String prefix, String host, int port, PublishingMetrics publishingMetrics) {
+            final String hostName = resolveLocalHostName();
+            return new PickleGraphiteMetricObserver(prefix, host, port,
+                    new ServoToInfluxDbViaGraphiteNamingConvention(hostName), publishingMetrics);
+        }
+
+        BaseMetricObserver createUdpGraphiteMetricObserver(
+                String prefix, String host, int port, PublishingMetrics publishingMetrics) {
+            final String hostName = resolveLocalHostName();
+            return new UdpGraphiteMetricObserver(prefix, host, port,
+                    new ServoToInfluxDbViaGraphiteNamingConvention(hostName), publishingMetrics);
+        }
+
+        BaseMetricObserver createInfluxDbMetricObserver(String prefix, String host, int port, String database,
+                                                        boolean gzip, int batchSize,
+                                                        PublishingMetrics publishingMetrics) {
+            final String hostName = resolveLocalHostName();
+            return new InfluxDbMetricObserver(
+                    prefix, host, port, database, hostName, gzip, batchSize, publishingMetrics);
+        }
+
+        MetricObserver createSpoolingMetricObserver(BaseMetricObserver observer, String spoolFile, int maxBytes)
+                throws IOException {
+            return new SpoolingMetricObserver(observer, new File(spoolFile), maxBytes);
+        }
+
+        MetricObserver createSuppressingMetricObserver(MetricObserver observer, int heartbeatIntervals) {
+            return new SuppressingMetricObserver(observer, heartbeatIntervals);
+        }
+
+        PollRunnable createTask(MetricPoller poller, MetricFilter filter, Collection<MetricObserver> observers) {
+            return new PollRunnable(poller, filter, true, observers);
         }
 
-        PollRunnable createTask(MetricPoller poller, Collection<MetricObserver> observers) {
-            return new PollRunnable(poller, BasicMetricFilter.MATCH_ALL, true, observers);
+        PublishingMetrics getPublishingMetrics(String publisher, int sink) {
+            final PublishingMetrics publishingMetrics = PublishingMetrics.getDefault();
+            return (publisher == null ? publishingMetrics : publishingMetrics.forPublisher(publisher)).forSink(sink);
         }
 
-        MetricPoller createMonitorRegistryMetricPoller() {
-            return new MonitorRegistryMetricPoller();
+        /**
+         * Creates the poller of the registry of the tier, whose threads are stopped when the scheduler stops.
+         */
+        MetricPoller createMonitorRegistryMetricPoller(String tier, int parallelPollThreshold,
+                                                       PublishingMetrics publishingMetrics,
+                                                       PublishingScheduler scheduler) {
+            final ParallelMetricPoller parallelMetricPoller =
+                    new ParallelMetricPoller(MetricObjects.getMonitorRegistry(tier), parallelPollThreshold);
+            scheduler.whenStopped(parallelMetricPoller::shutdown);
+            return new InstrumentedMetricPoller(parallelMetricPoller, publishingMetrics);
         }
 
         Map<String,String> getEnvironmentVariables() {
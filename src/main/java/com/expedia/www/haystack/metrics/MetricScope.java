@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.Timer;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pre-resolved handle on the (subsystem, application, class) tags of a group of metrics, for call sites that look
+ * their Counters, Timers and Meters up by name on every event (for example, one Counter per error type). Looking a metric up
+ * through MetricObjects builds a tag map, a tag list and a MonitorConfig every time; a MetricScope does that only the
+ * first time it is asked for a name, and afterwards finds the metric with a single ConcurrentHashMap.get() on the
+ * name, which allocates nothing. Create one MetricScope per tag combination with
+ * {@link MetricObjects#createMetricScope(String, String, String)} and keep it, typically in a static final field.
+ * A name that the {@link CardinalityLimiter} rejects is not cached, so a scope holds no more metrics than the limiter
+ * allows, and a metric evicted by the {@link IdleMetricEvictor} is forgotten. All methods are thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MetricScope {
+    private final MetricObjects metricObjects;
+    private final String subsystem;
+    private final String application;
+    private final String klass;
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> resettingCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> stripedResettingCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> threadLocalCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> basicTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> histogramTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> threadLocalTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Meter> meters = new ConcurrentHashMap<>();
+
+    MetricScope(MetricObjects metricObjects, String subsystem, String application, String klass) {
+        this.metricObjects = metricObjects;
+        this.subsystem = subsystem;
+        this.application = application;
+        this.klass = klass;
+    }
+
+    /**
+     * Returns the BasicCounter of this scope with the specified name, creating and registering it the first time.
+     *
+     * @param counterName the name of the Counter; see {@link MetricObjects#createAndRegisterCounter}
+     * @return the Counter
+     */
+    public Counter counter(String counterName) {
+        final Counter counter = counters.get(counterName);
+        if (counter != null) {
+            return counter;
+        }
+        final Counter created = counters.computeIfAbsent(counterName,
+                name -> metricObjects.createAndRegisterCounter(subsystem, application, klass, name));
+        return uncacheOverflow(counters, counterName, created);
+    }
+
+    /**
+     * Returns the ResettingCounter of this scope with the specified name, creating and registering it the first time.
+     *
+     * @param counterName the name of the Counter; see {@link MetricObjects#createAndRegisterResettingCounter}
+     * @return the Counter
+     */
+    public Counter resettingCounter(String counterName) {
+        final Counter counter = resettingCounters.get(counterName);
+        if (counter != null) {
+            return counter;
+        }
+        final Counter created = resettingCounters.computeIfAbsent(counterName,
+                name -> metricObjects.createAndRegisterResettingCounter(subsystem, application, klass, name));
+        return uncacheOverflow(resettingCounters, counterName, created);
+    }
+
+    /**
+     * Returns the StripedResettingCounter of this scope with the specified name, creating and registering it the first
+     * time.
+     *
+     * @param counterName the name of the Counter; see {@link MetricObjects#createAndRegisterStripedResettingCounter}
+     * @return the Counter
+     */
+    public Counter stripedResettingCounter(String counterName) {
+        final Counter counter = stripedResettingCounters.get(counterName);
+        if (counter != null) {
+            return counter;
+        }
+        final Counter created = stripedResettingCounters.computeIfAbsent(counterName,
+                name -> metricObjects.createAndRegisterStripedResettingCounter(subsystem, application, klass, name));
+        return uncacheOverflow(stripedResettingCounters, counterName, created);
+    }
+
+    /**
+     * Returns the ThreadLocalResettingCounter of this scope with the specified name, creating and registering it the
+     * first time.
+     *
+     * @param counterName the name of the Counter; see {@link MetricObjects#createAndRegisterThreadLocalCounter}
+     * @return the Counter
+     */
+    public Counter threadLocalCounter(String counterName) {
+        final Counter counter = threadLocalCounters.get(counterName);
+        if (counter != null) {
+            return counter;
+        }
+        final Counter created = threadLocalCounters.computeIfAbsent(counterName,
+                name -> metricObjects.createAndRegisterThreadLocalCounter(subsystem, application, klass, name));
+        return uncacheOverflow(threadLocalCounters, counterName, created);
+    }
+
+    /**
+     * Returns the BasicTimer of this scope with the specified name, creating and registering it the first time; the
+     * timeUnit of later calls with the same name is ignored.
+     *
+     * @param timerName the name of the Timer; see {@link MetricObjects#createAndRegisterBasicTimer}
+     * @param timeUnit  desired precision, typically TimeUnit.MILLISECONDS.
+     * @return the Timer
+     */
+    public Timer basicTimer(String timerName, TimeUnit timeUnit) {
+        final Timer timer = basicTimers.get(timerName);
+        if (timer != null) {
+            return timer;
+        }
+        final Timer created = basicTimers.computeIfAbsent(timerName,
+                name -> metricObjects.createAndRegisterBasicTimer(subsystem, application, klass, name, timeUnit));
+        return uncacheOverflow(basicTimers, timerName, created);
+    }
+
+    /**
+     * Returns the HistogramTimer of this scope with the specified name, creating and registering it the first time;
+     * the timeUnit of later calls with the same name is ignored.
+     *
+     * @param timerName the name of the Timer; see {@link MetricObjects#createAndRegisterHistogramTimer}
+     * @param timeUnit  desired precision, typically TimeUnit.MILLISECONDS.
+     * @return the Timer
+     */
+    public Timer histogramTimer(String timerName, TimeUnit timeUnit) {
+        final Timer timer = histogramTimers.get(timerName);
+        if (timer != null) {
+            return timer;
+        }
+        final Timer created = histogramTimers.computeIfAbsent(timerName,
+                name -> metricObjects.createAndRegisterHistogramTimer(subsystem, application, klass, name, timeUnit));
+        return uncacheOverflow(histogramTimers, timerName, created);
+    }
+
+    /**
+     * Returns the ThreadLocalTimer of this scope with the specified name, creating and registering it the first time;
+     * the timeUnit of later calls with the same name is ignored.
+     *
+     * @param timerName the name of the Timer; see {@link MetricObjects#createAndRegisterThreadLocalTimer}
+     * @param timeUnit  desired precision, typically TimeUnit.MILLISECONDS.
+     * @return the Timer
+     */
+    public Timer threadLocalTimer(String timerName, TimeUnit timeUnit) {
+        final Timer timer = threadLocalTimers.get(timerName);
+        if (timer != null) {
+            return timer;
+        }
+        final Timer created = threadLocalTimers.computeIfAbsent(timerName,
+                name -> metricObjects.createAndRegisterThreadLocalTimer(subsystem, application, klass, name, timeUnit));
+        return uncacheOverflow(threadLocalTimers, timerName, created);
+    }
+
+    /**
+     * Returns the Meter of this scope with the specified name, creating and registering it, with a one minute window,
+     * the first time.
+     *
+     * @param meterName the name of the Meter; see {@link MetricObjects#createAndRegisterMeter}
+     * @return the Meter
+     */
+    public Meter meter(String meterName) {
+        final Meter meter = meters.get(meterName);
+        if (meter != null) {
+            return meter;
+        }
+        final Meter created = meters.computeIfAbsent(meterName,
+                name -> metricObjects.createAndRegisterMeter(subsystem, application, klass, name));
+        return uncacheOverflow(meters, meterName, created);
+    }
+
+    /**
+     * Adds the metrics that this scope has cached, which the {@link IdleMetricEvictor} may evict, to a set.
+     *
+     * @param metrics the set to add to, which should compare by identity
+     */
+    void addMetricsTo(Set<Monitor<?>> metrics) {
+        metrics.addAll(counters.values());
+        metrics.addAll(resettingCounters.values());
+        metrics.addAll(stripedResettingCounters.values());
+        metrics.addAll(threadLocalCounters.values());
+        metrics.addAll(basicTimers.values());
+        metrics.addAll(histogramTimers.values());
+        metrics.addAll(threadLocalTimers.values());
+        metrics.addAll(meters.values());
+    }
+
+    /**
+     * Forgets the metrics that the {@link IdleMetricEvictor} has evicted, so that the next lookup of their names
+     * creates fresh ones.
+     *
+     * @param evicted the evicted metrics, compared by identity
+     */
+    void evict(Set<Monitor<?>> evicted) {
+        counters.values().removeIf(evicted::contains);
+        resettingCounters.values().removeIf(evicted::contains);
+        stripedResettingCounters.values().removeIf(evicted::contains);
+        threadLocalCounters.values().removeIf(evicted::contains);
+        basicTimers.values().removeIf(evicted::contains);
+        histogramTimers.values().removeIf(evicted::contains);
+        threadLocalTimers.values().removeIf(evicted::contains);
+        meters.values().removeIf(evicted::contains);
+    }
+
+    /**
+     * Removes a metric that the CardinalityLimiter folded into an overflow metric from the cache, so that an unbounded
+     * number of rejected names cannot grow this scope instead.
+     */
+    private static <M extends Monitor<?>> M uncacheOverflow(ConcurrentMap<String, M> metrics, String name, M metric) {
+        if (CardinalityLimiter.isOverflow(metric)) {
+            metrics.remove(name);
+        }
+        return metric;
+    }
+}
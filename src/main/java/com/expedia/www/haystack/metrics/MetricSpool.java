@@ -0,0 +1,234 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.tag.BasicTagList;
+import com.netflix.servo.tag.Tag;
+import com.netflix.servo.tag.TagList;
+import com.netflix.servo.tag.Tags;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded, append-only queue of metric batches in a memory-mapped file, so that the metrics of a long Graphite outage
+ * are kept off the heap and survive a restart. The file starts with a header holding the positions of the oldest batch
+ * and of the end of the newest one; each batch is a 4-byte length followed by its metrics. Batches are appended at the
+ * end and removed from the front; when the queue empties both positions go back to the start of the file, and when a
+ * batch does not fit at the end the unread batches are first moved to the start. Instances are not thread-safe.
+ */
+final class MetricSpool implements Closeable {
+    static final int MAGIC = 0x48535031;
+    static final int HEADER_BYTES = 12;
+    private static final int READ_POSITION_OFFSET = 4;
+    private static final int WRITE_POSITION_OFFSET = 8;
+    private static final int LENGTH_BYTES = 4;
+    private static final int COPY_CHUNK_BYTES = 8192;
+    private static final int INITIAL_ENCODE_BYTES = 64 * 1024;
+
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+
+    /**
+     * Opens the spool file, creating it if necessary, and resumes from the batches it already holds; a file that is
+     * not a valid spool of at most maxBytes bytes is started afresh.
+     *
+     * @param spoolFile the file
+     * @param maxBytes  the size of the file, which bounds the bytes of metrics it can hold
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    MetricSpool(File spoolFile, int maxBytes) throws IOException {
+        // The mapping stays valid after the file that it was made from is closed
+        final RandomAccessFile file = new RandomAccessFile(spoolFile, "rw");
+        try {
+            this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        } finally {
+            file.close();
+        }
+        readPosition = buffer.getInt(READ_POSITION_OFFSET);
+        writePosition = buffer.getInt(WRITE_POSITION_OFFSET);
+        if (buffer.getInt(0) != MAGIC || readPosition < HEADER_BYTES || writePosition < readPosition
+                || writePosition > maxBytes) {
+            buffer.putInt(0, MAGIC);
+            clear();
+        }
+    }
+
+    /**
+     * Appends a batch of metrics; metrics whose value is not a number are left out.
+     *
+     * @param metrics the batch
+     * @return false if the batch did not fit (in which case it has not been appended), else true
+     */
+    boolean append(List<Metric> metrics) {
+        final ByteBuffer bytes = encode(metrics);
+        final int length = LENGTH_BYTES + bytes.remaining();
+        if (writePosition + length > buffer.capacity()) {
+            compact();
+            if (writePosition + length > buffer.capacity()) {
+                return false;
+            }
+        }
+        buffer.position(writePosition);
+        buffer.putInt(bytes.remaining());
+        buffer.put(bytes);
+        setWritePosition(writePosition + length);
+        return true;
+    }
+
+    /**
+     * Returns the oldest batch without removing it.
+     *
+     * @return the oldest batch, or null if the spool is empty
+     */
+    List<Metric> peek() {
+        if (isEmpty()) {
+            return null;
+        }
+        final ByteBuffer batch = buffer.duplicate();
+        batch.position(readPosition + LENGTH_BYTES);
+        batch.limit(readPosition + LENGTH_BYTES + buffer.getInt(readPosition));
+        return decode(batch);
+    }
+
+    /**
+     * Removes the oldest batch, which must exist.
+     */
+    void remove() {
+        final int nextReadPosition = readPosition + LENGTH_BYTES + buffer.getInt(readPosition);
+        if (nextReadPosition == writePosition) {
+            clear();
+        } else {
+            setReadPosition(nextReadPosition);
+        }
+    }
+
+    boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    int getUsedBytes() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * Writes the spooled batches to the file; the file stays mapped until the spool is garbage collected.
+     */
+    @Override
+    public void close() {
+        buffer.force();
+    }
+
+    private void clear() {
+        setReadPosition(HEADER_BYTES);
+        setWritePosition(HEADER_BYTES);
+    }
+
+    private void compact() {
+        // The batches move towards the start of the file, so copying front to back never overwrites unread bytes
+        final byte[] chunk = new byte[COPY_CHUNK_BYTES];
+        final int usedBytes = getUsedBytes();
+        for (int copied = 0; copied < usedBytes; copied += COPY_CHUNK_BYTES) {
+            final int chunkBytes = Math.min(COPY_CHUNK_BYTES, usedBytes - copied);
+            buffer.position(readPosition + copied);
+            buffer.get(chunk, 0, chunkBytes);
+            buffer.position(HEADER_BYTES + copied);
+            buffer.put(chunk, 0, chunkBytes);
+        }
+        setReadPosition(HEADER_BYTES);
+        setWritePosition(HEADER_BYTES + usedBytes);
+    }
+
+    private void setReadPosition(int position) {
+        readPosition = position;
+        buffer.putInt(READ_POSITION_OFFSET, position);
+    }
+
+    private void setWritePosition(int position) {
+        writePosition = position;
+        buffer.putInt(WRITE_POSITION_OFFSET, position);
+    }
+
+    static ByteBuffer encode(List<Metric> metrics) {
+        ByteBuffer out = ByteBuffer.allocate(INITIAL_ENCODE_BYTES);
+        for (Metric metric : metrics) {
+            if (metric.hasNumberValue()) {
+                out = putString(out, metric.getConfig().getName());
+                final TagList tags = metric.getConfig().getTags();
+                out = ensureRemaining(out, 4);
+                out.putInt(tags.size());
+                for (Tag tag : tags) {
+                    out = putString(out, tag.getKey());
+                    out = putString(out, tag.getValue());
+                }
+                out = ensureRemaining(out, 16);
+                out.putLong(metric.getTimestamp());
+                out.putDouble(metric.getNumberValue().doubleValue());
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    static List<Metric> decode(ByteBuffer in) {
+        final List<Metric> metrics = new ArrayList<>();
+        while (in.hasRemaining()) {
+            final String name = getString(in);
+            final int tagCount = in.getInt();
+            final List<Tag> tags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++) {
+                tags.add(Tags.newTag(getString(in), getString(in)));
+            }
+            metrics.add(new Metric(name, new BasicTagList(tags), in.getLong(), in.getDouble()));
+        }
+        return metrics;
+    }
+
+    private static ByteBuffer putString(ByteBuffer out, String string) {
+        final byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer larger = ensureRemaining(out, 4 + utf8.length);
+        larger.putInt(utf8.length);
+        larger.put(utf8);
+        return larger;
+    }
+
+    private static String getString(ByteBuffer in) {
+        final byte[] utf8 = new byte[in.getInt()];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer out, int bytes) {
+        if (out.remaining() >= bytes) {
+            return out;
+        }
+        final ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+        out.flip();
+        larger.put(out);
+        return larger;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A bounded, least recently used cache of a value computed from each MonitorConfig, such as the Graphite name of a
+ * metric. Keys are compared by value, not by identity: Servo's CounterToRateMetricTransform gives every counter a new
+ * MonitorConfig on every poll, so a cache keyed by the instance (a WeakHashMap, say) would lose each entry as soon as
+ * the poll that created it was over. MonitorConfig caches its hash code, and equal configs are usually the same
+ * instance, so a hit is one hash lookup and allocates nothing. When more than maxSize values are cached the least
+ * recently used one is dropped, which is also what eventually drops the values of monitors that no longer exist. All
+ * methods are thread-safe.
+ *
+ * @param <V> the type of the cached values
+ */
+final class MonitorConfigCache<V> {
+    private final Function<MonitorConfig, V> loader;
+    private final Map<MonitorConfig, V> cache;
+
+    /**
+     * @param maxSize the largest number of values to cache
+     * @param loader  computes the value of a MonitorConfig that is not in the cache
+     */
+    MonitorConfigCache(int maxSize, Function<MonitorConfig, V> loader) {
+        this.loader = loader;
+        this.cache = new LinkedHashMap<MonitorConfig, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<MonitorConfig, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param config the MonitorConfig whose value is wanted
+     * @return the cached value of the config, computed by the loader (and cached) if it is not cached yet
+     */
+    synchronized V get(MonitorConfig config) {
+        final V cachedValue = cache.get(config);
+        if (cachedValue != null) {
+            return cachedValue;
+        }
+        final V value = loader.apply(config);
+        cache.put(config, value);
+        return value;
+    }
+
+    synchronized int size() {
+        return cache.size();
+    }
+}
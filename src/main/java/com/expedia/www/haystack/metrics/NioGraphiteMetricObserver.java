@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Graphite plaintext protocol observer that replaces Servo's GraphiteMetricObserver. Instead of building a String
+ * per metric and writing it through a PrintWriter, it encodes each line (see {@link GraphiteLineEncoder}) straight into
+ * a set of reusable direct ByteBuffers, and sends each poll with as few gathering writes as the buffers allow, over one
+ * SocketChannel that stays open between polls. The channel is non-blocking once connected, and waits for room in the
+ * socket's send buffer on a Selector, so that a Graphite server or relay that stops reading cannot stall the sink for
+ * longer than the write timeout. When a write fails or times out the connection is closed, the update fails, the
+ * metrics of that poll are dropped (as they are in GraphiteMetricObserver) and the next poll reconnects. A metric whose
+ * line is too long for a buffer is logged once and then left out of every poll. Each buffer holds one batch of the
+ * {@link GraphiteEncoder} in use, which is how {@link PickleGraphiteMetricObserver} reuses this class. The time spent
+ * encoding and writing each poll, the bytes written, the connections made and the failed updates are recorded in
+ * {@link PublishingMetrics}.
+ */
+public class NioGraphiteMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "NioGraphiteMetricObserver";
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    static final int DEFAULT_BUFFER_COUNT = 4;
+    static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 10000;
+    static final String CONNECTED_MSG = "Connected to Graphite at [%s:%d]";
+    static final String WRITE_FAILED_MSG = "Sending %d metrics to Graphite at [%s:%d] failed; they have been dropped";
+    static final String WRITE_TIMED_OUT_MSG = "Graphite at [%s:%d] accepted no data for %d ms";
+    static final String NAME_TOO_LONG_MSG = "The Graphite line for metric [%s] does not fit in a %d byte buffer; "
+            + "it will be left out of every poll";
+
+    private final String host;
+    private final int port;
+    private final GraphiteEncoder encoder;
+    private final Logger logger;
+    private final PublishingMetrics publishingMetrics;
+    private final ByteBuffer[] buffers;
+    private final int[] metricCounts;
+    private final int maxMetricLength;
+    private final long writeTimeoutMillis;
+    private final Set<MonitorConfig> tooLongConfigs = new HashSet<>();
+    private int currentBuffer;
+    private SocketChannel channel;
+    private Selector selector;
+    private long deadlineNanos;
+    private long writeNanos;
+    private long writtenBytes;
+
+    /**
+     * Creates a new NioGraphiteMetricObserver; no connection is made until the first update.
+     *
+     * @param prefix           the prefix of every metric name, typically "haystack"
+     * @param host             the host name or IP address of the Graphite server or relay
+     * @param port             the Graphite plaintext protocol port, typically 2003
+     * @param namingConvention the naming convention that turns a Servo metric into a Graphite metric name
+     */
+    @SuppressWarnings("WeakerAccess")
+    public NioGraphiteMetricObserver(String prefix, String host, int port, GraphiteNamingConvention namingConvention) {
+        this(prefix, host, port, namingConvention, PublishingMetrics.getDefault());
+    }
+
+    NioGraphiteMetricObserver(String prefix, String host, int port, GraphiteNamingConvention namingConvention,
+                              PublishingMetrics publishingMetrics) {
+        this(OBSERVER_NAME_PREFIX + prefix, host, port, new GraphiteLineEncoder(prefix, namingConvention),
+                LoggerFactory.getLogger(NioGraphiteMetricObserver.class), publishingMetrics, DEFAULT_BUFFER_SIZE,
+                DEFAULT_BUFFER_COUNT, DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    NioGraphiteMetricObserver(String name, String host, int port, GraphiteEncoder encoder, Logger logger,
+                              PublishingMetrics publishingMetrics, int bufferSize, int bufferCount,
+                              long writeTimeoutMillis) {
+        super(name);
+        this.host = host;
+        this.port = port;
+        this.encoder = encoder;
+        this.logger = logger;
+        this.publishingMetrics = publishingMetrics;
+        this.maxMetricLength = bufferSize - encoder.batchOverhead();
+        this.writeTimeoutMillis = writeTimeoutMillis;
+        this.buffers = new ByteBuffer[bufferCount];
+        this.metricCounts = new int[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+        }
+    }
+
+    /**
+     * Sends the metrics to Graphite, connecting first if there is no open connection.
+     *
+     * @param metrics the metrics to send
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        try {
+            connectIfNecessary();
+            final long startNanos = System.nanoTime();
+            deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+            writeNanos = 0;
+            writtenBytes = 0;
+            // An indexed loop, rather than an Iterator, keeps the update allocation-free
+            for (int i = 0; i < metrics.size(); i++) {
+                append(metrics.get(i));
+            }
+            flush();
+            publishingMetrics.recordUpdate(System.nanoTime() - startNanos - writeNanos, writeNanos, writtenBytes);
+        } catch (IOException e) {
+            logger.warn(String.format(WRITE_FAILED_MSG, metrics.size(), host, port), e);
+            publishingMetrics.recordSendFailure();
+            incrementFailedCount();
+            stop();
+        }
+    }
+
+    /**
+     * Closes the connection to Graphite, if it is open, and discards anything not yet sent.
+     */
+    public synchronized void stop() {
+        if (channel != null) {
+            closeQuietly(channel);
+            channel = null;
+        }
+        if (selector != null) {
+            closeQuietly(selector);
+            selector = null;
+        }
+        clearBuffers();
+    }
+
+    boolean isConnected() {
+        return channel != null;
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing more can be done with a connection that is being thrown away
+        }
+    }
+
+    private void connectIfNecessary() throws IOException {
+        if (channel == null) {
+            // A failed update calls stop(), which closes the selector as well as the channel
+            selector = Selector.open();
+            final SocketChannel socketChannel = SocketChannel.open();
+            try {
+                // The host name is resolved before, and so without, the connect timeout; only this sink waits for it
+                socketChannel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                socketChannel.configureBlocking(false);
+                socketChannel.register(selector, SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                closeQuietly(socketChannel);
+                throw e;
+            }
+            channel = socketChannel;
+            publishingMetrics.recordConnect();
+            logger.info(String.format(CONNECTED_MSG, host, port));
+        }
+    }
+
+    private void append(Metric metric) throws IOException {
+        if (!metric.hasNumberValue()) {
+            return;
+        }
+        final String name = encoder.name(metric);
+        final int maxLength = encoder.maxLength(name);
+        if (maxLength > maxMetricLength) {
+            if (tooLongConfigs.add(metric.getConfig())) {
+                logger.warn(String.format(NAME_TOO_LONG_MSG, metric.getConfig(), buffers[0].capacity()));
+            }
+            return;
+        }
+        // Leaving room for the batch overhead, rather than only its trailer, wastes a few bytes but keeps this simple
+        if (buffers[currentBuffer].remaining() < maxLength + encoder.batchOverhead()) {
+            if (currentBuffer == buffers.length - 1) {
+                flush();
+            } else {
+                encoder.endBatch(buffers[currentBuffer]);
+                currentBuffer++;
+            }
+        }
+        final ByteBuffer buffer = buffers[currentBuffer];
+        if (metricCounts[currentBuffer]++ == 0) {
+            encoder.startBatch(buffer);
+        }
+        encoder.encode(buffer, name, metric.getNumberValue(), metric.getTimestamp());
+    }
+
+    private void flush() throws IOException {
+        if (metricCounts[currentBuffer] == 0) {
+            // Nothing has been appended since the last flush (only the first buffer can be empty)
+            return;
+        }
+        encoder.endBatch(buffers[currentBuffer]);
+        for (int i = 0; i <= currentBuffer; i++) {
+            buffers[i].flip();
+        }
+        final ByteBuffer lastBuffer = buffers[currentBuffer];
+        final long startNanos = System.nanoTime();
+        while (lastBuffer.hasRemaining()) {
+            final long written = channel.write(buffers, 0, currentBuffer + 1);
+            writtenBytes += written;
+            if (written == 0) {
+                awaitRoom();
+            }
+        }
+        writeNanos += System.nanoTime() - startNanos;
+        clearBuffers();
+    }
+
+    private void awaitRoom() throws IOException {
+        // Rounding down means timing out up to a millisecond early, but select(0) would wait forever
+        final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMillis <= 0) {
+            throw new SocketTimeoutException(String.format(WRITE_TIMED_OUT_MSG, host, port, writeTimeoutMillis));
+        }
+        selector.select(remainingMillis);
+        selector.selectedKeys().clear();
+    }
+
+    private void clearBuffers() {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].clear();
+            metricCounts[i] = 0;
+        }
+        currentBuffer = 0;
+    }
+}
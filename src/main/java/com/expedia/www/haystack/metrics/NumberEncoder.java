@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes numbers as ASCII digits directly into a ByteBuffer, in the form that both Graphite and InfluxDB read. Numbers
+ * are written digit by digit, so nothing is allocated, except for a Double that cannot be written exactly enough in
+ * fixed point (very large, very small, NaN or infinite), which is written with Double.toString(), and a Float that is
+ * not a whole number, which is written with Float.toString() so that it does not pick up the digits of its widening to
+ * double (0.1f is 0.100000001490116 as a double). Fixed point Doubles are written with at most 9 fraction digits and
+ * at most 15 significant digits, which is as many as every double holds, so that the last digits of the binary value
+ * are not written as if they were significant. Instances are not thread-safe.
+ */
+final class NumberEncoder {
+    private static final int FRACTION_DIGITS = 9;
+    private static final int SIGNIFICANT_DIGITS = 15;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+    private static final double MIN_FIXED_POINT = 1e-4;
+    private static final double MAX_FIXED_POINT = 1e9;
+    private static final byte MINUS = '-';
+    private static final byte DECIMAL_POINT = '.';
+
+    private final byte[] digits = new byte[20];
+
+    void putNumber(ByteBuffer buffer, Number value) {
+        if (value instanceof Float) {
+            putFloat(buffer, value.floatValue());
+        } else if (value instanceof Double) {
+            putDouble(buffer, value.doubleValue());
+        } else {
+            putLong(buffer, value.longValue());
+        }
+    }
+
+    void putDouble(ByteBuffer buffer, double value) {
+        final double abs = Math.abs(value);
+        if (value == (long) value) {
+            putLong(buffer, (long) value);
+        } else if (abs >= MIN_FIXED_POINT && abs < MAX_FIXED_POINT) {
+            // The integer part is below 1e9, so at least 6 fraction digits are left, and scaled stays below 1e15
+            final int fractionDigits = Math.min(FRACTION_DIGITS, SIGNIFICANT_DIGITS - integerDigits((long) abs));
+            final long scale = POWERS_OF_TEN[fractionDigits];
+            final long scaled = Math.round(abs * scale);
+            if (value < 0) {
+                buffer.put(MINUS);
+            }
+            putLong(buffer, scaled / scale);
+            putFraction(buffer, scaled % scale, fractionDigits);
+        } else {
+            putAscii(buffer, Double.toString(value));
+        }
+    }
+
+    void putFloat(ByteBuffer buffer, float value) {
+        if (value == (long) value) {
+            putLong(buffer, (long) value);
+        } else {
+            putAscii(buffer, Float.toString(value));
+        }
+    }
+
+    void putLong(ByteBuffer buffer, long value) {
+        // Digits are generated from the negative of the value, so that Long.MIN_VALUE needs no special case
+        final boolean negative = value < 0;
+        long remaining = negative ? value : -value;
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' - (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            buffer.put(MINUS);
+        }
+        buffer.put(digits, position, digits.length - position);
+    }
+
+    private void putFraction(ByteBuffer buffer, long fraction, int fractionDigits) {
+        if (fraction == 0) {
+            return;
+        }
+        long remaining = fraction;
+        for (int i = fractionDigits - 1; i >= 0; i--) {
+            digits[i] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        int length = fractionDigits;
+        while (digits[length - 1] == '0') {
+            length--;
+        }
+        buffer.put(DECIMAL_POINT);
+        buffer.put(digits, 0, length);
+    }
+
+    private static int integerDigits(long value) {
+        int integerDigits = 1;
+        for (long remaining = value; remaining >= 10; remaining /= 10) {
+            integerDigits++;
+        }
+        return integerDigits;
+    }
+
+    private static void putAscii(ByteBuffer buffer, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer.put((byte) ascii.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.publish.MetricFilter;
+import com.netflix.servo.publish.MetricPoller;
+import com.netflix.servo.publish.MonitorRegistryMetricPoller;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A MetricPoller for very large monitor registries. Servo's MonitorRegistryMetricPoller reads every monitor one after
+ * another on the poll thread, handing each read to a time-limiting executor, so a poll of hundreds of thousands of
+ * monitors takes seconds. A registry of no more than parallelThreshold monitors (or any registry, if parallelThreshold
+ * is 0) is still read by a MonitorRegistryMetricPoller, with its time limit on each read; a larger one is split into
+ * shards of at most shardSize monitors, which are read in parallel on a bounded ForkJoinPool and concatenated in
+ * registry order. The poll waits at most timeLimitMillis for the shards. Reading a monitor may reset it, so a shard
+ * that is still being read by then is not abandoned: it is logged, and its metrics are published, with the timestamp of
+ * the poll that started it, by the first later poll that finds it done. A shard that has not started by then is logged
+ * and left out of the poll without reading any of its monitors, whose values are then read by the next poll. A shard
+ * whose reading fails is logged and left out. All the metrics of a parallel poll share one timestamp. As in
+ * MonitorRegistryMetricPoller, the reset flag is ignored, and a monitor whose value cannot be read is logged and left
+ * out of the poll. The threads are only started when they are first needed, and {@link #shutdown()} stops them; a
+ * later poll starts new ones.
+ */
+public class ParallelMetricPoller implements MetricPoller {
+    static final int DEFAULT_PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    static final int DEFAULT_SHARD_SIZE = 4096;
+    static final long DEFAULT_TIME_LIMIT_MILLIS = 10000;
+    static final String VALUE_FAILED_MSG = "Reading monitor [%s] failed; it has been left out of the poll";
+    static final String MONITORS_FAILED_MSG =
+            "Reading the monitors of composite monitor [%s] failed; they have been left out of the poll";
+    static final String SHARD_FAILED_MSG =
+            "Reading registered monitors %d to %d failed; they have been left out of the poll";
+    static final String SHARD_TIMED_OUT_MSG =
+            "Reading registered monitors %d to %d took more than %d ms; they will be published with a later poll";
+    static final String SHARD_NOT_STARTED_MSG =
+            "Reading registered monitors %d to %d did not start within %d ms; they have been left out of the poll";
+    static final String POLL_INTERRUPTED_MSG = "The poll was interrupted; of registered monitors %d to %d, those "
+            + "already being read will be published with a later poll, and the others have been left out of it";
+
+    private final MonitorRegistry registry;
+    private final int parallelThreshold;
+    private final int parallelism;
+    private final int shardSize;
+    private final long timeLimitMillis;
+    private final Logger logger;
+    private final List<Shard> lateShards = new ArrayList<>();
+    private MonitorRegistryMetricPoller serialPoller;
+    private ForkJoinPool pool;
+
+    /**
+     * Creates a new ParallelMetricPoller with {@link #DEFAULT_PARALLELISM} threads (half the available processors),
+     * shards of {@link #DEFAULT_SHARD_SIZE} monitors and a time limit of {@link #DEFAULT_TIME_LIMIT_MILLIS} ms.
+     *
+     * @param registry          the registry whose monitors are polled
+     * @param parallelThreshold the number of registered monitors above which the registry is read in parallel, or 0
+     *                          to never read it in parallel
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ParallelMetricPoller(MonitorRegistry registry, int parallelThreshold) {
+        this(registry, parallelThreshold, DEFAULT_PARALLELISM, DEFAULT_SHARD_SIZE, DEFAULT_TIME_LIMIT_MILLIS);
+    }
+
+    /**
+     * Creates a new ParallelMetricPoller.
+     *
+     * @param registry          the registry whose monitors are polled
+     * @param parallelThreshold the number of registered monitors above which the registry is read in parallel, or 0
+     *                          to never read it in parallel
+     * @param parallelism       the number of threads that read shards
+     * @param shardSize         the maximum number of registered monitors in a shard
+     * @param timeLimitMillis   how long a parallel poll waits for its shards
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ParallelMetricPoller(MonitorRegistry registry, int parallelThreshold, int parallelism, int shardSize,
+                                long timeLimitMillis) {
+        this(registry, parallelThreshold, parallelism, shardSize, timeLimitMillis,
+                LoggerFactory.getLogger(ParallelMetricPoller.class));
+    }
+
+    ParallelMetricPoller(MonitorRegistry registry, int parallelThreshold, int parallelism, int shardSize,
+                         long timeLimitMillis, Logger logger) {
+        this.registry = registry;
+        this.parallelThreshold = parallelThreshold;
+        this.parallelism = parallelism;
+        this.shardSize = shardSize;
+        this.timeLimitMillis = timeLimitMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Metric> poll(MetricFilter filter) {
+        return poll(filter, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Metric> poll(MetricFilter filter, boolean reset) {
+        final List<Metric> metrics = collectLateShards();
+        final Collection<Monitor<?>> registeredMonitors =
+                parallelThreshold <= 0 ? null : registry.getRegisteredMonitors();
+        if (registeredMonitors == null || registeredMonitors.size() <= parallelThreshold) {
+            metrics.addAll(getSerialPoller().poll(filter, reset));
+            return metrics;
+        }
+        final List<Monitor<?>> monitors = new ArrayList<>(registeredMonitors);
+        final ForkJoinPool forkJoinPool = getPool();
+        final long timestamp = System.currentTimeMillis();
+        final List<Shard> shards = new ArrayList<>(monitors.size() / shardSize + 1);
+        for (int from = 0; from < monitors.size(); from += shardSize) {
+            final Shard shard = new Shard(from, Math.min(from + shardSize, monitors.size()));
+            shard.task = forkJoinPool.submit(() -> shard.claim()
+                    ? pollShard(monitors, shard.from, shard.to, filter, timestamp)
+                    : Collections.emptyList());
+            shards.add(shard);
+        }
+        final long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+        for (int i = 0; i < shards.size(); i++) {
+            final Shard shard = shards.get(i);
+            try {
+                metrics.addAll(shard.task.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                final String message = giveUp(shard) ? SHARD_TIMED_OUT_MSG : SHARD_NOT_STARTED_MSG;
+                logger.warn(String.format(message, shard.from, shard.to - 1, timeLimitMillis));
+            } catch (ExecutionException e) {
+                logger.warn(String.format(SHARD_FAILED_MSG, shard.from, shard.to - 1), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < shards.size(); j++) {
+                    giveUp(shards.get(j));
+                }
+                logger.warn(String.format(POLL_INTERRUPTED_MSG, shard.from, monitors.size() - 1));
+                break;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Stops waiting for a shard: a shard that has not started yet never will, and one that has is kept until it is
+     * done, so that the values it reads (and resets) are published with a later poll.
+     *
+     * @return true if the shard had started, and will be published with a later poll
+     */
+    private boolean giveUp(Shard shard) {
+        if (shard.claim()) {
+            return false;
+        }
+        addLateShard(shard);
+        return true;
+    }
+
+    private synchronized void addLateShard(Shard shard) {
+        lateShards.add(shard);
+    }
+
+    private synchronized List<Metric> collectLateShards() {
+        final List<Metric> metrics = new ArrayList<>();
+        for (Iterator<Shard> iterator = lateShards.iterator(); iterator.hasNext(); ) {
+            final Shard shard = iterator.next();
+            if (shard.task.isDone()) {
+                iterator.remove();
+                if (shard.task.isCompletedNormally()) {
+                    metrics.addAll(shard.task.getRawResult());
+                } else {
+                    logger.warn(String.format(SHARD_FAILED_MSG, shard.from, shard.to - 1), shard.task.getException());
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Stops the threads of this poller, waiting for none of them; a later poll starts new ones.
+     */
+    public synchronized void shutdown() {
+        if (serialPoller != null) {
+            serialPoller.shutdown();
+            serialPoller = null;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private synchronized MonitorRegistryMetricPoller getSerialPoller() {
+        if (serialPoller == null) {
+            serialPoller = new MonitorRegistryMetricPoller(registry);
+        }
+        return serialPoller;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    private List<Metric> pollShard(List<Monitor<?>> monitors, int from, int to, MetricFilter filter, long timestamp) {
+        final List<Metric> metrics = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            addMetrics(metrics, monitors.get(i), filter, timestamp);
+        }
+        return metrics;
+    }
+
+    private void addMetrics(List<Metric> metrics, Monitor<?> monitor, MetricFilter filter, long timestamp) {
+        if (monitor instanceof CompositeMonitor) {
+            final List<Monitor<?>> subMonitors;
+            try {
+                subMonitors = ((CompositeMonitor<?>) monitor).getMonitors();
+            } catch (RuntimeException e) {
+                logger.warn(String.format(MONITORS_FAILED_MSG, monitor.getConfig()), e);
+                return;
+            }
+            for (int i = 0; i < subMonitors.size(); i++) {
+                addMetrics(metrics, subMonitors.get(i), filter, timestamp);
+            }
+            return;
+        }
+        if (!filter.matches(monitor.getConfig())) {
+            return;
+        }
+        final Object value;
+        try {
+            value = monitor.getValue();
+        } catch (RuntimeException e) {
+            logger.warn(String.format(VALUE_FAILED_MSG, monitor.getConfig()), e);
+            return;
+        }
+        if (value != null) {
+            metrics.add(new Metric(monitor.getConfig(), timestamp, value));
+        }
+    }
+
+    /**
+     * Registered monitors from (inclusive) to to (exclusive) of a parallel poll; whichever of the reading thread and
+     * the poll claims the shard first decides whether its monitors are read at all.
+     */
+    private static final class Shard {
+        private final int from;
+        private final int to;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private ForkJoinTask<List<Metric>> task;
+
+        private Shard(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
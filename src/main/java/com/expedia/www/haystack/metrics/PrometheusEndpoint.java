@@ -0,0 +1,327 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.BasicMetricFilter;
+import com.netflix.servo.publish.PollRunnable;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * An embedded HTTP endpoint that Prometheus can scrape, for clusters that pull metrics instead of receiving them. The
+ * endpoint is a MetricObserver: each poll is rendered once, in the Prometheus text format (see
+ * {@link PrometheusTextEncoder}), into a buffer that is reused from poll to poll, and the rendered bytes are then what
+ * every scrape gets until the next poll, so a scrape only writes ready-made bytes, however many scrapers there are.
+ * The gzipped bytes, for scrapers that accept them, are made at most once per poll, by the first scrape that asks.
+ * To publish the same polls to Graphite and Prometheus, start the endpoint with {@link #start()} and pass it to
+ * {@link MetricPublishing#start(List, com.netflix.servo.publish.MetricFilter, List)}; to publish to Prometheus only,
+ * start it with {@link #start(int)}, which polls the registry itself. Polling a {@link ResettingMonitor} (such as a
+ * {@link ResettingCounter}) resets it, so only one of the two should poll a registry. The deltas of a ResettingMonitor
+ * are added up by the endpoint, which exposes each one as a cumulative counter (starting at 0 when the endpoint
+ * starts), as Prometheus expects; the values of other monitors are exposed as they are polled. Whether a metric is a
+ * ResettingMonitor is decided the first time it is polled, by looking for it in the registry of the endpoint and in
+ * the registry of every tier (see {@link MetricObjects#forTier(String)}), whichever of them is polled; polls that bring
+ * no new metrics do not look at the registries at all.
+ */
+public class PrometheusEndpoint extends BaseMetricObserver {
+    static final String OBSERVER_NAME = "PrometheusEndpoint";
+    static final String PATH = "/metrics";
+    static final String DEFAULT_PREFIX = "haystack";
+    static final String SCHEDULER_NAME = "prometheus";
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    static final String GZIP = "gzip";
+    static final int SCRAPE_THREADS = 2;
+    static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final int OK = 200;
+    private static final int NO_BODY = -1;
+    private static final Comparator<PrometheusTextEncoder.Series> BY_FAMILY =
+            Comparator.comparing(series -> series.family);
+
+    private final InetSocketAddress address;
+    private final MonitorRegistry registry;
+    private final ParallelMetricPoller poller;
+    private final PublishingScheduler scheduler;
+    private final PrometheusTextEncoder encoder;
+    private final List<PrometheusTextEncoder.Series> polledSeries = new ArrayList<>();
+    private final List<MonitorConfig> undecidedConfigs = new ArrayList<>();
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private volatile Snapshot snapshot = new Snapshot(new byte[0]);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Creates a new PrometheusEndpoint for the metrics that are not in a tier; nothing listens until it is started.
+     *
+     * @param port the port to listen on, on every interface; 0 picks a free port (see {@link #getPort()})
+     */
+    @SuppressWarnings("WeakerAccess")
+    public PrometheusEndpoint(int port) {
+        this(port, 0);
+    }
+
+    /**
+     * Creates a new PrometheusEndpoint for the metrics that are not in a tier, which {@link #start(int)} polls in
+     * parallel when the registry is large; see {@link GraphiteConfig#parallelpollthreshold()}.
+     *
+     * @param port                  the port to listen on, on every interface; 0 picks a free port
+     * @param parallelPollThreshold the number of registered monitors above which the registry is read in parallel, or 0
+     *                              to never read it in parallel
+     */
+    @SuppressWarnings("WeakerAccess")
+    public PrometheusEndpoint(int port, int parallelPollThreshold) {
+        this(new InetSocketAddress(port), DEFAULT_PREFIX, MetricObjects.getMonitorRegistry(null),
+                parallelPollThreshold);
+    }
+
+    private PrometheusEndpoint(InetSocketAddress address, String prefix, MonitorRegistry registry,
+                               int parallelPollThreshold) {
+        this(address, prefix, registry, new ParallelMetricPoller(registry, parallelPollThreshold),
+                new PublishingScheduler(SCHEDULER_NAME));
+    }
+
+    PrometheusEndpoint(InetSocketAddress address, String prefix, MonitorRegistry registry, ParallelMetricPoller poller,
+                       PublishingScheduler scheduler) {
+        super(OBSERVER_NAME);
+        this.address = address;
+        this.registry = registry;
+        this.poller = poller;
+        this.scheduler = scheduler;
+        this.encoder = new PrometheusTextEncoder(prefix);
+    }
+
+    /**
+     * Starts listening, if the endpoint is not already listening; until the first poll is rendered, scrapes get no
+     * metrics.
+     *
+     * @throws IOException if the port cannot be listened on
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        server = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(SCRAPE_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, OBSERVER_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext(PATH, this::scrape);
+        server.start();
+    }
+
+    /**
+     * Starts listening, and polls the registry every pollIntervalSeconds, starting now; use this method when no
+     * {@link MetricPublishing} polls the registry.
+     *
+     * @param pollIntervalSeconds the interval between polls, which should be no longer than the scrape interval
+     * @throws IOException if the port cannot be listened on
+     */
+    public synchronized void start(int pollIntervalSeconds) throws IOException {
+        start();
+        if (scheduler.start()) {
+            final PollRunnable task = new PollRunnable(
+                    poller, BasicMetricFilter.MATCH_ALL, true, Collections.singletonList(this));
+            scheduler.schedule(task, pollIntervalSeconds, SECONDS);
+            scheduler.whenStopped(poller::shutdown);
+        }
+    }
+
+    /**
+     * Stops polling, and the threads of the poller, if {@link #start(int)} started it, and stops listening.
+     */
+    public synchronized void stop() {
+        scheduler.stop();
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * The port that the endpoint listens on, which is useful when it was created with port 0.
+     *
+     * @return the port
+     */
+    public synchronized int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Renders the metrics of a poll, which every later scrape gets until the next poll.
+     *
+     * @param metrics the metrics of the poll
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        polledSeries.clear();
+        for (int i = 0; i < metrics.size(); i++) {
+            final Metric metric = metrics.get(i);
+            if (metric.hasNumberValue()) {
+                final PrometheusTextEncoder.Series series = encoder.series(metric.getConfig());
+                if (!series.isDecided()) {
+                    undecidedConfigs.add(metric.getConfig());
+                }
+                polledSeries.add(series);
+            }
+        }
+        if (!undecidedConfigs.isEmpty()) {
+            decideResetting();
+        }
+        int seriesIndex = 0;
+        for (int i = 0; i < metrics.size(); i++) {
+            final Metric metric = metrics.get(i);
+            if (metric.hasNumberValue()) {
+                polledSeries.get(seriesIndex++).setValue(metric.getNumberValue());
+            }
+        }
+        // The lines of a family must be together, under one TYPE line; the sort is stable, so it keeps poll order
+        polledSeries.sort(BY_FAMILY);
+        buffer.clear();
+        int familyStart = 0;
+        while (familyStart < polledSeries.size()) {
+            final int familyEnd = renderFamily(familyStart);
+            familyStart = familyEnd;
+        }
+        snapshot = new Snapshot(Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+
+    private void decideResetting() {
+        final Set<MonitorConfig> resettingConfigs = new HashSet<>();
+        addResettingConfigs(resettingConfigs, registry);
+        for (MonitorRegistry tierRegistry : MetricObjects.TIER_REGISTRIES.values()) {
+            addResettingConfigs(resettingConfigs, tierRegistry);
+        }
+        for (int i = 0; i < undecidedConfigs.size(); i++) {
+            final MonitorConfig config = undecidedConfigs.get(i);
+            encoder.series(config).setResetting(resettingConfigs.contains(config));
+        }
+        undecidedConfigs.clear();
+    }
+
+    private static void addResettingConfigs(Set<MonitorConfig> resettingConfigs, MonitorRegistry monitorRegistry) {
+        for (Monitor<?> monitor : monitorRegistry.getRegisteredMonitors()) {
+            if (monitor instanceof ResettingMonitor) {
+                resettingConfigs.add(monitor.getConfig());
+            }
+        }
+    }
+
+    byte[] getRenderedBytes() {
+        return snapshot.plain;
+    }
+
+    int getBufferCapacity() {
+        return buffer.capacity();
+    }
+
+    private int renderFamily(int familyStart) {
+        final String family = polledSeries.get(familyStart).family;
+        String type = polledSeries.get(familyStart).getType();
+        int familyEnd = familyStart + 1;
+        for (; familyEnd < polledSeries.size() && polledSeries.get(familyEnd).family.equals(family); familyEnd++) {
+            if (!polledSeries.get(familyEnd).getType().equals(type)) {
+                type = PrometheusTextEncoder.TYPE_UNTYPED;
+            }
+        }
+        for (int i = familyStart; i < familyEnd; i++) {
+            final PrometheusTextEncoder.Series series = polledSeries.get(i);
+            ensureRemaining(encoder.maxLength(series));
+            if (i == familyStart) {
+                encoder.encodeTypeLine(buffer, family, type);
+            }
+            encoder.encode(buffer, series);
+        }
+        return familyEnd;
+    }
+
+    private void ensureRemaining(int length) {
+        if (buffer.remaining() < length) {
+            final ByteBuffer grownBuffer = ByteBuffer.allocate(Math.max(2 * buffer.capacity(),
+                    buffer.position() + length));
+            buffer.flip();
+            buffer = grownBuffer.put(buffer);
+        }
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        final Snapshot current = snapshot;
+        final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        final boolean gzip = acceptEncoding != null && acceptEncoding.contains(GZIP);
+        final byte[] body = gzip ? current.gzipped() : current.plain;
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", GZIP);
+        }
+        if (body.length == 0) {
+            exchange.sendResponseHeaders(OK, NO_BODY);
+        } else {
+            exchange.sendResponseHeaders(OK, body.length);
+            final OutputStream responseBody = exchange.getResponseBody();
+            responseBody.write(body);
+            responseBody.close();
+        }
+        exchange.close();
+    }
+
+    /**
+     * The rendered bytes of one poll, and their gzipped form, which is made by the first scrape that asks for it
+     */
+    private static final class Snapshot {
+        private final byte[] plain;
+        private byte[] gzipped;
+
+        private Snapshot(byte[] plain) {
+            this.plain = plain;
+        }
+
+        private synchronized byte[] gzipped() throws IOException {
+            if (gzipped == null) {
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream(plain.length / 4 + 32);
+                final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+                gzipOutputStream.write(plain);
+                gzipOutputStream.close();
+                gzipped = compressed.toByteArray();
+            }
+            return gzipped;
+        }
+    }
+}
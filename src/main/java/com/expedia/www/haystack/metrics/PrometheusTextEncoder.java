@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.Tag;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Encodes metrics in the Prometheus text exposition format (version 0.0.4) directly into a ByteBuffer. The name of a
+ * Servo metric, after the prefix and an underscore, becomes the name of the Prometheus metric family, with every
+ * character that Prometheus does not allow replaced by an underscore; the Servo tags, except "type", become labels
+ * (sorted, and with the same replacement in their names); and the "type" tag decides the TYPE of the family. Each
+ * MonitorConfig has a {@link Series}, which caches the "name{labels} " start of its lines (with weak keys, so that the
+ * Series of a monitor that has been garbage collected is dropped), and numbers are written by a {@link NumberEncoder},
+ * so encoding a metric that has been encoded before allocates nothing. Instances are not thread-safe.
+ */
+final class PrometheusTextEncoder {
+    static final String TYPE_COUNTER = "counter";
+    static final String TYPE_GAUGE = "gauge";
+    static final String TYPE_UNTYPED = "untyped";
+    static final int MAX_VALUE_BYTES = GraphiteLineEncoder.MAX_VALUE_AND_TIMESTAMP_BYTES;
+    private static final int INITIAL_NAME_CAPACITY = 128;
+    private static final String TYPE_LINE_START = "# TYPE ";
+    private static final byte SPACE = ' ';
+    private static final byte NEWLINE = '\n';
+
+    private final String prefix;
+    private final Map<MonitorConfig, Series> seriesCache = new WeakHashMap<>();
+    private final NumberEncoder numberEncoder = new NumberEncoder();
+
+    PrometheusTextEncoder(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the Series of a MonitorConfig, creating it the first time it is asked for.
+     *
+     * @param config the configuration of the monitor
+     * @return the Series, which is the same object for as long as the monitor lives
+     */
+    Series series(MonitorConfig config) {
+        final Series cachedSeries = seriesCache.get(config);
+        if (cachedSeries != null) {
+            return cachedSeries;
+        }
+        final Series series = new Series(config);
+        seriesCache.put(config, series);
+        return series;
+    }
+
+    /**
+     * The most bytes that the TYPE line of a family of the Series and the line of the Series can take together.
+     *
+     * @param series the Series
+     * @return the maximum length
+     */
+    int maxLength(Series series) {
+        return TYPE_LINE_START.length() + 2 * series.family.length() + TYPE_UNTYPED.length() + 2
+                + series.nameBytes.length + MAX_VALUE_BYTES;
+    }
+
+    /**
+     * Writes the "# TYPE family type" line that must come before the first line of a family.
+     *
+     * @param buffer the buffer to write to
+     * @param family the name of the family, which is always ASCII
+     * @param type   {@link #TYPE_COUNTER}, {@link #TYPE_GAUGE} or {@link #TYPE_UNTYPED}
+     */
+    void encodeTypeLine(ByteBuffer buffer, String family, String type) {
+        putAscii(buffer, TYPE_LINE_START);
+        putAscii(buffer, family);
+        buffer.put(SPACE);
+        putAscii(buffer, type);
+        buffer.put(NEWLINE);
+    }
+
+    /**
+     * Writes the line of a Series, with the value it was last given.
+     *
+     * @param buffer the buffer to write to
+     * @param series the Series
+     */
+    void encode(ByteBuffer buffer, Series series) {
+        buffer.put(series.nameBytes);
+        if (series.value == null) {
+            numberEncoder.putLong(buffer, series.total);
+        } else {
+            numberEncoder.putNumber(buffer, series.value);
+        }
+        buffer.put(NEWLINE);
+    }
+
+    int getSeriesCount() {
+        return seriesCache.size();
+    }
+
+    private static void putAscii(ByteBuffer buffer, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer.put((byte) ascii.charAt(i));
+        }
+    }
+
+    private static void appendName(StringBuilder builder, String name, boolean allowColon) {
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            // A name cannot start with a digit
+            final boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                    || (c >= '0' && c <= '9' && builder.length() > 0) || (c == ':' && allowColon);
+            builder.append(allowed ? c : '_');
+        }
+    }
+
+    private static String typeOf(String dataSourceType) {
+        if (DataSourceType.COUNTER.name().equals(dataSourceType)) {
+            return TYPE_COUNTER;
+        }
+        return DataSourceType.GAUGE.name().equals(dataSourceType) ? TYPE_GAUGE : TYPE_UNTYPED;
+    }
+
+    private static void appendLabelValue(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+    }
+
+    /**
+     * The lines of one monitor: their cached start, the TYPE of the monitor, and the value to write next, which the
+     * endpoint sets each poll. Whether the monitor is a {@link ResettingMonitor} is decided once, before the first
+     * value is set; the Series of a ResettingMonitor adds up the deltas it is given, so that it is written as a
+     * cumulative counter.
+     */
+    final class Series {
+        final String family;
+        final String type;
+        final byte[] nameBytes;
+        private boolean decided;
+        private boolean resetting;
+        private long total;
+        private Number value;
+
+        private Series(MonitorConfig config) {
+            final StringBuilder name = new StringBuilder(INITIAL_NAME_CAPACITY);
+            appendName(name.append(prefix).append('_'), config.getName(), true);
+            this.family = name.toString();
+            final Map<String, String> labels = new TreeMap<>();
+            for (Tag tag : config.getTags()) {
+                if (!DataSourceType.KEY.equals(tag.getKey())) {
+                    final StringBuilder labelName = new StringBuilder(tag.getKey().length());
+                    appendName(labelName, tag.getKey(), false);
+                    labels.put(labelName.toString(), tag.getValue());
+                }
+            }
+            if (!labels.isEmpty()) {
+                char separator = '{';
+                for (Map.Entry<String, String> label : labels.entrySet()) {
+                    name.append(separator).append(label.getKey()).append("=\"");
+                    appendLabelValue(name, label.getValue());
+                    name.append('"');
+                    separator = ',';
+                }
+                name.append('}');
+            }
+            this.nameBytes = name.append(' ').toString().getBytes(StandardCharsets.UTF_8);
+            this.type = typeOf(config.getTags().getValue(DataSourceType.KEY));
+        }
+
+        /**
+         * Decides whether this Series is the Series of a {@link ResettingMonitor}, whose values are deltas to add up.
+         *
+         * @param resetting true if the monitor is a ResettingMonitor
+         */
+        void setResetting(boolean resetting) {
+            this.resetting = resetting;
+            decided = true;
+        }
+
+        boolean isDecided() {
+            return decided;
+        }
+
+        /**
+         * Sets the value to write next: the value itself or, for a {@link ResettingMonitor}, the sum of every value.
+         *
+         * @param polledValue the value that was polled
+         */
+        void setValue(Number polledValue) {
+            if (resetting) {
+                total += polledValue.longValue();
+                value = null;
+            } else {
+                value = polledValue;
+            }
+        }
+
+        String getType() {
+            return resetting ? TYPE_COUNTER : type;
+        }
+    }
+}
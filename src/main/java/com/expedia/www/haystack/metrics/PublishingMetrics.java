@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Timer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * The metrics that the publishing pipeline keeps about itself: how long each poll, and each update of the Graphite
+ * observer, takes; how deep the queue in front of the observer is and what it drops; and how many bytes, connections,
+ * failures and (for UDP) dropped datagrams the observer has. They are created through {@link MetricObjects} with the
+ * subsystem {@value #SUBSYSTEM}, so they are published with every other metric, one interval after they are recorded.
+ * When metrics are published to several sinks, each sink has its own queue and observer metrics; see
+ * {@link #forSink(int)}. Each independent publisher (see {@link MetricPublishing#MetricPublishing(String)}) has its own
+ * metrics of every kind; see {@link #forPublisher(String)}.
+ */
+class PublishingMetrics {
+    static final String SUBSYSTEM = "metrics";
+    static final String APPLICATION = "haystack-metrics";
+    static final String KLASS_POLLER = "MetricPoller";
+    static final String KLASS_QUEUE = "AsyncQueue";
+    static final String KLASS_OBSERVER = "GraphiteObserver";
+    static final String POLL = "POLL";
+    static final String POLLED_METRICS = "POLLED_METRICS";
+    static final String QUEUE_DEPTH = "QUEUE_DEPTH";
+    static final String QUEUE_DROPS = "QUEUE_DROPS";
+    static final String QUEUE_EXPIRATIONS = "QUEUE_EXPIRATIONS";
+    static final String FORMAT = "FORMAT";
+    static final String SEND = "SEND";
+    static final String SENT_BYTES = "SENT_BYTES";
+    static final String CONNECTS = "CONNECTS";
+    static final String SEND_FAILURES = "SEND_FAILURES";
+    static final String DROPPED_DATAGRAMS = "DROPPED_DATAGRAMS";
+    static final TimeUnit TIME_UNIT = MICROSECONDS;
+
+    private static final PublishingMetrics DEFAULT = new PublishingMetrics(new MetricObjects());
+
+    private final MetricObjects metricObjects;
+    private final ConcurrentMap<Integer, PublishingMetrics> sinks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PublishingMetrics> publishers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, PublishingMetrics> relays = new ConcurrentHashMap<>();
+    private final String klassSuffix;
+    private final Timer pollTimer;
+    private final Counter polledMetrics;
+    private final Counter queueDrops;
+    private final Counter queueExpirations;
+    private final Timer formatTimer;
+    private final Timer sendTimer;
+    private final Counter sentBytes;
+    private final Counter connects;
+    private final Counter sendFailures;
+    private final Counter droppedDatagrams;
+
+    private final String klassQueue;
+    private final String klassObserver;
+
+    PublishingMetrics(MetricObjects metricObjects) {
+        this(metricObjects, "");
+    }
+
+    private PublishingMetrics(MetricObjects metricObjects, String klassSuffix) {
+        this(metricObjects, klassSuffix, metricObjects.createAndRegisterBasicTimer(
+                SUBSYSTEM, APPLICATION, KLASS_POLLER + klassSuffix, POLL, TIME_UNIT),
+                metricObjects.createAndRegisterResettingCounter(
+                        SUBSYSTEM, APPLICATION, KLASS_POLLER + klassSuffix, POLLED_METRICS));
+    }
+
+    private PublishingMetrics(MetricObjects metricObjects, String klassSuffix, Timer pollTimer, Counter polledMetrics) {
+        this.metricObjects = metricObjects;
+        this.klassSuffix = klassSuffix;
+        this.pollTimer = pollTimer;
+        this.polledMetrics = polledMetrics;
+        this.klassQueue = KLASS_QUEUE + klassSuffix;
+        this.klassObserver = KLASS_OBSERVER + klassSuffix;
+        this.queueDrops = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, klassQueue, QUEUE_DROPS);
+        this.queueExpirations = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, klassQueue, QUEUE_EXPIRATIONS);
+        this.formatTimer = metricObjects.createAndRegisterBasicTimer(
+                SUBSYSTEM, APPLICATION, klassObserver, FORMAT, TIME_UNIT);
+        this.sendTimer = metricObjects.createAndRegisterBasicTimer(
+                SUBSYSTEM, APPLICATION, klassObserver, SEND, TIME_UNIT);
+        this.sentBytes = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, klassObserver, SENT_BYTES);
+        this.connects = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, klassObserver, CONNECTS);
+        this.sendFailures = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, klassObserver, SEND_FAILURES);
+        this.droppedDatagrams = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, klassObserver, DROPPED_DATAGRAMS);
+    }
+
+    /**
+     * Returns the PublishingMetrics shared by every publishing component in this JVM.
+     *
+     * @return the shared PublishingMetrics
+     */
+    static PublishingMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the PublishingMetrics of one sink, creating and registering its metrics the first time it is asked for.
+     * Sink 0 is this PublishingMetrics; the queue and observer metrics of sink n &gt; 0 have the classes
+     * "{@value #KLASS_QUEUE}n" and "{@value #KLASS_OBSERVER}n" (after the suffix of the publisher, if any). Every sink
+     * shares the poller metrics.
+     *
+     * @param sink the index of the sink in the list of sinks
+     * @return the PublishingMetrics of the sink
+     */
+    PublishingMetrics forSink(int sink) {
+        if (sink == 0) {
+            return this;
+        }
+        return sinks.computeIfAbsent(sink, key -> new PublishingMetrics(
+                metricObjects, klassSuffix + key, pollTimer, polledMetrics));
+    }
+
+    /**
+     * Returns the PublishingMetrics of one of the relays of a sink that shards its metrics over several relays (see
+     * {@link ShardingMetricObserver}), creating and registering its metrics the first time it is asked for. Relay 0 is
+     * this PublishingMetrics; the queue and observer metrics of relay n &gt; 0 have the classes of the sink followed by
+     * "_n", for example "{@value #KLASS_QUEUE}_1". Every relay shares the poller metrics.
+     *
+     * @param relay the index of the relay in the list of relays
+     * @return the PublishingMetrics of the relay
+     */
+    PublishingMetrics forRelay(int relay) {
+        if (relay == 0) {
+            return this;
+        }
+        return relays.computeIfAbsent(relay, key -> new PublishingMetrics(
+                metricObjects, klassSuffix + '_' + key, pollTimer, polledMetrics));
+    }
+
+    /**
+     * Returns the PublishingMetrics of an independent publisher, creating and registering its metrics the first time it
+     * is asked for; the classes of all of its metrics end with "-" and the name of the publisher, for example
+     * "{@value #KLASS_POLLER}-fast".
+     *
+     * @param publisher the name of the publisher
+     * @return the PublishingMetrics of the first sink of the publisher
+     */
+    PublishingMetrics forPublisher(String publisher) {
+        return publishers.computeIfAbsent(publisher, key -> new PublishingMetrics(metricObjects, '-' + key));
+    }
+
+    void recordPoll(long durationNanos, int metricCount) {
+        pollTimer.record(durationNanos, NANOSECONDS);
+        polledMetrics.increment(metricCount);
+    }
+
+    /**
+     * Registers the gauge of the queue depth; the queue registered last for a sink is the one that is published.
+     *
+     * @param queueDepth returns the number of updates waiting in the queue
+     */
+    void registerQueueDepth(Callable<Integer> queueDepth) {
+        metricObjects.registerGauge(SUBSYSTEM, APPLICATION, klassQueue, QUEUE_DEPTH, queueDepth);
+    }
+
+    void recordQueueDrop() {
+        queueDrops.increment();
+    }
+
+    void recordQueueExpiration() {
+        queueExpirations.increment();
+    }
+
+    void recordUpdate(long formatNanos, long sendNanos, long byteCount) {
+        formatTimer.record(formatNanos, NANOSECONDS);
+        sendTimer.record(sendNanos, NANOSECONDS);
+        sentBytes.increment(byteCount);
+    }
+
+    void recordConnect() {
+        connects.increment();
+    }
+
+    void recordSendFailure() {
+        sendFailures.increment();
+    }
+
+    void recordDroppedDatagram() {
+        droppedDatagrams.increment();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the poll task of a {@link MetricPublishing} on a daemon thread of its own, replacing Servo's PollScheduler, of
+ * which there is only one per JVM. Calls to start() and stop() are counted, and the thread is only stopped once every
+ * start() has been matched by a stop(), because Log4j2 start-up calls start() more than once before it calls stop().
+ */
+class PublishingScheduler {
+    static final String THREAD_NAME_PREFIX = "MetricPublishing";
+
+    private final String threadName;
+    private final List<Runnable> stopActions = new ArrayList<>();
+    private int startCount;
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new PublishingScheduler; no thread is started until start() is called.
+     *
+     * @param name the name of the publisher, which is added to the name of the thread, or null for the shared publisher
+     */
+    PublishingScheduler(String name) {
+        this.threadName = name == null ? THREAD_NAME_PREFIX : THREAD_NAME_PREFIX + '-' + name;
+    }
+
+    /**
+     * Counts a start, and starts the thread if it is not already running.
+     *
+     * @return true if this call started the thread, in which case the caller should schedule its task
+     */
+    synchronized boolean start() {
+        startCount++;
+        if (executor != null) {
+            return false;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        return true;
+    }
+
+    /**
+     * Runs the task now and then repeatedly, with the given delay between the end of one run and the start of the next.
+     *
+     * @param task     the task to run
+     * @param delay    the delay between runs
+     * @param timeUnit the unit of the delay
+     */
+    synchronized void schedule(Runnable task, long delay, TimeUnit timeUnit) {
+        executor.scheduleWithFixedDelay(task, 0, delay, timeUnit);
+    }
+
+    /**
+     * Runs an action when the thread is next stopped, typically to stop the threads of the poller that the task uses.
+     *
+     * @param stopAction the action to run
+     */
+    synchronized void whenStopped(Runnable stopAction) {
+        stopActions.add(stopAction);
+    }
+
+    /**
+     * Counts a stop, and stops the thread if every start has now been matched by a stop, after which the actions given
+     * to {@link #whenStopped(Runnable)} are run (and forgotten); a stop without a start is ignored.
+     */
+    synchronized void stop() {
+        if (startCount > 0) {
+            startCount--;
+        }
+        if (startCount == 0 && executor != null) {
+            executor.shutdown();
+            executor = null;
+            for (Runnable stopAction : stopActions) {
+                stopAction.run();
+            }
+            stopActions.clear();
+        }
+    }
+
+    synchronized boolean isStarted() {
+        return executor != null;
+    }
+
+    String getThreadName() {
+        return threadName;
+    }
+}
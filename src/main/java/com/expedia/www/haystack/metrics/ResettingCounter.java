@@ -13,8 +13,10 @@ import java.util.concurrent.atomic.AtomicLong;
  * This counter differs from {@link com.netflix.servo.monitor.BasicCounter} in that its getValue() method returns the
  * count, not a rate, and in the value reset performed by getValue().
  */
-public final class ResettingCounter extends AbstractMonitor<Number> implements Counter {
+public final class ResettingCounter extends AbstractMonitor<Number>
+        implements Counter, UpdateTracking, ResettingMonitor {
     private final AtomicLong count = new AtomicLong();
+    private volatile boolean updated;
 
     /**
      * Create a new instance with the specified configuration.
@@ -32,6 +34,9 @@ public final class ResettingCounter extends AbstractMonitor<Number> implements C
     @Override
     public void increment() {
         count.incrementAndGet();
+        if (!updated) {
+            updated = true;
+        }
     }
 
     /**
@@ -40,6 +45,9 @@ public final class ResettingCounter extends AbstractMonitor<Number> implements C
     @Override
     public void increment(long amount) {
         count.getAndAdd(amount);
+        if (!updated) {
+            updated = true;
+        }
     }
 
     /**
@@ -51,6 +59,18 @@ public final class ResettingCounter extends AbstractMonitor<Number> implements C
         return count.getAndSet(0);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean checkAndClearUpdated() {
+        if (updated) {
+            updated = false;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.MetricObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * An alternative to {@link AsyncQueueMetricObserver} that hands each update to its thread through a preallocated
+ * single-producer, single-consumer ring buffer instead of a BlockingQueue: an update only writes a slot that already
+ * exists and moves a sequence number, so it allocates nothing and takes no lock. The producer is the thread that polls
+ * (MetricPublishing polls on one thread), and the consumer is the thread of this observer, which waits for updates with
+ * its {@link WaitStrategy}. When the ring is full the {@link OverflowPolicy} drops the oldest update, as
+ * AsyncQueueMetricObserver does, or the new one; either way the drop is recorded in {@link PublishingMetrics}, as are
+ * the depth of the ring and the updates that waited longer than the expire time, which are dropped instead of sent.
+ */
+public class RingBufferMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "RingBufferMetricObserver";
+    static final String UPDATE_FAILED_MSG = "Observer [%s] failed to send a queued update; it has been dropped";
+    static final String BAD_CAPACITY_MSG = "The capacity of a ring buffer must be positive, not %d";
+    private static final long SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BLOCK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * How the thread of the observer waits while the ring is empty, from the lowest latency to the least CPU
+     */
+    public enum WaitStrategy {
+        /**
+         * Spins, which keeps a core busy all the time
+         */
+        BUSY_SPIN {
+            @Override
+            void idle() {
+                // Try again at once
+            }
+        },
+        /**
+         * Yields to the other threads between checks
+         */
+        YIELDING {
+            @Override
+            void idle() {
+                Thread.yield();
+            }
+        },
+        /**
+         * Sleeps for a millisecond between checks
+         */
+        SLEEPING {
+            @Override
+            void idle() {
+                LockSupport.parkNanos(SLEEP_NANOS);
+            }
+        },
+        /**
+         * Parks until an update wakes it up; the update pays for the wake-up, but an idle thread costs nothing
+         */
+        BLOCKING {
+            @Override
+            void idle() {
+                LockSupport.parkNanos(MAX_BLOCK_NANOS);
+            }
+
+            @Override
+            void signal(Thread consumer) {
+                LockSupport.unpark(consumer);
+            }
+        };
+
+        abstract void idle();
+
+        void signal(Thread consumer) {
+            // Only a parked consumer needs to be woken up
+        }
+    }
+
+    /**
+     * What an update does when the ring is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drops the oldest update in the ring to make room, which favors fresh metrics
+         */
+        DROP_OLDEST,
+        /**
+         * Drops the new update, which leaves the ring untouched
+         */
+        DROP_NEWEST
+    }
+
+    private final MetricObserver observer;
+    private final Slot[] slots;
+    private final int mask;
+    private final long expireTimeMillis;
+    private final WaitStrategy waitStrategy;
+    private final OverflowPolicy overflowPolicy;
+    private final PublishingMetrics publishingMetrics;
+    private final Logger logger;
+    private final LongSupplier clock;
+    private final Thread worker;
+    // The sequence of the oldest update in the ring: moved by the consumer, and by the producer when it drops one
+    private final AtomicLong head = new AtomicLong();
+    // The sequence of the next update: only moved by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new RingBufferMetricObserver and starts the thread that sends its queued updates.
+     *
+     * @param name             the name of this observer, which is also the suffix of the name of its thread
+     * @param observer         the observer to which the queued updates are sent
+     * @param capacity         the maximum number of updates waiting to be sent, rounded up to a power of two
+     * @param expireTimeMillis how long an update may wait in the ring before it is dropped
+     * @param waitStrategy     how the thread waits for updates
+     * @param overflowPolicy   which update to drop when the ring is full
+     */
+    @SuppressWarnings("WeakerAccess")
+    public RingBufferMetricObserver(String name, MetricObserver observer, int capacity, long expireTimeMillis,
+                                    WaitStrategy waitStrategy, OverflowPolicy overflowPolicy) {
+        this(name, observer, capacity, expireTimeMillis, waitStrategy, overflowPolicy,
+                PublishingMetrics.getDefault());
+    }
+
+    RingBufferMetricObserver(String name, MetricObserver observer, int capacity, long expireTimeMillis,
+                             WaitStrategy waitStrategy, OverflowPolicy overflowPolicy,
+                             PublishingMetrics publishingMetrics) {
+        this(name, observer, capacity, expireTimeMillis, waitStrategy, overflowPolicy, publishingMetrics,
+                LoggerFactory.getLogger(RingBufferMetricObserver.class), System::currentTimeMillis);
+    }
+
+    RingBufferMetricObserver(String name, MetricObserver observer, int capacity, long expireTimeMillis,
+                             WaitStrategy waitStrategy, OverflowPolicy overflowPolicy,
+                             PublishingMetrics publishingMetrics, Logger logger, LongSupplier clock) {
+        super(name);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format(BAD_CAPACITY_MSG, capacity));
+        }
+        this.observer = observer;
+        this.slots = new Slot[Integer.highestOneBit(2 * capacity - 1)];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = slots.length - 1;
+        this.expireTimeMillis = expireTimeMillis;
+        this.waitStrategy = waitStrategy;
+        this.overflowPolicy = overflowPolicy;
+        this.publishingMetrics = publishingMetrics;
+        this.logger = logger;
+        this.clock = clock;
+        publishingMetrics.registerQueueDepth(this::getQueueDepth);
+        this.worker = new Thread(this::sendQueuedUpdates, OBSERVER_NAME_PREFIX + '-' + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Puts the metrics in the ring, to be sent by the thread of this observer; when the ring is full, the oldest or the
+     * new update is dropped, as the {@link OverflowPolicy} says. Only one thread may call this method.
+     *
+     * @param metrics the metrics to send
+     */
+    @Override
+    public void updateImpl(List<Metric> metrics) {
+        final long sequence = tail.get();
+        final long oldest = sequence - slots.length;
+        final boolean full = head.get() == oldest;
+        if (full && overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            publishingMetrics.recordQueueDrop();
+            return;
+        }
+        final long updateExpireTimeMillis = clock.getAsLong() + expireTimeMillis;
+        // The consumer may have taken the oldest update in the meantime, leaving none to drop
+        if (full && head.compareAndSet(oldest, oldest + 1)) {
+            publishingMetrics.recordQueueDrop();
+        }
+        final Slot slot = slots[(int) sequence & mask];
+        slot.metrics = metrics;
+        slot.expireTimeMillis = updateExpireTimeMillis;
+        // Publishes the slot: the consumer reads the tail before it reads the slot
+        tail.lazySet(sequence + 1);
+        waitStrategy.signal(worker);
+    }
+
+    /**
+     * Stops the thread of this observer; updates still in the ring are not sent.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    int getQueueDepth() {
+        return (int) (tail.get() - head.get());
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    boolean isAlive() {
+        return worker.isAlive();
+    }
+
+    /**
+     * Sends the oldest update in the ring, unless the producer drops it first.
+     *
+     * @return false if the ring was empty
+     */
+    boolean sendNext() {
+        final long sequence = head.get();
+        if (sequence == tail.get()) {
+            return false;
+        }
+        // A slot is only overwritten after the head has passed it, so if the head can be moved then what was read from
+        // the slot is the update; if it cannot, the producer dropped the update, perhaps while it was being read.
+        // The slot keeps its metrics until it is reused, which a ring of polls can afford.
+        final Slot slot = slots[(int) sequence & mask];
+        final List<Metric> metrics = slot.metrics;
+        final boolean expired = clock.getAsLong() > slot.expireTimeMillis;
+        if (head.compareAndSet(sequence, sequence + 1)) {
+            if (expired) {
+                publishingMetrics.recordQueueExpiration();
+            } else {
+                send(metrics);
+            }
+        }
+        return true;
+    }
+
+    private void sendQueuedUpdates() {
+        while (running) {
+            if (!sendNext()) {
+                waitStrategy.idle();
+            }
+        }
+    }
+
+    private void send(List<Metric> metrics) {
+        try {
+            observer.update(metrics);
+        } catch (RuntimeException e) {
+            incrementFailedCount();
+            logger.warn(String.format(UPDATE_FAILED_MSG, observer.getName()), e);
+        }
+    }
+
+    private static final class Slot {
+        private List<Metric> metrics;
+        private long expireTimeMillis;
+    }
+}
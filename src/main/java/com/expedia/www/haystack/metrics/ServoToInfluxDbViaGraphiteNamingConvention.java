@@ -23,6 +23,7 @@ import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
 import com.netflix.servo.tag.Tag;
 import com.netflix.servo.tag.TagList;
 
+
 import static com.expedia.www.haystack.metrics.MetricObjects.METRIC_GROUP_BUCKETS;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
@@ -38,15 +39,21 @@ import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
  */
 public class ServoToInfluxDbViaGraphiteNamingConvention implements GraphiteNamingConvention {
     static final String MISSING_TAG = "MISSING_TAG_%s";
-    static final String METRIC_FORMAT_6_ARGS = "%s.%s.%s.%s.%s_%s";
-    static final String METRIC_FORMAT_7_ARGS = "%s.%s.%s.%s.%s.%s_%s";
     static final String TAG_KEY_STATISTIC = "statistic";
     static final String TAG_KEY_SERVO_BUCKET = "servo.bucket";
+    static final int DEFAULT_NAME_CACHE_MAX_SIZE = 100000;
+    private static final int INITIAL_NAME_CAPACITY = 128;
 
     private final String hostName;
+    private final MonitorConfigCache<String> nameCache;
 
     ServoToInfluxDbViaGraphiteNamingConvention(String hostName) {
+        this(hostName, DEFAULT_NAME_CACHE_MAX_SIZE);
+    }
+
+    ServoToInfluxDbViaGraphiteNamingConvention(String hostName, int nameCacheMaxSize) {
         this.hostName = cleanup(hostName);
+        this.nameCache = new MonitorConfigCache<>(nameCacheMaxSize, this::buildName);
     }
 
     /**
@@ -64,17 +71,29 @@ public class ServoToInfluxDbViaGraphiteNamingConvention implements GraphiteNamin
      * <li>NAME is the name of the Counter, Timer etc. (upper case suggested so as to match TYPE below).</li>
      * <li>TYPE is the metric name assigned by Servo (for example, a Counter emits a metric name of RATE).</li>
      * </ul>
+     * The statistic of a Timer (for example "max", or "p99" for a HistogramTimer) is appended as "_statistic".
      * Before the metric is sent to graphite, one additional field will be added as a prefix: a period-delimited
      * "system" name whose value is the value of the haystack.graphite.prefix configuration. Typically this value is
      * "haystack" and its value must be part of the InfluxDb filter that changes Graphite-style metrics into InfluxDb
      * tagged metrics.
+     * Names are cached by the value of their MonitorConfig (see {@link MonitorConfigCache}), so after the first poll
+     * of a monitor this method is a map lookup, even when the config is rebuilt on every poll by a rate transform; the
+     * cache holds the nameCacheMaxSize most recently used names.
      */
     @Override
     public String getName(Metric metric) {
-        final MonitorConfig config = metric.getConfig();
+        return nameCache.get(metric.getConfig());
+    }
+
+    int getNameCacheSize() {
+        return nameCache.size();
+    }
+
+    private String buildName(MonitorConfig config) {
         final TagList tags = config.getTags();
 
-        // Timer comes with a statistic tag; Counter does not
+        // Timer comes with a statistic tag; Counter does not. Statistics are used as they are, so that the names of
+        // existing series (Servo's "percentile_99.5", say) do not change; those of HistogramTimer need no cleanup.
         final Tag statisticTag = tags.getTag(TAG_KEY_STATISTIC);
         final String statisticName = statisticTag == null ? null : statisticTag.getValue();
 
@@ -82,17 +101,31 @@ public class ServoToInfluxDbViaGraphiteNamingConvention implements GraphiteNamin
         final String subsystem = cleanup(tags, TAG_KEY_SUBSYSTEM);
         final String configName = config.getName(); // Servo disallows null for name, no need to cleanup
         final String type = cleanup(tags, DataSourceType.KEY);
-        final String metricName = statisticName == null ? type : type + '_' + statisticName;
+        final StringBuilder name = new StringBuilder(INITIAL_NAME_CAPACITY);
+        // The appends below build five or six period-delimited fields, as described above, without String.format()
         if(metricGroup == null) {
-            return String.format(METRIC_FORMAT_6_ARGS, subsystem, cleanup(tags, TAG_KEY_APPLICATION), hostName,
-                    cleanup(tags, TAG_KEY_CLASS), configName, metricName);
+            name.append(subsystem).append('.')
+                    .append(cleanup(tags, TAG_KEY_APPLICATION)).append('.')
+                    .append(hostName).append('.')
+                    .append(cleanup(tags, TAG_KEY_CLASS)).append('.');
         } else if(metricGroup.equals(METRIC_GROUP_BUCKETS)) {
-            return String.format(METRIC_FORMAT_7_ARGS, metricGroup, subsystem, cleanup(tags, TAG_KEY_APPLICATION),
-                    hostName, cleanup(tags, TAG_KEY_SERVO_BUCKET), configName, metricName);
+            name.append(metricGroup).append('.')
+                    .append(subsystem).append('.')
+                    .append(cleanup(tags, TAG_KEY_APPLICATION)).append('.')
+                    .append(hostName).append('.')
+                    .append(cleanup(tags, TAG_KEY_SERVO_BUCKET)).append('.');
+        } else {
+            name.append(metricGroup).append('.')
+                    .append(subsystem).append('.')
+                    .append(cleanup(tags, TAG_KEY_FULLY_QUALIFIED_CLASS_NAME)).append('.')
+                    .append(hostName).append('.')
+                    .append(cleanup(tags, TAG_KEY_LINE_NUMBER)).append('.');
+        }
+        name.append(configName).append('_').append(type);
+        if(statisticName != null) {
+            name.append('_').append(statisticName);
         }
-        return String.format(METRIC_FORMAT_7_ARGS, metricGroup, subsystem,
-                cleanup(tags, TAG_KEY_FULLY_QUALIFIED_CLASS_NAME), hostName, cleanup(tags, TAG_KEY_LINE_NUMBER),
-                configName, metricName);
+        return name.toString();
     }
 
     private static String cleanup(TagList tags, String name) {
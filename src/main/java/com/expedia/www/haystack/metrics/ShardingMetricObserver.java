@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.MetricObserver;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads the metrics of each poll over several Graphite relays, so that no one relay takes every metric of a host.
+ * Each metric is routed by consistent hashing (see {@link ConsistentHashRing}) on its Graphite name, so it always goes
+ * to the same relay, and each relay has its own observer, normally an asynchronous queue in front of its own
+ * connection. When the sender of a relay (the observer behind its queue) has failed since the last poll, the relay is
+ * taken out of the ring for a number of polls, during which its metrics go to the next relays on the ring; then it is
+ * tried again. Names come from the naming convention, which caches them, and a String caches its own hash code, so
+ * routing a metric whose name is cached needs no cache of its own.
+ */
+public class ShardingMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME = "ShardingMetricObserver";
+    static final int DEFAULT_RETRY_POLLS = 3;
+    static final String SIZE_MISMATCH_MSG =
+            "There are %d relays, %d observers and %d senders; each relay needs one of each";
+    static final String RELAY_DOWN_MSG =
+            "Graphite relay [%s] has failed; its metrics go to the other relays for %d polls";
+
+    private final GraphiteNamingConvention namingConvention;
+    private final List<String> relayNames;
+    private final List<MetricObserver> relayObservers;
+    private final List<BaseMetricObserver> senders;
+    private final ConsistentHashRing ring;
+    private final int retryPolls;
+    private final Logger logger;
+    private final long[] failedUpdateCounts;
+    private final long[] downUntilPolls;
+    private final boolean[] live;
+    private long pollCount;
+
+    /**
+     * Creates a new ShardingMetricObserver.
+     *
+     * @param namingConvention the naming convention that turns a Servo metric into the Graphite name that is hashed
+     * @param relayNames       the names (typically host:port) of the relays, which place them on the hash ring
+     * @param relayObservers   the observer of each relay, to which its metrics are sent
+     * @param senders          the observer behind the queue of each relay, whose failures show that the relay is down
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ShardingMetricObserver(GraphiteNamingConvention namingConvention, List<String> relayNames,
+                                  List<MetricObserver> relayObservers, List<BaseMetricObserver> senders) {
+        this(namingConvention, relayNames, relayObservers, senders, DEFAULT_RETRY_POLLS,
+                ConsistentHashRing.DEFAULT_VIRTUAL_NODES, LoggerFactory.getLogger(ShardingMetricObserver.class));
+    }
+
+    ShardingMetricObserver(GraphiteNamingConvention namingConvention, List<String> relayNames,
+                           List<MetricObserver> relayObservers, List<BaseMetricObserver> senders, int retryPolls,
+                           int virtualNodes, Logger logger) {
+        super(OBSERVER_NAME);
+        if (relayObservers.size() != relayNames.size() || senders.size() != relayNames.size()) {
+            throw new IllegalArgumentException(String.format(SIZE_MISMATCH_MSG, relayNames.size(),
+                    relayObservers.size(), senders.size()));
+        }
+        this.namingConvention = namingConvention;
+        this.relayNames = relayNames;
+        this.relayObservers = relayObservers;
+        this.senders = senders;
+        this.ring = new ConsistentHashRing(relayNames, virtualNodes);
+        this.retryPolls = retryPolls;
+        this.logger = logger;
+        this.failedUpdateCounts = new long[relayNames.size()];
+        this.downUntilPolls = new long[relayNames.size()];
+        this.live = new boolean[relayNames.size()];
+    }
+
+    /**
+     * Sends each metric to the observer of its relay, or of the next live relay if its relay is down.
+     *
+     * @param metrics the metrics to send
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        updateLiveness();
+        // The relays' queues keep the batches, so each poll needs new ones
+        final List<List<Metric>> batches = new ArrayList<>(relayNames.size());
+        for (int i = 0; i < relayNames.size(); i++) {
+            batches.add(new ArrayList<>(metrics.size() / relayNames.size() + 1));
+        }
+        for (int i = 0; i < metrics.size(); i++) {
+            final Metric metric = metrics.get(i);
+            batches.get(ring.nodeFor(ConsistentHashRing.hash(namingConvention.getName(metric)), live)).add(metric);
+        }
+        for (int i = 0; i < relayNames.size(); i++) {
+            if (!batches.get(i).isEmpty()) {
+                relayObservers.get(i).update(batches.get(i));
+            }
+        }
+    }
+
+    boolean isLive(int relay) {
+        return live[relay];
+    }
+
+    private void updateLiveness() {
+        for (int i = 0; i < relayNames.size(); i++) {
+            final long failedUpdateCount = senders.get(i).getFailedUpdateCount();
+            if (failedUpdateCount != failedUpdateCounts[i]) {
+                failedUpdateCounts[i] = failedUpdateCount;
+                downUntilPolls[i] = pollCount + retryPolls;
+                logger.warn(String.format(RELAY_DOWN_MSG, relayNames.get(i), retryPolls));
+            }
+            live[i] = pollCount >= downUntilPolls[i];
+        }
+        pollCount++;
+    }
+}
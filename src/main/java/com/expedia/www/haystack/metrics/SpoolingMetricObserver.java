@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.publish.BaseMetricObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the metrics that another observer fails to send in a {@link MetricSpool}, and sends them later. While the spool
+ * is empty every update goes straight to the observer, and an update that fails is appended to the spool. While the
+ * spool holds batches, every update is appended to it and then at most a few of the oldest batches are sent, so that
+ * the backlog of an outage is replayed at a controlled rate instead of all at once; replaying stops at the first batch
+ * that fails. A failure is any update that the observer counts in its getFailedUpdateCount(), which is how the Graphite
+ * observers report that Graphite is unreachable. Heap use is bounded by one batch however long the outage lasts; when
+ * the spool is full, the batch that does not fit is dropped and counted.
+ */
+public class SpoolingMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "SpoolingMetricObserver";
+    static final int DEFAULT_REPLAY_BATCHES_PER_UPDATE = 10;
+    static final String SPOOL_FULL_MSG = "The metric spool is full; dropped a batch of %d metrics";
+    static final String UPDATE_FAILED_MSG = "Observer [%s] failed; its metrics will be spooled";
+
+    private final BaseMetricObserver observer;
+    private final MetricSpool spool;
+    private final int replayBatchesPerUpdate;
+    private final Logger logger;
+    private final AtomicLong spooledBatchCount = new AtomicLong();
+    private final AtomicLong replayedBatchCount = new AtomicLong();
+    private final AtomicLong droppedBatchCount = new AtomicLong();
+
+    /**
+     * Creates a new SpoolingMetricObserver, opening (or creating) its spool file; batches left in the file by a previous
+     * run are replayed.
+     *
+     * @param observer  the observer that sends the metrics
+     * @param spoolFile the spool file
+     * @param maxBytes  the size of the spool file
+     * @throws IOException if the spool file cannot be opened
+     */
+    @SuppressWarnings("WeakerAccess")
+    public SpoolingMetricObserver(BaseMetricObserver observer, File spoolFile, int maxBytes) throws IOException {
+        this(observer, new MetricSpool(spoolFile, maxBytes), DEFAULT_REPLAY_BATCHES_PER_UPDATE,
+                LoggerFactory.getLogger(SpoolingMetricObserver.class));
+    }
+
+    SpoolingMetricObserver(BaseMetricObserver observer, MetricSpool spool, int replayBatchesPerUpdate,
+                           Logger logger) {
+        super(OBSERVER_NAME_PREFIX + observer.getName());
+        this.observer = observer;
+        this.spool = spool;
+        this.replayBatchesPerUpdate = replayBatchesPerUpdate;
+        this.logger = logger;
+    }
+
+    /**
+     * Sends the metrics, or spools them if they cannot be sent now; see the class comment.
+     *
+     * @param metrics the metrics to send
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        if (spool.isEmpty()) {
+            if (!send(metrics)) {
+                spool(metrics);
+            }
+            return;
+        }
+        spool(metrics);
+        for (int i = 0; i < replayBatchesPerUpdate && !spool.isEmpty(); i++) {
+            if (!send(spool.peek())) {
+                return;
+            }
+            spool.remove();
+            replayedBatchCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the spooled batches to the spool file.
+     */
+    public synchronized void stop() {
+        spool.close();
+    }
+
+    /**
+     * The number of batches that could not be sent when they were polled.
+     *
+     * @return the number of batches appended to the spool
+     */
+    public long getSpooledBatchCount() {
+        return spooledBatchCount.get();
+    }
+
+    /**
+     * The number of spooled batches that have since been sent.
+     *
+     * @return the number of batches sent from the spool
+     */
+    public long getReplayedBatchCount() {
+        return replayedBatchCount.get();
+    }
+
+    /**
+     * The number of batches that could neither be sent nor spooled.
+     *
+     * @return the number of batches lost because the spool was full
+     */
+    public long getDroppedBatchCount() {
+        return droppedBatchCount.get();
+    }
+
+    private boolean send(List<Metric> metrics) {
+        final int failedUpdateCount = observer.getFailedUpdateCount();
+        try {
+            observer.update(metrics);
+        } catch (RuntimeException e) {
+            // BaseMetricObserver.update() has counted the failure before rethrowing it
+            logger.warn(String.format(UPDATE_FAILED_MSG, observer.getName()), e);
+        }
+        return observer.getFailedUpdateCount() == failedUpdateCount;
+    }
+
+    private void spool(List<Metric> metrics) {
+        if (spool.append(metrics)) {
+            spooledBatchCount.incrementAndGet();
+        } else {
+            droppedBatchCount.incrementAndGet();
+            logger.warn(String.format(SPOOL_FULL_MSG, metrics.size()));
+        }
+    }
+}
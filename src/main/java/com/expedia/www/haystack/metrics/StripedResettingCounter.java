@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A resetting counter for counters that are incremented by many threads at once. Like {@link ResettingCounter}, the
+ * value is the total count since the last sampling point and getValue() resets it, but instead of a single
+ * {@link java.util.concurrent.atomic.AtomicLong} the count is spread over several cells (in the manner of
+ * {@link java.util.concurrent.atomic.LongAdder}), each on its own cache lines, so that threads incrementing the counter
+ * at the same time rarely touch the same cache line. getValue() moves each cell to 0 with an atomic get-and-set, so an
+ * increment that races with getValue() is reported in either the current or the next interval, but never lost.
+ */
+public final class StripedResettingCounter extends AbstractMonitor<Number>
+        implements Counter, UpdateTracking, ResettingMonitor {
+    // 16 longs is 128 bytes, which keeps cells off of the neighboring line that adjacent-line prefetching pulls in
+    static final int CELL_PADDING = 16;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+    private volatile boolean updated;
+
+    /**
+     * Create a new instance with the specified configuration, with one cell per available processor.
+     *
+     * @param config the counter configuration
+     */
+    @SuppressWarnings("WeakerAccess")
+    public StripedResettingCounter(MonitorConfig config) {
+        this(config, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new instance with the specified configuration and number of cells.
+     *
+     * @param config  the counter configuration
+     * @param stripes the number of cells to use; rounded up to a power of two
+     */
+    StripedResettingCounter(MonitorConfig config, int stripes) {
+        super(config.withAdditionalTag(DataSourceType.COUNTER));
+        final int cellCount = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.mask = cellCount - 1;
+        this.cells = new AtomicLongArray(cellCount * CELL_PADDING);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment() {
+        cells.getAndIncrement(cellIndex());
+        if (!updated) {
+            updated = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment(long amount) {
+        cells.getAndAdd(cellIndex(), amount);
+        if (!updated) {
+            updated = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * Note that this method resets the counter to 0.
+     */
+    @Override
+    public Number getValue(int pollerIndex) {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += CELL_PADDING) {
+            sum += cells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean checkAndClearUpdated() {
+        if (updated) {
+            updated = false;
+            return true;
+        }
+        return false;
+    }
+
+    int getStripes() {
+        return mask + 1;
+    }
+
+    private int cellIndex() {
+        // Thread IDs are handed out sequentially, so the threads of a pool land in different cells
+        return ((int) Thread.currentThread().getId() & mask) * CELL_PADDING;
+    }
+
+    private long sum() {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += CELL_PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof StripedResettingCounter)) {
+            return false;
+        }
+        StripedResettingCounter m = (StripedResettingCounter) obj;
+        return config.equals(m.getConfig()) && sum() == m.sum();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = config.hashCode();
+        long n = sum();
+        result = 31 * result + (int) (n ^ (n >>> 32));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "StripedResettingCounter{config=" + config + ", count=" + sum() + '}';
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.MetricObserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leaves out of each update the metrics whose value has not changed since it was last passed on to another observer, so
+ * that the thousands of ResettingCounters that count rare errors, which are zero in most intervals, and gauges that
+ * rarely move are not encoded and sent every poll. A series is passed on when it is first seen, whenever its value
+ * changes, and otherwise once every heartbeatIntervals polls, so that it does not go stale in Graphite. Metrics whose
+ * value is not a number are always passed on. The state of a series is forgotten when it is missing from a poll, so it
+ * is passed on again when it comes back.
+ * <p>
+ * A value counts as sent once it has been passed on, which is before it is queued, spooled or written. When a poll is
+ * lost after that (dropped from a full queue, expired in it, or failed without a spool to keep it), Graphite misses the
+ * changes in that poll until the series changes again or is next due a heartbeat; heartbeatIntervals therefore also
+ * bounds, in polls, how long Graphite can show a stale value after a lost poll.
+ */
+public class SuppressingMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "SuppressingMetricObserver";
+    static final String HEARTBEAT_INTERVALS_MSG = "heartbeatIntervals must be positive but was %d";
+
+    private final MetricObserver observer;
+    private final int heartbeatIntervals;
+    private final Map<MonitorConfig, Series> series = new HashMap<>();
+    private final AtomicLong suppressedMetricCount = new AtomicLong();
+    private long pollCount;
+
+    /**
+     * Creates a new SuppressingMetricObserver.
+     *
+     * @param observer           the observer to pass the changed metrics on to
+     * @param heartbeatIntervals the number of polls after which an unchanged value is passed on anyway; must be positive
+     */
+    @SuppressWarnings("WeakerAccess")
+    public SuppressingMetricObserver(MetricObserver observer, int heartbeatIntervals) {
+        super(OBSERVER_NAME_PREFIX + observer.getName());
+        if (heartbeatIntervals <= 0) {
+            throw new IllegalArgumentException(String.format(HEARTBEAT_INTERVALS_MSG, heartbeatIntervals));
+        }
+        this.observer = observer;
+        this.heartbeatIntervals = heartbeatIntervals;
+    }
+
+    /**
+     * Passes the changed metrics, and the unchanged metrics that are due a heartbeat, on to the observer.
+     *
+     * @param metrics the metrics of one poll
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        pollCount++;
+        final List<Metric> changedMetrics = new ArrayList<>();
+        for (int i = 0; i < metrics.size(); i++) {
+            final Metric metric = metrics.get(i);
+            if (!metric.hasNumberValue() || isChangedOrDue(metric)) {
+                changedMetrics.add(metric);
+            }
+        }
+        suppressedMetricCount.addAndGet(metrics.size() - changedMetrics.size());
+        if (series.size() > metrics.size()) {
+            forgetMissingSeries();
+        }
+        observer.update(changedMetrics);
+    }
+
+    /**
+     * The number of metrics left out of updates because their value had not changed.
+     *
+     * @return the number of metrics suppressed
+     */
+    public long getSuppressedMetricCount() {
+        return suppressedMetricCount.get();
+    }
+
+    int getSeriesCount() {
+        return series.size();
+    }
+
+    private boolean isChangedOrDue(Metric metric) {
+        final long valueBits = Double.doubleToLongBits(metric.getNumberValue().doubleValue());
+        Series state = series.get(metric.getConfig());
+        if (state == null) {
+            state = new Series(valueBits, pollCount);
+            series.put(metric.getConfig(), state);
+            return true;
+        }
+        state.lastSeenPoll = pollCount;
+        if (valueBits != state.sentValueBits || ++state.unchangedIntervals >= heartbeatIntervals) {
+            state.sentValueBits = valueBits;
+            state.unchangedIntervals = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private void forgetMissingSeries() {
+        final Iterator<Series> iterator = series.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().lastSeenPoll != pollCount) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Series {
+        private long sentValueBits;
+        private int unchangedIntervals;
+        private long lastSeenPoll;
+
+        private Series(long sentValueBits, long lastSeenPoll) {
+            this.sentValueBits = sentValueBits;
+            this.lastSeenPoll = lastSeenPoll;
+        }
+    }
+}
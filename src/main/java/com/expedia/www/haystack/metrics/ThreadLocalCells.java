@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * The per-thread cells of a {@link ThreadLocalResettingCounter} or {@link ThreadLocalTimer}. Each thread that records
+ * into the metric gets a cell of its own the first time it records, which costs one lock-free queue insertion; after
+ * that, the thread finds its cell through a ThreadLocal and updates it with plain reads and writes. Only the thread
+ * that owns a cell writes its recording fields, and only the poller, holding the lock of the metric, writes its
+ * harvested fields, so no update is ever lost. The cell of a thread that has ended is harvested one last time and then
+ * dropped.
+ *
+ * @param <C> the type of the cells
+ */
+final class ThreadLocalCells<C extends ThreadLocalCells.Cell> {
+    private final Queue<C> cells = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<C> threadLocal;
+
+    ThreadLocalCells(Supplier<C> cellSupplier) {
+        this.threadLocal = ThreadLocal.withInitial(() -> {
+            final C cell = cellSupplier.get();
+            cells.add(cell);
+            return cell;
+        });
+    }
+
+    /**
+     * Returns the cell of the current thread, creating it the first time.
+     *
+     * @return the cell
+     */
+    C get() {
+        return threadLocal.get();
+    }
+
+    /**
+     * Passes every cell to the harvester, and then drops the cells of the threads that had ended before they were
+     * harvested. Checking that a thread has ended makes everything it wrote visible, so the last harvest of a cell is
+     * exact.
+     *
+     * @param harvester reads the recording fields of a cell and updates its harvested fields
+     */
+    void harvest(Consumer<C> harvester) {
+        final Iterator<C> iterator = cells.iterator();
+        while (iterator.hasNext()) {
+            final C cell = iterator.next();
+            final boolean ended = !cell.owner.isAlive();
+            harvester.accept(cell);
+            if (ended) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Sums a field over every cell, without harvesting anything.
+     *
+     * @param field the field of a cell to sum
+     * @return the sum
+     */
+    long sum(ToLongFunction<C> field) {
+        long sum = 0;
+        for (C cell : cells) {
+            sum += field.applyAsLong(cell);
+        }
+        return sum;
+    }
+
+    int size() {
+        return cells.size();
+    }
+
+    /**
+     * The base class of the cells, which remembers the thread that created, and owns, the cell.
+     */
+    static class Cell {
+        final Thread owner = Thread.currentThread();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+
+/**
+ * A resetting counter for the hottest loops, which does no atomic work when it is incremented. Each thread adds to a
+ * plain long field of its own (see {@link ThreadLocalCells}), and getValue() harvests and merges those fields at poll
+ * time, reporting how much each has grown since the last poll; like {@link ResettingCounter}, the value is the total
+ * count since the last sampling point. The price is visibility: because the fields are neither volatile nor atomic, the
+ * Java memory model does not say when the poller sees an increment, so an increment can be reported an interval or more
+ * after it was made (the increments made by a thread that has ended are always reported at the next poll). Increments
+ * are never lost, and the count of every interval is exact once the recording threads pause, but the count of a busy
+ * interval can lag. On a 32-bit JVM a long can also be read half-written, which can move counts between intervals.
+ * Use {@link StripedResettingCounter} when each interval must be exact.
+ */
+public final class ThreadLocalResettingCounter extends AbstractMonitor<Number>
+        implements Counter, UpdateTracking, ResettingMonitor {
+    private final ThreadLocalCells<CountCell> cells = new ThreadLocalCells<>(CountCell::new);
+    private long harvestedCount;
+    private long checkedCount;
+
+    /**
+     * Create a new instance with the specified configuration.
+     *
+     * @param config the counter configuration
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ThreadLocalResettingCounter(MonitorConfig config) {
+        super(config.withAdditionalTag(DataSourceType.COUNTER));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment() {
+        cells.get().count++;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void increment(long amount) {
+        cells.get().count += amount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Note that this method resets the counter to 0.
+     */
+    @Override
+    public synchronized Number getValue(int pollerIndex) {
+        final long previouslyHarvestedCount = harvestedCount;
+        cells.harvest(cell -> {
+            final long count = cell.count;
+            harvestedCount += count - cell.harvestedCount;
+            cell.harvestedCount = count;
+        });
+        return harvestedCount - previouslyHarvestedCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Unlike the other counters, this counter is checked by comparing the counts of its threads with those of the last
+     * check, so that incrementing it writes nothing but the count.
+     */
+    @Override
+    public synchronized boolean checkAndClearUpdated() {
+        final long count = harvestedCount + unharvestedCount();
+        final boolean updated = count != checkedCount;
+        checkedCount = count;
+        return updated;
+    }
+
+    int getCellCount() {
+        return cells.size();
+    }
+
+    private synchronized long unharvestedCount() {
+        return cells.sum(cell -> cell.count - cell.harvestedCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof ThreadLocalResettingCounter)) {
+            return false;
+        }
+        ThreadLocalResettingCounter m = (ThreadLocalResettingCounter) obj;
+        return config.equals(m.getConfig()) && unharvestedCount() == m.unharvestedCount();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        int result = config.hashCode();
+        long n = unharvestedCount();
+        result = 31 * result + (int) (n ^ (n >>> 32));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ThreadLocalResettingCounter{config=" + config + ", count=" + unharvestedCount() + '}';
+    }
+
+    private static final class CountCell extends ThreadLocalCells.Cell {
+        // Written only by the owning thread
+        private long count;
+        // Written only by the poller
+        private long harvestedCount;
+    }
+}
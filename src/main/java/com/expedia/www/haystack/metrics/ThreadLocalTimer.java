@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.AbstractMonitor;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Gauge;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.monitor.TimedStopwatch;
+import com.netflix.servo.monitor.Timer;
+import com.netflix.servo.tag.Tags;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_COUNT;
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_MAX;
+import static com.expedia.www.haystack.metrics.HistogramTimer.TAG_KEY_UNIT;
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+
+/**
+ * A Timer for the hottest loops, which does no atomic work when it records a duration. Each thread adds the duration to
+ * plain count and total time fields of its own, and raises its own max, in the manner of
+ * {@link ThreadLocalResettingCounter}; each interval, the timer harvests and merges those fields and publishes the
+ * count, total time and max of the durations recorded since the last interval, as gauges tagged statistic=count,
+ * totalTime and max. Recording reads one volatile field, the current interval, so that each thread knows when to start
+ * a new max. It has the visibility trade-off of ThreadLocalResettingCounter: a duration can be reported an interval or
+ * more after it was recorded, and a duration recorded just as an interval ends can be missing from the max of that
+ * interval (it is never missing from the count or total time). Use {@link HistogramTimer} when each interval must be
+ * exact, or percentiles are needed.
+ */
+public final class ThreadLocalTimer extends AbstractMonitor<Long>
+        implements Timer, CompositeMonitor<Long>, UpdateTracking {
+    static final String STATISTIC_TOTAL_TIME = "totalTime";
+    private static final int COUNT_INDEX = 0;
+    private static final int TOTAL_TIME_INDEX = 1;
+    private static final int MAX_INDEX = 2;
+    private static final int ALL_STATISTICS_READ = (1 << (MAX_INDEX + 1)) - 1;
+
+    private final TimeUnit timeUnit;
+    private final List<Monitor<?>> monitors;
+    private final ThreadLocalCells<TimerCell> cells = new ThreadLocalCells<>(TimerCell::new);
+    // Incremented by each snapshot; a thread whose max belongs to an earlier interval starts a new one
+    private volatile long interval;
+    private final long[] snapshot = new long[MAX_INDEX + 1];
+    // As in HistogramTimer, a bit for each statistic that has been read since the snapshot was taken
+    private int statisticsRead = ALL_STATISTICS_READ;
+    private long harvestedCount;
+    private long checkedCount;
+
+    /**
+     * Create a new instance with the specified configuration and time unit.
+     *
+     * @param config   the timer configuration
+     * @param timeUnit the unit of the durations recorded and reported, typically TimeUnit.MILLISECONDS
+     */
+    @SuppressWarnings("WeakerAccess")
+    public ThreadLocalTimer(MonitorConfig config, TimeUnit timeUnit) {
+        super(config.withAdditionalTag(Tags.newTag(TAG_KEY_UNIT, timeUnit.name())));
+        this.timeUnit = timeUnit;
+        this.monitors = Collections.unmodifiableList(Arrays.asList(
+                new StatisticGauge(STATISTIC_COUNT, COUNT_INDEX),
+                new StatisticGauge(STATISTIC_TOTAL_TIME, TOTAL_TIME_INDEX),
+                new StatisticGauge(STATISTIC_MAX, MAX_INDEX)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * The gauges are count, totalTime and max, in that order.
+     */
+    @Override
+    public List<Monitor<?>> getMonitors() {
+        return monitors;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stopwatch start() {
+        final Stopwatch stopwatch = new TimedStopwatch(this);
+        stopwatch.start();
+        return stopwatch;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void record(long duration) {
+        final long value = duration < 0 ? 0 : duration;
+        final TimerCell cell = cells.get();
+        cell.count++;
+        cell.totalTime += value;
+        final long currentInterval = interval;
+        if (cell.maxInterval != currentInterval) {
+            cell.maxInterval = currentInterval;
+            cell.max = value;
+        } else if (value > cell.max) {
+            cell.max = value;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void record(long duration, TimeUnit unit) {
+        record(timeUnit.convert(duration, unit));
+    }
+
+    /**
+     * {@inheritDoc}
+     * This is the count of the last interval whose statistics have been published; reading it resets nothing.
+     */
+    @Override
+    public synchronized Long getValue(int pollerIndex) {
+        return snapshot[COUNT_INDEX];
+    }
+
+    /**
+     * {@inheritDoc}
+     * Like {@link ThreadLocalResettingCounter#checkAndClearUpdated()}, this compares the counts of the threads with
+     * those of the last check.
+     */
+    @Override
+    public synchronized boolean checkAndClearUpdated() {
+        final long count = harvestedCount + cells.sum(cell -> cell.count - cell.harvestedCount);
+        final boolean updated = count != checkedCount;
+        checkedCount = count;
+        return updated;
+    }
+
+    int getCellCount() {
+        return cells.size();
+    }
+
+    /**
+     * Returns one statistic of the last snapshot; as in {@link HistogramTimer}, reading a statistic that has already
+     * been read from the snapshot ends the interval and takes a new snapshot, so each poll reads one snapshot whichever
+     * gauges it reads, and in whatever order.
+     */
+    synchronized long getStatistic(int index) {
+        final int statistic = 1 << index;
+        if ((statisticsRead & statistic) != 0) {
+            takeSnapshot();
+            statisticsRead = 0;
+        }
+        statisticsRead |= statistic;
+        return snapshot[index];
+    }
+
+    private void takeSnapshot() {
+        final long harvestedInterval = interval;
+        interval = harvestedInterval + 1;
+        Arrays.fill(snapshot, 0);
+        cells.harvest(cell -> {
+            final long count = cell.count;
+            final long totalTime = cell.totalTime;
+            snapshot[COUNT_INDEX] += count - cell.harvestedCount;
+            snapshot[TOTAL_TIME_INDEX] += totalTime - cell.harvestedTotalTime;
+            cell.harvestedCount = count;
+            cell.harvestedTotalTime = totalTime;
+            if (cell.maxInterval == harvestedInterval && cell.max > snapshot[MAX_INDEX]) {
+                snapshot[MAX_INDEX] = cell.max;
+            }
+        });
+        harvestedCount += snapshot[COUNT_INDEX];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if(obj == this) {
+            return true;
+        }
+        if (obj == null || !(obj instanceof ThreadLocalTimer)) {
+            return false;
+        }
+        // The config includes the unit tag, so timers with different time units are never equal
+        ThreadLocalTimer m = (ThreadLocalTimer) obj;
+        return config.equals(m.getConfig());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return config.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ThreadLocalTimer{config=" + config + ", timeUnit=" + timeUnit + '}';
+    }
+
+    private static final class TimerCell extends ThreadLocalCells.Cell {
+        // Written only by the owning thread
+        private long count;
+        private long totalTime;
+        private long max;
+        private long maxInterval = -1;
+        // Written only by the poller
+        private long harvestedCount;
+        private long harvestedTotalTime;
+    }
+
+    private final class StatisticGauge extends AbstractMonitor<Long> implements Gauge<Long> {
+        private final int index;
+
+        private StatisticGauge(String statistic, int index) {
+            super(ThreadLocalTimer.this.config
+                    .withAdditionalTag(Tags.newTag(TAG_KEY_STATISTIC, statistic))
+                    .withAdditionalTag(DataSourceType.GAUGE));
+            this.index = index;
+        }
+
+        @Override
+        public Long getValue(int pollerIndex) {
+            return getStatistic(index);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The registry of the metrics of a resolution tier (see {@link MetricObjects#forTier(String)}). Servo's
+ * BasicMonitorRegistry keeps its monitors in a HashSet, which cannot find, and so cannot unregister, a BasicCounter or
+ * BasicTimer whose value, and with it its hash code, has changed since it was registered. This registry keys each
+ * monitor by its MonitorConfig instead, as Servo's JMX registry does: registering a monitor replaces any monitor with
+ * the same config, and unregistering a monitor removes it only if it is the one registered, so unregistering an evicted
+ * metric never removes a fresh instance with the same config. All methods are thread-safe.
+ */
+final class TierMonitorRegistry implements MonitorRegistry {
+    private final ConcurrentMap<MonitorConfig, Monitor<?>> monitors = new ConcurrentHashMap<>();
+    private final Collection<Monitor<?>> registeredMonitors = Collections.unmodifiableCollection(monitors.values());
+
+    /**
+     * {@inheritDoc}
+     * The collection is a live, unmodifiable view of the registered monitors, so getting it copies nothing.
+     */
+    @Override
+    public Collection<Monitor<?>> getRegisteredMonitors() {
+        return registeredMonitors;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void register(Monitor<?> monitor) {
+        monitors.put(monitor.getConfig(), monitor);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void unregister(Monitor<?> monitor) {
+        monitors.computeIfPresent(
+                monitor.getConfig(), (config, registered) -> registered == monitor ? null : registered);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isRegistered(Monitor<?> monitor) {
+        return monitors.get(monitor.getConfig()) == monitor;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fire-and-forget Graphite observer that sends plaintext protocol lines over UDP, for Carbon listeners started with
+ * ENABLE_UDP_LISTENER. As many whole lines as fit are packed into each datagram, which is sized to fit in one Ethernet
+ * frame, and the datagrams are sent through a non-blocking DatagramChannel: a slow or unreachable Graphite can never
+ * stall the poller, and when the socket's send buffer is full the datagram is dropped (and counted) rather than waited
+ * for. A metric whose line does not fit in a datagram is logged once and then left out of every poll. There is no
+ * delivery guarantee, so use this transport only where losing some metrics is acceptable. The time spent encoding and
+ * sending each poll, the bytes sent, the channels opened, the failed updates and the dropped datagrams are recorded in
+ * {@link PublishingMetrics}.
+ */
+public class UdpGraphiteMetricObserver extends BaseMetricObserver {
+    static final String OBSERVER_NAME_PREFIX = "UdpGraphiteMetricObserver";
+    // An Ethernet MTU of 1500 bytes, less the 20 byte IPv4 header and the 8 byte UDP header
+    static final int DEFAULT_DATAGRAM_SIZE = 1500 - 20 - 8;
+    static final String SEND_FAILED_MSG =
+            "Sending metrics to Graphite at [%s:%d] failed; the rest of this poll has been dropped";
+    static final String NAME_TOO_LONG_MSG = "The Graphite line for metric [%s] does not fit in a %d byte datagram; "
+            + "it will be left out of every poll";
+
+    private final String host;
+    private final int port;
+    private final GraphiteLineEncoder encoder;
+    private final Factory factory;
+    private final Logger logger;
+    private final PublishingMetrics publishingMetrics;
+    private final ByteBuffer buffer;
+    private final AtomicLong sentDatagramCount = new AtomicLong();
+    private final AtomicLong droppedDatagramCount = new AtomicLong();
+    private final Set<MonitorConfig> tooLongConfigs = new HashSet<>();
+    private DatagramChannel channel;
+    private SocketAddress address;
+    private long sendNanos;
+    private long sentBytes;
+
+    /**
+     * Creates a new UdpGraphiteMetricObserver; the host name is not resolved until the first update.
+     *
+     * @param prefix           the prefix of every metric name, typically "haystack"
+     * @param host             the host name or IP address of the Graphite server or relay
+     * @param port             the Graphite UDP port, typically 2003
+     * @param namingConvention the naming convention that turns a Servo metric into a Graphite metric name
+     */
+    @SuppressWarnings("WeakerAccess")
+    public UdpGraphiteMetricObserver(String prefix, String host, int port, GraphiteNamingConvention namingConvention) {
+        this(prefix, host, port, namingConvention, PublishingMetrics.getDefault());
+    }
+
+    UdpGraphiteMetricObserver(String prefix, String host, int port, GraphiteNamingConvention namingConvention,
+                              PublishingMetrics publishingMetrics) {
+        this(prefix, host, port, new GraphiteLineEncoder(prefix, namingConvention), new Factory(),
+                LoggerFactory.getLogger(UdpGraphiteMetricObserver.class), publishingMetrics, DEFAULT_DATAGRAM_SIZE);
+    }
+
+    UdpGraphiteMetricObserver(String prefix, String host, int port, GraphiteLineEncoder encoder, Factory factory,
+                              Logger logger, PublishingMetrics publishingMetrics, int datagramSize) {
+        super(OBSERVER_NAME_PREFIX + prefix);
+        this.host = host;
+        this.port = port;
+        this.encoder = encoder;
+        this.factory = factory;
+        this.logger = logger;
+        this.publishingMetrics = publishingMetrics;
+        this.buffer = ByteBuffer.allocateDirect(datagramSize);
+    }
+
+    /**
+     * Sends the metrics to Graphite, opening the channel first if it is not open.
+     *
+     * @param metrics the metrics to send
+     */
+    @Override
+    public synchronized void updateImpl(List<Metric> metrics) {
+        try {
+            openIfNecessary();
+            final long startNanos = System.nanoTime();
+            sendNanos = 0;
+            sentBytes = 0;
+            // An indexed loop, rather than an Iterator, keeps the update allocation-free
+            for (int i = 0; i < metrics.size(); i++) {
+                append(metrics.get(i));
+            }
+            send();
+            publishingMetrics.recordUpdate(System.nanoTime() - startNanos - sendNanos, sendNanos, sentBytes);
+        } catch (IOException e) {
+            logger.warn(String.format(SEND_FAILED_MSG, host, port), e);
+            publishingMetrics.recordSendFailure();
+            incrementFailedCount();
+            stop();
+        }
+    }
+
+    /**
+     * Closes the channel, if it is open, and discards anything not yet sent; the host name will be resolved again by
+     * the next update.
+     */
+    public synchronized void stop() {
+        if (channel != null) {
+            NioGraphiteMetricObserver.closeQuietly(channel);
+            channel = null;
+        }
+        address = null;
+        buffer.clear();
+    }
+
+    /**
+     * @return the number of datagrams sent since this observer was created
+     */
+    @SuppressWarnings("WeakerAccess")
+    public long getSentDatagramCount() {
+        return sentDatagramCount.get();
+    }
+
+    /**
+     * @return the number of datagrams dropped, because the socket's send buffer was full or the send failed, since
+     * this observer was created
+     */
+    @SuppressWarnings("WeakerAccess")
+    public long getDroppedDatagramCount() {
+        return droppedDatagramCount.get();
+    }
+
+    boolean isOpen() {
+        return channel != null;
+    }
+
+    private void openIfNecessary() throws IOException {
+        if (channel == null) {
+            final InetSocketAddress socketAddress = factory.createSocketAddress(host, port);
+            if (socketAddress.isUnresolved()) {
+                throw new UnknownHostException(host);
+            }
+            channel = factory.openNonBlockingDatagramChannel();
+            address = socketAddress;
+            publishingMetrics.recordConnect();
+        }
+    }
+
+    private void append(Metric metric) throws IOException {
+        if (!metric.hasNumberValue()) {
+            return;
+        }
+        final String name = encoder.name(metric);
+        final int maxLength = encoder.maxLength(name);
+        if (maxLength > buffer.capacity()) {
+            if (tooLongConfigs.add(metric.getConfig())) {
+                logger.warn(String.format(NAME_TOO_LONG_MSG, metric.getConfig(), buffer.capacity()));
+            }
+            return;
+        }
+        if (buffer.remaining() < maxLength) {
+            send();
+        }
+        encoder.encode(buffer, name, metric.getNumberValue(), metric.getTimestamp());
+    }
+
+    private void send() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        final long startNanos = System.nanoTime();
+        try {
+            final int sent = factory.send(channel, buffer, address);
+            if (sent == 0) {
+                // The socket's send buffer is full; waiting for room could block the poller, so drop the datagram
+                recordDroppedDatagram();
+            } else {
+                sentDatagramCount.incrementAndGet();
+                sentBytes += sent;
+            }
+        } catch (IOException e) {
+            recordDroppedDatagram();
+            throw e;
+        } finally {
+            sendNanos += System.nanoTime() - startNanos;
+            buffer.clear();
+        }
+    }
+
+    private void recordDroppedDatagram() {
+        droppedDatagramCount.incrementAndGet();
+        publishingMetrics.recordDroppedDatagram();
+    }
+
+    /**
+     * Factory to wrap static or final methods; this Factory facilitates unit testing
+     */
+    static class Factory {
+        Factory() {
+            // default constructor
+        }
+
+        InetSocketAddress createSocketAddress(String host, int port) {
+            return new InetSocketAddress(host, port);
+        }
+
+        DatagramChannel openNonBlockingDatagramChannel() throws IOException {
+            final DatagramChannel datagramChannel = DatagramChannel.open();
+            datagramChannel.configureBlocking(false);
+            return datagramChannel;
+        }
+
+        int send(DatagramChannel datagramChannel, ByteBuffer source, SocketAddress target) throws IOException {
+            return datagramChannel.send(source, target);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+/**
+ * A metric that remembers whether it has been updated, so that {@link IdleMetricEvictor} can tell a metric that is
+ * still in use from one whose value happens not to have changed. An update costs one read of a volatile flag (the flag
+ * is only written by the first update after each check), so tracking adds no contention to a busy metric.
+ */
+interface UpdateTracking {
+    /**
+     * Returns whether the metric has been updated since the last call, and forgets that it has been.
+     *
+     * @return true if the metric has been updated since the last call (or, for the first call, since it was created)
+     */
+    boolean checkAndClearUpdated();
+}
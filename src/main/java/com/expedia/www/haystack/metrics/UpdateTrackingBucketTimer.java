@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.BucketConfig;
+import com.netflix.servo.monitor.BucketTimer;
+import com.netflix.servo.monitor.MonitorConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BucketTimer that {@link MetricObjects} creates, which also remembers whether it has been updated; see
+ * {@link UpdateTracking}. BucketTimer.record(long, TimeUnit) calls record(long), so only the latter is overridden.
+ */
+final class UpdateTrackingBucketTimer extends BucketTimer implements UpdateTracking {
+    private volatile boolean updated;
+
+    UpdateTrackingBucketTimer(MonitorConfig config, BucketConfig bucketConfig, TimeUnit timeUnit) {
+        super(config, bucketConfig, timeUnit);
+    }
+
+    @Override
+    public void record(long duration) {
+        super.record(duration);
+        if (!updated) {
+            updated = true;
+        }
+    }
+
+    @Override
+    public boolean checkAndClearUpdated() {
+        if (updated) {
+            updated = false;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes Strings into ByteBuffers as UTF-8 without the intermediate byte[] that String.getBytes() allocates, so that
+ * the encoders can write the names cached as Strings by the naming convention without caching their bytes as well. The
+ * output is the same as String.getBytes(StandardCharsets.UTF_8), including the '?' that replaces a lone surrogate.
+ */
+final class Utf8Encoder {
+    private static final byte REPLACEMENT = '?';
+
+    /**
+     * The number of bytes that {@link #put} writes for a String.
+     *
+     * @param string the String to measure
+     * @return the length of the UTF-8 encoding of the String
+     */
+    int length(String string) {
+        final int charCount = string.length();
+        int length = 0;
+        for (int i = 0; i < charCount; i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(string, i)) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes a String into a buffer that has at least {@link #length} bytes left.
+     *
+     * @param buffer the buffer to write to
+     * @param string the String to write
+     */
+    void put(ByteBuffer buffer, String string) {
+        final int charCount = string.length();
+        for (int i = 0; i < charCount; i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (isSurrogatePair(string, i)) {
+                final int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18));
+                buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(REPLACEMENT);
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(String string, int index) {
+        return Character.isHighSurrogate(string.charAt(index)) && index + 1 < string.length()
+                && Character.isLowSurrogate(string.charAt(index + 1));
+    }
+}
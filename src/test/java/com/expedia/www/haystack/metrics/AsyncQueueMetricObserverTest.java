@@ -0,0 +1,216 @@
+package com.expedia.www.haystack.metrics;
+
+import com.expedia.www.haystack.metrics.AsyncQueueMetricObserver.Update;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.expedia.www.haystack.metrics.AsyncQueueMetricObserver.UPDATE_FAILED_MSG;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AsyncQueueMetricObserverTest {
+    private static final String OBSERVER_NAME = "FakeGraphite";
+    private static final int QUEUE_SIZE = 1;
+    private static final long EXPIRE_TIME_MILLIS = 60000;
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Captor
+    private ArgumentCaptor<Callable<Integer>> queueDepth;
+
+    private final FakeObserver fakeObserver = new FakeObserver();
+
+    // Object under test
+    private AsyncQueueMetricObserver asyncQueueMetricObserver;
+
+    @After
+    public void tearDown() {
+        asyncQueueMetricObserver.stop();
+        verify(mockPublishingMetrics).registerQueueDepth(Matchers.<Callable<Integer>>any());
+        verifyNoMoreInteractions(mockPublishingMetrics, mockLogger);
+    }
+
+    private void createObserver(BlockingQueue<Update> queue, long expireTimeMillis) {
+        asyncQueueMetricObserver = new AsyncQueueMetricObserver(
+                OBSERVER_NAME, fakeObserver, queue, expireTimeMillis, mockPublishingMetrics, mockLogger);
+    }
+
+    @Test
+    public void testPublicConstructorAndStop() throws InterruptedException {
+        final AsyncQueueMetricObserver observer = new AsyncQueueMetricObserver(
+                OBSERVER_NAME, fakeObserver, QUEUE_SIZE, EXPIRE_TIME_MILLIS);
+        createObserver(new ArrayBlockingQueue<>(QUEUE_SIZE), EXPIRE_TIME_MILLIS);
+
+        assertEquals(OBSERVER_NAME, observer.getName());
+        assertTrue(observer.isAlive());
+        observer.stop();
+        awaitTermination(observer);
+        assertFalse(observer.isAlive());
+    }
+
+    @Test
+    public void testUpdateIsSentByWorker() throws InterruptedException {
+        createObserver(new ArrayBlockingQueue<>(QUEUE_SIZE), EXPIRE_TIME_MILLIS);
+        final List<Metric> metrics = createMetrics(0);
+
+        asyncQueueMetricObserver.update(metrics);
+
+        assertSame(metrics, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        assertEquals(0, asyncQueueMetricObserver.getFailedUpdateCount());
+    }
+
+    @Test
+    public void testQueueDepthIsRegistered() throws Exception {
+        createObserver(new ArrayBlockingQueue<>(QUEUE_SIZE), EXPIRE_TIME_MILLIS);
+        verify(mockPublishingMetrics).registerQueueDepth(queueDepth.capture());
+        fakeObserver.block();
+
+        asyncQueueMetricObserver.update(createMetrics(0));
+        fakeObserver.awaitBlocked();
+        asyncQueueMetricObserver.update(createMetrics(1));
+
+        assertEquals(1, (int) queueDepth.getValue().call());
+        assertEquals(1, asyncQueueMetricObserver.getQueueDepth());
+        fakeObserver.release();
+    }
+
+    @Test
+    public void testUpdateDropsOldestUpdateWhenQueueIsFull() throws InterruptedException {
+        createObserver(new ArrayBlockingQueue<>(QUEUE_SIZE), EXPIRE_TIME_MILLIS);
+        final List<Metric> first = createMetrics(0);
+        final List<Metric> third = createMetrics(2);
+        fakeObserver.block();
+
+        asyncQueueMetricObserver.update(first);
+        fakeObserver.awaitBlocked();
+        asyncQueueMetricObserver.update(createMetrics(1));
+        asyncQueueMetricObserver.update(third);
+        fakeObserver.release();
+
+        assertSame(first, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        assertSame(third, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        verify(mockPublishingMetrics).recordQueueDrop();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testUpdateWhenWorkerTakesOldestUpdateFirst() throws InterruptedException {
+        final BlockingQueue<Update> mockQueue = mock(BlockingQueue.class);
+        when(mockQueue.offer(any(Update.class))).thenReturn(false, true);
+        when(mockQueue.take()).thenAnswer(invocation -> {
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+        });
+        createObserver(mockQueue, EXPIRE_TIME_MILLIS);
+
+        asyncQueueMetricObserver.update(createMetrics(0));
+
+        verify(mockQueue, times(2)).offer(any(Update.class));
+        verify(mockQueue).poll();
+    }
+
+    @Test
+    public void testExpiredUpdateIsDropped() throws InterruptedException {
+        createObserver(new ArrayBlockingQueue<>(QUEUE_SIZE), -1);
+
+        asyncQueueMetricObserver.update(createMetrics(0));
+
+        verify(mockPublishingMetrics, timeout(TIMEOUT_MILLIS)).recordQueueExpiration();
+        assertNull(fakeObserver.sentUpdates.poll());
+    }
+
+    @Test
+    public void testUpdateWhenObserverThrows() {
+        createObserver(new ArrayBlockingQueue<>(QUEUE_SIZE), EXPIRE_TIME_MILLIS);
+        fakeObserver.exception = new IllegalStateException("Test");
+
+        asyncQueueMetricObserver.update(createMetrics(0));
+
+        verify(mockLogger, timeout(TIMEOUT_MILLIS)).warn(
+                String.format(UPDATE_FAILED_MSG, OBSERVER_NAME), fakeObserver.exception);
+        assertEquals(1, asyncQueueMetricObserver.getFailedUpdateCount());
+    }
+
+    private static void awaitTermination(AsyncQueueMetricObserver observer) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (observer.isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static List<Metric> createMetrics(int index) {
+        return Collections.singletonList(new Metric(MonitorConfig.builder("METRIC_" + index).build(), index, index));
+    }
+
+    private static final class FakeObserver extends BaseMetricObserver {
+        private final BlockingQueue<List<Metric>> sentUpdates = new LinkedBlockingQueue<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+        private volatile RuntimeException exception;
+
+        private FakeObserver() {
+            super(OBSERVER_NAME);
+        }
+
+        private void block() {
+            released = new CountDownLatch(1);
+        }
+
+        private void awaitBlocked() throws InterruptedException {
+            blocked.await(TIMEOUT_MILLIS, MILLISECONDS);
+        }
+
+        private void release() {
+            released.countDown();
+        }
+
+        @Override
+        public void updateImpl(List<Metric> metrics) {
+            if (exception != null) {
+                throw exception;
+            }
+            blocked.countDown();
+            try {
+                released.await(TIMEOUT_MILLIS, MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sentUpdates.add(metrics);
+        }
+    }
+}
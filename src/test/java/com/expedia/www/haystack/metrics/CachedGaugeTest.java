@@ -0,0 +1,140 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.expedia.www.haystack.metrics.CachedGauge.SAMPLE_FAILED_MSG;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachedGaugeTest {
+    private static final Random RANDOM = new Random();
+    private static final String GAUGE_NAME = RANDOM.nextLong() + "GAUGE_NAME";
+    private static final int POLLER_INDEX = RANDOM.nextInt();
+    private static final long PERIOD_SECONDS = 10;
+    private static final long TIMEOUT_MILLIS = 30000;
+    // Runs each sample on the thread that starts it, so that the tests need not wait for it
+    private static final Executor CALLING_THREAD = Runnable::run;
+
+    @Mock
+    private Logger mockLogger;
+
+    private MonitorConfig monitorConfig;
+    private AtomicInteger sampleCount;
+    private long nanos;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder(GAUGE_NAME).build();
+        sampleCount = new AtomicInteger();
+        nanos = RANDOM.nextLong();
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    @Test
+    public void testPublicConstructor() throws InterruptedException {
+        final CachedGauge<Integer> cachedGauge = new CachedGauge<>(
+                monitorConfig, sampleCount::incrementAndGet, 0, SECONDS);
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (cachedGauge.getValue(POLLER_INDEX) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(cachedGauge.getValue(POLLER_INDEX) > 0);
+        assertEquals(DataSourceType.GAUGE.getValue(), cachedGauge.getConfig().getTags().getValue(DataSourceType.KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSamplingPeriod() {
+        createCachedGauge(sampleCount::incrementAndGet, -1);
+    }
+
+    @Test
+    public void testValueIsCachedForTheSamplingPeriod() {
+        final CachedGauge<Integer> cachedGauge = createCachedGauge(sampleCount::incrementAndGet, PERIOD_SECONDS);
+        assertEquals(1, (int) cachedGauge.getValue(POLLER_INDEX));
+
+        nanos += SECONDS.toNanos(PERIOD_SECONDS) - 1;
+        assertEquals(1, (int) cachedGauge.getValue(POLLER_INDEX));
+
+        nanos += 1;
+        assertEquals(2, (int) cachedGauge.getValue(POLLER_INDEX));
+        assertEquals(2, sampleCount.get());
+    }
+
+    @Test
+    public void testSupplierThatThrowsKeepsTheLastValue() {
+        final RuntimeException exception = new IllegalStateException("Test");
+        final CachedGauge<Integer> cachedGauge = createCachedGauge(() -> {
+            if (sampleCount.incrementAndGet() == 2) {
+                throw exception;
+            }
+            return sampleCount.get();
+        }, 0);
+
+        // With a period of 0, each poll runs a sample before returning: the first sample ran in the constructor
+        assertEquals(1, (int) cachedGauge.getValue(POLLER_INDEX));
+        assertEquals(3, (int) cachedGauge.getValue(POLLER_INDEX));
+
+        assertEquals(1, cachedGauge.getFailedSampleCount());
+        verify(mockLogger).warn(String.format(SAMPLE_FAILED_MSG, cachedGauge.getConfig()), exception);
+    }
+
+    @Test
+    public void testSlowSupplierDoesNotStallThePoll() throws InterruptedException {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            final CachedGauge<Integer> cachedGauge = new CachedGauge<>(monitorConfig, () -> {
+                sampleCount.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return sampleCount.get();
+            }, PERIOD_SECONDS, SECONDS, executorService, () -> nanos, mockLogger);
+
+            for (int i = 0; i < 10; i++) {
+                assertNull(cachedGauge.getValue(POLLER_INDEX));
+            }
+            release.countDown();
+            executorService.shutdown();
+            assertTrue(executorService.awaitTermination(TIMEOUT_MILLIS, MILLISECONDS));
+
+            assertEquals(1, sampleCount.get());
+            assertEquals(1, (int) cachedGauge.getValue(POLLER_INDEX));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private <T extends Number> CachedGauge<T> createCachedGauge(Supplier<T> supplier, long period) {
+        return new CachedGauge<>(monitorConfig, supplier, period, SECONDS, CALLING_THREAD, () -> nanos, mockLogger);
+    }
+}
@@ -0,0 +1,253 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.BasicTag;
+import com.netflix.servo.tag.TagList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.CardinalityLimiter.FIRST_REJECTION_MSG;
+import static com.expedia.www.haystack.metrics.CardinalityLimiter.KLASS;
+import static com.expedia.www.haystack.metrics.CardinalityLimiter.OVERFLOW_METRIC_NAME;
+import static com.expedia.www.haystack.metrics.CardinalityLimiter.OVERFLOW_TAG_VALUE;
+import static com.expedia.www.haystack.metrics.CardinalityLimiter.REJECTED_METRICS;
+import static com.expedia.www.haystack.metrics.CardinalityLimiter.UNLIMITED;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_TIER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CardinalityLimiterTest {
+    private static final Random RANDOM = new Random();
+    private static final String SUBSYSTEM = RANDOM.nextLong() + "SUBSYSTEM";
+    private static final String OTHER_SUBSYSTEM = RANDOM.nextLong() + "OTHER_SUBSYSTEM";
+    private static final String APPLICATION = RANDOM.nextLong() + "APPLICATION";
+    private static final String CLASS = RANDOM.nextLong() + "CLASS";
+    private static final String TIER = RANDOM.nextLong() + "TIER";
+
+    @Mock
+    private MonitorRegistry mockMonitorRegistry;
+
+    @Mock
+    private Logger mockLogger;
+
+    // Object under test
+    private CardinalityLimiter cardinalityLimiter;
+
+    @Before
+    public void setUp() {
+        cardinalityLimiter = new CardinalityLimiter(mockMonitorRegistry, mockLogger);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockMonitorRegistry, mockLogger);
+    }
+
+    @Test
+    public void testNoLimitsByDefault() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_" + i)));
+        }
+
+        assertEquals(1000, cardinalityLimiter.getMetricCount());
+        assertEquals(1000, cardinalityLimiter.getMetricCount(SUBSYSTEM));
+        assertEquals(0, cardinalityLimiter.getRejectedCount());
+    }
+
+    @Test
+    public void testGlobalLimit() {
+        cardinalityLimiter.setLimits(2, UNLIMITED);
+        final MonitorConfig rejectedMonitorConfig = createMonitorConfig(OTHER_SUBSYSTEM, "METRIC_2");
+
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_0")));
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_1")));
+        assertFalse(cardinalityLimiter.admit(rejectedMonitorConfig));
+        assertFalse(cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_3")));
+
+        assertEquals(2, cardinalityLimiter.getMetricCount());
+        assertEquals(0, cardinalityLimiter.getMetricCount(OTHER_SUBSYSTEM));
+        assertEquals(2, cardinalityLimiter.getRejectedCount());
+        final Counter rejectedMetrics = verifyFirstRejection(rejectedMonitorConfig);
+        assertEquals(REJECTED_METRICS, rejectedMetrics.getConfig().getName());
+        assertEquals(PublishingMetrics.SUBSYSTEM, rejectedMetrics.getConfig().getTags().getValue(TAG_KEY_SUBSYSTEM));
+        assertEquals(KLASS, rejectedMetrics.getConfig().getTags().getValue(TAG_KEY_CLASS));
+        assertEquals(2L, rejectedMetrics.getValue());
+    }
+
+    @Test
+    public void testPerSubsystemLimit() {
+        cardinalityLimiter.setLimits(UNLIMITED, 1);
+        final MonitorConfig rejectedMonitorConfig = createMonitorConfig(SUBSYSTEM, "METRIC_1");
+
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_0")));
+        assertFalse(cardinalityLimiter.admit(rejectedMonitorConfig));
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(OTHER_SUBSYSTEM, "METRIC_0")));
+
+        assertEquals(2, cardinalityLimiter.getMetricCount());
+        assertEquals(1, cardinalityLimiter.getMetricCount(SUBSYSTEM));
+        assertEquals(1, cardinalityLimiter.getRejectedCount());
+        verifyFirstRejection(rejectedMonitorConfig);
+    }
+
+    @Test
+    public void testSubsystemLimitOverridesPerSubsystemLimit() {
+        cardinalityLimiter.setLimits(UNLIMITED, 1);
+        cardinalityLimiter.setSubsystemLimit(SUBSYSTEM, 0);
+        final MonitorConfig rejectedMonitorConfig = createMonitorConfig(SUBSYSTEM, "METRIC_0");
+
+        assertFalse(cardinalityLimiter.admit(rejectedMonitorConfig));
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(OTHER_SUBSYSTEM, "METRIC_0")));
+
+        assertEquals(1, cardinalityLimiter.getMetricCount());
+        assertEquals(0, cardinalityLimiter.getMetricCount(SUBSYSTEM));
+        verifyFirstRejection(rejectedMonitorConfig);
+    }
+
+    @Test
+    public void testReleaseMakesRoomForAnotherMetric() {
+        cardinalityLimiter.setLimits(UNLIMITED, 2);
+        final MonitorConfig monitorConfig = createMonitorConfig(SUBSYSTEM, "METRIC_0");
+        cardinalityLimiter.admit(monitorConfig);
+        cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_1"));
+
+        cardinalityLimiter.release(monitorConfig);
+
+        assertEquals(1, cardinalityLimiter.getMetricCount(SUBSYSTEM));
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_2")));
+        assertEquals(2, cardinalityLimiter.getMetricCount());
+    }
+
+    @Test
+    public void testPublishingMetricsAreNeitherCountedNorCapped() {
+        cardinalityLimiter.setLimits(0, 0);
+        final MonitorConfig monitorConfig = createMonitorConfig(PublishingMetrics.SUBSYSTEM, "METRIC_0");
+
+        assertTrue(cardinalityLimiter.admit(monitorConfig));
+        assertTrue(cardinalityLimiter.admit(createMonitorConfig(PublishingMetrics.SUBSYSTEM, "METRIC_1")));
+        cardinalityLimiter.release(monitorConfig);
+
+        assertEquals(0, cardinalityLimiter.getMetricCount());
+        assertEquals(0, cardinalityLimiter.getMetricCount(PublishingMetrics.SUBSYSTEM));
+        assertEquals(0, cardinalityLimiter.getRejectedCount());
+    }
+
+    @Test
+    public void testReleaseOfLastMetricForgetsSubsystem() {
+        final MonitorConfig monitorConfig = createMonitorConfig(SUBSYSTEM, "METRIC_0");
+        cardinalityLimiter.admit(monitorConfig);
+
+        cardinalityLimiter.release(monitorConfig);
+
+        assertEquals(0, cardinalityLimiter.getMetricCount());
+        assertEquals(0, cardinalityLimiter.getMetricCount(SUBSYSTEM));
+        assertEquals(OVERFLOW_TAG_VALUE, cardinalityLimiter.overflowConfig(monitorConfig).getTags()
+                .getValue(TAG_KEY_SUBSYSTEM));
+    }
+
+    @Test
+    public void testOverflowConfigKeepsKnownSubsystemAndTier() {
+        cardinalityLimiter.admit(createMonitorConfig(SUBSYSTEM, "METRIC_0"));
+        final MonitorConfig monitorConfig = MonitorConfig.builder("METRIC_1").withTag(TAG_KEY_SUBSYSTEM, SUBSYSTEM)
+                .withTag(TAG_KEY_APPLICATION, APPLICATION).withTag(TAG_KEY_CLASS, CLASS).withTag(TAG_KEY_TIER, TIER)
+                .build();
+
+        final MonitorConfig overflowConfig = cardinalityLimiter.overflowConfig(monitorConfig);
+
+        final TagList tags = overflowConfig.getTags();
+        assertEquals(OVERFLOW_METRIC_NAME, overflowConfig.getName());
+        assertEquals(4, tags.size());
+        assertEquals(SUBSYSTEM, tags.getValue(TAG_KEY_SUBSYSTEM));
+        assertEquals(OVERFLOW_TAG_VALUE, tags.getValue(TAG_KEY_APPLICATION));
+        assertEquals(OVERFLOW_TAG_VALUE, tags.getValue(TAG_KEY_CLASS));
+        assertEquals(TIER, tags.getValue(TAG_KEY_TIER));
+        assertEquals(overflowConfig, cardinalityLimiter.overflowConfig(createMonitorConfig(SUBSYSTEM, "METRIC_2")
+                .withAdditionalTag(new BasicTag(TAG_KEY_TIER, TIER))));
+    }
+
+    @Test
+    public void testOverflowConfigReplacesUnknownSubsystem() {
+        final MonitorConfig overflowConfig = cardinalityLimiter.overflowConfig(createMonitorConfig(SUBSYSTEM, "METRIC"));
+
+        assertEquals(OVERFLOW_TAG_VALUE, overflowConfig.getTags().getValue(TAG_KEY_SUBSYSTEM));
+    }
+
+    @Test
+    public void testIsOverflow() {
+        assertTrue(CardinalityLimiter.isOverflow(new BasicCounter(MonitorConfig.builder(OVERFLOW_METRIC_NAME).build())));
+        assertFalse(CardinalityLimiter.isOverflow(new BasicCounter(createMonitorConfig(SUBSYSTEM, "METRIC"))));
+    }
+
+    @Test
+    public void testRememberRejectionUpToMaxRememberedRejections() {
+        cardinalityLimiter = new CardinalityLimiter(mockMonitorRegistry, mockLogger, 2);
+
+        assertTrue(cardinalityLimiter.rememberRejection());
+        assertTrue(cardinalityLimiter.rememberRejection());
+        assertFalse(cardinalityLimiter.rememberRejection());
+        cardinalityLimiter.forgetRejection();
+
+        assertEquals(1, cardinalityLimiter.getRememberedRejectionCount());
+        assertTrue(cardinalityLimiter.rememberRejection());
+    }
+
+    @Test
+    public void testIsRememberedRejection() {
+        final MonitorConfig overflowConfig = MonitorConfig.builder(OVERFLOW_METRIC_NAME).build();
+        final MonitorConfig monitorConfig = createMonitorConfig(SUBSYSTEM, "METRIC");
+        final BasicCounter overflowCounter = new BasicCounter(overflowConfig);
+
+        assertTrue(CardinalityLimiter.isRememberedRejection(monitorConfig, overflowCounter));
+        assertFalse(CardinalityLimiter.isRememberedRejection(overflowConfig, overflowCounter));
+        assertFalse(CardinalityLimiter.isRememberedRejection(monitorConfig, new BasicCounter(monitorConfig)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetLimitsNegativeMaxMetrics() {
+        cardinalityLimiter.setLimits(-1, UNLIMITED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetLimitsNegativeMaxMetricsPerSubsystem() {
+        cardinalityLimiter.setLimits(UNLIMITED, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetSubsystemLimitNegative() {
+        cardinalityLimiter.setSubsystemLimit(SUBSYSTEM, -1);
+    }
+
+    @Test
+    public void testDefaultConstructor() {
+        assertEquals(0, new CardinalityLimiter().getRejectedCount());
+    }
+
+    private Counter verifyFirstRejection(MonitorConfig rejectedMonitorConfig) {
+        verify(mockLogger).warn(String.format(FIRST_REJECTION_MSG, rejectedMonitorConfig));
+        final ArgumentCaptor<Counter> rejectedMetrics = ArgumentCaptor.forClass(Counter.class);
+        verify(mockMonitorRegistry).register(rejectedMetrics.capture());
+        return rejectedMetrics.getValue();
+    }
+
+    private static MonitorConfig createMonitorConfig(String subsystem, String name) {
+        return MonitorConfig.builder(name).withTag(TAG_KEY_SUBSYSTEM, subsystem).withTag(TAG_KEY_APPLICATION, APPLICATION)
+                .withTag(TAG_KEY_CLASS, CLASS).build();
+    }
+}
@@ -0,0 +1,105 @@
+package com.expedia.www.haystack.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+import static com.expedia.www.haystack.metrics.ConsistentHashRing.NO_NODES_MSG;
+import static com.expedia.www.haystack.metrics.ConsistentHashRing.hash;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConsistentHashRingTest {
+    private static final Random RANDOM = new Random();
+    private static final List<String> NODE_NAMES = Arrays.asList("relay1:2003", "relay2:2003", "relay3:2003");
+    private static final boolean[] ALL_LIVE = {true, true, true};
+    private static final int KEY_COUNT = 30000;
+
+    // Object under test
+    private ConsistentHashRing consistentHashRing;
+
+    @Before
+    public void setUp() {
+        consistentHashRing = new ConsistentHashRing(NODE_NAMES, DEFAULT_VIRTUAL_NODES);
+    }
+
+    @Test
+    public void testPointCount() {
+        assertEquals(NODE_NAMES.size() * DEFAULT_VIRTUAL_NODES, consistentHashRing.getPointCount());
+    }
+
+    @Test
+    public void testNoNodes() {
+        try {
+            new ConsistentHashRing(Collections.emptyList(), DEFAULT_VIRTUAL_NODES);
+            fail("A ring without nodes should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(NO_NODES_MSG, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testKeysAreSpreadOverEveryNode() {
+        final int[] counts = new int[NODE_NAMES.size()];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            counts[consistentHashRing.nodeFor(hash("haystack.pipes.METRIC_" + i), ALL_LIVE)]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(Arrays.toString(counts), count > KEY_COUNT / 5 && count < KEY_COUNT / 2);
+        }
+    }
+
+    @Test
+    public void testOnlyTheKeysOfADownNodeMove() {
+        final boolean[] secondDown = {true, false, true};
+        final int[] movedTo = new int[NODE_NAMES.size()];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            final int keyHash = hash(Integer.toString(RANDOM.nextInt()));
+            final int owner = consistentHashRing.nodeFor(keyHash, ALL_LIVE);
+            final int node = consistentHashRing.nodeFor(keyHash, secondDown);
+            if (owner == 1) {
+                movedTo[node]++;
+            } else {
+                assertEquals(owner, node);
+            }
+        }
+
+        assertEquals(0, movedTo[1]);
+        assertTrue(Arrays.toString(movedTo), movedTo[0] > 0 && movedTo[2] > 0);
+    }
+
+    @Test
+    public void testOwnerWhenNoNodeIsLive() {
+        final int keyHash = RANDOM.nextInt();
+
+        assertEquals(consistentHashRing.nodeFor(keyHash, ALL_LIVE),
+                consistentHashRing.nodeFor(keyHash, new boolean[NODE_NAMES.size()]));
+    }
+
+    @Test
+    public void testKeyOnAPointBelongsToItsNode() {
+        for (int node = 0; node < NODE_NAMES.size(); node++) {
+            assertEquals(node, consistentHashRing.nodeFor(hash(NODE_NAMES.get(node) + "#7"), ALL_LIVE));
+        }
+    }
+
+    @Test
+    public void testRingWrapsAround() {
+        assertEquals(consistentHashRing.nodeFor(Integer.MIN_VALUE, ALL_LIVE),
+                consistentHashRing.nodeFor(Integer.MAX_VALUE, ALL_LIVE));
+    }
+
+    @Test
+    public void testHashSpreadsSimilarKeys() {
+        assertNotEquals(hash("METRIC_1") >>> 24, hash("METRIC_2") >>> 24);
+        assertEquals(hash("METRIC_1"), hash("METRIC_1"));
+    }
+}
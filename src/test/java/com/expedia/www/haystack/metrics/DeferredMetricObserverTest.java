@@ -0,0 +1,166 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.MetricObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.DeferredMetricObserver.CREATE_FAILED_MSG;
+import static com.expedia.www.haystack.metrics.DeferredMetricObserver.MAX_BUFFERED_POLLS_MSG;
+import static com.expedia.www.haystack.metrics.DeferredMetricObserver.OBSERVER_NAME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DeferredMetricObserverTest {
+    private static final Random RANDOM = new Random();
+    private static final int MAX_BUFFERED_POLLS = 2;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Mock
+    private MetricObserver mockMetricObserver;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    @Mock
+    private Logger mockLogger;
+
+    private Runnable creation;
+    private Exception creatorException;
+
+    // Object under test
+    private DeferredMetricObserver deferredMetricObserver;
+
+    @Before
+    public void setUp() {
+        deferredMetricObserver = new DeferredMetricObserver(() -> {
+            if (creatorException != null) {
+                throw creatorException;
+            }
+            return mockMetricObserver;
+        }, MAX_BUFFERED_POLLS, mockPublishingMetrics, runnable -> creation = runnable, mockLogger);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockMetricObserver, mockPublishingMetrics, mockLogger);
+    }
+
+    @Test
+    public void testPublicConstructor() throws InterruptedException {
+        final DeferredMetricObserver observer = new DeferredMetricObserver(
+                () -> mockMetricObserver, MAX_BUFFERED_POLLS, mockPublishingMetrics);
+
+        assertEquals(OBSERVER_NAME, observer.getName());
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!observer.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(observer.isReady());
+    }
+
+    @Test
+    public void testUpdateBuffersPollsUntilTheObserverIsReady() {
+        final List<Metric> first = createPoll();
+        final List<Metric> second = createPoll();
+        final List<Metric> third = createPoll();
+
+        deferredMetricObserver.update(first);
+        deferredMetricObserver.update(second);
+        assertFalse(deferredMetricObserver.isReady());
+        assertEquals(2, deferredMetricObserver.getBufferedPollCount());
+
+        creation.run();
+        deferredMetricObserver.update(third);
+
+        assertTrue(deferredMetricObserver.isReady());
+        assertEquals(0, deferredMetricObserver.getBufferedPollCount());
+        final InOrder inOrder = inOrder(mockMetricObserver);
+        inOrder.verify(mockMetricObserver).update(first);
+        inOrder.verify(mockMetricObserver).update(second);
+        inOrder.verify(mockMetricObserver).update(third);
+    }
+
+    @Test
+    public void testPollsThatArriveWhileTheBufferIsHandedOverFollowIt() {
+        final List<Metric> first = createPoll();
+        final List<Metric> second = createPoll();
+        deferredMetricObserver.update(first);
+        doAnswer(invocation -> {
+            // Runs outside the lock, as a poll of the publishing thread would, and is buffered behind the first poll
+            deferredMetricObserver.update(second);
+            assertFalse(deferredMetricObserver.isReady());
+            return null;
+        }).when(mockMetricObserver).update(first);
+
+        creation.run();
+
+        assertTrue(deferredMetricObserver.isReady());
+        assertEquals(0, deferredMetricObserver.getBufferedPollCount());
+        final InOrder inOrder = inOrder(mockMetricObserver);
+        inOrder.verify(mockMetricObserver).update(first);
+        inOrder.verify(mockMetricObserver).update(second);
+    }
+
+    @Test
+    public void testUpdateDropsTheOldestPollWhenTheBufferIsFull() {
+        final List<Metric> first = createPoll();
+        final List<Metric> second = createPoll();
+        final List<Metric> third = createPoll();
+
+        deferredMetricObserver.update(first);
+        deferredMetricObserver.update(second);
+        deferredMetricObserver.update(third);
+        creation.run();
+
+        verify(mockPublishingMetrics).recordQueueDrop();
+        final InOrder inOrder = inOrder(mockMetricObserver);
+        inOrder.verify(mockMetricObserver).update(second);
+        inOrder.verify(mockMetricObserver).update(third);
+    }
+
+    @Test
+    public void testUpdateDropsEveryPollWhenCreatingTheObserverFails() {
+        creatorException = new IllegalStateException("Test");
+        deferredMetricObserver.update(createPoll());
+
+        creation.run();
+        deferredMetricObserver.update(createPoll());
+
+        assertFalse(deferredMetricObserver.isReady());
+        assertEquals(0, deferredMetricObserver.getBufferedPollCount());
+        verify(mockLogger).error(CREATE_FAILED_MSG, creatorException);
+    }
+
+    @Test
+    public void testMaxBufferedPollsMustBePositive() {
+        try {
+            new DeferredMetricObserver(() -> mockMetricObserver, 0, mockPublishingMetrics);
+            fail("A maxBufferedPolls of zero should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(String.format(MAX_BUFFERED_POLLS_MSG, 0), e.getMessage());
+        }
+    }
+
+    private static List<Metric> createPoll() {
+        return Collections.singletonList(new Metric(MonitorConfig.builder("METRIC").build(), 0, RANDOM.nextLong()));
+    }
+}
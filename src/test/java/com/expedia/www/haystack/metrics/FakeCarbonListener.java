@@ -0,0 +1,157 @@
+package com.expedia.www.haystack.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for a Carbon (Graphite) TCP listener, bound to an ephemeral port on the loopback interface.
+ * Every connection is read on its own thread; the listener counts the bytes and newlines it receives and, unless it
+ * was created with retainBytes false (as benchmarks do, to keep memory flat), keeps the bytes for the test to inspect.
+ */
+class FakeCarbonListener implements Closeable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long POLL_MILLIS = 5;
+
+    private final boolean retainBytes;
+    private final ServerSocketChannel serverChannel;
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private final List<SocketChannel> connections = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final AtomicLong lineCount = new AtomicLong();
+    private volatile boolean closed;
+
+    FakeCarbonListener() throws IOException {
+        this(true);
+    }
+
+    FakeCarbonListener(boolean retainBytes) throws IOException {
+        this.retainBytes = retainBytes;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("127.0.0.1", 0));
+        final Thread acceptThread = new Thread(this::acceptConnections, "FakeCarbonListener-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    long getByteCount() {
+        return byteCount.get();
+    }
+
+    long getLineCount() {
+        return lineCount.get();
+    }
+
+    byte[] getBytes() {
+        synchronized (received) {
+            return received.toByteArray();
+        }
+    }
+
+    List<String> getLines() {
+        final String text = new String(getBytes(), StandardCharsets.UTF_8);
+        return text.isEmpty() ? new ArrayList<>() : new ArrayList<>(Arrays.asList(text.split("\n")));
+    }
+
+    /**
+     * Waits until at least lineCount newlines have been received, or timeoutMillis has passed.
+     */
+    List<String> awaitLines(long expectedLineCount, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (lineCount.get() < expectedLineCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        return getLines();
+    }
+
+    /**
+     * Waits until at least byteCount bytes have been received, or timeoutMillis has passed.
+     */
+    byte[] awaitBytes(long expectedByteCount, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (byteCount.get() < expectedByteCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(POLL_MILLIS);
+        }
+        return getBytes();
+    }
+
+    /**
+     * Resets every open connection (SO_LINGER 0), the way a restarting relay would, but keeps listening.
+     */
+    void resetConnections() throws IOException {
+        for (SocketChannel connection : connections) {
+            connection.setOption(StandardSocketOptions.SO_LINGER, 0);
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverChannel.close();
+        resetConnections();
+    }
+
+    private void acceptConnections() {
+        try {
+            while (!closed) {
+                final SocketChannel connection = serverChannel.accept();
+                connections.add(connection);
+                connectionCount.incrementAndGet();
+                final Thread readThread = new Thread(() -> read(connection), "FakeCarbonListener-read");
+                readThread.setDaemon(true);
+                readThread.start();
+            }
+        } catch (IOException e) {
+            // The listener has been closed
+        }
+    }
+
+    private void read(SocketChannel connection) {
+        final ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        try {
+            while (connection.read(buffer) >= 0) {
+                buffer.flip();
+                final int count = buffer.remaining();
+                long newlines = 0;
+                for (int i = 0; i < count; i++) {
+                    if (buffer.get(i) == '\n') {
+                        newlines++;
+                    }
+                }
+                if (retainBytes) {
+                    synchronized (received) {
+                        received.write(buffer.array(), 0, count);
+                    }
+                }
+                byteCount.addAndGet(count);
+                lineCount.addAndGet(newlines);
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // The connection has been reset or closed
+        }
+    }
+}
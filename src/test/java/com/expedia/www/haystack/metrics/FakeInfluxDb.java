@@ -0,0 +1,122 @@
+package com.expedia.www.haystack.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for InfluxDB's HTTP write endpoint, bound to an ephemeral port on the loopback interface. It
+ * keeps every write request (decompressing gzipped bodies) and the client addresses it has seen, which tell how many
+ * connections were made, and answers with 204 No Content unless told to answer otherwise.
+ */
+class FakeInfluxDb implements Closeable {
+    static final String WRITE_PATH = "/write";
+    private static final int NO_CONTENT = 204;
+    private static final int NO_BODY = -1;
+
+    private final HttpServer server;
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+    private final Set<InetSocketAddress> clientAddresses = ConcurrentHashMap.newKeySet();
+    private volatile int status = NO_CONTENT;
+    private volatile String responseBody;
+
+    FakeInfluxDb() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(WRITE_PATH, this::handle);
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    List<Request> getRequests() {
+        return requests;
+    }
+
+    List<String> getLines() {
+        final List<String> lines = new ArrayList<>();
+        for (Request request : requests) {
+            lines.addAll(request.lines);
+        }
+        return lines;
+    }
+
+    int getConnectionCount() {
+        return clientAddresses.size();
+    }
+
+    /**
+     * Makes every later request get this status and body (or no body, if it is null).
+     */
+    void respondWith(int status, String responseBody) {
+        this.status = status;
+        this.responseBody = responseBody;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        clientAddresses.add(exchange.getRemoteAddress());
+        final String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        final InputStream body = "gzip".equals(contentEncoding)
+                ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody();
+        final String text = new String(readFully(body), StandardCharsets.UTF_8);
+        requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI().getRawQuery(),
+                exchange.getRequestHeaders().getFirst("Content-Type"), contentEncoding,
+                text.isEmpty() ? new ArrayList<>() : Arrays.asList(text.split("\n"))));
+        final String currentResponseBody = responseBody;
+        if (currentResponseBody == null) {
+            exchange.sendResponseHeaders(status, NO_BODY);
+        } else {
+            final byte[] bytes = currentResponseBody.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(bytes);
+            }
+        }
+        exchange.close();
+    }
+
+    private static byte[] readFully(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        for (int count = inputStream.read(buffer); count >= 0; count = inputStream.read(buffer)) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    static final class Request {
+        final String method;
+        final String query;
+        final String contentType;
+        final String contentEncoding;
+        final List<String> lines;
+
+        private Request(String method, String query, String contentType, String contentEncoding, List<String> lines) {
+            this.method = method;
+            this.query = query;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.lines = lines;
+        }
+    }
+}
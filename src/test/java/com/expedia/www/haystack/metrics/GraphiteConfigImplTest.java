@@ -16,13 +16,24 @@
  */
 package com.expedia.www.haystack.metrics;
 
+import com.expedia.www.haystack.metrics.GraphiteConfigImpl.Builder;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Random;
+import java.util.function.UnaryOperator;
 
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_INFLUXDB_BATCH_SIZE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_INFLUXDB_DATABASE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_SPOOL_MAX_BYTES;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.PROTOCOL_PICKLE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.PROTOCOL_PLAINTEXT;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.QUEUE_TYPE_BLOCKING;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class GraphiteConfigImplTest {
     private static Random RANDOM = new Random();
@@ -31,6 +42,17 @@ public class GraphiteConfigImplTest {
     private static final int POLL_INTERVAL_SECONDS = RANDOM.nextInt();
     private static final int QUEUE_SIZE = RANDOM.nextInt();
     private static final boolean SEND_AS_RATE = RANDOM.nextBoolean();
+    private static final String SPOOL_FILE = RANDOM.nextLong() + "SPOOL_FILE";
+    private static final int SPOOL_MAX_BYTES = RANDOM.nextInt();
+    private static final int HEARTBEAT_INTERVALS = RANDOM.nextInt(Integer.MAX_VALUE) + 1;
+    private static final String TIER = RANDOM.nextLong() + "TIER";
+    private static final String RELAYS = RANDOM.nextLong() + "RELAYS";
+    private static final String INFLUXDB_DATABASE = RANDOM.nextLong() + "INFLUXDB_DATABASE";
+    private static final int INFLUXDB_BATCH_SIZE = RANDOM.nextInt(Integer.MAX_VALUE) + 1;
+    private static final int PARALLEL_POLL_THRESHOLD = RANDOM.nextInt(Integer.MAX_VALUE) + 1;
+    private static final String QUEUE_TYPE = RANDOM.nextLong() + "QUEUE_TYPE";
+    private static final String QUEUE_WAIT_STRATEGY = RANDOM.nextLong() + "QUEUE_WAIT_STRATEGY";
+    private static final String QUEUE_OVERFLOW_POLICY = RANDOM.nextLong() + "QUEUE_OVERFLOW_POLICY";
 
     private GraphiteConfig graphiteConfig;
 
@@ -64,6 +86,160 @@ public class GraphiteConfigImplTest {
         assertEquals(SEND_AS_RATE, graphiteConfig.sendasrate());
     }
 
+    @Test
+    public void testProtocol() {
+        assertEquals(PROTOCOL_PLAINTEXT, graphiteConfig.protocol());
+        assertEquals(PROTOCOL_PICKLE, new GraphiteConfigImpl(
+                HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PICKLE).protocol());
+    }
+
+    @Test
+    public void testSpool() {
+        assertNull(graphiteConfig.spoolfile());
+        assertEquals(DEFAULT_SPOOL_MAX_BYTES, graphiteConfig.spoolmaxbytes());
+        final GraphiteConfig spoolingGraphiteConfig = new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS,
+                QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PICKLE, SPOOL_FILE, SPOOL_MAX_BYTES);
+        assertEquals(SPOOL_FILE, spoolingGraphiteConfig.spoolfile());
+        assertEquals(SPOOL_MAX_BYTES, spoolingGraphiteConfig.spoolmaxbytes());
+    }
+
+    @Test
+    public void testHeartbeatIntervals() {
+        assertEquals(0, graphiteConfig.heartbeatintervals());
+        assertEquals(HEARTBEAT_INTERVALS, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE,
+                SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, HEARTBEAT_INTERVALS)
+                .heartbeatintervals());
+    }
+
+    @Test
+    public void testTier() {
+        assertNull(graphiteConfig.tier());
+        assertEquals(TIER, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE,
+                PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, 0, TIER).tier());
+    }
+
+    @Test
+    public void testBuilderDefaults() {
+        assertEquals(graphiteConfig, builder().build());
+        assertDefaults(builder().build());
+        assertDefaults(graphiteConfig);
+    }
+
+    @Test
+    public void testBuilder() {
+        final GraphiteConfig builtGraphiteConfig = builder()
+                .withProtocol(PROTOCOL_PICKLE)
+                .withSpoolfile(SPOOL_FILE)
+                .withSpoolmaxbytes(SPOOL_MAX_BYTES)
+                .withHeartbeatintervals(HEARTBEAT_INTERVALS)
+                .withTier(TIER)
+                .withRelays(RELAYS)
+                .withInfluxdbdatabase(INFLUXDB_DATABASE)
+                .withInfluxdbgzip(true)
+                .withInfluxdbbatchsize(INFLUXDB_BATCH_SIZE)
+                .withParallelpollthreshold(PARALLEL_POLL_THRESHOLD)
+                .withQueuetype(QUEUE_TYPE)
+                .withQueuewaitstrategy(QUEUE_WAIT_STRATEGY)
+                .withQueueoverflowpolicy(QUEUE_OVERFLOW_POLICY)
+                .build();
+
+        assertEquals(HOST, builtGraphiteConfig.host());
+        assertEquals(PORT, builtGraphiteConfig.port());
+        assertEquals(POLL_INTERVAL_SECONDS, builtGraphiteConfig.pollintervalseconds());
+        assertEquals(QUEUE_SIZE, builtGraphiteConfig.queuesize());
+        assertEquals(SEND_AS_RATE, builtGraphiteConfig.sendasrate());
+        assertEquals(PROTOCOL_PICKLE, builtGraphiteConfig.protocol());
+        assertEquals(SPOOL_FILE, builtGraphiteConfig.spoolfile());
+        assertEquals(SPOOL_MAX_BYTES, builtGraphiteConfig.spoolmaxbytes());
+        assertEquals(HEARTBEAT_INTERVALS, builtGraphiteConfig.heartbeatintervals());
+        assertEquals(TIER, builtGraphiteConfig.tier());
+        assertEquals(RELAYS, builtGraphiteConfig.relays());
+        assertEquals(INFLUXDB_DATABASE, builtGraphiteConfig.influxdbdatabase());
+        assertTrue(builtGraphiteConfig.influxdbgzip());
+        assertEquals(INFLUXDB_BATCH_SIZE, builtGraphiteConfig.influxdbbatchsize());
+        assertEquals(PARALLEL_POLL_THRESHOLD, builtGraphiteConfig.parallelpollthreshold());
+        assertEquals(QUEUE_TYPE, builtGraphiteConfig.queuetype());
+        assertEquals(QUEUE_WAIT_STRATEGY, builtGraphiteConfig.queuewaitstrategy());
+        assertEquals(QUEUE_OVERFLOW_POLICY, builtGraphiteConfig.queueoverflowpolicy());
+    }
+
+    @Test
+    public void testEqualsAndHashCodeOfBuilderOnlyOptions() {
+        assertEqualityDependsOn(b -> b.withRelays(RELAYS), b -> b.withRelays(null));
+        assertEqualityDependsOn(b -> b.withInfluxdbdatabase(null), b -> b.withInfluxdbdatabase(INFLUXDB_DATABASE));
+        assertEqualityDependsOn(b -> b.withInfluxdbgzip(true), b -> b.withInfluxdbgzip(false));
+        assertEqualityDependsOn(b -> b.withInfluxdbbatchsize(INFLUXDB_BATCH_SIZE), b -> b.withInfluxdbbatchsize(0));
+        assertEqualityDependsOn(b -> b.withParallelpollthreshold(PARALLEL_POLL_THRESHOLD),
+                b -> b.withParallelpollthreshold(0));
+        assertEqualityDependsOn(b -> b.withQueuetype(null), b -> b.withQueuetype(QUEUE_TYPE));
+        assertEqualityDependsOn(b -> b.withQueuewaitstrategy(null), b -> b.withQueuewaitstrategy(QUEUE_WAIT_STRATEGY));
+        assertEqualityDependsOn(b -> b.withQueueoverflowpolicy(null),
+                b -> b.withQueueoverflowpolicy(QUEUE_OVERFLOW_POLICY));
+    }
+
+    private static Builder builder() {
+        return GraphiteConfigImpl.builder(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE);
+    }
+
+    private static void assertEqualityDependsOn(UnaryOperator<Builder> setValue, UnaryOperator<Builder> setOtherValue) {
+        final GraphiteConfig withValue = setValue.apply(builder()).build();
+        final GraphiteConfig withOtherValue = setOtherValue.apply(builder()).build();
+
+        assertEquals(withValue, setValue.apply(builder()).build());
+        assertEquals(withValue.hashCode(), setValue.apply(builder()).build().hashCode());
+        assertNotEquals(withValue, withOtherValue);
+        assertNotEquals(withOtherValue, withValue);
+        assertNotEquals(withValue.hashCode(), withOtherValue.hashCode());
+    }
+
+    private static void assertDefaults(GraphiteConfig graphiteConfig) {
+        assertEquals(PROTOCOL_PLAINTEXT, graphiteConfig.protocol());
+        assertNull(graphiteConfig.spoolfile());
+        assertEquals(DEFAULT_SPOOL_MAX_BYTES, graphiteConfig.spoolmaxbytes());
+        assertEquals(0, graphiteConfig.heartbeatintervals());
+        assertNull(graphiteConfig.tier());
+        assertEquals(0, graphiteConfig.parallelpollthreshold());
+        assertEquals(DEFAULT_INFLUXDB_DATABASE, graphiteConfig.influxdbdatabase());
+        assertFalse(graphiteConfig.influxdbgzip());
+        assertEquals(DEFAULT_INFLUXDB_BATCH_SIZE, graphiteConfig.influxdbbatchsize());
+        assertEquals(QUEUE_TYPE_BLOCKING, graphiteConfig.queuetype());
+        assertNull(graphiteConfig.relays());
+        assertEquals("BLOCKING", graphiteConfig.queuewaitstrategy());
+        assertEquals("DROP_OLDEST", graphiteConfig.queueoverflowpolicy());
+    }
+
+    @Test
+    public void testDefaultProtocolAndSpool() {
+        final GraphiteConfig defaultGraphiteConfig = new GraphiteConfig() {
+            @Override
+            public String host() {
+                return HOST;
+            }
+
+            @Override
+            public int port() {
+                return PORT;
+            }
+
+            @Override
+            public int pollintervalseconds() {
+                return POLL_INTERVAL_SECONDS;
+            }
+
+            @Override
+            public int queuesize() {
+                return QUEUE_SIZE;
+            }
+
+            @Override
+            public boolean sendasrate() {
+                return SEND_AS_RATE;
+            }
+        };
+
+        assertDefaults(defaultGraphiteConfig);
+    }
+
     @Test
     public void testEquals() {
         assertEquals(graphiteConfig, graphiteConfig);
@@ -77,6 +253,21 @@ public class GraphiteConfigImplTest {
         assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS + 1, QUEUE_SIZE, SEND_AS_RATE));
         assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE + 1, SEND_AS_RATE));
         assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, !SEND_AS_RATE));
+        assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PICKLE));
+        assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, null));
+        assertNotEquals(new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, null), graphiteConfig);
+        assertEquals(new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, null),
+                new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, null));
+        assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, SPOOL_FILE, DEFAULT_SPOOL_MAX_BYTES));
+        assertNotEquals(new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, SPOOL_FILE, DEFAULT_SPOOL_MAX_BYTES), graphiteConfig);
+        assertEquals(new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, SPOOL_FILE, DEFAULT_SPOOL_MAX_BYTES),
+                new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, SPOOL_FILE, DEFAULT_SPOOL_MAX_BYTES));
+        assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES + 1));
+        assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, HEARTBEAT_INTERVALS));
+        assertNotEquals(graphiteConfig, new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, 0, TIER));
+        assertNotEquals(new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, 0, TIER), graphiteConfig);
+        assertEquals(new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, 0, TIER),
+                new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, 0, TIER));
         assertNotEquals(graphiteConfig, null);
         assertNotEquals(graphiteConfig, "");
     }
@@ -90,5 +281,11 @@ public class GraphiteConfigImplTest {
         assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS + 1, QUEUE_SIZE, SEND_AS_RATE).hashCode());
         assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE + 1, SEND_AS_RATE).hashCode());
         assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, !SEND_AS_RATE).hashCode());
+        assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PICKLE).hashCode());
+        assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, null).hashCode());
+        assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, SPOOL_FILE, DEFAULT_SPOOL_MAX_BYTES).hashCode());
+        assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES + 1).hashCode());
+        assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, HEARTBEAT_INTERVALS).hashCode());
+        assertNotEquals(graphiteConfig.hashCode(), new GraphiteConfigImpl(HOST, PORT, POLL_INTERVAL_SECONDS, QUEUE_SIZE, SEND_AS_RATE, PROTOCOL_PLAINTEXT, null, DEFAULT_SPOOL_MAX_BYTES, 0, TIER).hashCode());
     }
 }
@@ -0,0 +1,98 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphiteLineEncoderTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = RANDOM.nextLong() + "PREFIX";
+    private static final String NAME = RANDOM.nextLong() + "NAME";
+    private static final String METRIC_NAME = RANDOM.nextLong() + "METRIC_NAME";
+    private static final long TIMESTAMP_SECONDS = RANDOM.nextInt(Integer.MAX_VALUE);
+
+    @Mock
+    private GraphiteNamingConvention mockGraphiteNamingConvention;
+
+    private Metric metric;
+
+    // Object under test
+    private GraphiteLineEncoder graphiteLineEncoder;
+
+    @Before
+    public void setUp() {
+        when(mockGraphiteNamingConvention.getName(any(Metric.class))).thenReturn(NAME);
+        metric = new Metric(MonitorConfig.builder(METRIC_NAME).build(), TIMESTAMP_SECONDS * 1000 + 999, 42L);
+        graphiteLineEncoder = new GraphiteLineEncoder(PREFIX, mockGraphiteNamingConvention);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockGraphiteNamingConvention);
+    }
+
+    @Test
+    public void testNameComesFromTheNamingConvention() {
+        assertSame(NAME, graphiteLineEncoder.name(metric));
+        verify(mockGraphiteNamingConvention).getName(metric);
+    }
+
+    @Test
+    public void testEncode() {
+        final String name = graphiteLineEncoder.name(metric);
+        final ByteBuffer buffer = ByteBuffer.allocate(graphiteLineEncoder.maxLength(name));
+
+        graphiteLineEncoder.encode(buffer, name, metric.getNumberValue(), metric.getTimestamp());
+
+        final String expected = PREFIX + '.' + NAME + " 42 " + TIMESTAMP_SECONDS + '\n';
+        assertEquals(expected, toString(buffer));
+        assertEquals((PREFIX + '.' + NAME).length() + GraphiteLineEncoder.MAX_VALUE_AND_TIMESTAMP_BYTES,
+                graphiteLineEncoder.maxLength(name));
+        verify(mockGraphiteNamingConvention).getName(metric);
+    }
+
+    @Test
+    public void testEncodeNonAsciiName() {
+        final ByteBuffer buffer = ByteBuffer.allocate(graphiteLineEncoder.maxLength("aéb"));
+
+        graphiteLineEncoder.encode(buffer, "aéb", 1, TIMESTAMP_SECONDS * 1000);
+
+        assertEquals(PREFIX + ".aéb 1 " + TIMESTAMP_SECONDS + '\n', toString(buffer));
+    }
+
+    @Test
+    public void testBatchesNeedNothingAroundTheLines() {
+        final ByteBuffer buffer = ByteBuffer.allocate(GraphiteLineEncoder.MAX_VALUE_AND_TIMESTAMP_BYTES);
+
+        graphiteLineEncoder.startBatch(buffer);
+        graphiteLineEncoder.endBatch(buffer);
+
+        assertEquals(0, buffer.position());
+        assertEquals(0, graphiteLineEncoder.batchOverhead());
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        buffer.flip();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,112 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.graphite.GraphiteNamingConvention;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GraphitePickleEncoderTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = RANDOM.nextLong() + "PREFIX";
+    private static final String NAME = RANDOM.nextLong() + "NAME";
+    private static final String METRIC_NAME = RANDOM.nextLong() + "METRIC_NAME";
+    private static final long TIMESTAMP_SECONDS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final int BUFFER_SIZE = 1024;
+
+    @Mock
+    private GraphiteNamingConvention mockGraphiteNamingConvention;
+
+    private Metric metric;
+
+    // Object under test
+    private GraphitePickleEncoder graphitePickleEncoder;
+
+    @Before
+    public void setUp() {
+        when(mockGraphiteNamingConvention.getName(any(Metric.class))).thenReturn(NAME);
+        metric = new Metric(MonitorConfig.builder(METRIC_NAME).build(), TIMESTAMP_SECONDS * 1000 + 999, 42L);
+        graphitePickleEncoder = new GraphitePickleEncoder(PREFIX, mockGraphiteNamingConvention);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockGraphiteNamingConvention);
+    }
+
+    @Test
+    public void testNameComesFromTheNamingConvention() {
+        assertSame(NAME, graphitePickleEncoder.name(metric));
+        verify(mockGraphiteNamingConvention).getName(metric);
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        graphitePickleEncoder.startBatch(buffer);
+        graphitePickleEncoder.endBatch(buffer);
+
+        assertEquals(graphitePickleEncoder.batchOverhead(), buffer.position());
+        assertArrayEquals(new byte[]{0, 0, 0, 6, (byte) 0x80, 2, ']', '(', 'e', '.'}, toBytes(buffer));
+        assertEquals(Collections.emptyList(), PickleDecoder.decodeBatches(toBytes(buffer)));
+    }
+
+    @Test
+    public void testEncode() {
+        final String name = graphitePickleEncoder.name(metric);
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        graphitePickleEncoder.startBatch(buffer);
+        final int start = buffer.position();
+        graphitePickleEncoder.encode(buffer, name, metric.getNumberValue(), metric.getTimestamp());
+        assertTrue(buffer.position() - start <= graphitePickleEncoder.maxLength(name));
+        graphitePickleEncoder.encode(buffer, name, 1.5f, metric.getTimestamp());
+        graphitePickleEncoder.encode(buffer, "aéb", 7, metric.getTimestamp());
+        graphitePickleEncoder.endBatch(buffer);
+
+        final String path = PREFIX + '.' + NAME;
+        assertEquals(Arrays.asList(path + ' ' + TIMESTAMP_SECONDS + " 42.0", path + ' ' + TIMESTAMP_SECONDS + " 1.5",
+                PREFIX + ".aéb " + TIMESTAMP_SECONDS + " 7.0"), PickleDecoder.decodeBatches(toBytes(buffer)));
+        verify(mockGraphiteNamingConvention).getName(metric);
+    }
+
+    @Test
+    public void testEncodeTimestampAfter2038() {
+        final long timestampSeconds = Integer.MAX_VALUE + 1L;
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        graphitePickleEncoder.encode(buffer, NAME, 7, timestampSeconds * 1000);
+
+        buffer.flip();
+        buffer.position(1 + 4 + (PREFIX + '.' + NAME).length());
+        assertEquals(GraphitePickleEncoder.BINFLOAT, buffer.get());
+        assertEquals(timestampSeconds, buffer.getDouble(), 0);
+    }
+
+    private static byte[] toBytes(ByteBuffer buffer) {
+        buffer.flip();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
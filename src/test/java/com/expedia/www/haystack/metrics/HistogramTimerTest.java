@@ -0,0 +1,296 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.tag.TagList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.expedia.www.haystack.metrics.HistogramTimer.PERCENTILE_PERMILLES;
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_COUNT;
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_MAX;
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_PERCENTILES;
+import static com.expedia.www.haystack.metrics.HistogramTimer.TAG_KEY_UNIT;
+import static com.expedia.www.haystack.metrics.HistogramTimer.bucketIndex;
+import static com.expedia.www.haystack.metrics.HistogramTimer.highestValueInBucket;
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTimerTest {
+    private static final Random RANDOM = new Random();
+    private static final String TIMER_NAME = RANDOM.nextLong() + "TIMER_NAME";
+    private static final int POLLER_INDEX = RANDOM.nextInt();
+    private static final int MONITOR_COUNT = STATISTIC_PERCENTILES.length + 2;
+    private static final int NUMBER_OF_THREADS = 16;
+    private static final int RECORDS_PER_THREAD = 10000;
+
+    private MonitorConfig monitorConfig;
+    private HistogramTimer histogramTimer;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder(TIMER_NAME).build();
+        histogramTimer = new HistogramTimer(monitorConfig, MILLISECONDS);
+    }
+
+    @Test
+    public void testConstructor() {
+        assertEquals(MILLISECONDS.name(), histogramTimer.getConfig().getTags().getValue(TAG_KEY_UNIT));
+        assertEquals(MILLISECONDS, histogramTimer.getTimeUnit());
+        assertEquals(0L, (long) histogramTimer.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testGetMonitors() {
+        final List<Monitor<?>> monitors = histogramTimer.getMonitors();
+
+        assertEquals(MONITOR_COUNT, monitors.size());
+        for (int i = 0; i < MONITOR_COUNT; i++) {
+            final TagList tags = monitors.get(i).getConfig().getTags();
+            assertEquals(TIMER_NAME, monitors.get(i).getConfig().getName());
+            assertEquals(MILLISECONDS.name(), tags.getValue(TAG_KEY_UNIT));
+            assertEquals(DataSourceType.GAUGE.getValue(), tags.getValue(DataSourceType.KEY));
+            assertEquals(statisticName(i), tags.getValue(TAG_KEY_STATISTIC));
+        }
+    }
+
+    @Test
+    public void testBucketIndexAndHighestValueInBucketAgree() {
+        for (int i = 0; i < histogramTimer.getBucketCount(); i++) {
+            assertEquals(i, bucketIndex(highestValueInBucket(i)));
+            assertEquals(i + 1, bucketIndex(highestValueInBucket(i) + 1));
+        }
+    }
+
+    @Test
+    public void testBucketsAreWithinOneSixtyFourthOfTheirValues() {
+        for (int i = 0; i < 100000; i++) {
+            final long value = RANDOM.nextInt(Integer.MAX_VALUE);
+            final long highestValue = highestValueInBucket(bucketIndex(value));
+            assertTrue(value + " -> " + highestValue, highestValue >= value && highestValue - value <= value / 64);
+        }
+    }
+
+    @Test
+    public void testBucketCountCoversOneHour() {
+        final long oneHour = MILLISECONDS.convert(1, HOURS);
+        final int bucketCount = histogramTimer.getBucketCount();
+
+        assertTrue(highestValueInBucket(bucketCount - 1) >= oneHour);
+        assertTrue(highestValueInBucket(bucketCount - 2) < oneHour);
+        assertEquals(65, new HistogramTimer(monitorConfig, HOURS).getBucketCount());
+        assertTrue(new HistogramTimer(monitorConfig, NANOSECONDS).getBucketCount() < 2500);
+    }
+
+    @Test
+    public void testPercentiles() {
+        final int count = 1000;
+        for (int i = 1; i <= count; i++) {
+            histogramTimer.record(i);
+        }
+
+        final long[] statistics = poll(histogramTimer);
+
+        assertEquals(count, statistics[0]);
+        for (int i = 0; i < PERCENTILE_PERMILLES.length; i++) {
+            final long expected = Math.min(highestValueInBucket(bucketIndex(PERCENTILE_PERMILLES[i])), count);
+            assertEquals(STATISTIC_PERCENTILES[i], expected, statistics[i + 1]);
+        }
+        assertEquals(count, statistics[MONITOR_COUNT - 1]);
+        assertEquals(count, (long) histogramTimer.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testStatisticsResetEachInterval() {
+        histogramTimer.record(RANDOM.nextInt(Integer.MAX_VALUE));
+        poll(histogramTimer);
+
+        final long[] statistics = poll(histogramTimer);
+
+        assertEquals(0L, (long) histogramTimer.getValue(POLLER_INDEX));
+        for (long statistic : statistics) {
+            assertEquals(0L, statistic);
+        }
+    }
+
+    @Test
+    public void testStatisticsAreSnapshottedWhenAStatisticIsReadAgain() {
+        final List<Monitor<?>> monitors = histogramTimer.getMonitors();
+        histogramTimer.record(10);
+        assertEquals(10L, monitors.get(MONITOR_COUNT - 1).getValue());
+        histogramTimer.record(20);
+        assertEquals(1L, monitors.get(0).getValue());
+        assertEquals(1L, (long) histogramTimer.getValue(POLLER_INDEX));
+
+        assertEquals(20L, monitors.get(MONITOR_COUNT - 1).getValue());
+        assertEquals(1L, monitors.get(0).getValue());
+        assertEquals(0L, monitors.get(MONITOR_COUNT - 1).getValue());
+    }
+
+    @Test
+    public void testStatisticsAreSnapshottedEachPollWhenTheCountIsNotRead() {
+        final List<Monitor<?>> monitors = histogramTimer.getMonitors();
+        for (long duration = 10; duration <= 30; duration += 10) {
+            histogramTimer.record(duration);
+
+            assertEquals(duration, monitors.get(1).getValue());
+            assertEquals(duration, monitors.get(MONITOR_COUNT - 1).getValue());
+        }
+    }
+
+    @Test
+    public void testNoRecordings() {
+        for (long statistic : poll(histogramTimer)) {
+            assertEquals(0L, statistic);
+        }
+    }
+
+    @Test
+    public void testRecordLongerThanHighestTrackableValue() {
+        final long tenHours = MILLISECONDS.convert(10, HOURS);
+        histogramTimer.record(tenHours);
+
+        final long[] statistics = poll(histogramTimer);
+
+        assertEquals(highestValueInBucket(histogramTimer.getBucketCount() - 1), statistics[1]);
+        assertEquals(tenHours, statistics[MONITOR_COUNT - 1]);
+    }
+
+    @Test
+    public void testRecordNegativeDuration() {
+        histogramTimer.record(-RANDOM.nextInt(Integer.MAX_VALUE) - 1);
+
+        final long[] statistics = poll(histogramTimer);
+
+        assertEquals(1L, statistics[0]);
+        assertEquals(0L, statistics[1]);
+        assertEquals(0L, statistics[MONITOR_COUNT - 1]);
+    }
+
+    @Test
+    public void testRecordWithTimeUnit() {
+        histogramTimer.record(2, SECONDS);
+
+        assertEquals(2000L, poll(histogramTimer)[MONITOR_COUNT - 1]);
+    }
+
+    @Test
+    public void testStart() {
+        final Stopwatch stopwatch = histogramTimer.start();
+        stopwatch.stop();
+
+        assertEquals(1L, poll(histogramTimer)[0]);
+    }
+
+    @Test
+    public void testRecordFromManyThreadsLosesNothing() throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final int thread = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+                    histogramTimer.record(thread * RECORDS_PER_THREAD + j);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final long[] statistics = poll(histogramTimer);
+
+        assertEquals(NUMBER_OF_THREADS * RECORDS_PER_THREAD, statistics[0]);
+        assertEquals(NUMBER_OF_THREADS * RECORDS_PER_THREAD - 1, statistics[MONITOR_COUNT - 1]);
+    }
+
+    @Test
+    public void testPollingWhileRecordingLosesNothing() throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+                    histogramTimer.record(j);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long count = 0;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                count += poll(histogramTimer)[0];
+            }
+        }
+        // A duration recorded into the array being snapshotted is left for the next snapshot of that array
+        count += poll(histogramTimer)[0];
+        count += poll(histogramTimer)[0];
+
+        assertEquals(NUMBER_OF_THREADS * RECORDS_PER_THREAD, count);
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        final HistogramTimer sameTimer = new HistogramTimer(monitorConfig, MILLISECONDS);
+        final HistogramTimer otherUnitTimer = new HistogramTimer(monitorConfig, TimeUnit.MICROSECONDS);
+        final HistogramTimer otherNameTimer = new HistogramTimer(MonitorConfig.builder("OTHER").build(), MILLISECONDS);
+
+        assertEquals(histogramTimer, histogramTimer);
+        assertEquals(histogramTimer, sameTimer);
+        assertEquals(histogramTimer.hashCode(), sameTimer.hashCode());
+        assertNotEquals(histogramTimer, otherUnitTimer);
+        assertNotEquals(histogramTimer, otherNameTimer);
+        assertFalse(histogramTimer.equals(null));
+        assertFalse(histogramTimer.equals(TIMER_NAME));
+    }
+
+    @Test
+    public void testToString() {
+        assertEquals("HistogramTimer{config=" + histogramTimer.getConfig() + ", timeUnit=MILLISECONDS}",
+                histogramTimer.toString());
+    }
+
+    @Test
+    public void testCheckAndClearUpdated() {
+        assertFalse(histogramTimer.checkAndClearUpdated());
+
+        histogramTimer.record(1);
+        histogramTimer.record(2);
+
+        assertTrue(histogramTimer.checkAndClearUpdated());
+        assertFalse(histogramTimer.checkAndClearUpdated());
+    }
+
+    private static String statisticName(int index) {
+        if (index == 0) {
+            return STATISTIC_COUNT;
+        }
+        return index == MONITOR_COUNT - 1 ? STATISTIC_MAX : STATISTIC_PERCENTILES[index - 1];
+    }
+
+    private static long[] poll(HistogramTimer timer) {
+        final List<Monitor<?>> monitors = timer.getMonitors();
+        final long[] statistics = new long[monitors.size()];
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i] = (Long) monitors.get(i).getValue();
+        }
+        return statistics;
+    }
+}
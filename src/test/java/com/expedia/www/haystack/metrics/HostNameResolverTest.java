@@ -0,0 +1,121 @@
+package com.expedia.www.haystack.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static com.expedia.www.haystack.metrics.HostNameResolver.HOST_NAME_ENVIRONMENT_VARIABLE;
+import static com.expedia.www.haystack.metrics.HostNameResolver.HOST_NAME_UNRESOLVED;
+import static com.expedia.www.haystack.metrics.HostNameResolver.LOOKUP_FAILED_MSG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HostNameResolverTest {
+    private static final Random RANDOM = new Random();
+    private static final String HOST_NAME = RANDOM.nextLong() + "HOST_NAME";
+    private static final String ENVIRONMENT_HOST_NAME = RANDOM.nextLong() + "ENVIRONMENT_HOST_NAME";
+    private static final long TIMEOUT_MILLIS = 50;
+    private static final Map<String, String> ENVIRONMENT_VARIABLES =
+            Collections.singletonMap(HOST_NAME_ENVIRONMENT_VARIABLE, ENVIRONMENT_HOST_NAME);
+
+    private final CountDownLatch lookupReleased = new CountDownLatch(1);
+
+    @Mock
+    private Logger mockLogger;
+
+    @After
+    public void tearDown() {
+        lookupReleased.countDown();
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    @Test
+    public void testGet() {
+        final HostNameResolver hostNameResolver = createResolver(() -> HOST_NAME, ENVIRONMENT_VARIABLES);
+
+        assertEquals(HOST_NAME, hostNameResolver.get());
+        assertEquals(HOST_NAME, hostNameResolver.get());
+    }
+
+    @Test
+    public void testGetFallsBackToTheEnvironmentWhenTheLookupIsSlow() {
+        final HostNameResolver hostNameResolver = createResolver(this::awaitRelease, ENVIRONMENT_VARIABLES);
+
+        assertEquals(ENVIRONMENT_HOST_NAME, hostNameResolver.get());
+        verify(mockLogger).warn(eq(String.format(LOOKUP_FAILED_MSG, TIMEOUT_MILLIS, ENVIRONMENT_HOST_NAME)),
+                any(TimeoutException.class));
+    }
+
+    @Test
+    public void testGetReturnsTheLookupOnceASlowLookupHasFinished() {
+        final HostNameResolver hostNameResolver = createResolver(this::awaitRelease, ENVIRONMENT_VARIABLES);
+        hostNameResolver.get();
+
+        lookupReleased.countDown();
+
+        assertEquals(HOST_NAME, getOnceLookedUp(hostNameResolver));
+        // The lookup might not quite have finished when it was released, in which case get() falls back again
+        verify(mockLogger, atLeastOnce()).warn(
+                eq(String.format(LOOKUP_FAILED_MSG, TIMEOUT_MILLIS, ENVIRONMENT_HOST_NAME)),
+                any(TimeoutException.class));
+    }
+
+    @Test
+    public void testGetFallsBackToAFixedNameWhenTheLookupFails() {
+        final HostNameResolver hostNameResolver = createResolver(() -> {
+            throw new IllegalStateException("Test");
+        }, Collections.singletonMap(HOST_NAME_ENVIRONMENT_VARIABLE, ""));
+
+        assertEquals(HOST_NAME_UNRESOLVED, hostNameResolver.get());
+        verify(mockLogger).warn(eq(String.format(LOOKUP_FAILED_MSG, TIMEOUT_MILLIS, HOST_NAME_UNRESOLVED)),
+                any(ExecutionException.class));
+    }
+
+    @Test
+    public void testGetWhenInterrupted() {
+        final HostNameResolver hostNameResolver = createResolver(this::awaitRelease, Collections.emptyMap());
+
+        Thread.currentThread().interrupt();
+        final String hostName = hostNameResolver.get();
+
+        assertTrue(Thread.interrupted());
+        assertEquals(HOST_NAME_UNRESOLVED, hostName);
+        verify(mockLogger).warn(eq(String.format(LOOKUP_FAILED_MSG, TIMEOUT_MILLIS, HOST_NAME_UNRESOLVED)),
+                any(InterruptedException.class));
+    }
+
+    private HostNameResolver createResolver(Callable<String> lookup, Map<String, String> environmentVariables) {
+        return new HostNameResolver(lookup, TIMEOUT_MILLIS, environmentVariables, mockLogger);
+    }
+
+    private String awaitRelease() throws InterruptedException {
+        lookupReleased.await();
+        return HOST_NAME;
+    }
+
+    private static String getOnceLookedUp(HostNameResolver hostNameResolver) {
+        final long deadline = System.currentTimeMillis() + 10000;
+        String hostName = hostNameResolver.get();
+        while (!HOST_NAME.equals(hostName) && System.currentTimeMillis() < deadline) {
+            hostName = hostNameResolver.get();
+        }
+        return hostName;
+    }
+}
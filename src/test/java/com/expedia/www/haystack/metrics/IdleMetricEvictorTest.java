@@ -0,0 +1,286 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.expedia.www.haystack.metrics.IdleMetricEvictor.EVICTED_MSG;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_TIER;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdleMetricEvictorTest {
+    private static final Random RANDOM = new Random();
+    private static final String METRIC_NAME = RANDOM.nextLong() + "METRIC_NAME";
+    private static final String SUBSYSTEM = RANDOM.nextLong() + "SUBSYSTEM";
+    private static final String TIER = RANDOM.nextLong() + "TIER";
+    private static final long INTERVAL = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final int IDLE_INTERVALS = 2;
+
+    @Mock
+    private MonitorRegistry mockMonitorRegistry;
+
+    @Mock
+    private MonitorRegistry mockTierMonitorRegistry;
+
+    @Mock
+    private CardinalityLimiter mockCardinalityLimiter;
+
+    @Mock
+    private PublishingScheduler mockPublishingScheduler;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Mock
+    private MetricObjects mockMetricObjects;
+
+    private ConcurrentMap<MonitorConfig, Counter> counters;
+    private ConcurrentMap<MonitorConfig, Timer> timers;
+
+    // Object under test
+    private IdleMetricEvictor idleMetricEvictor;
+
+    @Before
+    public void setUp() {
+        counters = new ConcurrentHashMap<>();
+        timers = new ConcurrentHashMap<>();
+        idleMetricEvictor = new IdleMetricEvictor(Arrays.asList(counters, timers),
+                tier -> tier == null ? mockMonitorRegistry : mockTierMonitorRegistry, mockCardinalityLimiter,
+                mockPublishingScheduler, mockLogger);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockMonitorRegistry, mockTierMonitorRegistry, mockCardinalityLimiter,
+                mockPublishingScheduler, mockLogger, mockMetricObjects);
+    }
+
+    @Test
+    public void testDefaultConstructor() {
+        final IdleMetricEvictor evictor = new IdleMetricEvictor(Collections.emptyList(), mockCardinalityLimiter);
+
+        evictor.evictIdleMetrics();
+
+        assertEquals(0, evictor.getEvictedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStartWithNonPositiveIdleIntervals() {
+        idleMetricEvictor.start(-RANDOM.nextInt(Integer.MAX_VALUE), INTERVAL, SECONDS);
+    }
+
+    @Test
+    public void testStartSchedulesOnlyOnce() {
+        when(mockPublishingScheduler.start()).thenReturn(true, false);
+
+        idleMetricEvictor.start(IDLE_INTERVALS, INTERVAL, SECONDS);
+        idleMetricEvictor.start(IDLE_INTERVALS, INTERVAL, SECONDS);
+
+        final ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockPublishingScheduler, times(2)).start();
+        verify(mockPublishingScheduler).schedule(runnable.capture(), eq(INTERVAL), eq(SECONDS));
+        counters.put(createMonitorConfig(null), new BasicCounter(createMonitorConfig(null)));
+        runnable.getValue().run();
+        assertEquals(1, counters.size());
+    }
+
+    @Test
+    public void testStop() {
+        idleMetricEvictor.stop();
+
+        verify(mockPublishingScheduler).stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEvictSubsystemOfThePublishingMetrics() {
+        idleMetricEvictor.evictSubsystem(PublishingMetrics.SUBSYSTEM);
+    }
+
+    @Test
+    public void testUpdateTrackingMetricIsEvictedAfterIdleIntervals() {
+        final MonitorConfig monitorConfig = createMonitorConfig(TIER);
+        final ResettingCounter counter = new ResettingCounter(monitorConfig);
+        counters.put(monitorConfig, counter);
+        idleMetricEvictor.evictSubsystem(SUBSYSTEM);
+        start();
+
+        idleMetricEvictor.evictIdleMetrics();
+        idleMetricEvictor.evictIdleMetrics();
+        counter.increment();
+        idleMetricEvictor.evictIdleMetrics();
+        idleMetricEvictor.evictIdleMetrics();
+        assertSame(counter, counters.get(monitorConfig));
+
+        idleMetricEvictor.evictIdleMetrics();
+
+        assertTrue(counters.isEmpty());
+        assertEquals(1, idleMetricEvictor.getEvictedCount());
+        verify(mockTierMonitorRegistry).unregister(counter);
+        verify(mockCardinalityLimiter).release(monitorConfig);
+        verify(mockLogger).info(String.format(EVICTED_MSG, 1, IDLE_INTERVALS));
+    }
+
+    @Test
+    public void testMetricThatCannotTrackUpdatesIsIdleWhileItsValueIsUnchanged() {
+        final MonitorConfig monitorConfig = createMonitorConfig(null);
+        final BasicCounter counter = new BasicCounter(monitorConfig);
+        counters.put(monitorConfig, counter);
+        // The monitor is unregistered while it is still in the map, so that no fresh instance can be unregistered
+        doAnswer(invocation -> {
+            assertSame(counter, counters.get(monitorConfig));
+            return null;
+        }).when(mockMonitorRegistry).unregister(counter);
+        idleMetricEvictor.evictSubsystem(SUBSYSTEM);
+        start();
+
+        idleMetricEvictor.evictIdleMetrics();
+        idleMetricEvictor.evictIdleMetrics();
+        counter.increment();
+        idleMetricEvictor.evictIdleMetrics();
+        idleMetricEvictor.evictIdleMetrics();
+        assertSame(counter, counters.get(monitorConfig));
+
+        idleMetricEvictor.evictIdleMetrics();
+
+        assertTrue(counters.isEmpty());
+        verify(mockMonitorRegistry).unregister(counter);
+        verify(mockCardinalityLimiter).release(monitorConfig);
+        verify(mockLogger).info(String.format(EVICTED_MSG, 1, IDLE_INTERVALS));
+    }
+
+    @Test
+    public void testOverflowMetricIsNotReleasedAndItsRejectedMetricsAreForgotten() {
+        final MonitorConfig monitorConfig = MonitorConfig.builder(CardinalityLimiter.OVERFLOW_METRIC_NAME)
+                .withTag(TAG_KEY_SUBSYSTEM, SUBSYSTEM).build();
+        final Timer timer = new UpdateTrackingBasicTimer(monitorConfig, MILLISECONDS);
+        final MonitorConfig rejectedMonitorConfig = createMonitorConfig(null);
+        final Counter counter = new BasicCounter(rejectedMonitorConfig);
+        timers.put(rejectedMonitorConfig, timer);
+        timers.put(monitorConfig, timer);
+        counters.put(rejectedMonitorConfig, counter);
+        idleMetricEvictor.evictSubsystem(SUBSYSTEM);
+        start();
+
+        for (int i = 0; i <= IDLE_INTERVALS; i++) {
+            counter.increment();
+            idleMetricEvictor.evictIdleMetrics();
+        }
+
+        assertTrue(timers.isEmpty());
+        assertSame(counter, counters.get(rejectedMonitorConfig));
+        verify(mockMonitorRegistry).unregister(timer);
+        verify(mockCardinalityLimiter).forgetRejection();
+        verify(mockLogger).info(String.format(EVICTED_MSG, 1, IDLE_INTERVALS));
+    }
+
+    @Test
+    public void testEvictedMetricsAreForgottenByMetricScopes() {
+        final MonitorConfig monitorConfig = createMonitorConfig(null);
+        final ResettingCounter counter = new ResettingCounter(monitorConfig);
+        final ResettingCounter freshCounter = new ResettingCounter(monitorConfig);
+        when(mockMetricObjects.createAndRegisterResettingCounter(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(counter, freshCounter);
+        final MetricScope metricScope = new MetricScope(mockMetricObjects, "SUBSYSTEM", "APPLICATION", "CLASS");
+        assertSame(counter, metricScope.resettingCounter(METRIC_NAME));
+        counters.put(monitorConfig, counter);
+        // A null scope stands in for one that has been garbage collected; the next registration removes it
+        idleMetricEvictor.register(null);
+        idleMetricEvictor.register(metricScope);
+        idleMetricEvictor.register(null);
+        start();
+
+        for (int i = 0; i <= IDLE_INTERVALS; i++) {
+            idleMetricEvictor.evictIdleMetrics();
+        }
+
+        final Monitor<?> lookedUp = metricScope.resettingCounter(METRIC_NAME);
+        assertNotSame(counter, lookedUp);
+        assertSame(freshCounter, lookedUp);
+        verify(mockMetricObjects, times(2)).createAndRegisterResettingCounter(
+                "SUBSYSTEM", "APPLICATION", "CLASS", METRIC_NAME);
+        verify(mockMonitorRegistry).unregister(counter);
+        verify(mockCardinalityLimiter).release(monitorConfig);
+        verify(mockLogger).info(String.format(EVICTED_MSG, 1, IDLE_INTERVALS));
+    }
+
+    @Test
+    public void testMetricsThatWereNotLookedUpThroughAScopeOrNamedAreNotEvicted() {
+        final MonitorConfig monitorConfig = createMonitorConfig(null);
+        final Counter counter = new BasicCounter(monitorConfig);
+        counters.put(monitorConfig, counter);
+        idleMetricEvictor.evictSubsystem(SUBSYSTEM + "OTHER");
+        start();
+
+        for (int i = 0; i <= IDLE_INTERVALS; i++) {
+            idleMetricEvictor.evictIdleMetrics();
+        }
+
+        assertSame(counter, counters.get(monitorConfig));
+        assertEquals(0, idleMetricEvictor.getEvictedCount());
+    }
+
+    @Test
+    public void testPublishingMetricsAreNotEvictedEvenWhenLookedUpThroughAScope() {
+        final MonitorConfig monitorConfig = MonitorConfig.builder(METRIC_NAME)
+                .withTag(TAG_KEY_SUBSYSTEM, PublishingMetrics.SUBSYSTEM).build();
+        final ResettingCounter counter = new ResettingCounter(monitorConfig);
+        when(mockMetricObjects.createAndRegisterResettingCounter(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(counter);
+        final MetricScope metricScope = new MetricScope(
+                mockMetricObjects, PublishingMetrics.SUBSYSTEM, "APPLICATION", "CLASS");
+        metricScope.resettingCounter(METRIC_NAME);
+        counters.put(monitorConfig, counter);
+        idleMetricEvictor.register(metricScope);
+        start();
+
+        for (int i = 0; i <= IDLE_INTERVALS; i++) {
+            idleMetricEvictor.evictIdleMetrics();
+        }
+
+        assertSame(counter, counters.get(monitorConfig));
+        verify(mockMetricObjects).createAndRegisterResettingCounter(
+                PublishingMetrics.SUBSYSTEM, "APPLICATION", "CLASS", METRIC_NAME);
+    }
+
+    private void start() {
+        idleMetricEvictor.start(IDLE_INTERVALS, INTERVAL, SECONDS);
+        verify(mockPublishingScheduler).start();
+    }
+
+    private static MonitorConfig createMonitorConfig(String tier) {
+        final MonitorConfig.Builder builder = MonitorConfig.builder(METRIC_NAME).withTag(TAG_KEY_SUBSYSTEM, SUBSYSTEM);
+        return tier == null ? builder.build() : builder.withTag(TAG_KEY_TIER, tier).build();
+    }
+}
@@ -0,0 +1,123 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.InfluxDbLineEncoder.MAX_VALUE_AND_TIMESTAMP_BYTES;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InfluxDbLineEncoderTest {
+    private static final Random RANDOM = new Random();
+    private static final String HOST_NAME = "localhost";
+    private static final long TIMESTAMP = RANDOM.nextInt(Integer.MAX_VALUE);
+
+    private MonitorConfig monitorConfig;
+    private Metric metric;
+
+    // Object under test
+    private InfluxDbLineEncoder influxDbLineEncoder;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder("REQUESTS").withTag("type", "COUNTER").withTag("subsystem", "pipes")
+                .build();
+        metric = new Metric(monitorConfig, TIMESTAMP, 42L);
+        influxDbLineEncoder = new InfluxDbLineEncoder(HOST_NAME);
+    }
+
+    @Test
+    public void testKeyBytesSortsTagsAndAddsHost() {
+        assertEquals("REQUESTS,host=localhost,subsystem=pipes,type=COUNTER value=", keyString(metric));
+    }
+
+    @Test
+    public void testKeyBytesKeepsHostTagOfMetric() {
+        final Metric hostMetric = new Metric(MonitorConfig.builder("N").withTag("host", "other").build(), 0, 0);
+
+        assertEquals("N,host=other value=", keyString(hostMetric));
+    }
+
+    @Test
+    public void testKeyBytesEscapes() {
+        final MonitorConfig config = MonitorConfig.builder("A B,C=D\nE")
+                .withTag("k e,y=", "v a,l=u\ne").build();
+
+        assertEquals("A\\ B\\,C=D\\ E,host=localhost,k\\ e\\,y\\==v\\ a\\,l\\=u\\ e value=",
+                keyString(new Metric(config, 0, 0)));
+    }
+
+    @Test
+    public void testKeyBytesIsCached() {
+        final byte[] keyBytes = influxDbLineEncoder.keyBytes(metric);
+
+        assertSame(keyBytes, influxDbLineEncoder.keyBytes(new Metric(monitorConfig, 0, 0)));
+        assertEquals(1, influxDbLineEncoder.getNameCacheSize());
+    }
+
+    @Test
+    public void testKeyBytesIsCachedForAnEqualConfig() {
+        // The rate transform builds a new, equal, MonitorConfig for each poll
+        final MonitorConfig equalConfig = MonitorConfig.builder(monitorConfig.getName())
+                .withTags(monitorConfig.getTags()).build();
+        final byte[] keyBytes = influxDbLineEncoder.keyBytes(metric);
+
+        assertSame(keyBytes, influxDbLineEncoder.keyBytes(new Metric(equalConfig, 0, 0)));
+        assertEquals(1, influxDbLineEncoder.getNameCacheSize());
+    }
+
+    @Test
+    public void testKeyBytesWhenNameCacheIsFull() {
+        influxDbLineEncoder = new InfluxDbLineEncoder(HOST_NAME, 0);
+
+        final byte[] keyBytes = influxDbLineEncoder.keyBytes(metric);
+        final byte[] uncachedKeyBytes = influxDbLineEncoder.keyBytes(metric);
+
+        assertArrayEquals(keyBytes, uncachedKeyBytes);
+        assertNotSame(keyBytes, uncachedKeyBytes);
+        assertEquals(0, influxDbLineEncoder.getNameCacheSize());
+    }
+
+    @Test
+    public void testEncode() {
+        final byte[] keyBytes = influxDbLineEncoder.keyBytes(metric);
+        final ByteBuffer buffer = ByteBuffer.allocate(influxDbLineEncoder.maxLength(keyBytes));
+
+        influxDbLineEncoder.encode(buffer, keyBytes, 1.5, TIMESTAMP);
+
+        assertEquals("REQUESTS,host=localhost,subsystem=pipes,type=COUNTER value=1.5 " + TIMESTAMP + '\n',
+                toString(buffer));
+        assertEquals(keyBytes.length + MAX_VALUE_AND_TIMESTAMP_BYTES, influxDbLineEncoder.maxLength(keyBytes));
+    }
+
+    @Test
+    public void testCanEncode() {
+        assertTrue(InfluxDbLineEncoder.canEncode(metric));
+        assertTrue(InfluxDbLineEncoder.canEncode(new Metric(monitorConfig, 0, 0.5)));
+        assertTrue(InfluxDbLineEncoder.canEncode(new Metric(monitorConfig, 0, 0.5f)));
+        assertFalse(InfluxDbLineEncoder.canEncode(new Metric(monitorConfig, 0, "value")));
+        assertFalse(InfluxDbLineEncoder.canEncode(new Metric(monitorConfig, 0, Double.NaN)));
+        assertFalse(InfluxDbLineEncoder.canEncode(new Metric(monitorConfig, 0, Float.POSITIVE_INFINITY)));
+    }
+
+    private String keyString(Metric metric) {
+        return new String(influxDbLineEncoder.keyBytes(metric), StandardCharsets.UTF_8);
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        buffer.flip();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
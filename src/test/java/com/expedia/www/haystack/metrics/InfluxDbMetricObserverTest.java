@@ -0,0 +1,244 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_INFLUXDB_BATCH_SIZE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_INFLUXDB_DATABASE;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.CONTENT_TYPE;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.GZIP;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.HTTP_ERROR_MSG;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.INITIAL_BUFFER_SIZE;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.OBSERVER_NAME_PREFIX;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.WRITE_FAILED_MSG;
+import static com.expedia.www.haystack.metrics.InfluxDbMetricObserver.WRITE_URL_FORMAT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InfluxDbMetricObserverTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+    private static final String HOST_NAME = "localhost";
+    private static final long TIMESTAMP = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final String QUERY = "db=" + DEFAULT_INFLUXDB_DATABASE + "&precision=ms";
+    private static final int BATCH_SIZE = 10;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    private FakeInfluxDb fakeInfluxDb;
+    private String writeUrl;
+
+    // Object under test
+    private InfluxDbMetricObserver influxDbMetricObserver;
+
+    @Before
+    public void setUp() throws IOException {
+        fakeInfluxDb = new FakeInfluxDb();
+        writeUrl = String.format(WRITE_URL_FORMAT, HOST, fakeInfluxDb.getPort(), DEFAULT_INFLUXDB_DATABASE);
+        influxDbMetricObserver = createObserver(false, DEFAULT_INFLUXDB_BATCH_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        fakeInfluxDb.close();
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    private InfluxDbMetricObserver createObserver(boolean gzip, int batchSize) {
+        return new InfluxDbMetricObserver(OBSERVER_NAME_PREFIX + PREFIX, writeUrl, new InfluxDbLineEncoder(HOST_NAME),
+                gzip, batchSize, mockLogger, mockPublishingMetrics);
+    }
+
+    @Test
+    public void testPublicConstructor() {
+        final InfluxDbMetricObserver observer = new InfluxDbMetricObserver(PREFIX, HOST, fakeInfluxDb.getPort(),
+                DEFAULT_INFLUXDB_DATABASE, HOST_NAME, false, DEFAULT_INFLUXDB_BATCH_SIZE);
+
+        assertEquals(OBSERVER_NAME_PREFIX + PREFIX, observer.getName());
+        assertEquals(writeUrl, observer.getWriteUrl());
+    }
+
+    @Test
+    public void testPublicConstructorEncodesTheDatabase() {
+        final InfluxDbMetricObserver observer = new InfluxDbMetricObserver(PREFIX, HOST, fakeInfluxDb.getPort(),
+                "my db&x=\u00fc~AZaz09-._", HOST_NAME, false, DEFAULT_INFLUXDB_BATCH_SIZE);
+
+        observer.update(createMetrics(1));
+
+        assertEquals("db=my%20db%26x%3D%C3%BC~AZaz09-._&precision=ms", fakeInfluxDb.getRequests().get(0).query);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchSizeMustBePositive() {
+        createObserver(false, 0);
+    }
+
+    @Test
+    public void testUpdate() {
+        final List<Metric> metrics = Arrays.asList(
+                new Metric(MonitorConfig.builder("REQUESTS").withTag("subsystem", "pipes").build(), TIMESTAMP, 42L),
+                new Metric(MonitorConfig.builder("NOT_A_NUMBER").build(), TIMESTAMP, "value"),
+                new Metric(MonitorConfig.builder("NOT_FINITE").build(), TIMESTAMP, Double.NaN),
+                new Metric(MonitorConfig.builder("LATENCY").build(), TIMESTAMP, 1.5));
+
+        influxDbMetricObserver.update(metrics);
+
+        final List<String> expectedLines = Arrays.asList(
+                "REQUESTS,host=localhost,subsystem=pipes value=42 " + TIMESTAMP,
+                "LATENCY,host=localhost value=1.5 " + TIMESTAMP);
+        assertEquals(1, fakeInfluxDb.getRequests().size());
+        final FakeInfluxDb.Request request = fakeInfluxDb.getRequests().get(0);
+        assertEquals("POST", request.method);
+        assertEquals(QUERY, request.query);
+        assertEquals(CONTENT_TYPE, request.contentType);
+        assertNull(request.contentEncoding);
+        assertEquals(expectedLines, request.lines);
+        final long byteCount = expectedLines.get(0).length() + expectedLines.get(1).length() + 2;
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), anyLong(), eq(byteCount));
+    }
+
+    @Test
+    public void testUpdateSendsNothingWhenThereIsNothingToSend() {
+        influxDbMetricObserver.update(Collections.emptyList());
+
+        assertTrue(fakeInfluxDb.getRequests().isEmpty());
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), eq(0L), eq(0L));
+    }
+
+    @Test
+    public void testUpdateSendsBatchesOverOneConnection() {
+        influxDbMetricObserver = createObserver(false, BATCH_SIZE);
+        final List<Metric> metrics = createMetrics(25);
+
+        influxDbMetricObserver.update(metrics);
+        influxDbMetricObserver.update(metrics);
+
+        assertEquals(6, fakeInfluxDb.getRequests().size());
+        assertEquals(BATCH_SIZE, fakeInfluxDb.getRequests().get(0).lines.size());
+        assertEquals(5, fakeInfluxDb.getRequests().get(2).lines.size());
+        assertEquals(50, fakeInfluxDb.getLines().size());
+        assertEquals(1, fakeInfluxDb.getConnectionCount());
+        verify(mockPublishingMetrics, times(2)).recordUpdate(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testUpdateReadsResponseToKeepConnection() {
+        fakeInfluxDb.respondWith(200, "{\"results\":[]}");
+        final List<Metric> metrics = createMetrics(1);
+
+        influxDbMetricObserver.update(metrics);
+        influxDbMetricObserver.update(metrics);
+
+        assertEquals(2, fakeInfluxDb.getRequests().size());
+        assertEquals(1, fakeInfluxDb.getConnectionCount());
+        verify(mockPublishingMetrics, times(2)).recordUpdate(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testUpdateWithGzip() {
+        influxDbMetricObserver = createObserver(true, DEFAULT_INFLUXDB_BATCH_SIZE);
+        final List<Metric> metrics = createMetrics(1000);
+
+        influxDbMetricObserver.update(metrics);
+
+        final FakeInfluxDb.Request request = fakeInfluxDb.getRequests().get(0);
+        assertEquals(GZIP, request.contentEncoding);
+        assertEquals(metrics.size(), request.lines.size());
+        assertEquals("METRIC_999,host=localhost value=999 " + TIMESTAMP, request.lines.get(999));
+        final ArgumentCaptor<Long> bytes = ArgumentCaptor.forClass(Long.class);
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), anyLong(), bytes.capture());
+        assertTrue(bytes.getValue() < 20 * metrics.size());
+    }
+
+    @Test
+    public void testUpdateGrowsBufferForLargeBatch() {
+        final List<Metric> metrics = createMetrics(5000);
+
+        influxDbMetricObserver.update(metrics);
+
+        assertEquals(1, fakeInfluxDb.getRequests().size());
+        assertEquals(metrics.size(), fakeInfluxDb.getLines().size());
+        assertTrue(influxDbMetricObserver.getBufferCapacity() > INITIAL_BUFFER_SIZE);
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testUpdateWhenInfluxDbAnswersWithError() {
+        fakeInfluxDb.respondWith(400, "{\"error\":\"field type conflict\"}\n");
+        final List<Metric> metrics = createMetrics(25);
+
+        influxDbMetricObserver.update(metrics);
+        fakeInfluxDb.respondWith(204, null);
+        influxDbMetricObserver.update(metrics);
+
+        assertEquals(1, influxDbMetricObserver.getFailedUpdateCount());
+        assertEquals(50, fakeInfluxDb.getLines().size());
+        final IOException exception = verifyWriteFailed(metrics.size());
+        assertEquals(String.format(HTTP_ERROR_MSG, 400, "{\"error\":\"field type conflict\"}"),
+                exception.getMessage());
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testUpdateWhenInfluxDbAnswersWithErrorWithoutBody() {
+        fakeInfluxDb.respondWith(503, null);
+
+        influxDbMetricObserver.update(createMetrics(1));
+
+        assertEquals(1, influxDbMetricObserver.getFailedUpdateCount());
+        final IOException exception = verifyWriteFailed(1);
+        assertEquals(String.format(HTTP_ERROR_MSG, 503, "Service Unavailable"), exception.getMessage());
+    }
+
+    @Test
+    public void testUpdateWhenInfluxDbIsUnreachable() {
+        fakeInfluxDb.close();
+
+        influxDbMetricObserver.update(createMetrics(1));
+
+        assertEquals(1, influxDbMetricObserver.getFailedUpdateCount());
+        verifyWriteFailed(1);
+    }
+
+    private IOException verifyWriteFailed(int metricCount) {
+        final ArgumentCaptor<IOException> exception = ArgumentCaptor.forClass(IOException.class);
+        verify(mockLogger).warn(eq(String.format(WRITE_FAILED_MSG, metricCount, writeUrl)), exception.capture());
+        verify(mockPublishingMetrics).recordSendFailure();
+        return exception.getValue();
+    }
+
+    private static List<Metric> createMetrics(int count) {
+        final List<Metric> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            metrics.add(new Metric(MonitorConfig.builder("METRIC_" + i).build(), TIMESTAMP, (long) i));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,68 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BasicMetricFilter;
+import com.netflix.servo.publish.MetricPoller;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InstrumentedMetricPollerTest {
+    private static final List<Metric> METRICS = Arrays.asList(
+            new Metric(MonitorConfig.builder("COUNTER").build(), 0, 1L),
+            new Metric(MonitorConfig.builder("TIMER").build(), 0, 2L));
+
+    @Mock
+    private MetricPoller mockMetricPoller;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    // Object under test
+    private InstrumentedMetricPoller instrumentedMetricPoller;
+
+    @Before
+    public void setUp() {
+        instrumentedMetricPoller = new InstrumentedMetricPoller(mockMetricPoller, mockPublishingMetrics);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockMetricPoller, mockPublishingMetrics);
+    }
+
+    @Test
+    public void testPoll() {
+        when(mockMetricPoller.poll(BasicMetricFilter.MATCH_ALL, false)).thenReturn(METRICS);
+
+        assertSame(METRICS, instrumentedMetricPoller.poll(BasicMetricFilter.MATCH_ALL));
+
+        verify(mockMetricPoller).poll(BasicMetricFilter.MATCH_ALL, false);
+        verify(mockPublishingMetrics).recordPoll(anyLong(), eq(METRICS.size()));
+    }
+
+    @Test
+    public void testPollWithReset() {
+        when(mockMetricPoller.poll(BasicMetricFilter.MATCH_ALL, true)).thenReturn(METRICS);
+
+        assertSame(METRICS, instrumentedMetricPoller.poll(BasicMetricFilter.MATCH_ALL, true));
+
+        verify(mockMetricPoller).poll(BasicMetricFilter.MATCH_ALL, true);
+        verify(mockPublishingMetrics).recordPoll(anyLong(), eq(METRICS.size()));
+    }
+}
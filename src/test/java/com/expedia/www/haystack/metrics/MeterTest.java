@@ -0,0 +1,259 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.TagList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.Meter.STATISTIC_RATE_15M;
+import static com.expedia.www.haystack.metrics.Meter.STATISTIC_RATE_1M;
+import static com.expedia.www.haystack.metrics.Meter.STATISTIC_RATE_5M;
+import static com.expedia.www.haystack.metrics.Meter.STATISTIC_WINDOW_COUNT;
+import static com.expedia.www.haystack.metrics.Meter.TICK_NANOS;
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MeterTest {
+    private static final Random RANDOM = new Random();
+    private static final String METER_NAME = RANDOM.nextLong() + "METER_NAME";
+    private static final int POLLER_INDEX = RANDOM.nextInt();
+    private static final String[] STATISTICS = {
+            STATISTIC_RATE_1M, STATISTIC_RATE_5M, STATISTIC_RATE_15M, STATISTIC_WINDOW_COUNT};
+    private static final double DELTA = 1e-9;
+    private static final int NUMBER_OF_THREADS = 16;
+    private static final int INCREMENTS_PER_THREAD = 10000;
+
+    private MonitorConfig monitorConfig;
+    private long nanos;
+    private Runnable onClockRead;
+
+    // Object under test
+    private Meter meter;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder(METER_NAME).build();
+        nanos = RANDOM.nextLong();
+        meter = new Meter(monitorConfig, 1, MINUTES, this::readClock);
+    }
+
+    @Test
+    public void testPublicConstructors() {
+        assertEquals(12, new Meter(monitorConfig).getWindowTicks());
+        assertEquals(1, new Meter(monitorConfig, 1, SECONDS).getWindowTicks());
+        assertEquals(3, new Meter(monitorConfig, 11, SECONDS).getWindowTicks());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveWindow() {
+        new Meter(monitorConfig, 0, SECONDS);
+    }
+
+    @Test
+    public void testGetMonitors() {
+        final List<Monitor<?>> monitors = meter.getMonitors();
+
+        assertEquals(STATISTICS.length, monitors.size());
+        for (int i = 0; i < STATISTICS.length; i++) {
+            final TagList tags = monitors.get(i).getConfig().getTags();
+            assertEquals(METER_NAME, monitors.get(i).getConfig().getName());
+            assertEquals(DataSourceType.GAUGE.getValue(), tags.getValue(DataSourceType.KEY));
+            assertEquals(STATISTICS[i], tags.getValue(TAG_KEY_STATISTIC));
+        }
+    }
+
+    @Test
+    public void testNothingIsFoldedInBeforeTheFirstTick() {
+        meter.increment();
+        meter.increment(4);
+        nanos += TICK_NANOS - 1;
+
+        assertEquals(5L, meter.getCount());
+        assertEquals(5L, meter.getValue(POLLER_INDEX));
+        assertEquals(5L, meter.getWindowCount());
+        assertEquals(0.0, meter.getOneMinuteRate(), DELTA);
+        assertEquals(0.0, meter.getFiveMinuteRate(), DELTA);
+        assertEquals(0.0, meter.getFifteenMinuteRate(), DELTA);
+    }
+
+    @Test
+    public void testFirstTickStartsTheAveragesAtItsRate() {
+        meter.increment(50);
+        nanos += TICK_NANOS;
+
+        assertEquals(10.0, meter.getOneMinuteRate(), DELTA);
+        assertEquals(10.0, meter.getFiveMinuteRate(), DELTA);
+        assertEquals(10.0, meter.getFifteenMinuteRate(), DELTA);
+        assertEquals(50L, meter.getWindowCount());
+    }
+
+    @Test
+    public void testRatesDecayExponentially() {
+        meter.increment(50);
+        nanos += TICK_NANOS;
+        meter.getOneMinuteRate();
+
+        // Twelve idle ticks are one minute, which decays the one minute rate by a factor of e
+        nanos += 12 * TICK_NANOS;
+
+        assertEquals(10.0 / Math.E, meter.getOneMinuteRate(), DELTA);
+        assertEquals(10.0 / Math.exp(1.0 / 5), meter.getFiveMinuteRate(), DELTA);
+        assertEquals(10.0 / Math.exp(1.0 / 15), meter.getFifteenMinuteRate(), DELTA);
+    }
+
+    @Test
+    public void testRatesConvergeOnAConstantRate() {
+        meter.increment(5);
+        nanos += TICK_NANOS;
+        meter.getOneMinuteRate();
+        for (int i = 0; i < 12 * 60; i++) {
+            meter.increment(100);
+            nanos += TICK_NANOS;
+        }
+
+        assertEquals(20.0, meter.getOneMinuteRate(), DELTA);
+        assertEquals(20.0, meter.getFiveMinuteRate(), 1e-3);
+        assertTrue(meter.getFifteenMinuteRate() > 19.0);
+    }
+
+    @Test
+    public void testWindowCountRolls() {
+        for (int i = 0; i < 12; i++) {
+            meter.increment(i + 1);
+            nanos += TICK_NANOS;
+        }
+        assertEquals(78L, meter.getWindowCount());
+
+        nanos += TICK_NANOS;
+        assertEquals(77L, meter.getWindowCount());
+
+        nanos += 5 * TICK_NANOS;
+        meter.increment(100);
+        assertEquals(57L + 100L, meter.getWindowCount());
+
+        // Events folded in after several idle ticks are counted in the newest tick
+        nanos += 12 * TICK_NANOS;
+        assertEquals(100L, meter.getWindowCount());
+
+        nanos += 12 * TICK_NANOS;
+        assertEquals(0L, meter.getWindowCount());
+    }
+
+    @Test
+    public void testTicksAreAlignedToTheFirstTick() {
+        nanos += TICK_NANOS + TICK_NANOS / 2;
+        meter.increment(10);
+        nanos += TICK_NANOS / 2;
+
+        // The first tick (with no events) ended 1 tick after the Meter was created, and the events fall into the second
+        assertEquals(2.0 * (1 - Math.exp(-5.0 / 60)), meter.getOneMinuteRate(), DELTA);
+    }
+
+    @Test
+    public void testOnlyOneThreadTicks() {
+        meter.increment(50);
+        nanos += TICK_NANOS;
+        // Another thread ticks between this thread reading the last tick and trying to move it on
+        onClockRead = () -> {
+            onClockRead = null;
+            meter.increment();
+        };
+
+        assertEquals(10.0, meter.getOneMinuteRate(), DELTA);
+        assertEquals(51L, meter.getWindowCount());
+    }
+
+    @Test
+    public void testStatisticGauges() {
+        meter.increment(50);
+        nanos += TICK_NANOS;
+        meter.increment(3);
+
+        final List<Monitor<?>> monitors = meter.getMonitors();
+
+        assertEquals(10.0, (Double) monitors.get(0).getValue(), DELTA);
+        assertEquals(10.0, (Double) monitors.get(1).getValue(), DELTA);
+        assertEquals(10.0, (Double) monitors.get(2).getValue(), DELTA);
+        assertEquals(53L, monitors.get(3).getValue());
+    }
+
+    @Test
+    public void testIncrementFromManyThreadsLosesNothing() throws InterruptedException {
+        final Meter realClockMeter = new Meter(monitorConfig);
+        final List<Thread> threads = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < INCREMENTS_PER_THREAD; j++) {
+                    realClockMeter.increment();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals((long) NUMBER_OF_THREADS * INCREMENTS_PER_THREAD, realClockMeter.getCount());
+        assertEquals((long) NUMBER_OF_THREADS * INCREMENTS_PER_THREAD, realClockMeter.getWindowCount());
+    }
+
+    @Test
+    public void testCheckAndClearUpdated() {
+        assertFalse(meter.checkAndClearUpdated());
+
+        meter.increment();
+        meter.increment();
+
+        assertTrue(meter.checkAndClearUpdated());
+        assertFalse(meter.checkAndClearUpdated());
+    }
+
+    @Test
+    public void testEquals() {
+        assertEquals(meter, meter);
+        assertNotEquals(meter, null);
+        assertNotEquals(meter, "Object that is not an instance of Meter");
+        final Meter otherMeter = new Meter(monitorConfig);
+        assertEquals(meter, otherMeter);
+        otherMeter.increment();
+        assertNotEquals(meter, otherMeter);
+        assertNotEquals(meter, new Meter(MonitorConfig.builder("").build()));
+    }
+
+    @Test
+    public void testHashCode() {
+        meter.increment(7);
+        final Meter otherMeter = new Meter(monitorConfig);
+        otherMeter.increment(7);
+        assertEquals(otherMeter.hashCode(), meter.hashCode());
+        otherMeter.increment();
+        assertNotEquals(otherMeter.hashCode(), meter.hashCode());
+    }
+
+    @Test
+    public void testToString() {
+        meter.increment(7);
+
+        assertEquals("Meter{config=" + monitorConfig + ", count=7}", meter.toString());
+    }
+
+    private long readClock() {
+        if (onClockRead != null) {
+            onClockRead.run();
+        }
+        return nanos;
+    }
+}
@@ -20,7 +20,9 @@ import com.netflix.servo.DefaultMonitorRegistry;
 import com.netflix.servo.MonitorRegistry;
 import com.netflix.servo.annotations.DataSourceType;
 import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.BasicTimer;
 import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Gauge;
 import com.netflix.servo.monitor.Monitor;
 import com.netflix.servo.monitor.Timer;
 import com.netflix.servo.tag.TagList;
@@ -41,10 +43,19 @@ import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_FULLY_QUALI
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_LINE_NUMBER;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_METRIC_GROUP;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_TIER;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -59,6 +70,7 @@ public class MetricObjectsTest {
     private static final String CLASS = RANDOM.nextLong() + "CLASS";
     private static final String LINE_NUMBER = Integer.toString(RANDOM.nextInt(Integer.MAX_VALUE));
     private static final String METRIC_NAME = RANDOM.nextLong() + "METRIC_NAME";
+    private static final String TIER = RANDOM.nextLong() + "TIER";
     private static final long [] BUCKETS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
 
     @Mock
@@ -70,12 +82,16 @@ public class MetricObjectsTest {
     @Mock
     private Logger mockLogger;
 
+    private CardinalityLimiter cardinalityLimiter;
+
     // Objects under test
     private MetricObjects metricObjects;
     private MetricObjects.Factory factory;
 
     @Before
     public void setUp() {
+        cardinalityLimiter = new CardinalityLimiter(mockMonitorRegistry, mockLogger, 1);
+        when(mockFactory.getCardinalityLimiter()).thenReturn(cardinalityLimiter);
         metricObjects = new MetricObjects(mockFactory, mockLogger);
         factory = new MetricObjects.Factory();
     }
@@ -85,6 +101,10 @@ public class MetricObjectsTest {
         MetricObjects.BASIC_COUNTERS.clear();
         MetricObjects.RESETTING_NON_RATE_COUNTERS.clear();
         MetricObjects.TIMERS.clear();
+        MetricObjects.METERS.clear();
+        MetricObjects.GAUGES.clear();
+        MetricObjects.TIER_REGISTRIES.clear();
+        verify(mockFactory).getCardinalityLimiter();
         verifyNoMoreInteractions(mockFactory, mockMonitorRegistry, mockLogger);
     }
 
@@ -179,6 +199,92 @@ public class MetricObjectsTest {
         assertTrue(counter instanceof ResettingCounter);
     }
 
+    @Test
+    public void testCreateMetricScope() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        final MetricScope metricScope = metricObjects.createMetricScope(SUBSYSTEM, APPLICATION, CLASS);
+
+        final Counter counter = metricScope.counter(METRIC_NAME);
+
+        assertSame(counter, metricScope.counter(METRIC_NAME));
+        assertSame(counter, metricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME));
+        verify(mockLogger).warn(String.format(MetricObjects.COUNTER_ALREADY_REGISTERED, counter));
+        assertsAndVerifiesForCreateAndRegisterCounter(counter);
+    }
+
+    @Test
+    public void testIdleMetricsAreEvictedAndCreatedAfresh() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        final MetricScope metricScope = metricObjects.createMetricScope(SUBSYSTEM, APPLICATION, CLASS);
+        final Counter counter = metricScope.counter(METRIC_NAME);
+        final IdleMetricEvictor idleMetricEvictor = MetricObjects.getIdleMetricEvictor();
+        final long evictedCount = idleMetricEvictor.getEvictedCount();
+        idleMetricEvictor.start(1, 1, HOURS);
+        try {
+            idleMetricEvictor.evictIdleMetrics();
+            idleMetricEvictor.evictIdleMetrics();
+        } finally {
+            idleMetricEvictor.stop();
+        }
+
+        final Counter freshCounter = metricScope.counter(METRIC_NAME);
+
+        assertNotSame(counter, freshCounter);
+        assertSame(freshCounter, metricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME));
+        assertEquals(evictedCount + 1, idleMetricEvictor.getEvictedCount());
+        verify(mockLogger).warn(String.format(MetricObjects.COUNTER_ALREADY_REGISTERED, freshCounter));
+        // The two counters are equal, both being unused, so Mockito cannot tell their registrations apart
+        verify(mockMonitorRegistry, times(2)).register(freshCounter);
+        verify(mockFactory, times(2)).getMonitorRegistry();
+    }
+
+    @Test
+    public void testCreateAndRegisterStripedResettingCounter() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Counter counter = metricObjects.createAndRegisterStripedResettingCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertsAndVerifiesForCreateAndRegister(counter, 4);
+        assertTrue(counter instanceof StripedResettingCounter);
+    }
+
+    @Test
+    public void testCreateAndRegisterThreadLocalCounter() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Counter counter = metricObjects.createAndRegisterThreadLocalCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertsAndVerifiesForCreateAndRegister(counter, 4);
+        assertTrue(counter instanceof ThreadLocalResettingCounter);
+    }
+
+    @Test
+    public void testCreateAndRegisterStripedResettingCounterWhenResettingCounterExists() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Counter counter = metricObjects.createAndRegisterResettingCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+        final Counter existingCounter = metricObjects.createAndRegisterStripedResettingCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertSame(counter, existingCounter);
+        verify(mockLogger).warn(String.format(MetricObjects.COUNTER_ALREADY_REGISTERED, existingCounter));
+        assertsAndVerifiesForCreateAndRegisterResettingCounter(counter);
+    }
+
+    @Test
+    public void testCreateAndRegisterStripedResettingCounterErrorType() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Counter counter = metricObjects.createAndRegisterStripedResettingCounter(
+                METRIC_GROUP, SUBSYSTEM, FULLY_QUALIFIED_CLASS_NAME, LINE_NUMBER, METRIC_NAME);
+
+        assertsAndVerifiesForCreateAndRegisterErrorType(counter);
+        assertTrue(counter instanceof StripedResettingCounter);
+    }
+
     @Test
     public void testCreateAndRegisterBasicTimer() {
         when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
@@ -203,6 +309,42 @@ public class MetricObjectsTest {
         assertsAndVerifiesForCreateAndRegister(timer, 3);
     }
 
+    @Test
+    public void testCreateAndRegisterHistogramTimer() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Timer timer = metricObjects.createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+
+        assertsAndVerifiesForCreateAndRegister(timer, 4);
+        assertTrue(timer instanceof HistogramTimer);
+    }
+
+    @Test
+    public void testCreateAndRegisterThreadLocalTimer() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Timer timer = metricObjects.createAndRegisterThreadLocalTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+
+        assertsAndVerifiesForCreateAndRegister(timer, 4);
+        assertTrue(timer instanceof ThreadLocalTimer);
+    }
+
+    @Test
+    public void testCreateAndRegisterExistingHistogramTimer() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Timer timer = metricObjects.createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+        final Timer existingTimer = metricObjects.createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+
+        assertSame(timer, existingTimer);
+        verify(mockLogger).warn(String.format(MetricObjects.TIMER_ALREADY_REGISTERED, existingTimer));
+        assertsAndVerifiesForCreateAndRegister(timer, 4);
+    }
+
     @Test
     public void testCreateAndRegisterBucketTimer() {
         when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
@@ -227,6 +369,117 @@ public class MetricObjectsTest {
         assertsAndVerifiesForCreateAndRegisterBucketType(timer);
     }
 
+    @Test
+    public void testRegisterGauge() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        final int value = RANDOM.nextInt();
+
+        final Gauge<Integer> gauge = metricObjects.registerGauge(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> value);
+
+        assertEquals(value, (int) gauge.getValue());
+        assertEquals(DataSourceType.GAUGE.getValue(), gauge.getConfig().getTags().getValue(DataSourceType.KEY));
+        assertsAndVerifiesForCreateAndRegister(gauge, 4);
+    }
+
+    @Test
+    public void testRegisterGaugeReplacesExistingGauge() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Gauge<Integer> gauge = metricObjects.registerGauge(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> 1);
+        final Gauge<Integer> replacingGauge = metricObjects.registerGauge(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> 2);
+
+        assertEquals(2, (int) replacingGauge.getValue());
+        verify(mockMonitorRegistry).register(gauge);
+        verify(mockMonitorRegistry).unregister(gauge);
+        verify(mockMonitorRegistry).register(replacingGauge);
+        verify(mockFactory, times(3)).getMonitorRegistry();
+    }
+
+    @Test
+    public void testCreateAndRegisterMeter() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Meter meter = metricObjects.createAndRegisterMeter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertEquals(12, meter.getWindowTicks());
+        assertsAndVerifiesForCreateAndRegister(meter, 3);
+    }
+
+    @Test
+    public void testCreateAndRegisterExistingMeter() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Meter meter = metricObjects.createAndRegisterMeter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, 5, MINUTES);
+        final Meter existingMeter = metricObjects.createAndRegisterMeter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertSame(meter, existingMeter);
+        assertEquals(60, existingMeter.getWindowTicks());
+        verify(mockLogger).warn(String.format(MetricObjects.METER_ALREADY_REGISTERED, meter));
+        assertsAndVerifiesForCreateAndRegister(meter, 3);
+    }
+
+    @Test
+    public void testCreateAndRegisterGauge() throws InterruptedException {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        final int value = RANDOM.nextInt();
+
+        final Gauge<Integer> gauge = metricObjects.createAndRegisterGauge(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> value, 1, HOURS);
+
+        assertTrue(gauge instanceof CachedGauge);
+        assertEquals(value, (int) awaitValue(gauge));
+        assertEquals(DataSourceType.GAUGE.getValue(), gauge.getConfig().getTags().getValue(DataSourceType.KEY));
+        assertsAndVerifiesForCreateAndRegister(gauge, 4);
+    }
+
+    @Test
+    public void testCreateAndRegisterLongGauge() throws InterruptedException {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        final long value = RANDOM.nextLong();
+
+        final Gauge<Long> gauge = metricObjects.createAndRegisterLongGauge(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> value, 1, HOURS);
+
+        assertEquals(value, (long) awaitValue(gauge));
+        assertsAndVerifiesForCreateAndRegister(gauge, 4);
+    }
+
+    @Test
+    public void testCreateAndRegisterDoubleGauge() throws InterruptedException {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        final double value = RANDOM.nextDouble();
+
+        final Gauge<Double> gauge = metricObjects.createAndRegisterDoubleGauge(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> value, 1, HOURS);
+
+        assertEquals(value, awaitValue(gauge), 0.0);
+        assertsAndVerifiesForCreateAndRegister(gauge, 4);
+    }
+
+    @Test
+    public void testCreateAndRegisterGaugeReplacesExistingGauge() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+
+        final Gauge<Integer> gauge = metricObjects.registerGauge(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> 1);
+        final Gauge<Long> replacingGauge = metricObjects.createAndRegisterLongGauge(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, () -> 2L, 1, HOURS);
+
+        verify(mockMonitorRegistry).register(gauge);
+        verify(mockMonitorRegistry).unregister(gauge);
+        verify(mockMonitorRegistry).register(replacingGauge);
+        verify(mockFactory, times(3)).getMonitorRegistry();
+    }
+
+    private static <T extends Number> T awaitValue(Gauge<T> gauge) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (gauge.getValue() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return gauge.getValue();
+    }
+
     private void assertsAndVerifiesForCreateAndRegister(Monitor<?> monitor, int expectedTagListSize) {
         final TagList tagList = monitor.getConfig().getTags();
         assertEquals(expectedTagListSize, tagList.size());
@@ -260,6 +513,118 @@ public class MetricObjectsTest {
         verify(mockFactory).getMonitorRegistry();
     }
 
+    @Test
+    public void testForTier() {
+        when(mockFactory.getMonitorRegistry(TIER)).thenReturn(mockMonitorRegistry);
+        final MetricObjects tierMetricObjects = metricObjects.forTier(TIER);
+
+        final Counter counter = tierMetricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertNull(metricObjects.getTier());
+        assertEquals(TIER, tierMetricObjects.getTier());
+        assertEquals(TIER, counter.getConfig().getTags().getValue(TAG_KEY_TIER));
+        assertEquals(5, counter.getConfig().getTags().size());
+        verify(mockMonitorRegistry).register(counter);
+        verify(mockFactory).getMonitorRegistry(TIER);
+    }
+
+    @Test
+    public void testForTierErrorsAndBuckets() {
+        when(mockFactory.getMonitorRegistry(TIER)).thenReturn(mockMonitorRegistry);
+        final MetricObjects tierMetricObjects = metricObjects.forTier(TIER);
+
+        final Counter counter = tierMetricObjects.createAndRegisterResettingCounter(
+                METRIC_GROUP, SUBSYSTEM, FULLY_QUALIFIED_CLASS_NAME, LINE_NUMBER, METRIC_NAME);
+        final Timer timer = tierMetricObjects.createAndRegisterBucketTimer(
+                SUBSYSTEM, APPLICATION, METRIC_NAME, MILLISECONDS, BUCKETS);
+
+        assertEquals(TIER, counter.getConfig().getTags().getValue(TAG_KEY_TIER));
+        assertEquals(TIER, timer.getConfig().getTags().getValue(TAG_KEY_TIER));
+        verify(mockMonitorRegistry).register(counter);
+        verify(mockMonitorRegistry).register(timer);
+        verify(mockFactory, times(2)).getMonitorRegistry(TIER);
+    }
+
+    @Test
+    public void testForTierCreatesMetricsDistinctFromDefaultTier() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        when(mockFactory.getMonitorRegistry(TIER)).thenReturn(mockMonitorRegistry);
+
+        final Timer timer = metricObjects.createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+        final Timer tierTimer = metricObjects.forTier(TIER).createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+
+        assertNotSame(timer, tierTimer);
+        verify(mockMonitorRegistry).register(timer);
+        verify(mockMonitorRegistry).register(tierTimer);
+        verify(mockFactory).getMonitorRegistry();
+        verify(mockFactory).getMonitorRegistry(TIER);
+    }
+
+    @Test
+    public void testGetMonitorRegistryOfTier() {
+        final MonitorRegistry monitorRegistry = MetricObjects.getMonitorRegistry(TIER);
+
+        assertSame(DefaultMonitorRegistry.getInstance(), MetricObjects.getMonitorRegistry(null));
+        assertNotSame(DefaultMonitorRegistry.getInstance(), monitorRegistry);
+        assertEquals(TierMonitorRegistry.class, monitorRegistry.getClass());
+        assertSame(monitorRegistry, MetricObjects.getMonitorRegistry(TIER));
+        assertSame(monitorRegistry, factory.getMonitorRegistry(TIER));
+    }
+
+    @Test
+    public void testCardinalityLimitFoldsNewMetricsIntoOverflowMetric() {
+        when(mockFactory.getMonitorRegistry()).thenReturn(mockMonitorRegistry);
+        cardinalityLimiter.setLimits(CardinalityLimiter.UNLIMITED, 1);
+
+        final Counter counter = metricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+        final Counter overflowCounter = metricObjects.createAndRegisterCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME + 1);
+        final Timer overflowTimer = metricObjects.createAndRegisterBasicTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+
+        assertSame(overflowCounter, metricObjects.createAndRegisterCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME + 2));
+        assertSame(overflowCounter, metricObjects.createAndRegisterCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME + 1));
+        assertSame(overflowCounter, metricObjects.createAndRegisterCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME + 2));
+        assertEquals(CardinalityLimiter.OVERFLOW_METRIC_NAME, overflowCounter.getConfig().getName());
+        assertEquals(SUBSYSTEM, overflowCounter.getConfig().getTags().getValue(TAG_KEY_SUBSYSTEM));
+        assertEquals(CardinalityLimiter.OVERFLOW_TAG_VALUE, overflowCounter.getConfig().getTags().getValue(TAG_KEY_CLASS));
+        assertEquals(CardinalityLimiter.OVERFLOW_METRIC_NAME, overflowTimer.getConfig().getName());
+        assertTrue(overflowTimer instanceof BasicTimer);
+        assertEquals(4, cardinalityLimiter.getRejectedCount());
+        assertEquals(1, cardinalityLimiter.getRememberedRejectionCount());
+        verify(mockLogger).warn(anyString());
+        verify(mockMonitorRegistry).register(counter);
+        verify(mockMonitorRegistry).register(overflowCounter);
+        verify(mockMonitorRegistry).register(overflowTimer);
+        verify(mockMonitorRegistry).register(isA(ResettingCounter.class));
+        verify(mockFactory, times(3)).getMonitorRegistry();
+    }
+
+    @Test
+    public void testCreateAndRegisterCounterInTierUsesTheSameCardinalityLimiter() {
+        when(mockFactory.getMonitorRegistry(TIER)).thenReturn(mockMonitorRegistry);
+        cardinalityLimiter.setLimits(0, 0);
+
+        final Counter counter = metricObjects.forTier(TIER).createAndRegisterCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+
+        assertTrue(CardinalityLimiter.isOverflow(counter));
+        assertEquals(1, cardinalityLimiter.getRejectedCount());
+        verify(mockLogger).warn(anyString());
+        verify(mockMonitorRegistry, times(2)).register(any(Monitor.class));
+        verify(mockFactory).getMonitorRegistry(TIER);
+    }
+
+    @Test
+    public void testFactoryGetCardinalityLimiter() {
+        assertSame(MetricObjects.getCardinalityLimiter(), factory.getCardinalityLimiter());
+    }
+
     @Test
     public void testFactoryGetDefaultMonitorRegisterInstance() {
         assertSame(DefaultMonitorRegistry.getInstance(), factory.getMonitorRegistry());
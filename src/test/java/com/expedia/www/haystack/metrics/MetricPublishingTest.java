@@ -17,44 +17,71 @@
 package com.expedia.www.haystack.metrics;
 
 import com.expedia.www.haystack.metrics.MetricPublishing.Factory;
-import com.netflix.servo.publish.AsyncMetricObserver;
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.OverflowPolicy;
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.WaitStrategy;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
 import com.netflix.servo.publish.BasicMetricFilter;
 import com.netflix.servo.publish.CounterToRateMetricTransform;
 import com.netflix.servo.publish.MetricFilter;
 import com.netflix.servo.publish.MetricObserver;
 import com.netflix.servo.publish.MetricPoller;
-import com.netflix.servo.publish.MonitorRegistryMetricPoller;
 import com.netflix.servo.publish.PollRunnable;
-import com.netflix.servo.publish.PollScheduler;
-import com.netflix.servo.publish.graphite.GraphiteMetricObserver;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_INFLUXDB_BATCH_SIZE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.DEFAULT_INFLUXDB_DATABASE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.PROTOCOL_INFLUXDB;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.PROTOCOL_PICKLE;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.PROTOCOL_PLAINTEXT;
+import static com.expedia.www.haystack.metrics.GraphiteConfig.PROTOCOL_UDP;
 import static com.expedia.www.haystack.metrics.MetricPublishing.ASYNC_METRIC_OBSERVER_NAME;
 import static com.expedia.www.haystack.metrics.MetricPublishing.GRAPHITE_OBSERVER_DEBUG_MSG;
 import static com.expedia.www.haystack.metrics.MetricPublishing.HOST_NAME_UNKNOWN_HOST_EXCEPTION;
+import static com.expedia.www.haystack.metrics.MetricPublishing.DISAGREEING_CONFIGS_MSG;
+import static com.expedia.www.haystack.metrics.MetricPublishing.NO_GRAPHITE_CONFIGS_MSG;
 import static com.expedia.www.haystack.metrics.MetricPublishing.POLL_INTERVAL_SECONDS_TO_EXPIRE_TIME_MULTIPLIER;
+import static com.expedia.www.haystack.metrics.MetricPublishing.SPOOL_OPEN_FAILED_MSG;
+import static com.expedia.www.haystack.metrics.MetricPublishing.UNKNOWN_PROTOCOL_MSG;
 import static java.util.Collections.singletonMap;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -71,7 +98,15 @@ public class MetricPublishingTest {
     private static final String PREFIX = RANDOM.nextLong() + "PREFIX";
     private static final int PORT = RANDOM.nextInt(Short.MAX_VALUE);
     private static final String HOST_AND_PORT = HOST + ':' + PORT;
+    private static final int RELAY_PORT = PORT + 100;
+    private static final String RELAYS = " relay1:" + RELAY_PORT + ", relay2 ";
     private static final int NUMBER_OF_ITERATIONS_IN_TESTS = RANDOM.nextInt(Byte.MAX_VALUE) + 2;
+    private static final String SPOOL_FILE = RANDOM.nextLong() + "SPOOL_FILE";
+    private static final int SPOOL_MAX_BYTES = 4096;
+    private static final int HEARTBEAT_INTERVALS = 10;
+    private static final String PUBLISHER = "critical";
+    private static final String TIER = "5s";
+    private static final int PARALLEL_POLL_THRESHOLD = RANDOM.nextInt(Short.MAX_VALUE);
     private static final Map<String,String> ENVIRONMENT_VARIABLES = singletonMap("GRAPHITE_HOST", HOST);
 
     @Mock
@@ -90,7 +125,13 @@ public class MetricPublishingTest {
     private MetricObserver mockCounterToRateMetricTransform;
 
     @Mock
-    private MetricObserver mockGraphiteMetricObserver;
+    private BaseMetricObserver mockGraphiteMetricObserver;
+
+    @Mock
+    private MetricObserver mockSpoolingMetricObserver;
+
+    @Mock
+    private MetricObserver mockSuppressingMetricObserver;
 
     @Mock
     private PollRunnable mockTask;
@@ -98,6 +139,9 @@ public class MetricPublishingTest {
     @Mock
     private MetricPoller mockMetricPoller;
 
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
     @Mock
     private Logger mockLogger;
 
@@ -105,20 +149,24 @@ public class MetricPublishingTest {
     private MetricPublishing metricPublishing;
     private Factory factory;
 
+    private PublishingScheduler publishingScheduler;
+
     @Before
     public void setUp() {
         when(mockFactory.getEnvironmentVariables()).thenReturn(ENVIRONMENT_VARIABLES);
-        metricPublishing = new MetricPublishing(mockFactory, mockLogger);
+        publishingScheduler = new PublishingScheduler(PUBLISHER);
+        metricPublishing = new MetricPublishing(mockFactory, mockLogger, null, publishingScheduler);
         factory = new Factory();
     }
 
     @After
     public void tearDown() {
-        if(PollScheduler.getInstance().isStarted()) {
-            PollScheduler.getInstance().stop();
+        while (publishingScheduler.isStarted()) {
+            publishingScheduler.stop();
         }
         verifyNoMoreInteractions(mockFactory, mockMetricObserver, mockGraphiteConfig, mockAsyncMetricObserver,
-                mockCounterToRateMetricTransform, mockGraphiteMetricObserver, mockTask, mockMetricPoller, mockLogger);
+                mockCounterToRateMetricTransform, mockGraphiteMetricObserver, mockSpoolingMetricObserver,
+                mockSuppressingMetricObserver, mockTask, mockMetricPoller, mockPublishingMetrics, mockLogger);
     }
 
     @Test
@@ -130,73 +178,626 @@ public class MetricPublishingTest {
             metricPublishing.start(mockGraphiteConfig);
         }
 
-        // Would mock PollScheduler, but it's final; instead, sleep to give mockTask.run() time to be called
+        // Sleep to give mockTask.run() time to be called on the thread of the scheduler
         Thread.sleep(1000);
         verifiesForStart(observers);
         for(int i = 0 ; i < NUMBER_OF_ITERATIONS_IN_TESTS ; i++) {
+            assertTrue(publishingScheduler.isStarted());
             metricPublishing.stop();
         }
+        assertFalse(publishingScheduler.isStarted());
+    }
+
+    @Test
+    public void testStartNamedPublisherWithFilter() throws InterruptedException {
+        final MetricFilter filter = config -> true;
+        whensForStart(PUBLISHER);
+        metricPublishing = new MetricPublishing(mockFactory, mockLogger, PUBLISHER, publishingScheduler);
+
+        metricPublishing.start(Collections.singletonList(mockGraphiteConfig), filter);
+
+        Thread.sleep(1000);
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PLAINTEXT, false));
+        verifiesForAsync(2, 2, 2, mockGraphiteMetricObserver);
+        verifiesForCreateGraphiteObserver(2, 2);
+        verifiesForDefer(1);
+        verify(mockFactory, times(2)).getPublishingMetrics(PUBLISHER, 0);
+        verify(mockGraphiteConfig).tier();
+        verify(mockGraphiteConfig).parallelpollthreshold();
+        verify(mockFactory).createMonitorRegistryMetricPoller(
+                TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, publishingScheduler);
+        verify(mockFactory).createTask(mockMetricPoller, filter, Collections.singletonList(mockAsyncMetricObserver));
+        verify(mockTask).run();
+    }
+
+    @Test
+    public void testStartWithOtherObservers() throws InterruptedException {
+        final MetricFilter filter = config -> true;
+        whensForStart(PUBLISHER);
+        metricPublishing = new MetricPublishing(mockFactory, mockLogger, PUBLISHER, publishingScheduler);
+
+        metricPublishing.start(Collections.singletonList(mockGraphiteConfig), filter,
+                Collections.singletonList(mockMetricObserver));
+
+        Thread.sleep(1000);
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PLAINTEXT, false));
+        verifiesForAsync(2, 2, 2, mockGraphiteMetricObserver);
+        verifiesForCreateGraphiteObserver(2, 2);
+        verifiesForDefer(1);
+        verify(mockFactory, times(2)).getPublishingMetrics(PUBLISHER, 0);
+        verify(mockGraphiteConfig).tier();
+        verify(mockGraphiteConfig).parallelpollthreshold();
+        verify(mockFactory).createMonitorRegistryMetricPoller(
+                TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, publishingScheduler);
+        verify(mockFactory).createTask(mockMetricPoller, filter, Arrays.asList(mockAsyncMetricObserver,
+                mockMetricObserver));
+        verify(mockTask).run();
+    }
+
+    @Test
+    public void testIndependentPublishersHaveTheirOwnThreads() {
+        assertEquals(PublishingScheduler.THREAD_NAME_PREFIX + '-' + PUBLISHER, publishingScheduler.getThreadName());
+        new MetricPublishing(PUBLISHER).stop();
     }
 
     @Test(expected = OutOfMemoryError.class)
     public void testStartThrowsException() {
         final OutOfMemoryError outOfMemoryError = new OutOfMemoryError("Test");
-        when(mockFactory.createMonitorRegistryMetricPoller()).thenThrow(outOfMemoryError);
+        when(mockFactory.getPublishingMetrics(null, 0)).thenReturn(mockPublishingMetrics);
+        when(mockGraphiteConfig.tier()).thenReturn(TIER);
+        when(mockGraphiteConfig.parallelpollthreshold()).thenReturn(PARALLEL_POLL_THRESHOLD);
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PLAINTEXT);
+        when(mockFactory.createMonitorRegistryMetricPoller(
+                anyString(), anyInt(), any(PublishingMetrics.class), any(PublishingScheduler.class)))
+                .thenThrow(outOfMemoryError);
         try {
             metricPublishing.start(mockGraphiteConfig);
         } catch(OutOfMemoryError e) {
             assertSame(outOfMemoryError, e);
-            verify(mockFactory).createMonitorRegistryMetricPoller();
+            verify(mockGraphiteConfig).protocol();
+            verify(mockGraphiteConfig).relays();
+            verify(mockGraphiteConfig).queuetype();
+            verify(mockFactory).getPublishingMetrics(null, 0);
+            verify(mockGraphiteConfig).tier();
+            verify(mockGraphiteConfig).parallelpollthreshold();
+            verify(mockFactory).createMonitorRegistryMetricPoller(
+                    TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, publishingScheduler);
             throw e;
         }
     }
 
     private List<MetricObserver> whensForStart() {
+        return whensForStart(null);
+    }
+
+    private List<MetricObserver> whensForStart(String publisher) {
         whensForCreateGraphiteObserver();
-        when(mockFactory.createMonitorRegistryMetricPoller()).thenReturn(mockMetricPoller);
-        when(mockFactory.createTask(any(MetricPoller.class), anyListOf(MetricObserver.class))).thenReturn(mockTask);
+        when(mockFactory.getPublishingMetrics(publisher, 0)).thenReturn(mockPublishingMetrics);
+        when(mockGraphiteConfig.tier()).thenReturn(TIER);
+        when(mockGraphiteConfig.parallelpollthreshold()).thenReturn(PARALLEL_POLL_THRESHOLD);
+        when(mockFactory.createMonitorRegistryMetricPoller(
+                anyString(), anyInt(), any(PublishingMetrics.class), any(PublishingScheduler.class)))
+                .thenReturn(mockMetricPoller);
+        when(mockFactory.createTask(any(MetricPoller.class), any(MetricFilter.class), anyListOf(MetricObserver.class)))
+                .thenReturn(mockTask);
+        // Create the observer at once, rather than on a thread of its own, so that the test can see what it is
+        when(mockFactory.createDeferredMetricObserver(
+                Matchers.<Callable<MetricObserver>>any(), anyInt(), any(PublishingMetrics.class)))
+                .thenAnswer(invocation -> ((Callable<?>) invocation.getArguments()[0]).call());
         return Collections.singletonList(mockCounterToRateMetricTransform);
     }
 
     private void verifiesForStart(List<MetricObserver> observers) {
         verify(mockGraphiteConfig).sendasrate();
-        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, true));
-        verifiesForAsync(3, mockGraphiteMetricObserver);
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PLAINTEXT, true));
+        verifiesForAsync(3, 2, 2, mockGraphiteMetricObserver);
+        verifiesForDefer(1);
         verify(mockFactory).createCounterToRateMetricTransform(mockAsyncMetricObserver, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
-        verifiesForCreateGraphiteObserver(3);
-        verify(mockFactory).createMonitorRegistryMetricPoller();
-        verify(mockFactory).createTask(mockMetricPoller, observers);
+        verifiesForCreateGraphiteObserver(3, 2);
+        verify(mockFactory, times(2)).getPublishingMetrics(null, 0);
+        verify(mockGraphiteConfig).tier();
+        verify(mockGraphiteConfig).parallelpollthreshold();
+        verify(mockFactory).createMonitorRegistryMetricPoller(
+                TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, publishingScheduler);
+        verify(mockFactory).createTask(mockMetricPoller, BasicMetricFilter.MATCH_ALL, observers);
         verify(mockTask).run();
     }
 
+    private void verifiesForDefer(int times) {
+        verify(mockFactory, times(times)).createDeferredMetricObserver(
+                Matchers.<Callable<MetricObserver>>any(), eq(QUEUE_SIZE), eq(mockPublishingMetrics));
+    }
+
+    @Test
+    public void testStartReturnsBeforeTheGraphiteObserversAreCreated() throws InterruptedException {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch created = new CountDownLatch(1);
+        whensForStart();
+        when(mockGraphiteConfig.queuesize()).thenReturn(QUEUE_SIZE);
+        doAnswer(invocation -> new DeferredMetricObserver(() -> {
+            creating.await();
+            final MetricObserver observer = (MetricObserver) ((Callable<?>) invocation.getArguments()[0]).call();
+            created.countDown();
+            return observer;
+        }, QUEUE_SIZE, mockPublishingMetrics)).when(mockFactory).createDeferredMetricObserver(
+                Matchers.<Callable<MetricObserver>>any(), anyInt(), any(PublishingMetrics.class));
+
+        metricPublishing.start(mockGraphiteConfig);
+
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).queuetype();
+        verify(mockFactory, times(2)).getPublishingMetrics(null, 0);
+        verify(mockGraphiteConfig).tier();
+        verify(mockGraphiteConfig).parallelpollthreshold();
+        verify(mockFactory).createMonitorRegistryMetricPoller(
+                TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, publishingScheduler);
+        verify(mockGraphiteConfig).queuesize();
+        verifiesForDefer(1);
+        verify(mockFactory).createTask(eq(mockMetricPoller), eq(BasicMetricFilter.MATCH_ALL),
+                anyListOf(MetricObserver.class));
+        verify(mockGraphiteConfig).pollintervalseconds();
+        verify(mockFactory, never()).createGraphiteMetricObserver(
+                anyString(), anyString(), anyInt(), any(PublishingMetrics.class));
+
+        creating.countDown();
+        assertTrue(created.await(10, TimeUnit.SECONDS));
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PLAINTEXT, false));
+        verifiesForAsync(2, 2, 2, mockGraphiteMetricObserver);
+        verifiesForCreateGraphiteObserver(2, 2);
+        verify(mockTask, timeout(10000)).run();
+    }
+
+    @Test
+    public void testStartWithSeveralSinks() throws InterruptedException {
+        final List<MetricObserver> observers = whensForStart();
+        when(mockFactory.getPublishingMetrics(null, 1)).thenReturn(mockPublishingMetrics);
+        when(mockGraphiteConfig.sendasrate()).thenReturn(true);
+
+        metricPublishing.start(Arrays.asList(mockGraphiteConfig, mockGraphiteConfig));
+
+        Thread.sleep(1000);
+        verify(mockGraphiteConfig, times(2)).sendasrate();
+        verify(mockLogger, times(2)).info(
+                String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PLAINTEXT, true));
+        verify(mockGraphiteConfig, times(7)).pollintervalseconds();
+        verify(mockGraphiteConfig, times(4)).queuesize();
+        verify(mockGraphiteConfig, times(4)).queuetype();
+        verifiesForDefer(2);
+        verify(mockFactory, times(2)).createAsyncMetricObserver(
+                mockGraphiteMetricObserver, QUEUE_SIZE, EXPIRE_TIME, mockPublishingMetrics);
+        verify(mockFactory, times(2)).createCounterToRateMetricTransform(
+                mockAsyncMetricObserver, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        verify(mockGraphiteConfig, times(2)).host();
+        verify(mockFactory, times(2)).getEnvironmentVariables();
+        verify(mockGraphiteConfig, times(2)).port();
+        verify(mockGraphiteConfig, times(4)).protocol();
+        verify(mockGraphiteConfig, times(4)).relays();
+        verify(mockGraphiteConfig, times(2)).spoolfile();
+        verify(mockGraphiteConfig, times(2)).heartbeatintervals();
+        verify(mockFactory, times(2)).createGraphiteMetricObserver(
+                ASYNC_METRIC_OBSERVER_NAME, HOST, PORT, mockPublishingMetrics);
+        verify(mockFactory, times(2)).getPublishingMetrics(null, 0);
+        verify(mockFactory).getPublishingMetrics(null, 1);
+        verify(mockGraphiteConfig, times(3)).tier();
+        verify(mockGraphiteConfig, times(3)).parallelpollthreshold();
+        verify(mockFactory).createMonitorRegistryMetricPoller(
+                TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, publishingScheduler);
+        verify(mockFactory).createTask(mockMetricPoller, BasicMetricFilter.MATCH_ALL,
+                Arrays.asList(observers.get(0), observers.get(0)));
+        verify(mockTask).run();
+        metricPublishing.stop();
+    }
+
+    @Test
+    public void testStartWithGraphiteConfigsThatPollDifferently() {
+        when(mockGraphiteConfig.tier()).thenReturn(TIER);
+        when(mockGraphiteConfig.pollintervalseconds()).thenReturn(POLL_INTERVAL_SECONDS);
+        when(mockGraphiteConfig.parallelpollthreshold()).thenReturn(PARALLEL_POLL_THRESHOLD);
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PLAINTEXT);
+        final GraphiteConfig otherTier = mockGraphiteConfig(TIER + "OTHER", POLL_INTERVAL_SECONDS);
+        final GraphiteConfig otherInterval = mockGraphiteConfig(TIER, POLL_INTERVAL_SECONDS + 1);
+        final GraphiteConfig otherThreshold = mockGraphiteConfig(TIER, POLL_INTERVAL_SECONDS);
+        when(otherThreshold.parallelpollthreshold()).thenReturn(PARALLEL_POLL_THRESHOLD + 1);
+
+        for (GraphiteConfig graphiteConfig : Arrays.asList(otherTier, otherInterval, otherThreshold)) {
+            try {
+                metricPublishing.start(Arrays.asList(mockGraphiteConfig, mockGraphiteConfig, graphiteConfig));
+                fail("GraphiteConfigs that poll differently should have been rejected");
+            } catch (IllegalArgumentException e) {
+                assertEquals(String.format(DISAGREEING_CONFIGS_MSG, 2), e.getMessage());
+            }
+        }
+
+        assertFalse(publishingScheduler.isStarted());
+        verify(mockGraphiteConfig, times(9)).tier();
+        verify(mockGraphiteConfig, times(8)).pollintervalseconds();
+        verify(mockGraphiteConfig, times(7)).parallelpollthreshold();
+        verify(mockGraphiteConfig, times(6)).protocol();
+        verify(mockGraphiteConfig, times(6)).relays();
+        verify(mockGraphiteConfig, times(6)).queuetype();
+    }
+
+    @Test
+    public void testStartWithUnknownProtocol() {
+        when(mockGraphiteConfig.protocol()).thenReturn(PREFIX);
+
+        try {
+            metricPublishing.start(mockGraphiteConfig);
+            fail("An unknown protocol should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(String.format(UNKNOWN_PROTOCOL_MSG, PREFIX, PROTOCOL_PLAINTEXT, PROTOCOL_PICKLE, PROTOCOL_UDP,
+                    PROTOCOL_INFLUXDB), e.getMessage());
+        }
+
+        assertFalse(publishingScheduler.isStarted());
+        verify(mockGraphiteConfig).protocol();
+    }
+
+    @Test
+    public void testStartWithRelayPortThatIsNotANumber() {
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PICKLE);
+        when(mockGraphiteConfig.relays()).thenReturn("relay1:" + RELAY_PORT + ",relay2:port");
+        when(mockGraphiteConfig.port()).thenReturn(PORT);
+
+        try {
+            metricPublishing.start(mockGraphiteConfig);
+            fail("A relay port that is not a number should have been rejected");
+        } catch (NumberFormatException e) {
+            assertEquals("For input string: \"port\"", e.getMessage());
+        }
+
+        assertFalse(publishingScheduler.isStarted());
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+    }
+
+    @Test
+    public void testStartWithRelayPortOutOfRange() {
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_UDP);
+        when(mockGraphiteConfig.relays()).thenReturn("relay1:65536");
+
+        try {
+            metricPublishing.start(mockGraphiteConfig);
+            fail("A relay port out of range should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("port out of range:65536", e.getMessage());
+        }
+
+        assertFalse(publishingScheduler.isStarted());
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+    }
+
+    @Test
+    public void testStartWithUnknownQueueWaitStrategy() {
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_INFLUXDB);
+        when(mockGraphiteConfig.queuetype()).thenReturn(GraphiteConfig.QUEUE_TYPE_RING_BUFFER);
+        when(mockGraphiteConfig.queuewaitstrategy()).thenReturn(PREFIX);
+
+        try {
+            metricPublishing.start(mockGraphiteConfig);
+            fail("An unknown queue wait strategy should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().endsWith(PREFIX.toUpperCase(Locale.ROOT)));
+        }
+
+        assertFalse(publishingScheduler.isStarted());
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).queuetype();
+        verify(mockGraphiteConfig).queuewaitstrategy();
+    }
+
+    @Test
+    public void testStartWithUnknownQueueOverflowPolicy() {
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PLAINTEXT);
+        when(mockGraphiteConfig.queuetype()).thenReturn(GraphiteConfig.QUEUE_TYPE_RING_BUFFER);
+        when(mockGraphiteConfig.queuewaitstrategy()).thenReturn("blocking");
+        when(mockGraphiteConfig.queueoverflowpolicy()).thenReturn(PREFIX);
+
+        try {
+            metricPublishing.start(mockGraphiteConfig);
+            fail("An unknown queue overflow policy should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().endsWith(PREFIX.toUpperCase(Locale.ROOT)));
+        }
+
+        assertFalse(publishingScheduler.isStarted());
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).queuetype();
+        verify(mockGraphiteConfig).queuewaitstrategy();
+        verify(mockGraphiteConfig).queueoverflowpolicy();
+    }
+
+    @Test
+    public void testValidateDoesNotResolveTheRelays() {
+        final GraphiteConfig withoutRelays = mockGraphiteConfig(TIER, POLL_INTERVAL_SECONDS);
+        when(withoutRelays.protocol()).thenReturn(PROTOCOL_PLAINTEXT);
+        when(withoutRelays.relays()).thenReturn("");
+        when(mockGraphiteConfig.tier()).thenReturn(TIER);
+        when(mockGraphiteConfig.pollintervalseconds()).thenReturn(POLL_INTERVAL_SECONDS);
+        when(mockGraphiteConfig.parallelpollthreshold()).thenReturn(PARALLEL_POLL_THRESHOLD);
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PLAINTEXT);
+        when(mockGraphiteConfig.relays()).thenReturn("no.such.host.invalid:" + RELAY_PORT + ",relay2");
+        when(mockGraphiteConfig.port()).thenReturn(PORT);
+        when(mockGraphiteConfig.queuetype()).thenReturn(GraphiteConfig.QUEUE_TYPE_RING_BUFFER);
+        when(mockGraphiteConfig.queuewaitstrategy()).thenReturn("yielding");
+        when(mockGraphiteConfig.queueoverflowpolicy()).thenReturn("drop_newest");
+
+        metricPublishing.validate(Arrays.asList(mockGraphiteConfig, withoutRelays));
+
+        verify(mockGraphiteConfig).tier();
+        verify(mockGraphiteConfig).pollintervalseconds();
+        verify(mockGraphiteConfig).parallelpollthreshold();
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).port();
+        verify(mockGraphiteConfig).queuetype();
+        verify(mockGraphiteConfig).queuewaitstrategy();
+        verify(mockGraphiteConfig).queueoverflowpolicy();
+    }
+
+    @Test
+    public void testStartWithoutGraphiteConfigs() {
+        try {
+            metricPublishing.start(Collections.emptyList());
+            fail("An empty list of GraphiteConfigs should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(NO_GRAPHITE_CONFIGS_MSG, e.getMessage());
+        }
+    }
+
     @Test
     public void testCreateGraphiteObserver() {
         whensForCreateGraphiteObserver();
 
-        final MetricObserver metricObserver = metricPublishing.createGraphiteObserver(mockGraphiteConfig);
+        final MetricObserver metricObserver = metricPublishing.createGraphiteObserver(mockGraphiteConfig, mockPublishingMetrics);
         assertSame(mockAsyncMetricObserver, metricObserver);
 
         verify(mockGraphiteConfig).sendasrate();
-        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, false));
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PLAINTEXT, false));
         verifiesForAsync(1, mockGraphiteMetricObserver);
         verifiesForCreateGraphiteObserver(1);
     }
 
+    @Test
+    public void testCreateGraphiteObserverPickle() {
+        whensForCreateGraphiteObserver();
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PICKLE);
+        when(mockGraphiteConfig.relays()).thenReturn("");
+        when(mockFactory.createPickleGraphiteMetricObserver(
+                anyString(), anyString(), anyInt(), any(PublishingMetrics.class)))
+                .thenReturn(mockGraphiteMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.createGraphiteObserver(mockGraphiteConfig, mockPublishingMetrics);
+        assertSame(mockAsyncMetricObserver, metricObserver);
+
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_PICKLE, false));
+        verifiesForAsync(1, mockGraphiteMetricObserver);
+        verify(mockGraphiteConfig).host();
+        verify(mockFactory).getEnvironmentVariables();
+        verify(mockGraphiteConfig).port();
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).spoolfile();
+        verify(mockGraphiteConfig).heartbeatintervals();
+        verify(mockFactory).createPickleGraphiteMetricObserver(
+                ASYNC_METRIC_OBSERVER_NAME, HOST, PORT, mockPublishingMetrics);
+    }
+
+    @Test
+    public void testCreateGraphiteObserverUdp() {
+        whensForCreateGraphiteObserver();
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_UDP);
+        when(mockFactory.createUdpGraphiteMetricObserver(
+                anyString(), anyString(), anyInt(), any(PublishingMetrics.class)))
+                .thenReturn(mockGraphiteMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.createGraphiteObserver(mockGraphiteConfig, mockPublishingMetrics);
+        assertSame(mockAsyncMetricObserver, metricObserver);
+
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_UDP, false));
+        verifiesForAsync(1, mockGraphiteMetricObserver);
+        verify(mockGraphiteConfig).host();
+        verify(mockFactory).getEnvironmentVariables();
+        verify(mockGraphiteConfig).port();
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).spoolfile();
+        verify(mockGraphiteConfig).heartbeatintervals();
+        verify(mockFactory).createUdpGraphiteMetricObserver(
+                ASYNC_METRIC_OBSERVER_NAME, HOST, PORT, mockPublishingMetrics);
+    }
+
+    @Test
+    public void testCreateGraphiteObserverInfluxDb() {
+        whensForCreateGraphiteObserver();
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_INFLUXDB);
+        when(mockGraphiteConfig.influxdbdatabase()).thenReturn(DEFAULT_INFLUXDB_DATABASE);
+        when(mockGraphiteConfig.influxdbgzip()).thenReturn(true);
+        when(mockGraphiteConfig.influxdbbatchsize()).thenReturn(DEFAULT_INFLUXDB_BATCH_SIZE);
+        when(mockFactory.createInfluxDbMetricObserver(anyString(), anyString(), anyInt(), anyString(), anyBoolean(),
+                anyInt(), any(PublishingMetrics.class))).thenReturn(mockGraphiteMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.createGraphiteObserver(mockGraphiteConfig, mockPublishingMetrics);
+        assertSame(mockAsyncMetricObserver, metricObserver);
+
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, HOST_AND_PORT, PROTOCOL_INFLUXDB, false));
+        verifiesForAsync(1, mockGraphiteMetricObserver);
+        verify(mockGraphiteConfig).host();
+        verify(mockFactory).getEnvironmentVariables();
+        verify(mockGraphiteConfig).port();
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).influxdbdatabase();
+        verify(mockGraphiteConfig).influxdbgzip();
+        verify(mockGraphiteConfig).influxdbbatchsize();
+        verify(mockGraphiteConfig).spoolfile();
+        verify(mockGraphiteConfig).heartbeatintervals();
+        verify(mockFactory).createInfluxDbMetricObserver(ASYNC_METRIC_OBSERVER_NAME, HOST, PORT,
+                DEFAULT_INFLUXDB_DATABASE, true, DEFAULT_INFLUXDB_BATCH_SIZE, mockPublishingMetrics);
+    }
+
+    @Test
+    public void testCreateGraphiteObserverWithRelays() {
+        whensForCreateGraphiteObserver();
+        when(mockGraphiteConfig.relays()).thenReturn(RELAYS);
+        when(mockPublishingMetrics.forRelay(anyInt())).thenReturn(mockPublishingMetrics);
+        when(mockFactory.createShardingMetricObserver(anyListOf(String.class), anyListOf(MetricObserver.class),
+                anyListOf(BaseMetricObserver.class))).thenReturn(mockMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.createGraphiteObserver(
+                mockGraphiteConfig, mockPublishingMetrics);
+        assertSame(mockMetricObserver, metricObserver);
+
+        verify(mockGraphiteConfig).sendasrate();
+        verify(mockLogger).info(String.format(GRAPHITE_OBSERVER_DEBUG_MSG, RELAYS, PROTOCOL_PLAINTEXT, false));
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+        verify(mockGraphiteConfig).port();
+        verify(mockPublishingMetrics).forRelay(0);
+        verify(mockPublishingMetrics).forRelay(1);
+        verify(mockFactory).createGraphiteMetricObserver(
+                ASYNC_METRIC_OBSERVER_NAME, "relay1", RELAY_PORT, mockPublishingMetrics);
+        verify(mockFactory).createGraphiteMetricObserver(
+                ASYNC_METRIC_OBSERVER_NAME, "relay2", PORT, mockPublishingMetrics);
+        verify(mockGraphiteConfig, times(2)).pollintervalseconds();
+        verify(mockGraphiteConfig, times(2)).queuesize();
+        verify(mockGraphiteConfig, times(2)).queuetype();
+        verify(mockFactory, times(2)).createAsyncMetricObserver(
+                mockGraphiteMetricObserver, QUEUE_SIZE, EXPIRE_TIME, mockPublishingMetrics);
+        verify(mockFactory).createShardingMetricObserver(Arrays.asList("relay1:" + RELAY_PORT, "relay2:" + PORT),
+                Arrays.asList(mockAsyncMetricObserver, mockAsyncMetricObserver),
+                Arrays.asList(mockGraphiteMetricObserver, mockGraphiteMetricObserver));
+        verify(mockGraphiteConfig).heartbeatintervals();
+    }
+
+    @Test
+    public void testCreateGraphiteObserverUnknownProtocol() {
+        whensForCreateGraphiteObserver();
+        when(mockGraphiteConfig.protocol()).thenReturn(PREFIX);
+
+        try {
+            metricPublishing.createGraphiteObserver(mockGraphiteConfig, mockPublishingMetrics);
+            fail("An unknown protocol should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(String.format(UNKNOWN_PROTOCOL_MSG, PREFIX, PROTOCOL_PLAINTEXT, PROTOCOL_PICKLE, PROTOCOL_UDP,
+                    PROTOCOL_INFLUXDB), e.getMessage());
+        }
+
+        verify(mockGraphiteConfig).host();
+        verify(mockFactory).getEnvironmentVariables();
+        verify(mockGraphiteConfig).port();
+        verify(mockGraphiteConfig).protocol();
+        verify(mockGraphiteConfig).relays();
+    }
+
+    private static GraphiteConfig mockGraphiteConfig(String tier, int pollIntervalSeconds) {
+        final GraphiteConfig graphiteConfig = mock(GraphiteConfig.class);
+        when(graphiteConfig.tier()).thenReturn(tier);
+        when(graphiteConfig.pollintervalseconds()).thenReturn(pollIntervalSeconds);
+        when(graphiteConfig.parallelpollthreshold()).thenReturn(PARALLEL_POLL_THRESHOLD);
+        return graphiteConfig;
+    }
+
     private void whensForCreateGraphiteObserver() {
         whensForAsync();
         whensForRateTransform();
         when(mockGraphiteConfig.host()).thenReturn("${GRAPHITE_HOST}");
         when(mockFactory.getEnvironmentVariables()).thenReturn(ENVIRONMENT_VARIABLES);
         when(mockGraphiteConfig.port()).thenReturn(PORT);
-        when(mockFactory.createGraphiteMetricObserver(anyString(), anyString())).thenReturn(mockGraphiteMetricObserver);
+        when(mockGraphiteConfig.protocol()).thenReturn(PROTOCOL_PLAINTEXT);
+        when(mockFactory.createGraphiteMetricObserver(
+                anyString(), anyString(), anyInt(), any(PublishingMetrics.class)))
+                .thenReturn(mockGraphiteMetricObserver);
     }
 
     private void verifiesForCreateGraphiteObserver(int wantedNumberOfInvocations) {
+        verifiesForCreateGraphiteObserver(wantedNumberOfInvocations, 1);
+    }
+
+    private void verifiesForCreateGraphiteObserver(int wantedNumberOfInvocations, int protocolTimes) {
         verify(mockGraphiteConfig, times(wantedNumberOfInvocations)).pollintervalseconds();
         verify(mockGraphiteConfig).host();
         verify(mockFactory).getEnvironmentVariables();
         verify(mockGraphiteConfig).port();
-        verify(mockFactory).createGraphiteMetricObserver(ASYNC_METRIC_OBSERVER_NAME, HOST_AND_PORT);
+        verify(mockGraphiteConfig, times(protocolTimes)).protocol();
+        verify(mockGraphiteConfig, times(protocolTimes)).relays();
+        verify(mockGraphiteConfig).spoolfile();
+        verify(mockGraphiteConfig).heartbeatintervals();
+        verify(mockFactory).createGraphiteMetricObserver(
+                ASYNC_METRIC_OBSERVER_NAME, HOST, PORT, mockPublishingMetrics);
+    }
+
+    @Test
+    public void testSpool() throws IOException {
+        when(mockGraphiteConfig.spoolfile()).thenReturn(SPOOL_FILE);
+        when(mockGraphiteConfig.spoolmaxbytes()).thenReturn(SPOOL_MAX_BYTES);
+        when(mockFactory.createSpoolingMetricObserver(any(BaseMetricObserver.class), anyString(), anyInt()))
+                .thenReturn(mockSpoolingMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.spool(mockGraphiteConfig, mockGraphiteMetricObserver);
+
+        assertSame(mockSpoolingMetricObserver, metricObserver);
+        verify(mockGraphiteConfig).spoolfile();
+        verify(mockGraphiteConfig).spoolmaxbytes();
+        verify(mockFactory).createSpoolingMetricObserver(mockGraphiteMetricObserver, SPOOL_FILE, SPOOL_MAX_BYTES);
+    }
+
+    @Test
+    public void testSpoolWhenSpoolFileIsEmpty() {
+        when(mockGraphiteConfig.spoolfile()).thenReturn("");
+
+        final MetricObserver metricObserver = metricPublishing.spool(mockGraphiteConfig, mockGraphiteMetricObserver);
+
+        assertSame(mockGraphiteMetricObserver, metricObserver);
+        verify(mockGraphiteConfig).spoolfile();
+    }
+
+    @Test
+    public void testSpoolWhenSpoolFileCannotBeOpened() throws IOException {
+        final IOException ioException = new IOException("Test");
+        when(mockGraphiteConfig.spoolfile()).thenReturn(SPOOL_FILE);
+        when(mockGraphiteConfig.spoolmaxbytes()).thenReturn(SPOOL_MAX_BYTES);
+        when(mockFactory.createSpoolingMetricObserver(any(BaseMetricObserver.class), anyString(), anyInt()))
+                .thenThrow(ioException);
+
+        final MetricObserver metricObserver = metricPublishing.spool(mockGraphiteConfig, mockGraphiteMetricObserver);
+
+        assertSame(mockGraphiteMetricObserver, metricObserver);
+        verify(mockGraphiteConfig).spoolfile();
+        verify(mockGraphiteConfig).spoolmaxbytes();
+        verify(mockFactory).createSpoolingMetricObserver(mockGraphiteMetricObserver, SPOOL_FILE, SPOOL_MAX_BYTES);
+        verify(mockLogger).error(String.format(SPOOL_OPEN_FAILED_MSG, SPOOL_FILE), ioException);
+    }
+
+    @Test
+    public void testSuppress() {
+        when(mockGraphiteConfig.heartbeatintervals()).thenReturn(HEARTBEAT_INTERVALS);
+        when(mockFactory.createSuppressingMetricObserver(any(MetricObserver.class), anyInt()))
+                .thenReturn(mockSuppressingMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.suppress(mockGraphiteConfig, mockMetricObserver);
+
+        assertSame(mockSuppressingMetricObserver, metricObserver);
+        verify(mockGraphiteConfig).heartbeatintervals();
+        verify(mockFactory).createSuppressingMetricObserver(mockMetricObserver, HEARTBEAT_INTERVALS);
+    }
+
+    @Test
+    public void testSuppressWhenHeartbeatIntervalsIsZero() {
+        final MetricObserver metricObserver = metricPublishing.suppress(mockGraphiteConfig, mockMetricObserver);
+
+        assertSame(mockMetricObserver, metricObserver);
+        verify(mockGraphiteConfig).heartbeatintervals();
     }
 
     @Test
@@ -219,34 +820,67 @@ public class MetricPublishingTest {
     @Test
     public void testStopWithoutCallingStartFirst() {
         metricPublishing.stop();
-        // PollScheduler is a final class and cannot be mocked with Mockito, so traditional verification of
-        // metricPublishing.stop() cannot be done. Instead, don't call start(), and catch the resulting exception
-        // that will only occur when stop() is called without calling start(). This exception is caught and ignored
-        // by MetricPublishing.stop(). Since it is silently ignored, only code coverage verifies the ignoring behavior.
+
+        assertFalse(publishingScheduler.isStarted());
     }
 
     @Test
     public void testAsync() {
         whensForAsync();
 
-        final MetricObserver metricObserver = metricPublishing.async(mockGraphiteConfig, mockMetricObserver);
+        final MetricObserver metricObserver = metricPublishing.async(mockGraphiteConfig, mockMetricObserver, mockPublishingMetrics);
         assertSame(mockAsyncMetricObserver, metricObserver);
 
         verifiesForAsync(1, mockMetricObserver);
     }
 
+    @Test
+    public void testAsyncWithRingBuffer() {
+        when(mockGraphiteConfig.pollintervalseconds()).thenReturn(POLL_INTERVAL_SECONDS);
+        when(mockGraphiteConfig.queuesize()).thenReturn(QUEUE_SIZE);
+        when(mockGraphiteConfig.queuetype()).thenReturn(GraphiteConfig.QUEUE_TYPE_RING_BUFFER);
+        when(mockGraphiteConfig.queuewaitstrategy()).thenReturn("yielding");
+        when(mockGraphiteConfig.queueoverflowpolicy()).thenReturn("DROP_NEWEST");
+        when(mockFactory.createRingBufferMetricObserver(any(MetricObserver.class), anyInt(), anyLong(),
+                any(WaitStrategy.class), any(OverflowPolicy.class), any(PublishingMetrics.class)))
+                .thenReturn(mockAsyncMetricObserver);
+
+        final MetricObserver metricObserver = metricPublishing.async(
+                mockGraphiteConfig, mockMetricObserver, mockPublishingMetrics);
+        assertSame(mockAsyncMetricObserver, metricObserver);
+
+        verify(mockGraphiteConfig).pollintervalseconds();
+        verify(mockGraphiteConfig).queuesize();
+        verify(mockGraphiteConfig).queuetype();
+        verify(mockGraphiteConfig).queuewaitstrategy();
+        verify(mockGraphiteConfig).queueoverflowpolicy();
+        verify(mockFactory).createRingBufferMetricObserver(mockMetricObserver, QUEUE_SIZE, EXPIRE_TIME,
+                WaitStrategy.YIELDING, OverflowPolicy.DROP_NEWEST, mockPublishingMetrics);
+    }
+
     private void whensForAsync() {
         when(mockGraphiteConfig.pollintervalseconds()).thenReturn(POLL_INTERVAL_SECONDS);
         when(mockGraphiteConfig.queuesize()).thenReturn(QUEUE_SIZE);
-        when(mockFactory.createAsyncMetricObserver(any(MetricObserver.class), anyInt(), anyLong()))
+        when(mockFactory.createAsyncMetricObserver(
+                any(MetricObserver.class), anyInt(), anyLong(), any(PublishingMetrics.class)))
                 .thenReturn(mockAsyncMetricObserver);
     }
 
     private void verifiesForAsync(int pollIntervalSecondsTimes, MetricObserver metricObserver) {
+        verifiesForAsync(pollIntervalSecondsTimes, 1, metricObserver);
+    }
+
+    private void verifiesForAsync(int pollIntervalSecondsTimes, int queueSizeTimes, MetricObserver metricObserver) {
+        verifiesForAsync(pollIntervalSecondsTimes, queueSizeTimes, 1, metricObserver);
+    }
+
+    private void verifiesForAsync(int pollIntervalSecondsTimes, int queueSizeTimes, int queueTypeTimes,
+                                  MetricObserver metricObserver) {
         verify(mockGraphiteConfig, times(pollIntervalSecondsTimes)).pollintervalseconds();
-        verify(mockGraphiteConfig).queuesize();
+        verify(mockGraphiteConfig, times(queueSizeTimes)).queuesize();
+        verify(mockGraphiteConfig, times(queueTypeTimes)).queuetype();
         verify(mockFactory).createAsyncMetricObserver(
-                metricObserver, QUEUE_SIZE, EXPIRE_TIME);
+                metricObserver, QUEUE_SIZE, EXPIRE_TIME, mockPublishingMetrics);
     }
 
     @Test
@@ -259,12 +893,55 @@ public class MetricPublishingTest {
         verify(mockGraphiteConfig).host();
     }
 
+    @Test
+    public void testFactoryCreateShardingMetricObserver() {
+        final MetricObserver metricObserver = factory.createShardingMetricObserver(
+                Collections.singletonList(HOST_AND_PORT), Collections.singletonList(mockMetricObserver),
+                Collections.singletonList(mockGraphiteMetricObserver));
+
+        assertEquals(ShardingMetricObserver.OBSERVER_NAME, metricObserver.getName());
+        assertEquals(ShardingMetricObserver.class, metricObserver.getClass());
+    }
+
+    @Test
+    public void testFactoryCreateRingBufferMetricObserver() {
+        final MetricObserver metricObserver = factory.createRingBufferMetricObserver(mockMetricObserver, QUEUE_SIZE,
+                EXPIRE_TIME, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST, mockPublishingMetrics);
+        assertEquals(ASYNC_METRIC_OBSERVER_NAME, metricObserver.getName());
+        assertEquals(RingBufferMetricObserver.class, metricObserver.getClass());
+        ((RingBufferMetricObserver) metricObserver).stop();
+        verify(mockPublishingMetrics).registerQueueDepth(Matchers.<Callable<Integer>>any());
+    }
+
+    @Test
+    public void testFactoryCreateDeferredMetricObserver() throws InterruptedException {
+        final DeferredMetricObserver metricObserver = (DeferredMetricObserver) factory.createDeferredMetricObserver(
+                () -> mockMetricObserver, QUEUE_SIZE, mockPublishingMetrics);
+
+        assertEquals(DeferredMetricObserver.OBSERVER_NAME, metricObserver.getName());
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (!metricObserver.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(metricObserver.isReady());
+    }
+
+    @Test
+    public void testFactoryResolveLocalHostName() {
+        final HostNameResolver hostNameResolver = factory.getHostNameResolver();
+
+        assertSame(hostNameResolver, factory.getHostNameResolver());
+        assertEquals(hostNameResolver.get(), factory.resolveLocalHostName());
+    }
+
     @Test
     public void testFactoryCreateAsyncMetricObserver() {
         final MetricObserver metricObserver = factory.createAsyncMetricObserver(
-                mockMetricObserver, QUEUE_SIZE, EXPIRE_TIME);
+                mockMetricObserver, QUEUE_SIZE, EXPIRE_TIME, mockPublishingMetrics);
         assertEquals(ASYNC_METRIC_OBSERVER_NAME, metricObserver.getName());
-        assertEquals(AsyncMetricObserver.class, metricObserver.getClass());
+        assertEquals(AsyncQueueMetricObserver.class, metricObserver.getClass());
+        ((AsyncQueueMetricObserver) metricObserver).stop();
+        verify(mockPublishingMetrics).registerQueueDepth(Matchers.<Callable<Integer>>any());
     }
 
     @Test
@@ -281,19 +958,96 @@ public class MetricPublishingTest {
 
     @Test
     public void testFactoryCreateGraphiteMetricObserver() {
-        final MetricObserver metricObserver = factory.createGraphiteMetricObserver(PREFIX, HOST_AND_PORT);
-        assertEquals("GraphiteMetricObserver" + PREFIX, metricObserver.getName());
-        assertEquals(GraphiteMetricObserver.class, metricObserver.getClass());
+        final MetricObserver metricObserver = factory.createGraphiteMetricObserver(
+                PREFIX, HOST, PORT, mockPublishingMetrics);
+        assertEquals(NioGraphiteMetricObserver.OBSERVER_NAME_PREFIX + PREFIX, metricObserver.getName());
+        assertEquals(NioGraphiteMetricObserver.class, metricObserver.getClass());
+    }
+
+    @Test
+    public void testFactoryCreatePickleGraphiteMetricObserver() {
+        final MetricObserver metricObserver = factory.createPickleGraphiteMetricObserver(
+                PREFIX, HOST, PORT, mockPublishingMetrics);
+        assertEquals(PickleGraphiteMetricObserver.OBSERVER_NAME_PREFIX + PREFIX, metricObserver.getName());
+        assertEquals(PickleGraphiteMetricObserver.class, metricObserver.getClass());
+    }
+
+    @Test
+    public void testFactoryCreateUdpGraphiteMetricObserver() {
+        final MetricObserver metricObserver = factory.createUdpGraphiteMetricObserver(
+                PREFIX, HOST, PORT, mockPublishingMetrics);
+        assertEquals(UdpGraphiteMetricObserver.OBSERVER_NAME_PREFIX + PREFIX, metricObserver.getName());
+        assertEquals(UdpGraphiteMetricObserver.class, metricObserver.getClass());
+    }
+
+    @Test
+    public void testFactoryCreateInfluxDbMetricObserver() {
+        final MetricObserver metricObserver = factory.createInfluxDbMetricObserver(PREFIX, HOST, PORT,
+                DEFAULT_INFLUXDB_DATABASE, false, DEFAULT_INFLUXDB_BATCH_SIZE, mockPublishingMetrics);
+        assertEquals(InfluxDbMetricObserver.OBSERVER_NAME_PREFIX + PREFIX, metricObserver.getName());
+        assertEquals(InfluxDbMetricObserver.class, metricObserver.getClass());
+    }
+
+    @Test
+    public void testFactoryCreateSuppressingMetricObserver() {
+        when(mockMetricObserver.getName()).thenReturn(ASYNC_METRIC_OBSERVER_NAME);
+
+        final MetricObserver metricObserver = factory.createSuppressingMetricObserver(
+                mockMetricObserver, HEARTBEAT_INTERVALS);
+
+        assertEquals(SuppressingMetricObserver.OBSERVER_NAME_PREFIX + ASYNC_METRIC_OBSERVER_NAME,
+                metricObserver.getName());
+        assertEquals(SuppressingMetricObserver.class, metricObserver.getClass());
+        verify(mockMetricObserver).getName();
+    }
+
+    @Test
+    public void testFactoryCreateSpoolingMetricObserver() throws IOException {
+        final File spoolFile = File.createTempFile(PREFIX, ".spool");
+        spoolFile.deleteOnExit();
+        final BaseMetricObserver graphiteMetricObserver = factory.createGraphiteMetricObserver(
+                PREFIX, HOST, PORT, mockPublishingMetrics);
+
+        final MetricObserver metricObserver = factory.createSpoolingMetricObserver(
+                graphiteMetricObserver, spoolFile.getPath(), SPOOL_MAX_BYTES);
+
+        assertEquals(SpoolingMetricObserver.OBSERVER_NAME_PREFIX + graphiteMetricObserver.getName(),
+                metricObserver.getName());
+        assertEquals(SpoolingMetricObserver.class, metricObserver.getClass());
     }
 
     @Test
     public void testFactoryCreateTask() {
         when(mockMetricPoller.poll(any(MetricFilter.class), anyBoolean())).thenReturn(Collections.emptyList());
 
-        final PollRunnable task = factory.createTask(mockMetricPoller, Collections.emptyList());
+        final PollRunnable task = factory.createTask(
+                mockMetricPoller, BasicMetricFilter.MATCH_ALL, Collections.emptyList());
+        task.run();
+
+        verify(mockMetricPoller).poll(BasicMetricFilter.MATCH_ALL, true);
+    }
+
+    @Test
+    public void testFactoryCreateTaskSharesOnePollWithEverySink() {
+        final List<Metric> metrics = Collections.singletonList(
+                new Metric(MonitorConfig.builder(PREFIX).build(), 0, 1L));
+        when(mockMetricPoller.poll(any(MetricFilter.class), anyBoolean())).thenReturn(metrics);
+
+        final PollRunnable task = factory.createTask(mockMetricPoller, BasicMetricFilter.MATCH_ALL,
+                Arrays.asList(mockMetricObserver, mockAsyncMetricObserver));
         task.run();
 
         verify(mockMetricPoller).poll(BasicMetricFilter.MATCH_ALL, true);
+        verify(mockMetricObserver).update(metrics);
+        verify(mockAsyncMetricObserver).update(metrics);
+    }
+
+    @Test
+    public void testFactoryGetPublishingMetrics() {
+        assertSame(PublishingMetrics.getDefault(), factory.getPublishingMetrics(null, 0));
+        assertSame(PublishingMetrics.getDefault().forSink(1), factory.getPublishingMetrics(null, 1));
+        assertSame(PublishingMetrics.getDefault().forPublisher(PUBLISHER).forSink(1),
+                factory.getPublishingMetrics(PUBLISHER, 1));
     }
 
     @Test
@@ -307,9 +1061,16 @@ public class MetricPublishingTest {
     public void testFactoryCreateMonitorRegistryMetricPoller() {
         when(mockMetricPoller.poll(any(MetricFilter.class), anyBoolean())).thenReturn(Collections.emptyList());
 
-        final MetricPoller metricPoller = factory.createMonitorRegistryMetricPoller();
+        final PublishingScheduler mockPublishingScheduler = mock(PublishingScheduler.class);
+        final ArgumentCaptor<Runnable> stopAction = ArgumentCaptor.forClass(Runnable.class);
+
+        final MetricPoller metricPoller = factory.createMonitorRegistryMetricPoller(
+                TIER, PARALLEL_POLL_THRESHOLD, mockPublishingMetrics, mockPublishingScheduler);
 
-        assertEquals(MonitorRegistryMetricPoller.class, metricPoller.getClass());
+        assertEquals(InstrumentedMetricPoller.class, metricPoller.getClass());
+        verify(mockPublishingScheduler).whenStopped(stopAction.capture());
+        stopAction.getValue().run();
+        verifyNoMoreInteractions(mockPublishingScheduler);
     }
 
     @Test
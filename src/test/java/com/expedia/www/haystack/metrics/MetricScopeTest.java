@@ -0,0 +1,185 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricScopeTest {
+    private static final Random RANDOM = new Random();
+    private static final String SUBSYSTEM = RANDOM.nextLong() + "SUBSYSTEM";
+    private static final String APPLICATION = RANDOM.nextLong() + "APPLICATION";
+    private static final String CLASS = RANDOM.nextLong() + "CLASS";
+    private static final String METRIC_NAME = RANDOM.nextLong() + "METRIC_NAME";
+    private static final int LOOKUPS = 10;
+    private static final MonitorConfig MONITOR_CONFIG = MonitorConfig.builder(METRIC_NAME).build();
+
+    @Mock
+    private MetricObjects mockMetricObjects;
+
+    @Mock
+    private Counter mockCounter;
+
+    @Mock
+    private Timer mockTimer;
+
+    // Object under test
+    private MetricScope metricScope;
+
+    @Before
+    public void setUp() {
+        metricScope = new MetricScope(mockMetricObjects, SUBSYSTEM, APPLICATION, CLASS);
+        when(mockCounter.getConfig()).thenReturn(MONITOR_CONFIG);
+        when(mockTimer.getConfig()).thenReturn(MONITOR_CONFIG);
+    }
+
+    @After
+    public void tearDown() {
+        verifyNoMoreInteractions(mockMetricObjects);
+    }
+
+    @Test
+    public void testCounter() {
+        when(mockMetricObjects.createAndRegisterCounter(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(mockCounter);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertSame(mockCounter, metricScope.counter(METRIC_NAME));
+        }
+
+        verify(mockMetricObjects).createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+    }
+
+    @Test
+    public void testResettingCounter() {
+        when(mockMetricObjects.createAndRegisterResettingCounter(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(mockCounter);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertSame(mockCounter, metricScope.resettingCounter(METRIC_NAME));
+        }
+
+        verify(mockMetricObjects).createAndRegisterResettingCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+    }
+
+    @Test
+    public void testStripedResettingCounter() {
+        when(mockMetricObjects.createAndRegisterStripedResettingCounter(
+                anyString(), anyString(), anyString(), anyString())).thenReturn(mockCounter);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertSame(mockCounter, metricScope.stripedResettingCounter(METRIC_NAME));
+        }
+
+        verify(mockMetricObjects).createAndRegisterStripedResettingCounter(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+    }
+
+    @Test
+    public void testThreadLocalCounter() {
+        when(mockMetricObjects.createAndRegisterThreadLocalCounter(
+                anyString(), anyString(), anyString(), anyString())).thenReturn(mockCounter);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertSame(mockCounter, metricScope.threadLocalCounter(METRIC_NAME));
+        }
+
+        verify(mockMetricObjects).createAndRegisterThreadLocalCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+    }
+
+    @Test
+    public void testBasicTimer() {
+        when(mockMetricObjects.createAndRegisterBasicTimer(
+                anyString(), anyString(), anyString(), anyString(), any())).thenReturn(mockTimer);
+
+        assertSame(mockTimer, metricScope.basicTimer(METRIC_NAME, MILLISECONDS));
+        assertSame(mockTimer, metricScope.basicTimer(METRIC_NAME, MICROSECONDS));
+
+        verify(mockMetricObjects).createAndRegisterBasicTimer(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+    }
+
+    @Test
+    public void testHistogramTimer() {
+        when(mockMetricObjects.createAndRegisterHistogramTimer(
+                anyString(), anyString(), anyString(), anyString(), any())).thenReturn(mockTimer);
+
+        assertSame(mockTimer, metricScope.histogramTimer(METRIC_NAME, MILLISECONDS));
+        assertSame(mockTimer, metricScope.histogramTimer(METRIC_NAME, MICROSECONDS));
+
+        verify(mockMetricObjects).createAndRegisterHistogramTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+    }
+
+    @Test
+    public void testThreadLocalTimer() {
+        when(mockMetricObjects.createAndRegisterThreadLocalTimer(
+                anyString(), anyString(), anyString(), anyString(), any())).thenReturn(mockTimer);
+
+        assertSame(mockTimer, metricScope.threadLocalTimer(METRIC_NAME, MILLISECONDS));
+        assertSame(mockTimer, metricScope.threadLocalTimer(METRIC_NAME, MICROSECONDS));
+
+        verify(mockMetricObjects).createAndRegisterThreadLocalTimer(
+                SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME, MILLISECONDS);
+    }
+
+    @Test
+    public void testMeter() {
+        final Meter meter = new Meter(MONITOR_CONFIG);
+        when(mockMetricObjects.createAndRegisterMeter(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(meter);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertSame(meter, metricScope.meter(METRIC_NAME));
+        }
+
+        verify(mockMetricObjects).createAndRegisterMeter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+    }
+
+    @Test
+    public void testDifferentNamesAreDifferentMetrics() {
+        final Counter otherMockCounter = mock(Counter.class);
+        when(otherMockCounter.getConfig()).thenReturn(MONITOR_CONFIG);
+        when(mockMetricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME))
+                .thenReturn(mockCounter);
+        when(mockMetricObjects.createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, CLASS))
+                .thenReturn(otherMockCounter);
+
+        assertSame(mockCounter, metricScope.counter(METRIC_NAME));
+        assertSame(otherMockCounter, metricScope.counter(CLASS));
+
+        verify(mockMetricObjects).createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+        verify(mockMetricObjects).createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, CLASS);
+    }
+
+    @Test
+    public void testOverflowMetricsAreNotCached() {
+        when(mockCounter.getConfig()).thenReturn(MonitorConfig.builder(CardinalityLimiter.OVERFLOW_METRIC_NAME).build());
+        when(mockMetricObjects.createAndRegisterCounter(anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(mockCounter);
+
+        for (int i = 0; i < LOOKUPS; i++) {
+            assertSame(mockCounter, metricScope.counter(METRIC_NAME));
+        }
+
+        verify(mockMetricObjects, times(LOOKUPS)).createAndRegisterCounter(SUBSYSTEM, APPLICATION, CLASS, METRIC_NAME);
+    }
+}
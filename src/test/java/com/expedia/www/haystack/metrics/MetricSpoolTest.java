@@ -0,0 +1,191 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.MetricSpool.HEADER_BYTES;
+import static com.expedia.www.haystack.metrics.MetricSpool.MAGIC;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSpoolTest {
+    private static final Random RANDOM = new Random();
+    private static final int MAX_BYTES = 4096;
+    private static final long TIMESTAMP = RANDOM.nextLong();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File spoolFile;
+
+    // Object under test
+    private MetricSpool metricSpool;
+
+    @Before
+    public void setUp() throws IOException {
+        spoolFile = temporaryFolder.newFile();
+        metricSpool = new MetricSpool(spoolFile, MAX_BYTES);
+    }
+
+    @Test
+    public void testNewSpoolIsEmpty() {
+        assertTrue(metricSpool.isEmpty());
+        assertNull(metricSpool.peek());
+        assertEquals(0, metricSpool.getUsedBytes());
+    }
+
+    @Test
+    public void testAppendAndPeek() {
+        final Metric counter = new Metric(MonitorConfig.builder("COUNTER").withTag("subsystem", "pipes")
+                .withTag("type", "COUNTER").build(), TIMESTAMP, 42L);
+        final Metric gauge = new Metric(MonitorConfig.builder("GAUGE_\u00e9").build(), TIMESTAMP + 1, 1.5);
+        final Metric notANumber = new Metric(MonitorConfig.builder("NOT_A_NUMBER").build(), TIMESTAMP, "value");
+
+        assertTrue(metricSpool.append(Arrays.asList(counter, notANumber, gauge)));
+
+        assertFalse(metricSpool.isEmpty());
+        assertBatchEquals(Arrays.asList(counter, gauge), metricSpool.peek());
+        assertBatchEquals(Arrays.asList(counter, gauge), metricSpool.peek());
+    }
+
+    @Test
+    public void testBatchesAreRemovedOldestFirst() {
+        final List<Metric> first = createBatch("FIRST", 2);
+        final List<Metric> second = createBatch("SECOND", 3);
+        metricSpool.append(first);
+        metricSpool.append(second);
+
+        assertBatchEquals(first, metricSpool.peek());
+        metricSpool.remove();
+        assertBatchEquals(second, metricSpool.peek());
+        metricSpool.remove();
+
+        assertTrue(metricSpool.isEmpty());
+        assertNull(metricSpool.peek());
+        assertEquals(0, metricSpool.getUsedBytes());
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        metricSpool.append(Collections.emptyList());
+
+        assertFalse(metricSpool.isEmpty());
+        assertEquals(Collections.emptyList(), metricSpool.peek());
+        metricSpool.remove();
+        assertTrue(metricSpool.isEmpty());
+    }
+
+    @Test
+    public void testReopenResumesFromTheSpoolFile() throws IOException {
+        final List<Metric> second = createBatch("SECOND", 3);
+        metricSpool.append(createBatch("FIRST", 2));
+        metricSpool.append(second);
+        metricSpool.remove();
+        metricSpool.close();
+
+        final MetricSpool reopenedMetricSpool = new MetricSpool(spoolFile, MAX_BYTES);
+
+        assertBatchEquals(second, reopenedMetricSpool.peek());
+        reopenedMetricSpool.remove();
+        assertTrue(reopenedMetricSpool.isEmpty());
+    }
+
+    @Test
+    public void testInvalidSpoolFilesAreStartedAfresh() throws IOException {
+        assertStartedAfresh(MAGIC + 1, HEADER_BYTES, HEADER_BYTES + 1, MAX_BYTES);
+        assertStartedAfresh(MAGIC, HEADER_BYTES - 1, HEADER_BYTES + 1, MAX_BYTES);
+        assertStartedAfresh(MAGIC, HEADER_BYTES + 1, HEADER_BYTES, MAX_BYTES);
+        assertStartedAfresh(MAGIC, HEADER_BYTES, MAX_BYTES, MAX_BYTES / 2);
+    }
+
+    @Test
+    public void testAppendMovesUnreadBatchesToStartWhenFull() throws IOException {
+        // Each batch is about 17 KB, larger than the 8 KB chunks that compaction copies; four fit, five do not
+        metricSpool = new MetricSpool(temporaryFolder.newFile(), 80000);
+        final List<List<Metric>> batches = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            batches.add(createBatch("BATCH_" + i, 200));
+            assertTrue(metricSpool.append(batches.get(i)));
+        }
+        metricSpool.remove();
+        final int usedBytes = metricSpool.getUsedBytes();
+
+        final List<Metric> fifth = createBatch("BATCH_4", 200);
+        assertTrue(metricSpool.append(fifth));
+        batches.add(fifth);
+
+        assertTrue(metricSpool.getUsedBytes() > usedBytes);
+        for (int i = 1; i < batches.size(); i++) {
+            assertBatchEquals(batches.get(i), metricSpool.peek());
+            metricSpool.remove();
+        }
+        assertTrue(metricSpool.isEmpty());
+    }
+
+    @Test
+    public void testAppendWhenBatchDoesNotFit() {
+        final List<Metric> first = createBatch("FIRST", 2);
+        metricSpool.append(first);
+
+        assertFalse(metricSpool.append(createBatch("TOO_LARGE", 1000)));
+
+        assertBatchEquals(first, metricSpool.peek());
+        metricSpool.remove();
+        assertTrue(metricSpool.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxBytes() throws IOException {
+        new MetricSpool(spoolFile, -1);
+    }
+
+    private void assertStartedAfresh(int magic, int readPosition, int writePosition, int maxBytes)
+            throws IOException {
+        final File file = temporaryFolder.newFile();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.writeInt(magic);
+            randomAccessFile.writeInt(readPosition);
+            randomAccessFile.writeInt(writePosition);
+        }
+
+        final MetricSpool startedAfresh = new MetricSpool(file, maxBytes);
+
+        assertTrue(startedAfresh.isEmpty());
+        assertEquals(0, startedAfresh.getUsedBytes());
+    }
+
+    private static List<Metric> createBatch(String name, int count) {
+        final List<Metric> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final MonitorConfig monitorConfig = MonitorConfig.builder(name + '_' + i)
+                    .withTag("subsystem", "pipes").withTag("class", "MetricSpoolTest").build();
+            metrics.add(new Metric(monitorConfig, TIMESTAMP + i, (double) i));
+        }
+        return metrics;
+    }
+
+    private static void assertBatchEquals(List<Metric> expected, List<Metric> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getConfig(), actual.get(i).getConfig());
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getNumberValue().doubleValue(), actual.get(i).getNumberValue().doubleValue(),
+                    0.0);
+        }
+    }
+}
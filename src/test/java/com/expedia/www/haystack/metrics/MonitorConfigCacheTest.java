@@ -0,0 +1,67 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MonitorConfigCacheTest {
+    private static final Random RANDOM = new Random();
+    private static final String NAME = RANDOM.nextLong() + "NAME";
+    private static final int MAX_SIZE = 2;
+
+    private final AtomicInteger loadCount = new AtomicInteger();
+
+    // Object under test
+    private MonitorConfigCache<String> monitorConfigCache;
+
+    @Before
+    public void setUp() {
+        monitorConfigCache = new MonitorConfigCache<>(MAX_SIZE, config -> {
+            loadCount.incrementAndGet();
+            return new String(config.getName());
+        });
+    }
+
+    @Test
+    public void testGetLoadsOnce() {
+        final MonitorConfig config = MonitorConfig.builder(NAME).build();
+
+        final String value = monitorConfigCache.get(config);
+
+        assertSame(value, monitorConfigCache.get(config));
+        assertEquals(NAME, value);
+        assertEquals(1, loadCount.get());
+        assertEquals(1, monitorConfigCache.size());
+    }
+
+    @Test
+    public void testGetMatchesEqualConfigs() {
+        final String value = monitorConfigCache.get(MonitorConfig.builder(NAME).withTag("tag", "value").build());
+
+        assertSame(value, monitorConfigCache.get(MonitorConfig.builder(NAME).withTag("tag", "value").build()));
+        assertEquals(1, loadCount.get());
+    }
+
+    @Test
+    public void testGetDropsTheLeastRecentlyUsedValue() {
+        final MonitorConfig first = MonitorConfig.builder(NAME + 1).build();
+        final MonitorConfig second = MonitorConfig.builder(NAME + 2).build();
+        final String firstValue = monitorConfigCache.get(first);
+        monitorConfigCache.get(second);
+        monitorConfigCache.get(first);
+
+        monitorConfigCache.get(MonitorConfig.builder(NAME + 3).build());
+
+        assertEquals(MAX_SIZE, monitorConfigCache.size());
+        assertSame(firstValue, monitorConfigCache.get(first));
+        assertEquals(3, loadCount.get());
+        monitorConfigCache.get(second);
+        assertEquals(4, loadCount.get());
+    }
+}
@@ -0,0 +1,277 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.CONNECTED_MSG;
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.NAME_TOO_LONG_MSG;
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.OBSERVER_NAME_PREFIX;
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.WRITE_FAILED_MSG;
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.WRITE_TIMED_OUT_MSG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NioGraphiteMetricObserverTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+    private static final String LOCAL_HOST_NAME = "localhost";
+    private static final long TIMESTAMP_SECONDS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final long TIMEOUT_MILLIS = 30000;
+    private static final long WRITE_TIMEOUT_MILLIS = 100;
+    private static final int THROUGHPUT_METRICS_PER_UPDATE = 20000;
+    private static final int THROUGHPUT_UPDATES = 10;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    private FakeCarbonListener fakeCarbonListener;
+
+    // Object under test
+    private NioGraphiteMetricObserver nioGraphiteMetricObserver;
+
+    @Before
+    public void setUp() throws IOException {
+        fakeCarbonListener = new FakeCarbonListener();
+        nioGraphiteMetricObserver = createObserver(fakeCarbonListener.getPort(),
+                NioGraphiteMetricObserver.DEFAULT_BUFFER_SIZE, NioGraphiteMetricObserver.DEFAULT_BUFFER_COUNT,
+                NioGraphiteMetricObserver.DEFAULT_WRITE_TIMEOUT_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        nioGraphiteMetricObserver.stop();
+        fakeCarbonListener.close();
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    private NioGraphiteMetricObserver createObserver(int port, int bufferSize, int bufferCount,
+                                                     long writeTimeoutMillis) {
+        final GraphiteLineEncoder encoder = new GraphiteLineEncoder(
+                PREFIX, new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME));
+        return new NioGraphiteMetricObserver(
+                OBSERVER_NAME_PREFIX + PREFIX, HOST, port, encoder, mockLogger, mockPublishingMetrics, bufferSize,
+                bufferCount, writeTimeoutMillis);
+    }
+
+    @Test
+    public void testPublicConstructor() {
+        final NioGraphiteMetricObserver observer = new NioGraphiteMetricObserver(PREFIX, HOST,
+                fakeCarbonListener.getPort(), new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME));
+
+        assertEquals(OBSERVER_NAME_PREFIX + PREFIX, observer.getName());
+        assertFalse(observer.isConnected());
+    }
+
+    @Test
+    public void testUpdate() throws InterruptedException {
+        final List<Metric> metrics = Arrays.asList(
+                createMetric("COUNTER", 42L),
+                new Metric(MonitorConfig.builder("NOT_A_NUMBER").build(), 0, "value"),
+                createMetric("TIMER", 1.5));
+
+        nioGraphiteMetricObserver.update(metrics);
+
+        final List<String> lines = fakeCarbonListener.awaitLines(2, TIMEOUT_MILLIS);
+        assertEquals(Arrays.asList(
+                "haystack.MISSING_TAG_subsystem.MISSING_TAG_application.localhost.MISSING_TAG_class.COUNTER_"
+                        + "MISSING_TAG_type 42 " + TIMESTAMP_SECONDS,
+                "haystack.MISSING_TAG_subsystem.MISSING_TAG_application.localhost.MISSING_TAG_class.TIMER_"
+                        + "MISSING_TAG_type 1.5 " + TIMESTAMP_SECONDS), lines);
+        assertTrue(nioGraphiteMetricObserver.isConnected());
+        verifyConnected(1);
+        final long byteCount = lines.get(0).length() + lines.get(1).length() + 2;
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), anyLong(), eq(byteCount));
+    }
+
+    @Test
+    public void testUpdateReusesConnection() throws InterruptedException {
+        final List<Metric> metrics = Collections.singletonList(createMetric("COUNTER", 1));
+
+        nioGraphiteMetricObserver.update(metrics);
+        nioGraphiteMetricObserver.update(metrics);
+        nioGraphiteMetricObserver.update(Collections.emptyList());
+
+        assertEquals(2, fakeCarbonListener.awaitLines(2, TIMEOUT_MILLIS).size());
+        assertEquals(1, fakeCarbonListener.getConnectionCount());
+        verifyConnected(1);
+    }
+
+    @Test
+    public void testUpdateFillsEveryBuffer() throws InterruptedException {
+        nioGraphiteMetricObserver = createObserver(fakeCarbonListener.getPort(), 256, 2,
+                NioGraphiteMetricObserver.DEFAULT_WRITE_TIMEOUT_MILLIS);
+        final List<Metric> metrics = createMetrics(100);
+
+        nioGraphiteMetricObserver.update(metrics);
+
+        final List<String> lines = fakeCarbonListener.awaitLines(metrics.size(), TIMEOUT_MILLIS);
+        assertEquals(metrics.size(), lines.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            assertTrue(lines.get(i), lines.get(i).endsWith("METRIC_" + i + "_MISSING_TAG_type " + i + ' '
+                    + TIMESTAMP_SECONDS));
+        }
+        verifyConnected(1);
+    }
+
+    @Test
+    public void testUpdateSkipsLineTooLongForBuffer() {
+        nioGraphiteMetricObserver = createObserver(fakeCarbonListener.getPort(), 64, 1,
+                NioGraphiteMetricObserver.DEFAULT_WRITE_TIMEOUT_MILLIS);
+        final Metric metric = createMetric("COUNTER", 1);
+
+        nioGraphiteMetricObserver.update(Collections.singletonList(metric));
+        nioGraphiteMetricObserver.update(Collections.singletonList(metric));
+
+        assertEquals(0, nioGraphiteMetricObserver.getFailedUpdateCount());
+        verifyConnected(1);
+        verify(mockLogger).warn(String.format(NAME_TOO_LONG_MSG, metric.getConfig(), 64));
+    }
+
+    @Test
+    public void testUpdateWhenConnectFails() throws IOException {
+        fakeCarbonListener.close();
+        final List<Metric> metrics = Collections.singletonList(createMetric("COUNTER", 1));
+
+        nioGraphiteMetricObserver.update(metrics);
+
+        assertFalse(nioGraphiteMetricObserver.isConnected());
+        assertEquals(1, nioGraphiteMetricObserver.getFailedUpdateCount());
+        verify(mockPublishingMetrics).recordSendFailure();
+        verify(mockLogger).warn(eq(String.format(WRITE_FAILED_MSG, 1, HOST, fakeCarbonListener.getPort())),
+                any(IOException.class));
+    }
+
+    @Test
+    public void testUpdateReconnectsAfterWriteFails() throws IOException, InterruptedException {
+        final List<Metric> metrics = createMetrics(1000);
+        nioGraphiteMetricObserver.update(metrics);
+        fakeCarbonListener.awaitLines(metrics.size(), TIMEOUT_MILLIS);
+
+        fakeCarbonListener.resetConnections();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (nioGraphiteMetricObserver.getFailedUpdateCount() == 0 && System.currentTimeMillis() < deadline) {
+            nioGraphiteMetricObserver.update(metrics);
+        }
+        assertEquals(1, nioGraphiteMetricObserver.getFailedUpdateCount());
+        assertFalse(nioGraphiteMetricObserver.isConnected());
+
+        nioGraphiteMetricObserver.update(metrics);
+        assertTrue(nioGraphiteMetricObserver.isConnected());
+        assertEquals(2, fakeCarbonListener.getConnectionCount());
+        verifyConnected(2);
+        verify(mockLogger).warn(eq(String.format(WRITE_FAILED_MSG, metrics.size(), HOST,
+                fakeCarbonListener.getPort())), any(IOException.class));
+    }
+
+    @Test
+    public void testUpdateFailsWhenGraphiteStopsReading() throws IOException {
+        try (ServerSocketChannel silentListener = ServerSocketChannel.open()) {
+            // Never accepted, so the connection completes but nothing is ever read from it
+            silentListener.bind(new InetSocketAddress(HOST, 0), 1);
+            final int port = silentListener.socket().getLocalPort();
+            nioGraphiteMetricObserver = createObserver(port, NioGraphiteMetricObserver.DEFAULT_BUFFER_SIZE,
+                    NioGraphiteMetricObserver.DEFAULT_BUFFER_COUNT, WRITE_TIMEOUT_MILLIS);
+            final List<Metric> metrics = createMetrics(THROUGHPUT_METRICS_PER_UPDATE);
+            final ArgumentCaptor<IOException> exception = ArgumentCaptor.forClass(IOException.class);
+
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (nioGraphiteMetricObserver.getFailedUpdateCount() == 0 && System.currentTimeMillis() < deadline) {
+                nioGraphiteMetricObserver.update(metrics);
+            }
+
+            assertEquals(1, nioGraphiteMetricObserver.getFailedUpdateCount());
+            assertFalse(nioGraphiteMetricObserver.isConnected());
+            verify(mockPublishingMetrics).recordConnect();
+            verify(mockLogger).info(String.format(CONNECTED_MSG, HOST, port));
+            verify(mockPublishingMetrics).recordSendFailure();
+            verify(mockLogger).warn(eq(String.format(WRITE_FAILED_MSG, metrics.size(), HOST, port)),
+                    exception.capture());
+            assertEquals(SocketTimeoutException.class, exception.getValue().getClass());
+            assertEquals(String.format(WRITE_TIMED_OUT_MSG, HOST, port, WRITE_TIMEOUT_MILLIS),
+                    exception.getValue().getMessage());
+        }
+    }
+
+    @Test
+    public void testThroughput() throws InterruptedException {
+        final List<Metric> metrics = createMetrics(THROUGHPUT_METRICS_PER_UPDATE);
+        final long expectedLineCount = (long) THROUGHPUT_METRICS_PER_UPDATE * THROUGHPUT_UPDATES;
+
+        for (int i = 0; i < THROUGHPUT_UPDATES; i++) {
+            nioGraphiteMetricObserver.update(metrics);
+        }
+
+        fakeCarbonListener.awaitLines(expectedLineCount, TIMEOUT_MILLIS);
+        assertEquals(expectedLineCount, fakeCarbonListener.getLineCount());
+        assertEquals(1, fakeCarbonListener.getConnectionCount());
+        assertEquals(0, nioGraphiteMetricObserver.getFailedUpdateCount());
+        verifyConnected(1);
+    }
+
+    @Test
+    public void testStopWhenNotConnected() {
+        nioGraphiteMetricObserver.stop();
+
+        assertFalse(nioGraphiteMetricObserver.isConnected());
+    }
+
+    @Test
+    public void testCloseQuietly() throws IOException {
+        final Closeable mockCloseable = mock(Closeable.class);
+        doThrow(new IOException("Test")).when(mockCloseable).close();
+
+        NioGraphiteMetricObserver.closeQuietly(mockCloseable);
+
+        verify(mockCloseable).close();
+    }
+
+    private void verifyConnected(int times) {
+        verify(mockPublishingMetrics, times(times)).recordConnect();
+        verify(mockLogger, times(times)).info(String.format(CONNECTED_MSG, HOST, fakeCarbonListener.getPort()));
+    }
+
+    private static Metric createMetric(String name, Object value) {
+        return new Metric(MonitorConfig.builder(name).build(), TIMESTAMP_SECONDS * 1000, value);
+    }
+
+    private static List<Metric> createMetrics(int count) {
+        final List<Metric> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            metrics.add(createMetric("METRIC_" + i, (long) i));
+        }
+        return metrics;
+    }
+}
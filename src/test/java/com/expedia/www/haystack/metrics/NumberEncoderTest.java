@@ -0,0 +1,84 @@
+package com.expedia.www.haystack.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class NumberEncoderTest {
+    private static final int BUFFER_SIZE = 64;
+
+    // Object under test
+    private NumberEncoder numberEncoder;
+
+    @Before
+    public void setUp() {
+        numberEncoder = new NumberEncoder();
+    }
+
+    @Test
+    public void testPutNumberIntegers() {
+        assertEquals("0", putNumber(0));
+        assertEquals("7", putNumber(7));
+        assertEquals("-7", putNumber(-7));
+        assertEquals("1234567890", putNumber(1234567890L));
+        assertEquals(Long.toString(Long.MAX_VALUE), putNumber(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MIN_VALUE), putNumber(Long.MIN_VALUE));
+        assertEquals("12", putNumber((short) 12));
+    }
+
+    @Test
+    public void testPutNumberFixedPointDoubles() {
+        assertEquals("3", putNumber(3.0));
+        assertEquals("-3", putNumber(-3.0));
+        assertEquals("0.5", putNumber(0.5));
+        assertEquals("-0.25", putNumber(-0.25));
+        assertEquals("0.333333333", putNumber(1.0 / 3));
+        assertEquals("123456.789", putNumber(123456.789));
+        assertEquals("0.0001", putNumber(0.0001));
+        assertEquals("1", putNumber(0.9999999999));
+        assertEquals("0.3", putNumber(0.1 + 0.2));
+    }
+
+    @Test
+    public void testPutNumberWritesAtMostFifteenSignificantDigits() {
+        assertEquals("123456789.123457", putNumber(123456789.123456789));
+        assertEquals("-1234567.12345679", putNumber(-1234567.123456789));
+        assertEquals("999999999.999999", putNumber(999999999.999999));
+        assertEquals("1000000000", putNumber(999999999.9999999));
+    }
+
+    @Test
+    public void testPutNumberFloats() {
+        assertEquals("3", putNumber(3f));
+        assertEquals("1.5", putNumber(1.5f));
+        assertEquals("0.1", putNumber(0.1f));
+        assertEquals("-123456.79", putNumber(-123456.79f));
+        assertEquals("1.0E-5", putNumber(0.00001f));
+    }
+
+    @Test
+    public void testPutNumberOtherDoubles() {
+        assertEquals(Double.toString(0.00001), putNumber(0.00001));
+        assertEquals(Double.toString(1e12 + 0.5), putNumber(1e12 + 0.5));
+        assertEquals(Double.toString(1e30), putNumber(1e30));
+        assertEquals("NaN", putNumber(Double.NaN));
+        assertEquals("Infinity", putNumber(Double.POSITIVE_INFINITY));
+    }
+
+    private String putNumber(Number number) {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        numberEncoder.putNumber(buffer, number);
+        return toString(buffer);
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        buffer.flip();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
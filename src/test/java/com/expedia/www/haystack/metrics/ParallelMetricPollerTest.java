@@ -0,0 +1,322 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.BasicMonitorRegistry;
+import com.netflix.servo.Metric;
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.CompositeMonitor;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BasicMetricFilter;
+import com.netflix.servo.publish.MetricFilter;
+import com.netflix.servo.publish.MonitorRegistryMetricPoller;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static com.expedia.www.haystack.metrics.ParallelMetricPoller.MONITORS_FAILED_MSG;
+import static com.expedia.www.haystack.metrics.ParallelMetricPoller.POLL_INTERRUPTED_MSG;
+import static com.expedia.www.haystack.metrics.ParallelMetricPoller.SHARD_FAILED_MSG;
+import static com.expedia.www.haystack.metrics.ParallelMetricPoller.SHARD_NOT_STARTED_MSG;
+import static com.expedia.www.haystack.metrics.ParallelMetricPoller.SHARD_TIMED_OUT_MSG;
+import static com.expedia.www.haystack.metrics.ParallelMetricPoller.VALUE_FAILED_MSG;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ParallelMetricPollerTest {
+    private static final int SHARD_SIZE = 8;
+    private static final int PARALLELISM = 4;
+    private static final int COUNTER_COUNT = 100;
+    private static final long TIME_LIMIT_MILLIS = 10000;
+    private static final long SHORT_TIME_LIMIT_MILLIS = 100;
+
+    @Mock
+    private Logger mockLogger;
+
+    private MonitorRegistry monitorRegistry;
+
+    // Object under test
+    private ParallelMetricPoller parallelMetricPoller;
+
+    @Before
+    public void setUp() {
+        monitorRegistry = new BasicMonitorRegistry();
+        parallelMetricPoller = new ParallelMetricPoller(
+                monitorRegistry, SHARD_SIZE, PARALLELISM, SHARD_SIZE, TIME_LIMIT_MILLIS, mockLogger);
+    }
+
+    @After
+    public void tearDown() {
+        parallelMetricPoller.shutdown();
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    @Test
+    public void testPublicConstructors() {
+        registerCounters(COUNTER_COUNT);
+        final ParallelMetricPoller serialPoller = new ParallelMetricPoller(monitorRegistry, 0);
+        final ParallelMetricPoller parallelPoller =
+                new ParallelMetricPoller(monitorRegistry, SHARD_SIZE, PARALLELISM, SHARD_SIZE, TIME_LIMIT_MILLIS);
+
+        assertEquals(COUNTER_COUNT, serialPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+        assertEquals(COUNTER_COUNT, parallelPoller.poll(BasicMetricFilter.MATCH_ALL, true).size());
+        serialPoller.shutdown();
+        parallelPoller.shutdown();
+    }
+
+    @Test
+    public void testPollMatchesSerialPollInRegistryOrder() {
+        registerCounters(COUNTER_COUNT);
+        monitorRegistry.register(new HistogramTimer(MonitorConfig.builder("TIMER").build(), MILLISECONDS));
+
+        final List<Metric> expected = new MonitorRegistryMetricPoller(monitorRegistry, 0, MILLISECONDS, false)
+                .poll(BasicMetricFilter.MATCH_ALL);
+        final List<Metric> actual = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+
+        assertEquals(COUNTER_COUNT + HistogramTimer.STATISTIC_PERCENTILES.length + 2, actual.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getConfig(), actual.get(i).getConfig());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue());
+            assertEquals(actual.get(0).getTimestamp(), actual.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testPollSmallRegistrySerially() {
+        registerCounters(SHARD_SIZE);
+
+        assertEquals(SHARD_SIZE, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+    }
+
+    @Test
+    public void testPollNeverInParallelWhenThresholdIsZero() {
+        registerCounters(COUNTER_COUNT);
+        parallelMetricPoller = new ParallelMetricPoller(
+                monitorRegistry, 0, PARALLELISM, SHARD_SIZE, TIME_LIMIT_MILLIS, mockLogger);
+
+        assertEquals(COUNTER_COUNT, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+    }
+
+    @Test
+    public void testPollReusesThreadsUntilShutdown() {
+        parallelMetricPoller.shutdown();
+        registerCounters(SHARD_SIZE);
+        assertEquals(SHARD_SIZE, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+        assertEquals(SHARD_SIZE, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+        registerCounters(COUNTER_COUNT);
+        assertEquals(COUNTER_COUNT, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+        assertEquals(COUNTER_COUNT, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+
+        parallelMetricPoller.shutdown();
+        parallelMetricPoller.shutdown();
+
+        assertEquals(COUNTER_COUNT, parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL).size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPollLeavesOutShardsThatAreNotReadInTime() {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Monitor<Object> blockingMonitor = mock(Monitor.class);
+        when(blockingMonitor.getConfig()).thenReturn(MonitorConfig.builder("BLOCKING").build());
+        when(blockingMonitor.getValue()).thenAnswer(invocation -> {
+            release.await();
+            return 0;
+        });
+        final List<Monitor<?>> monitors = createCounters(SHARD_SIZE * 2);
+        monitors.add(blockingMonitor);
+        parallelMetricPoller = new ParallelMetricPoller(createRegistry(monitors),
+                SHARD_SIZE, PARALLELISM, SHARD_SIZE, SHORT_TIME_LIMIT_MILLIS, mockLogger);
+
+        final List<Metric> metrics = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+        release.countDown();
+
+        assertEquals(SHARD_SIZE * 2, metrics.size());
+        verify(mockLogger).warn(String.format(
+                SHARD_TIMED_OUT_MSG, SHARD_SIZE * 2, SHARD_SIZE * 2, SHORT_TIME_LIMIT_MILLIS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPollPublishesShardsThatWereStillBeingReadWithALaterPoll() {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Monitor<Object> blockingMonitor = mock(Monitor.class);
+        when(blockingMonitor.getConfig()).thenReturn(MonitorConfig.builder("BLOCKING").build());
+        when(blockingMonitor.getValue()).thenAnswer(invocation -> {
+            release.await();
+            return 0;
+        });
+        final List<Monitor<?>> monitors = createCounters(SHARD_SIZE * 2);
+        monitors.add(0, blockingMonitor);
+        // One thread, so that the shards after the blocked one do not start before the time limit
+        parallelMetricPoller = new ParallelMetricPoller(createRegistry(monitors),
+                SHARD_SIZE, 1, SHARD_SIZE, SHORT_TIME_LIMIT_MILLIS, mockLogger);
+
+        final List<Metric> firstPoll = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+        release.countDown();
+        // The shards of the second poll wait for the blocked shard on the one thread, so the third poll finds it done
+        final List<Metric> laterPolls = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+        laterPolls.addAll(parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL));
+
+        assertTrue(firstPoll.isEmpty());
+        assertEquals(SHARD_SIZE + 2 * monitors.size(), laterPolls.size());
+        int blockingMetrics = 0;
+        for (Metric metric : laterPolls) {
+            if ("BLOCKING".equals(metric.getConfig().getName())) {
+                blockingMetrics++;
+            }
+        }
+        assertEquals(3, blockingMetrics);
+        verify(blockingMonitor, times(3)).getValue();
+        verify(mockLogger).warn(String.format(SHARD_TIMED_OUT_MSG, 0, SHARD_SIZE - 1, SHORT_TIME_LIMIT_MILLIS));
+        verify(mockLogger).warn(String.format(
+                SHARD_NOT_STARTED_MSG, SHARD_SIZE, SHARD_SIZE * 2 - 1, SHORT_TIME_LIMIT_MILLIS));
+        verify(mockLogger).warn(String.format(
+                SHARD_NOT_STARTED_MSG, SHARD_SIZE * 2, SHARD_SIZE * 2, SHORT_TIME_LIMIT_MILLIS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPollLogsShardsThatFailAfterTheirPoll() {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Monitor<Object> blockingMonitor = mock(Monitor.class);
+        when(blockingMonitor.getConfig()).thenReturn(MonitorConfig.builder("BLOCKING").build());
+        when(blockingMonitor.getValue()).thenAnswer(invocation -> {
+            release.await();
+            throw new AssertionError("Test");
+        });
+        final List<Monitor<?>> monitors = createCounters(SHARD_SIZE);
+        monitors.add(0, blockingMonitor);
+        parallelMetricPoller = new ParallelMetricPoller(createRegistry(monitors),
+                SHARD_SIZE, 1, SHARD_SIZE, SHORT_TIME_LIMIT_MILLIS, mockLogger);
+
+        final List<Metric> firstPoll = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+        release.countDown();
+        final List<Metric> laterPolls = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+        laterPolls.addAll(parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL));
+
+        assertTrue(firstPoll.isEmpty());
+        assertEquals(2, laterPolls.size());
+        verify(mockLogger).warn(String.format(SHARD_TIMED_OUT_MSG, 0, SHARD_SIZE - 1, SHORT_TIME_LIMIT_MILLIS));
+        verify(mockLogger).warn(String.format(SHARD_NOT_STARTED_MSG, SHARD_SIZE, SHARD_SIZE, SHORT_TIME_LIMIT_MILLIS));
+        verify(mockLogger, times(3)).warn(eq(String.format(SHARD_FAILED_MSG, 0, SHARD_SIZE - 1)),
+                isA(AssertionError.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPollLeavesOutShardsWhoseReadingFails() {
+        final Monitor<Object> errorMonitor = mock(Monitor.class);
+        when(errorMonitor.getConfig()).thenReturn(MonitorConfig.builder("ERROR").build());
+        when(errorMonitor.getValue()).thenThrow(new AssertionError("Test"));
+        final List<Monitor<?>> monitors = createCounters(SHARD_SIZE * 2);
+        monitors.add(0, errorMonitor);
+        parallelMetricPoller = new ParallelMetricPoller(createRegistry(monitors),
+                SHARD_SIZE, PARALLELISM, SHARD_SIZE, TIME_LIMIT_MILLIS, mockLogger);
+        final ArgumentCaptor<Throwable> cause = ArgumentCaptor.forClass(Throwable.class);
+
+        final List<Metric> metrics = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+
+        assertEquals(SHARD_SIZE + 1, metrics.size());
+        verify(mockLogger).warn(eq(String.format(SHARD_FAILED_MSG, 0, SHARD_SIZE - 1)), cause.capture());
+        assertEquals(AssertionError.class, cause.getValue().getClass());
+    }
+
+    @Test
+    public void testInterruptedPollLeavesOutTheRemainingShards() {
+        registerCounters(COUNTER_COUNT);
+
+        Thread.currentThread().interrupt();
+        final List<Metric> metrics = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+
+        assertTrue(Thread.interrupted());
+        assertTrue(metrics.isEmpty());
+        verify(mockLogger).warn(String.format(POLL_INTERRUPTED_MSG, 0, COUNTER_COUNT - 1));
+    }
+
+    @Test
+    public void testPollAppliesFilter() {
+        registerCounters(COUNTER_COUNT);
+        final MetricFilter filter = config -> config.getName().endsWith("7");
+
+        final List<Metric> metrics = parallelMetricPoller.poll(filter);
+
+        assertEquals(COUNTER_COUNT / 10, metrics.size());
+        for (Metric metric : metrics) {
+            assertEquals('7', metric.getConfig().getName().charAt(metric.getConfig().getName().length() - 1));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPollSkipsNullAndFailingMonitors() {
+        final Monitor<Object> nullMonitor = mock(Monitor.class);
+        final MonitorConfig nullConfig = MonitorConfig.builder("NULL").build();
+        when(nullMonitor.getConfig()).thenReturn(nullConfig);
+        final Monitor<Object> failingMonitor = mock(Monitor.class);
+        final MonitorConfig failingConfig = MonitorConfig.builder("FAILING").build();
+        final RuntimeException valueException = new IllegalStateException("Test");
+        when(failingMonitor.getConfig()).thenReturn(failingConfig);
+        when(failingMonitor.getValue()).thenThrow(valueException);
+        final CompositeMonitor<Object> failingComposite = mock(CompositeMonitor.class);
+        final MonitorConfig failingCompositeConfig = MonitorConfig.builder("FAILING_COMPOSITE").build();
+        final RuntimeException monitorsException = new IllegalStateException("Test");
+        when(failingComposite.getConfig()).thenReturn(failingCompositeConfig);
+        when(failingComposite.getMonitors()).thenThrow(monitorsException);
+        monitorRegistry.register(nullMonitor);
+        monitorRegistry.register(failingMonitor);
+        monitorRegistry.register(failingComposite);
+        registerCounters(SHARD_SIZE);
+
+        final List<Metric> metrics = parallelMetricPoller.poll(BasicMetricFilter.MATCH_ALL);
+
+        assertEquals(SHARD_SIZE, metrics.size());
+        for (Metric metric : metrics) {
+            assertTrue(metric.getConfig().getName().startsWith("COUNTER_"));
+        }
+        verify(mockLogger).warn(String.format(VALUE_FAILED_MSG, failingConfig), valueException);
+        verify(mockLogger).warn(String.format(MONITORS_FAILED_MSG, failingCompositeConfig), monitorsException);
+    }
+
+    private void registerCounters(int count) {
+        for (Monitor<?> counter : createCounters(count)) {
+            monitorRegistry.register(counter);
+        }
+    }
+
+    private static List<Monitor<?>> createCounters(int count) {
+        final List<Monitor<?>> counters = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final BasicCounter counter = new BasicCounter(MonitorConfig.builder("COUNTER_" + i).build());
+            counter.increment(i);
+            counters.add(counter);
+        }
+        return counters;
+    }
+
+    // BasicMonitorRegistry does not keep the order of registration, which these tests need
+    private static MonitorRegistry createRegistry(List<Monitor<?>> monitors) {
+        final MonitorRegistry registry = mock(MonitorRegistry.class);
+        when(registry.getRegisteredMonitors()).thenReturn(monitors);
+        return registry;
+    }
+}
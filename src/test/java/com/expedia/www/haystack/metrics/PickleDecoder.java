@@ -0,0 +1,101 @@
+package com.expedia.www.haystack.metrics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.APPENDS;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.BINFLOAT;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.BININT;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.BINUNICODE;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.EMPTY_LIST;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.MARK;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.PROTO;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.STOP;
+import static com.expedia.www.haystack.metrics.GraphitePickleEncoder.TUPLE2;
+
+/**
+ * Decodes length-prefixed pickle batches the way Carbon's pickle receiver does, but only for the opcodes that
+ * GraphitePickleEncoder writes; each metric is returned as the String "path timestamp value", so that tests can compare
+ * it with the plaintext protocol. Anything unexpected throws IllegalStateException.
+ */
+class PickleDecoder {
+    private PickleDecoder() {
+        // Only static methods
+    }
+
+    static List<String> decodeBatches(byte[] bytes) {
+        final List<String> metrics = new ArrayList<>();
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            final int length = buffer.getInt();
+            final ByteBuffer batch = buffer.slice();
+            batch.limit(length);
+            metrics.addAll(decodeBatch(batch));
+            buffer.position(buffer.position() + length);
+        }
+        return metrics;
+    }
+
+    static int countBatches(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int count = 0;
+        while (buffer.hasRemaining()) {
+            final int length = buffer.getInt();
+            buffer.position(buffer.position() + length);
+            count++;
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> decodeBatch(ByteBuffer batch) {
+        final Deque<Object> stack = new ArrayDeque<>();
+        final Deque<Integer> marks = new ArrayDeque<>();
+        while (true) {
+            final byte opcode = batch.get();
+            if (opcode == PROTO) {
+                check(batch.get() == 2);
+            } else if (opcode == EMPTY_LIST) {
+                stack.push(new ArrayList<String>());
+            } else if (opcode == MARK) {
+                marks.push(stack.size());
+            } else if (opcode == BINUNICODE) {
+                final byte[] utf8 = new byte[batch.order(ByteOrder.LITTLE_ENDIAN).getInt()];
+                batch.order(ByteOrder.BIG_ENDIAN).get(utf8);
+                stack.push(new String(utf8, StandardCharsets.UTF_8));
+            } else if (opcode == BININT) {
+                stack.push((long) batch.order(ByteOrder.LITTLE_ENDIAN).getInt());
+                batch.order(ByteOrder.BIG_ENDIAN);
+            } else if (opcode == BINFLOAT) {
+                stack.push(batch.getDouble());
+            } else if (opcode == TUPLE2) {
+                final Object second = stack.pop();
+                final Object first = stack.pop();
+                stack.push(first + " " + second);
+            } else if (opcode == APPENDS) {
+                final List<String> items = new ArrayList<>();
+                while (stack.size() > marks.peek()) {
+                    items.add(0, (String) stack.pop());
+                }
+                marks.pop();
+                ((List<String>) stack.peek()).addAll(items);
+            } else if (opcode == STOP) {
+                check(stack.size() == 1 && !batch.hasRemaining());
+                return (List<String>) stack.pop();
+            } else {
+                throw new IllegalStateException("Unexpected opcode " + opcode);
+            }
+        }
+    }
+
+    private static void check(boolean condition) {
+        if (!condition) {
+            throw new IllegalStateException("Malformed pickle");
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.CONNECTED_MSG;
+import static com.expedia.www.haystack.metrics.NioGraphiteMetricObserver.NAME_TOO_LONG_MSG;
+import static com.expedia.www.haystack.metrics.PickleGraphiteMetricObserver.OBSERVER_NAME_PREFIX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PickleGraphiteMetricObserverTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+    private static final String LOCAL_HOST_NAME = "localhost";
+    private static final String PATH_PREFIX =
+            "haystack.MISSING_TAG_subsystem.MISSING_TAG_application.localhost.MISSING_TAG_class.";
+    private static final long TIMESTAMP_SECONDS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    private FakeCarbonListener fakeCarbonListener;
+
+    // Object under test
+    private PickleGraphiteMetricObserver pickleGraphiteMetricObserver;
+
+    @Before
+    public void setUp() throws IOException {
+        fakeCarbonListener = new FakeCarbonListener();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pickleGraphiteMetricObserver.stop();
+        fakeCarbonListener.close();
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    private PickleGraphiteMetricObserver createObserver(int bufferSize, int bufferCount) {
+        return new PickleGraphiteMetricObserver(PREFIX, HOST, fakeCarbonListener.getPort(),
+                new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME), mockLogger, mockPublishingMetrics,
+                bufferSize, bufferCount);
+    }
+
+    @Test
+    public void testPublicConstructor() {
+        pickleGraphiteMetricObserver = new PickleGraphiteMetricObserver(PREFIX, HOST, fakeCarbonListener.getPort(),
+                new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME));
+
+        assertEquals(OBSERVER_NAME_PREFIX + PREFIX, pickleGraphiteMetricObserver.getName());
+        assertFalse(pickleGraphiteMetricObserver.isConnected());
+    }
+
+    @Test
+    public void testUpdateSendsOneBatch() throws InterruptedException {
+        pickleGraphiteMetricObserver = createObserver(
+                NioGraphiteMetricObserver.DEFAULT_BUFFER_SIZE, NioGraphiteMetricObserver.DEFAULT_BUFFER_COUNT);
+        final List<Metric> metrics = createMetrics(3);
+
+        pickleGraphiteMetricObserver.update(metrics);
+
+        final List<String> decoded = awaitMetrics(metrics.size());
+        assertEquals(expected(metrics.size()), decoded);
+        assertEquals(1, PickleDecoder.countBatches(fakeCarbonListener.getBytes()));
+        assertTrue(pickleGraphiteMetricObserver.isConnected());
+        verifyConnected();
+    }
+
+    @Test
+    public void testUpdateSendsOneBatchPerBuffer() throws InterruptedException {
+        pickleGraphiteMetricObserver = createObserver(512, 2);
+        final List<Metric> metrics = createMetrics(100);
+
+        pickleGraphiteMetricObserver.update(metrics);
+        pickleGraphiteMetricObserver.update(Collections.emptyList());
+
+        final List<String> decoded = awaitMetrics(metrics.size());
+        assertEquals(expected(metrics.size()), decoded);
+        assertTrue(PickleDecoder.countBatches(fakeCarbonListener.getBytes()) > 2);
+        assertEquals(0, pickleGraphiteMetricObserver.getFailedUpdateCount());
+        verifyConnected();
+    }
+
+    @Test
+    public void testUpdateSkipsMetricTooLongForBuffer() {
+        pickleGraphiteMetricObserver = createObserver(64, 1);
+        final Metric metric = createMetric(0);
+
+        pickleGraphiteMetricObserver.update(Collections.singletonList(metric));
+
+        assertEquals(0, pickleGraphiteMetricObserver.getFailedUpdateCount());
+        verifyConnected();
+        verify(mockLogger).warn(String.format(NAME_TOO_LONG_MSG, metric.getConfig(), 64));
+    }
+
+    private List<String> awaitMetrics(int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        List<String> decoded = PickleDecoder.decodeBatches(fakeCarbonListener.getBytes());
+        while (decoded.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            decoded = PickleDecoder.decodeBatches(fakeCarbonListener.getBytes());
+        }
+        return decoded;
+    }
+
+    private void verifyConnected() {
+        verify(mockLogger, times(1)).info(String.format(CONNECTED_MSG, HOST, fakeCarbonListener.getPort()));
+    }
+
+    private static Metric createMetric(int index) {
+        return new Metric(MonitorConfig.builder("METRIC_" + index).build(), TIMESTAMP_SECONDS * 1000, (long) index);
+    }
+
+    private static List<Metric> createMetrics(int count) {
+        final List<Metric> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            metrics.add(createMetric(i));
+        }
+        return metrics;
+    }
+
+    private static List<String> expected(int count) {
+        final List<String> expected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            expected.add(PATH_PREFIX + "METRIC_" + i + "_MISSING_TAG_type " + TIMESTAMP_SECONDS + ' ' + (double) i);
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,303 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.BasicMonitorRegistry;
+import com.netflix.servo.Metric;
+import com.netflix.servo.MonitorRegistry;
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BasicMetricFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static com.expedia.www.haystack.metrics.PrometheusEndpoint.CONTENT_TYPE;
+import static com.expedia.www.haystack.metrics.PrometheusEndpoint.GZIP;
+import static com.expedia.www.haystack.metrics.PrometheusEndpoint.INITIAL_BUFFER_SIZE;
+import static com.expedia.www.haystack.metrics.PrometheusEndpoint.OBSERVER_NAME;
+import static com.expedia.www.haystack.metrics.PrometheusEndpoint.PATH;
+import static com.expedia.www.haystack.metrics.PrometheusEndpoint.SCHEDULER_NAME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PrometheusEndpointTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+    private static final long TIMESTAMP = RANDOM.nextLong();
+    private static final long VALUE = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Mock
+    private ParallelMetricPoller mockMetricPoller;
+
+    private MonitorRegistry monitorRegistry;
+    private PublishingScheduler publishingScheduler;
+
+    // Object under test
+    private PrometheusEndpoint prometheusEndpoint;
+
+    @Before
+    public void setUp() {
+        monitorRegistry = new BasicMonitorRegistry();
+        publishingScheduler = new PublishingScheduler(SCHEDULER_NAME);
+        prometheusEndpoint = new PrometheusEndpoint(new InetSocketAddress(HOST, 0), PREFIX, monitorRegistry,
+                mockMetricPoller, publishingScheduler);
+    }
+
+    @After
+    public void tearDown() {
+        prometheusEndpoint.stop();
+        verifyNoMoreInteractions(mockMetricPoller);
+    }
+
+    @Test
+    public void testPublicConstructor() {
+        final PrometheusEndpoint endpoint = new PrometheusEndpoint(0);
+
+        assertEquals(OBSERVER_NAME, endpoint.getName());
+        assertEquals(OBSERVER_NAME, new PrometheusEndpoint(0, RANDOM.nextInt(Integer.MAX_VALUE)).getName());
+        assertEquals(0, endpoint.getRenderedBytes().length);
+        endpoint.stop();
+    }
+
+    @Test
+    public void testScrapeBeforeTheFirstPoll() throws IOException {
+        prometheusEndpoint.start();
+
+        final HttpURLConnection connection = scrape(null);
+
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(CONTENT_TYPE, connection.getContentType());
+        assertEquals("", read(connection.getInputStream()));
+    }
+
+    @Test
+    public void testStartIsIdempotent() throws IOException {
+        prometheusEndpoint.start();
+        final int port = prometheusEndpoint.getPort();
+
+        prometheusEndpoint.start();
+
+        assertEquals(port, prometheusEndpoint.getPort());
+    }
+
+    @Test
+    public void testUpdateRendersEachFamilyUnderOneTypeLine() throws IOException {
+        prometheusEndpoint.start();
+
+        prometheusEndpoint.update(Arrays.asList(
+                createMetric(MonitorConfig.builder("requests").withTag("host", "a").withTag(DataSourceType.COUNTER)
+                        .build(), VALUE),
+                createMetric(MonitorConfig.builder("latency").withTag(DataSourceType.GAUGE).build(), 1.5),
+                createMetric(MonitorConfig.builder("NOT_A_NUMBER").build(), "value"),
+                createMetric(MonitorConfig.builder("requests").withTag("host", "b").withTag(DataSourceType.COUNTER)
+                        .build(), 2L),
+                createMetric(MonitorConfig.builder("mixed").withTag(DataSourceType.COUNTER).build(), 3L),
+                createMetric(MonitorConfig.builder("mixed").withTag(DataSourceType.GAUGE).build(), 4L)));
+
+        final String expected = "# TYPE haystack_latency gauge\n"
+                + "haystack_latency 1.5\n"
+                + "# TYPE haystack_mixed untyped\n"
+                + "haystack_mixed 3\n"
+                + "haystack_mixed 4\n"
+                + "# TYPE haystack_requests counter\n"
+                + "haystack_requests{host=\"a\"} " + VALUE + '\n'
+                + "haystack_requests{host=\"b\"} 2\n";
+        assertEquals(expected, new String(prometheusEndpoint.getRenderedBytes(), StandardCharsets.UTF_8));
+        assertEquals(expected, read(scrape(null).getInputStream()));
+    }
+
+    @Test
+    public void testUpdateAddsUpTheValuesOfResettingMonitors() {
+        final ResettingCounter resettingCounter = new ResettingCounter(MonitorConfig.builder("errors").build());
+        final BasicCounter basicCounter = new BasicCounter(MonitorConfig.builder("total").build());
+        monitorRegistry.register(resettingCounter);
+        monitorRegistry.register(basicCounter);
+
+        prometheusEndpoint.update(Arrays.asList(createMetric(resettingCounter.getConfig(), 5L),
+                createMetric(basicCounter.getConfig(), 5L)));
+        prometheusEndpoint.update(Arrays.asList(createMetric(resettingCounter.getConfig(), 2L),
+                createMetric(basicCounter.getConfig(), 7L)));
+
+        assertEquals("# TYPE haystack_errors counter\nhaystack_errors 7\n"
+                        + "# TYPE haystack_total counter\nhaystack_total 7\n",
+                new String(prometheusEndpoint.getRenderedBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUpdateAddsUpTheValuesOfResettingMonitorsOfATier() {
+        final String tier = "tier-" + RANDOM.nextInt(Integer.MAX_VALUE);
+        final ResettingCounter resettingCounter = new ResettingCounter(MonitorConfig.builder("errors").build());
+        final MonitorRegistry tierRegistry = MetricObjects.getMonitorRegistry(tier);
+        tierRegistry.register(resettingCounter);
+        try {
+            prometheusEndpoint.update(Collections.singletonList(createMetric(resettingCounter.getConfig(), 5L)));
+            prometheusEndpoint.update(Collections.singletonList(createMetric(resettingCounter.getConfig(), 2L)));
+        } finally {
+            tierRegistry.unregister(resettingCounter);
+            MetricObjects.TIER_REGISTRIES.remove(tier);
+        }
+
+        assertEquals("# TYPE haystack_errors counter\nhaystack_errors 7\n",
+                new String(prometheusEndpoint.getRenderedBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUpdateLooksAtTheRegistryOnlyForNewMetrics() {
+        final MonitorRegistry mockMonitorRegistry = mock(MonitorRegistry.class);
+        final ResettingCounter resettingCounter = new ResettingCounter(MonitorConfig.builder("errors").build());
+        when(mockMonitorRegistry.getRegisteredMonitors()).thenReturn(
+                Collections.<Monitor<?>>singletonList(resettingCounter));
+        prometheusEndpoint = new PrometheusEndpoint(new InetSocketAddress(HOST, 0), PREFIX, mockMonitorRegistry,
+                mockMetricPoller, publishingScheduler);
+        final Metric errors = createMetric(resettingCounter.getConfig(), 1L);
+        final Metric total = createMetric(MonitorConfig.builder("total").build(), 1L);
+
+        prometheusEndpoint.update(Collections.singletonList(errors));
+        prometheusEndpoint.update(Collections.singletonList(errors));
+        prometheusEndpoint.update(Arrays.asList(errors, total));
+        prometheusEndpoint.update(Arrays.asList(errors, total));
+
+        assertEquals("# TYPE haystack_errors counter\nhaystack_errors 4\n"
+                        + "# TYPE haystack_total untyped\nhaystack_total 1\n",
+                new String(prometheusEndpoint.getRenderedBytes(), StandardCharsets.UTF_8));
+        verify(mockMonitorRegistry, times(2)).getRegisteredMonitors();
+    }
+
+    @Test
+    public void testUpdateWithNoMetrics() {
+        prometheusEndpoint.update(Collections.singletonList(createMetric(MonitorConfig.builder("a").build(), 1L)));
+
+        prometheusEndpoint.update(Collections.emptyList());
+
+        assertEquals(0, prometheusEndpoint.getRenderedBytes().length);
+    }
+
+    @Test
+    public void testUpdateGrowsTheBuffer() {
+        final List<Metric> metrics = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            metrics.add(createMetric(MonitorConfig.builder("METRIC_" + i).withTag("class", "PrometheusEndpointTest")
+                    .withTag("subsystem", "pipes").build(), (long) i));
+        }
+
+        prometheusEndpoint.update(metrics);
+
+        assertTrue(prometheusEndpoint.getBufferCapacity() > INITIAL_BUFFER_SIZE);
+        final String rendered = new String(prometheusEndpoint.getRenderedBytes(), StandardCharsets.UTF_8);
+        assertEquals(2 * metrics.size(), rendered.split("\n").length);
+        assertTrue(rendered.endsWith(
+                "haystack_METRIC_999{class=\"PrometheusEndpointTest\",subsystem=\"pipes\"} 999\n"));
+    }
+
+    @Test
+    public void testGzippedScrapes() throws IOException {
+        prometheusEndpoint.start();
+        prometheusEndpoint.update(Collections.singletonList(
+                createMetric(MonitorConfig.builder("requests").build(), VALUE)));
+
+        for (int i = 0; i < 2; i++) {
+            final HttpURLConnection connection = scrape("deflate, gzip");
+            assertEquals(GZIP, connection.getContentEncoding());
+            assertEquals("# TYPE haystack_requests untyped\nhaystack_requests " + VALUE + '\n',
+                    read(new GZIPInputStream(connection.getInputStream())));
+        }
+        final HttpURLConnection connection = scrape("identity");
+        assertNull(connection.getContentEncoding());
+        assertArrayEquals(prometheusEndpoint.getRenderedBytes(),
+                read(connection.getInputStream()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStartPollsTheRegistry() throws IOException, InterruptedException {
+        final Metric metric = createMetric(MonitorConfig.builder("requests").build(), VALUE);
+        when(mockMetricPoller.poll(BasicMetricFilter.MATCH_ALL, true)).thenReturn(Collections.singletonList(metric));
+
+        prometheusEndpoint.start(60);
+        prometheusEndpoint.start(60);
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (prometheusEndpoint.getRenderedBytes().length == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("# TYPE haystack_requests untyped\nhaystack_requests " + VALUE + '\n',
+                read(scrape(null).getInputStream()));
+        assertTrue(publishingScheduler.isStarted());
+        verify(mockMetricPoller, atLeastOnce()).poll(BasicMetricFilter.MATCH_ALL, true);
+        prometheusEndpoint.stop();
+        verify(mockMetricPoller, never()).shutdown();
+        prometheusEndpoint.stop();
+        verify(mockMetricPoller).shutdown();
+    }
+
+    @Test
+    public void testStopStopsListening() throws IOException {
+        prometheusEndpoint.start();
+        final int port = prometheusEndpoint.getPort();
+
+        prometheusEndpoint.stop();
+
+        try {
+            new URL("http", HOST, port, PATH).openConnection().getInputStream();
+            fail("The endpoint should no longer be listening");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertFalse(publishingScheduler.isStarted());
+    }
+
+    private HttpURLConnection scrape(String acceptEncoding) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http", HOST, prometheusEndpoint.getPort(), PATH).openConnection();
+        if (acceptEncoding != null) {
+            connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+        }
+        return connection;
+    }
+
+    private static Metric createMetric(MonitorConfig config, Object value) {
+        return new Metric(config, TIMESTAMP, value);
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        inputStream.close();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
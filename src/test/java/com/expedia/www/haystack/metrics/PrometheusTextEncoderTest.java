@@ -0,0 +1,143 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.PrometheusTextEncoder.TYPE_COUNTER;
+import static com.expedia.www.haystack.metrics.PrometheusTextEncoder.TYPE_GAUGE;
+import static com.expedia.www.haystack.metrics.PrometheusTextEncoder.TYPE_UNTYPED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusTextEncoderTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final long VALUE = RANDOM.nextInt(Integer.MAX_VALUE);
+
+    private ByteBuffer buffer;
+
+    // Object under test
+    private PrometheusTextEncoder prometheusTextEncoder;
+
+    @Before
+    public void setUp() {
+        buffer = ByteBuffer.allocate(1024);
+        prometheusTextEncoder = new PrometheusTextEncoder(PREFIX);
+    }
+
+    @Test
+    public void testEncodeWithoutTags() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(
+                MonitorConfig.builder("requests").build());
+        series.setValue(VALUE);
+
+        prometheusTextEncoder.encode(buffer, series);
+
+        assertEquals("haystack_requests " + VALUE + '\n', encoded());
+        assertEquals("haystack_requests", series.family);
+        assertEquals(TYPE_UNTYPED, series.getType());
+    }
+
+    @Test
+    public void testEncodeSortsLabelsAndLeavesOutTheType() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(MonitorConfig.builder("latency")
+                .withTag("subsystem", "pipes").withTag(DataSourceType.GAUGE).withTag("class", "Firehose").build());
+        series.setValue(1.5);
+
+        prometheusTextEncoder.encode(buffer, series);
+
+        assertEquals("haystack_latency{class=\"Firehose\",subsystem=\"pipes\"} 1.5\n", encoded());
+        assertEquals(TYPE_GAUGE, series.getType());
+    }
+
+    @Test
+    public void testNamesAreSanitized() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(
+                MonitorConfig.builder("2xx.rate:sum-é")
+                .withTag("servo.bucket", "b").withTag("9lives", "c").withTag("a:b", "d").build());
+        series.setValue(0L);
+
+        prometheusTextEncoder.encode(buffer, series);
+
+        assertEquals("haystack_2xx_rate:sum__{_lives=\"c\",a_b=\"d\",servo_bucket=\"b\"} 0\n", encoded());
+    }
+
+    @Test
+    public void testLabelValuesAreEscaped() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(MonitorConfig.builder("name")
+                .withTag("path", "C:\\a \"b\"\nc é").build());
+        series.setValue(1L);
+
+        prometheusTextEncoder.encode(buffer, series);
+
+        assertEquals("haystack_name{path=\"C:\\\\a \\\"b\\\"\\nc é\"} 1\n", encoded());
+    }
+
+    @Test
+    public void testEncodeTypeLine() {
+        prometheusTextEncoder.encodeTypeLine(buffer, "haystack_requests", TYPE_COUNTER);
+
+        assertEquals("# TYPE haystack_requests counter\n", encoded());
+    }
+
+    @Test
+    public void testMaxLength() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(MonitorConfig.builder("requests")
+                .withTag("host", "localhost").build());
+        series.setValue(-Double.MAX_VALUE);
+
+        prometheusTextEncoder.encodeTypeLine(buffer, series.family, TYPE_UNTYPED);
+        prometheusTextEncoder.encode(buffer, series);
+
+        assertTrue(buffer.position() <= prometheusTextEncoder.maxLength(series));
+    }
+
+    @Test
+    public void testCounterType() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(MonitorConfig.builder("requests")
+                .withTag(DataSourceType.COUNTER).build());
+
+        assertEquals(TYPE_COUNTER, series.getType());
+    }
+
+    @Test
+    public void testResettingSeriesAddsUpItsValues() {
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(MonitorConfig.builder("requests")
+                .withTag(DataSourceType.GAUGE).build());
+        assertFalse(series.isDecided());
+        series.setResetting(true);
+        assertTrue(series.isDecided());
+
+        series.setValue(VALUE);
+        series.setValue(2L);
+        prometheusTextEncoder.encode(buffer, series);
+
+        assertEquals("haystack_requests " + (VALUE + 2) + '\n', encoded());
+        assertEquals(TYPE_COUNTER, series.getType());
+    }
+
+    @Test
+    public void testSeriesAreCached() {
+        final MonitorConfig config = MonitorConfig.builder("requests").withTag("host", "localhost").build();
+
+        final PrometheusTextEncoder.Series series = prometheusTextEncoder.series(config);
+
+        assertSame(series, prometheusTextEncoder.series(MonitorConfig.builder("requests")
+                .withTag("host", "localhost").build()));
+        assertNotSame(series, prometheusTextEncoder.series(MonitorConfig.builder("requests").build()));
+        assertEquals(2, prometheusTextEncoder.getSeriesCount());
+    }
+
+    private String encoded() {
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+}
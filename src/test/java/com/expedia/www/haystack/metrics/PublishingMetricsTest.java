@@ -0,0 +1,283 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.Counter;
+import com.netflix.servo.monitor.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import static com.expedia.www.haystack.metrics.PublishingMetrics.APPLICATION;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.CONNECTS;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.DROPPED_DATAGRAMS;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.FORMAT;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.KLASS_OBSERVER;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.KLASS_POLLER;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.KLASS_QUEUE;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.POLL;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.POLLED_METRICS;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.QUEUE_DEPTH;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.QUEUE_DROPS;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.QUEUE_EXPIRATIONS;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.SEND;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.SEND_FAILURES;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.SENT_BYTES;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.SUBSYSTEM;
+import static com.expedia.www.haystack.metrics.PublishingMetrics.TIME_UNIT;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PublishingMetricsTest {
+    private static final Random RANDOM = new Random();
+    private static final long NANOS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final long OTHER_NANOS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final int COUNT = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final String PUBLISHER = "fast";
+
+    @Mock
+    private MetricObjects mockMetricObjects;
+
+    @Mock
+    private Timer mockPollTimer;
+
+    @Mock
+    private Counter mockPolledMetricsCounter;
+
+    @Mock
+    private Counter mockQueueDropsCounter;
+
+    @Mock
+    private Counter mockQueueExpirationsCounter;
+
+    @Mock
+    private Timer mockFormatTimer;
+
+    @Mock
+    private Timer mockSendTimer;
+
+    @Mock
+    private Counter mockSentBytesCounter;
+
+    @Mock
+    private Counter mockConnectsCounter;
+
+    @Mock
+    private Counter mockSendFailuresCounter;
+
+    @Mock
+    private Counter mockDroppedDatagramsCounter;
+
+    // Object under test
+    private PublishingMetrics publishingMetrics;
+
+    @Before
+    public void setUp() {
+        whenTimer(KLASS_POLLER, POLL, mockPollTimer);
+        whenCounter(KLASS_POLLER, POLLED_METRICS, mockPolledMetricsCounter);
+        whenCounter(KLASS_QUEUE, QUEUE_DROPS, mockQueueDropsCounter);
+        whenCounter(KLASS_QUEUE, QUEUE_EXPIRATIONS, mockQueueExpirationsCounter);
+        whenTimer(KLASS_OBSERVER, FORMAT, mockFormatTimer);
+        whenTimer(KLASS_OBSERVER, SEND, mockSendTimer);
+        whenCounter(KLASS_OBSERVER, SENT_BYTES, mockSentBytesCounter);
+        whenCounter(KLASS_OBSERVER, CONNECTS, mockConnectsCounter);
+        whenCounter(KLASS_OBSERVER, SEND_FAILURES, mockSendFailuresCounter);
+        whenCounter(KLASS_OBSERVER, DROPPED_DATAGRAMS, mockDroppedDatagramsCounter);
+        publishingMetrics = new PublishingMetrics(mockMetricObjects);
+    }
+
+    @After
+    public void tearDown() {
+        verifyTimer(KLASS_POLLER, POLL);
+        verifyCounter(KLASS_POLLER, POLLED_METRICS);
+        verifyCounter(KLASS_QUEUE, QUEUE_DROPS);
+        verifyCounter(KLASS_QUEUE, QUEUE_EXPIRATIONS);
+        verifyTimer(KLASS_OBSERVER, FORMAT);
+        verifyTimer(KLASS_OBSERVER, SEND);
+        verifyCounter(KLASS_OBSERVER, SENT_BYTES);
+        verifyCounter(KLASS_OBSERVER, CONNECTS);
+        verifyCounter(KLASS_OBSERVER, SEND_FAILURES);
+        verifyCounter(KLASS_OBSERVER, DROPPED_DATAGRAMS);
+        verifyNoMoreInteractions(mockMetricObjects, mockPollTimer, mockPolledMetricsCounter, mockQueueDropsCounter,
+                mockQueueExpirationsCounter, mockFormatTimer, mockSendTimer, mockSentBytesCounter, mockConnectsCounter,
+                mockSendFailuresCounter, mockDroppedDatagramsCounter);
+    }
+
+    @Test
+    public void testGetDefault() {
+        assertSame(PublishingMetrics.getDefault(), PublishingMetrics.getDefault());
+    }
+
+    @Test
+    public void testForSink() {
+        final String sinkQueue = KLASS_QUEUE + 1;
+        final String sinkObserver = KLASS_OBSERVER + 1;
+        whenCounter(sinkQueue, QUEUE_DROPS, mockQueueDropsCounter);
+
+        final PublishingMetrics sinkPublishingMetrics = publishingMetrics.forSink(1);
+
+        assertSame(publishingMetrics, publishingMetrics.forSink(0));
+        assertSame(sinkPublishingMetrics, publishingMetrics.forSink(1));
+        sinkPublishingMetrics.recordQueueDrop();
+        sinkPublishingMetrics.recordPoll(NANOS, COUNT);
+        sinkPublishingMetrics.registerQueueDepth(() -> COUNT);
+        verify(mockQueueDropsCounter).increment();
+        verify(mockPollTimer).record(NANOS, NANOSECONDS);
+        verify(mockPolledMetricsCounter).increment(COUNT);
+        verifyCounter(sinkQueue, QUEUE_DROPS);
+        verifyCounter(sinkQueue, QUEUE_EXPIRATIONS);
+        verifyTimer(sinkObserver, FORMAT);
+        verifyTimer(sinkObserver, SEND);
+        verifyCounter(sinkObserver, SENT_BYTES);
+        verifyCounter(sinkObserver, CONNECTS);
+        verifyCounter(sinkObserver, SEND_FAILURES);
+        verifyCounter(sinkObserver, DROPPED_DATAGRAMS);
+        verify(mockMetricObjects).registerGauge(
+                eq(SUBSYSTEM), eq(APPLICATION), eq(sinkQueue), eq(QUEUE_DEPTH), Matchers.<Callable<Integer>>any());
+    }
+
+    @Test
+    public void testForRelay() {
+        final String relayQueue = KLASS_QUEUE + 1 + "_2";
+        whenCounter(relayQueue, QUEUE_DROPS, mockQueueDropsCounter);
+        final PublishingMetrics sinkPublishingMetrics = publishingMetrics.forSink(1);
+
+        final PublishingMetrics relayPublishingMetrics = sinkPublishingMetrics.forRelay(2);
+
+        assertSame(sinkPublishingMetrics, sinkPublishingMetrics.forRelay(0));
+        assertSame(relayPublishingMetrics, sinkPublishingMetrics.forRelay(2));
+        relayPublishingMetrics.recordQueueDrop();
+        relayPublishingMetrics.recordPoll(NANOS, COUNT);
+        verify(mockQueueDropsCounter).increment();
+        verify(mockPollTimer).record(NANOS, NANOSECONDS);
+        verify(mockPolledMetricsCounter).increment(COUNT);
+        for (String klassSuffix : new String[] {"1", "1_2"}) {
+            verifyCounter(KLASS_QUEUE + klassSuffix, QUEUE_DROPS);
+            verifyCounter(KLASS_QUEUE + klassSuffix, QUEUE_EXPIRATIONS);
+            verifyTimer(KLASS_OBSERVER + klassSuffix, FORMAT);
+            verifyTimer(KLASS_OBSERVER + klassSuffix, SEND);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, SENT_BYTES);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, CONNECTS);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, SEND_FAILURES);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, DROPPED_DATAGRAMS);
+        }
+    }
+
+    @Test
+    public void testForPublisher() {
+        final String suffix = "-" + PUBLISHER;
+        whenTimer(KLASS_POLLER + suffix, POLL, mockPollTimer);
+        whenCounter(KLASS_POLLER + suffix, POLLED_METRICS, mockPolledMetricsCounter);
+        whenCounter(KLASS_QUEUE + suffix + 1, QUEUE_DROPS, mockQueueDropsCounter);
+
+        final PublishingMetrics publisherPublishingMetrics = publishingMetrics.forPublisher(PUBLISHER);
+
+        assertSame(publisherPublishingMetrics, publishingMetrics.forPublisher(PUBLISHER));
+        publisherPublishingMetrics.recordPoll(NANOS, COUNT);
+        publisherPublishingMetrics.forSink(1).recordQueueDrop();
+        verify(mockPollTimer).record(NANOS, NANOSECONDS);
+        verify(mockPolledMetricsCounter).increment(COUNT);
+        verify(mockQueueDropsCounter).increment();
+        verifyTimer(KLASS_POLLER + suffix, POLL);
+        verifyCounter(KLASS_POLLER + suffix, POLLED_METRICS);
+        for (String klassSuffix : new String[] {suffix, suffix + 1}) {
+            verifyCounter(KLASS_QUEUE + klassSuffix, QUEUE_DROPS);
+            verifyCounter(KLASS_QUEUE + klassSuffix, QUEUE_EXPIRATIONS);
+            verifyTimer(KLASS_OBSERVER + klassSuffix, FORMAT);
+            verifyTimer(KLASS_OBSERVER + klassSuffix, SEND);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, SENT_BYTES);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, CONNECTS);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, SEND_FAILURES);
+            verifyCounter(KLASS_OBSERVER + klassSuffix, DROPPED_DATAGRAMS);
+        }
+    }
+
+    @Test
+    public void testRecordPoll() {
+        publishingMetrics.recordPoll(NANOS, COUNT);
+
+        verify(mockPollTimer).record(NANOS, NANOSECONDS);
+        verify(mockPolledMetricsCounter).increment(COUNT);
+    }
+
+    @Test
+    public void testRegisterQueueDepth() {
+        final Callable<Integer> queueDepth = () -> COUNT;
+
+        publishingMetrics.registerQueueDepth(queueDepth);
+
+        verify(mockMetricObjects).registerGauge(SUBSYSTEM, APPLICATION, KLASS_QUEUE, QUEUE_DEPTH, queueDepth);
+    }
+
+    @Test
+    public void testRecordQueueDrop() {
+        publishingMetrics.recordQueueDrop();
+
+        verify(mockQueueDropsCounter).increment();
+    }
+
+    @Test
+    public void testRecordQueueExpiration() {
+        publishingMetrics.recordQueueExpiration();
+
+        verify(mockQueueExpirationsCounter).increment();
+    }
+
+    @Test
+    public void testRecordUpdate() {
+        publishingMetrics.recordUpdate(NANOS, OTHER_NANOS, COUNT);
+
+        verify(mockFormatTimer).record(NANOS, NANOSECONDS);
+        verify(mockSendTimer).record(OTHER_NANOS, NANOSECONDS);
+        verify(mockSentBytesCounter).increment(COUNT);
+    }
+
+    @Test
+    public void testRecordConnect() {
+        publishingMetrics.recordConnect();
+
+        verify(mockConnectsCounter).increment();
+    }
+
+    @Test
+    public void testRecordSendFailure() {
+        publishingMetrics.recordSendFailure();
+
+        verify(mockSendFailuresCounter).increment();
+    }
+
+    @Test
+    public void testRecordDroppedDatagram() {
+        publishingMetrics.recordDroppedDatagram();
+
+        verify(mockDroppedDatagramsCounter).increment();
+    }
+
+    private void whenTimer(String klass, String timerName, Timer timer) {
+        when(mockMetricObjects.createAndRegisterBasicTimer(SUBSYSTEM, APPLICATION, klass, timerName, TIME_UNIT))
+                .thenReturn(timer);
+    }
+
+    private void whenCounter(String klass, String counterName, Counter counter) {
+        when(mockMetricObjects.createAndRegisterResettingCounter(SUBSYSTEM, APPLICATION, klass, counterName))
+                .thenReturn(counter);
+    }
+
+    private void verifyTimer(String klass, String timerName) {
+        verify(mockMetricObjects).createAndRegisterBasicTimer(SUBSYSTEM, APPLICATION, klass, timerName, TIME_UNIT);
+    }
+
+    private void verifyCounter(String klass, String counterName) {
+        verify(mockMetricObjects).createAndRegisterResettingCounter(SUBSYSTEM, APPLICATION, klass, counterName);
+    }
+}
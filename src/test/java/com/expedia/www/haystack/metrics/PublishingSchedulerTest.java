@@ -0,0 +1,97 @@
+package com.expedia.www.haystack.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.expedia.www.haystack.metrics.PublishingScheduler.THREAD_NAME_PREFIX;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PublishingSchedulerTest {
+    private static final String NAME = "critical";
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    // Object under test
+    private PublishingScheduler publishingScheduler;
+
+    @Before
+    public void setUp() {
+        publishingScheduler = new PublishingScheduler(NAME);
+    }
+
+    @After
+    public void tearDown() {
+        while (publishingScheduler.isStarted()) {
+            publishingScheduler.stop();
+        }
+    }
+
+    @Test
+    public void testThreadName() {
+        assertEquals(THREAD_NAME_PREFIX + '-' + NAME, publishingScheduler.getThreadName());
+        assertEquals(THREAD_NAME_PREFIX, new PublishingScheduler(null).getThreadName());
+    }
+
+    @Test
+    public void testOnlyFirstStartStartsAndOnlyLastStopStops() {
+        assertTrue(publishingScheduler.start());
+        assertFalse(publishingScheduler.start());
+
+        publishingScheduler.stop();
+        assertTrue(publishingScheduler.isStarted());
+        publishingScheduler.stop();
+        assertFalse(publishingScheduler.isStarted());
+
+        assertTrue(publishingScheduler.start());
+    }
+
+    @Test
+    public void testStopWithoutStartIsIgnored() {
+        publishingScheduler.stop();
+
+        assertTrue(publishingScheduler.start());
+        publishingScheduler.stop();
+        assertFalse(publishingScheduler.isStarted());
+    }
+
+    @Test
+    public void testStopActionsRunOnceWhenTheThreadStops() {
+        final AtomicInteger stopActionRuns = new AtomicInteger();
+        publishingScheduler.start();
+        publishingScheduler.start();
+        publishingScheduler.whenStopped(stopActionRuns::incrementAndGet);
+
+        publishingScheduler.stop();
+        assertEquals(0, stopActionRuns.get());
+        publishingScheduler.stop();
+        assertEquals(1, stopActionRuns.get());
+
+        publishingScheduler.start();
+        publishingScheduler.stop();
+        assertEquals(1, stopActionRuns.get());
+    }
+
+    @Test
+    public void testScheduleRunsTaskRepeatedlyOnDaemonThread() throws InterruptedException {
+        final CountDownLatch runs = new CountDownLatch(3);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        publishingScheduler.start();
+
+        publishingScheduler.schedule(() -> {
+            thread.set(Thread.currentThread());
+            runs.countDown();
+        }, 1, MILLISECONDS);
+
+        assertTrue(runs.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(publishingScheduler.getThreadName(), thread.get().getName());
+        assertTrue(thread.get().isDaemon());
+    }
+}
@@ -11,7 +11,9 @@ import java.util.Random;
 
 import static com.netflix.servo.annotations.DataSourceType.COUNTER;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class ResettingCounterTest {
     private static final Random RANDOM = new Random();
@@ -89,4 +91,15 @@ public class ResettingCounterTest {
                 monitorConfig.withAdditionalTag(COUNTER), AMOUNT);
         assertEquals(expected, resettingCounter.toString());
     }
+
+    @Test
+    public void testCheckAndClearUpdated() {
+        assertFalse(resettingCounter.checkAndClearUpdated());
+
+        resettingCounter.increment();
+        resettingCounter.increment(AMOUNT);
+
+        assertTrue(resettingCounter.checkAndClearUpdated());
+        assertFalse(resettingCounter.checkAndClearUpdated());
+    }
 }
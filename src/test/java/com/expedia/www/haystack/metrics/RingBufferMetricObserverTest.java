@@ -0,0 +1,299 @@
+package com.expedia.www.haystack.metrics;
+
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.OverflowPolicy;
+import com.expedia.www.haystack.metrics.RingBufferMetricObserver.WaitStrategy;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static com.expedia.www.haystack.metrics.RingBufferMetricObserver.BAD_CAPACITY_MSG;
+import static com.expedia.www.haystack.metrics.RingBufferMetricObserver.UPDATE_FAILED_MSG;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RingBufferMetricObserverTest {
+    private static final String OBSERVER_NAME = "FakeGraphite";
+    private static final int CAPACITY = 1;
+    private static final long EXPIRE_TIME_MILLIS = 60000;
+    private static final int TIMEOUT_MILLIS = 30000;
+    private static final long CLOCK_MILLIS = 1000000;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Captor
+    private ArgumentCaptor<Callable<Integer>> queueDepth;
+
+    private final FakeObserver fakeObserver = new FakeObserver();
+    private Runnable onClockRead;
+
+    // Object under test
+    private RingBufferMetricObserver ringBufferMetricObserver;
+
+    @After
+    public void tearDown() {
+        ringBufferMetricObserver.stop();
+        verify(mockPublishingMetrics, atLeastOnce()).registerQueueDepth(Matchers.<Callable<Integer>>any());
+        verifyNoMoreInteractions(mockPublishingMetrics, mockLogger);
+    }
+
+    private void createObserver(int capacity, long expireTimeMillis, WaitStrategy waitStrategy,
+                                OverflowPolicy overflowPolicy) {
+        ringBufferMetricObserver = new RingBufferMetricObserver(OBSERVER_NAME, fakeObserver, capacity,
+                expireTimeMillis, waitStrategy, overflowPolicy, mockPublishingMetrics, mockLogger, this::readClock);
+    }
+
+    private long readClock() {
+        final Runnable hook = onClockRead;
+        onClockRead = null;
+        if (hook != null) {
+            hook.run();
+        }
+        return CLOCK_MILLIS;
+    }
+
+    @Test
+    public void testPublicConstructorAndStop() throws InterruptedException {
+        final RingBufferMetricObserver observer = new RingBufferMetricObserver(
+                OBSERVER_NAME, fakeObserver, CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING,
+                OverflowPolicy.DROP_OLDEST);
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+
+        assertEquals(OBSERVER_NAME, observer.getName());
+        assertTrue(observer.isAlive());
+        observer.stop();
+        awaitTermination(observer);
+        assertFalse(observer.isAlive());
+    }
+
+    @Test
+    public void testCapacityIsRoundedUpToAPowerOfTwo() {
+        createObserver(3, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+        assertEquals(4, ringBufferMetricObserver.getCapacity());
+        ringBufferMetricObserver.stop();
+
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+        assertEquals(1, ringBufferMetricObserver.getCapacity());
+    }
+
+    @Test
+    public void testCapacityMustBePositive() {
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+        try {
+            new RingBufferMetricObserver(OBSERVER_NAME, fakeObserver, 0, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING,
+                    OverflowPolicy.DROP_OLDEST);
+            fail("A capacity of 0 should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(String.format(BAD_CAPACITY_MSG, 0), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testUpdateIsSentByWorkerWithEveryWaitStrategy() throws InterruptedException {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            createObserver(CAPACITY, EXPIRE_TIME_MILLIS, waitStrategy, OverflowPolicy.DROP_OLDEST);
+            final List<Metric> metrics = createMetrics(waitStrategy.ordinal());
+            // Give the worker time to find the ring empty and wait
+            Thread.sleep(10);
+
+            ringBufferMetricObserver.update(metrics);
+
+            assertSame(waitStrategy.name(), metrics, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+            assertEquals(0, ringBufferMetricObserver.getFailedUpdateCount());
+            ringBufferMetricObserver.stop();
+            awaitTermination(ringBufferMetricObserver);
+        }
+        verify(mockPublishingMetrics, times(WaitStrategy.values().length))
+                .registerQueueDepth(Matchers.<Callable<Integer>>any());
+    }
+
+    @Test
+    public void testQueueDepthIsRegistered() throws Exception {
+        createObserver(2, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+        verify(mockPublishingMetrics).registerQueueDepth(queueDepth.capture());
+        fakeObserver.block();
+
+        ringBufferMetricObserver.update(createMetrics(0));
+        fakeObserver.awaitBlocked();
+        ringBufferMetricObserver.update(createMetrics(1));
+
+        assertEquals(1, (int) queueDepth.getValue().call());
+        assertEquals(1, ringBufferMetricObserver.getQueueDepth());
+        fakeObserver.release();
+    }
+
+    @Test
+    public void testUpdateDropsOldestUpdateWhenRingIsFull() throws InterruptedException {
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+        final List<Metric> first = createMetrics(0);
+        final List<Metric> third = createMetrics(2);
+        fakeObserver.block();
+
+        ringBufferMetricObserver.update(first);
+        fakeObserver.awaitBlocked();
+        ringBufferMetricObserver.update(createMetrics(1));
+        ringBufferMetricObserver.update(third);
+        fakeObserver.release();
+
+        assertSame(first, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        assertSame(third, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        verify(mockPublishingMetrics).recordQueueDrop();
+    }
+
+    @Test
+    public void testUpdateDropsNewestUpdateWhenRingIsFull() throws InterruptedException {
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_NEWEST);
+        final List<Metric> first = createMetrics(0);
+        final List<Metric> second = createMetrics(1);
+        fakeObserver.block();
+
+        ringBufferMetricObserver.update(first);
+        fakeObserver.awaitBlocked();
+        ringBufferMetricObserver.update(second);
+        ringBufferMetricObserver.update(createMetrics(2));
+        fakeObserver.release();
+
+        assertSame(first, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        assertSame(second, fakeObserver.sentUpdates.poll(TIMEOUT_MILLIS, MILLISECONDS));
+        verify(mockPublishingMetrics).recordQueueDrop();
+    }
+
+    @Test
+    public void testUpdateWhenConsumerTakesOldestUpdateFirst() throws InterruptedException {
+        createStoppedObserver(OverflowPolicy.DROP_OLDEST);
+        final List<Metric> first = createMetrics(0);
+        final List<Metric> second = createMetrics(1);
+        ringBufferMetricObserver.update(first);
+        onClockRead = () -> assertTrue(ringBufferMetricObserver.sendNext());
+
+        ringBufferMetricObserver.update(second);
+
+        assertTrue(ringBufferMetricObserver.sendNext());
+        assertFalse(ringBufferMetricObserver.sendNext());
+        assertSame(first, fakeObserver.sentUpdates.poll());
+        assertSame(second, fakeObserver.sentUpdates.poll());
+    }
+
+    @Test
+    public void testSendNextWhenProducerDropsTheUpdateBeingRead() throws InterruptedException {
+        createStoppedObserver(OverflowPolicy.DROP_OLDEST);
+        final List<Metric> second = createMetrics(1);
+        ringBufferMetricObserver.update(createMetrics(0));
+        onClockRead = () -> ringBufferMetricObserver.update(second);
+
+        assertTrue(ringBufferMetricObserver.sendNext());
+        assertNull(fakeObserver.sentUpdates.poll());
+        assertTrue(ringBufferMetricObserver.sendNext());
+
+        assertSame(second, fakeObserver.sentUpdates.poll());
+        assertEquals(0, ringBufferMetricObserver.getQueueDepth());
+        verify(mockPublishingMetrics).recordQueueDrop();
+    }
+
+    @Test
+    public void testExpiredUpdateIsDropped() {
+        createObserver(CAPACITY, -1, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+
+        ringBufferMetricObserver.update(createMetrics(0));
+
+        verify(mockPublishingMetrics, timeout(TIMEOUT_MILLIS)).recordQueueExpiration();
+        assertNull(fakeObserver.sentUpdates.poll());
+    }
+
+    @Test
+    public void testUpdateWhenObserverThrows() {
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, OverflowPolicy.DROP_OLDEST);
+        fakeObserver.exception = new IllegalStateException("Test");
+
+        ringBufferMetricObserver.update(createMetrics(0));
+
+        verify(mockLogger, timeout(TIMEOUT_MILLIS)).warn(
+                String.format(UPDATE_FAILED_MSG, OBSERVER_NAME), fakeObserver.exception);
+        assertEquals(1, ringBufferMetricObserver.getFailedUpdateCount());
+    }
+
+    private void createStoppedObserver(OverflowPolicy overflowPolicy) throws InterruptedException {
+        // Stopping the worker lets the test play the consumer
+        createObserver(CAPACITY, EXPIRE_TIME_MILLIS, WaitStrategy.BLOCKING, overflowPolicy);
+        ringBufferMetricObserver.stop();
+        awaitTermination(ringBufferMetricObserver);
+    }
+
+    private static void awaitTermination(RingBufferMetricObserver observer) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (observer.isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static List<Metric> createMetrics(int index) {
+        return Collections.singletonList(new Metric(MonitorConfig.builder("METRIC_" + index).build(), index, index));
+    }
+
+    private static final class FakeObserver extends BaseMetricObserver {
+        private final BlockingQueue<List<Metric>> sentUpdates = new LinkedBlockingQueue<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+        private volatile RuntimeException exception;
+
+        private FakeObserver() {
+            super(OBSERVER_NAME);
+        }
+
+        private void block() {
+            released = new CountDownLatch(1);
+        }
+
+        private void awaitBlocked() throws InterruptedException {
+            blocked.await(TIMEOUT_MILLIS, MILLISECONDS);
+        }
+
+        private void release() {
+            released.countDown();
+        }
+
+        @Override
+        public void updateImpl(List<Metric> metrics) {
+            if (exception != null) {
+                throw exception;
+            }
+            blocked.countDown();
+            try {
+                released.await(TIMEOUT_MILLIS, MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sentUpdates.add(metrics);
+        }
+    }
+}
@@ -18,6 +18,10 @@ package com.expedia.www.haystack.metrics;
 
 import com.netflix.servo.Metric;
 import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.CounterToRateMetricTransform;
+import com.netflix.servo.publish.MetricObserver;
 import com.netflix.servo.tag.BasicTagList;
 import com.netflix.servo.tag.Tag;
 import com.netflix.servo.tag.Tags;
@@ -30,27 +34,31 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import static com.expedia.www.haystack.metrics.MetricObjects.METRIC_GROUP_BUCKETS;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_APPLICATION;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_FULLY_QUALIFIED_CLASS_NAME;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_LINE_NUMBER;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_METRIC_GROUP;
-import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.METRIC_FORMAT_6_ARGS;
-import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.METRIC_FORMAT_7_ARGS;
 import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.MISSING_TAG;
 import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_SERVO_BUCKET;
 import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_CLASS;
 import static com.expedia.www.haystack.metrics.MetricObjects.TAG_KEY_SUBSYSTEM;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ServoToInfluxDbViaGraphiteNamingConventionTest {
     private static final Random RANDOM = new Random();
+    private static final String METRIC_FORMAT_6_ARGS = "%s.%s.%s.%s.%s_%s";
+    private static final String METRIC_FORMAT_7_ARGS = "%s.%s.%s.%s.%s.%s_%s";
     private static final String METRIC_NAME = RANDOM.nextLong() + "METRIC_NAME";
     private static final String METRIC_GROUP = RANDOM.nextLong() + "METRIC_GROUP";
     private static final String SUBSYSTEM = RANDOM.nextLong() + "SUBSYSTEM";
@@ -126,6 +134,23 @@ public class ServoToInfluxDbViaGraphiteNamingConventionTest {
         assertEquals(expected, name);
     }
 
+    @Test
+    public void testGetNameKeepsStatisticAsItIs() {
+        final List<Tag> tagList = new ArrayList<>(5);
+        tagList.add(Tags.newTag(TAG_KEY_SUBSYSTEM, SUBSYSTEM));
+        tagList.add(Tags.newTag(TAG_KEY_APPLICATION, APPLICATION));
+        tagList.add(Tags.newTag(TAG_KEY_CLASS, CLASS));
+        tagList.add(Tags.newTag(DataSourceType.KEY, TYPE));
+        tagList.add(Tags.newTag(TAG_KEY_STATISTIC, "percentile_99.5"));
+        final Metric metric = new Metric(METRIC_NAME, new BasicTagList(tagList), 0, 0);
+
+        final String name = servoToInfluxDbViaGraphiteNamingConvention.getName(metric);
+
+        final String expected = String.format(METRIC_FORMAT_6_ARGS,
+                SUBSYSTEM, APPLICATION, LOCAL_HOST_NAME_CLEANED, CLASS, METRIC_NAME, TYPE + "_percentile_99.5");
+        assertEquals(expected, name);
+    }
+
     @Test
     public void testGetNameErrorCase() {
         testGetNameCommonCode(METRIC_GROUP,
@@ -157,4 +182,76 @@ public class ServoToInfluxDbViaGraphiteNamingConventionTest {
         assertEquals(expected, name);
     }
 
+    @Test
+    public void testGetNameIsCachedByMonitorConfig() {
+        final Metric metric = new Metric(METRIC_NAME, BasicTagList.EMPTY, 0, 0);
+        final Metric laterMetric = new Metric(metric.getConfig(), 1, 1);
+
+        final String name = servoToInfluxDbViaGraphiteNamingConvention.getName(metric);
+        final String cachedName = servoToInfluxDbViaGraphiteNamingConvention.getName(laterMetric);
+
+        assertSame(name, cachedName);
+        assertEquals(1, servoToInfluxDbViaGraphiteNamingConvention.getNameCacheSize());
+    }
+
+    @Test
+    public void testGetNameWhenNameCacheIsFull() {
+        servoToInfluxDbViaGraphiteNamingConvention = new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME, 0);
+        final Metric metric = new Metric(METRIC_NAME, BasicTagList.EMPTY, 0, 0);
+
+        final String name = servoToInfluxDbViaGraphiteNamingConvention.getName(metric);
+        final String uncachedName = servoToInfluxDbViaGraphiteNamingConvention.getName(metric);
+
+        assertEquals(name, uncachedName);
+        assertNotSame(name, uncachedName);
+        assertEquals(0, servoToInfluxDbViaGraphiteNamingConvention.getNameCacheSize());
+    }
+
+    @Test
+    public void testGetNameCacheDropsTheLeastRecentlyUsedName() {
+        servoToInfluxDbViaGraphiteNamingConvention = new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME, 2);
+        final Metric first = new Metric(METRIC_NAME + 1, BasicTagList.EMPTY, 0, 0);
+        final Metric second = new Metric(METRIC_NAME + 2, BasicTagList.EMPTY, 0, 0);
+        final Metric third = new Metric(METRIC_NAME + 3, BasicTagList.EMPTY, 0, 0);
+        final String firstName = servoToInfluxDbViaGraphiteNamingConvention.getName(first);
+        final String secondName = servoToInfluxDbViaGraphiteNamingConvention.getName(second);
+        servoToInfluxDbViaGraphiteNamingConvention.getName(first);
+
+        servoToInfluxDbViaGraphiteNamingConvention.getName(third);
+
+        assertEquals(2, servoToInfluxDbViaGraphiteNamingConvention.getNameCacheSize());
+        assertSame(firstName, servoToInfluxDbViaGraphiteNamingConvention.getName(first));
+        assertNotSame(secondName, servoToInfluxDbViaGraphiteNamingConvention.getName(second));
+    }
+
+    @Test
+    public void testGetNameIsCachedThroughTheRateTransform() {
+        final MonitorConfig config = MonitorConfig.builder(METRIC_NAME).withTag(DataSourceType.COUNTER).build();
+        final List<Metric> ratesSeen = new ArrayList<>();
+        final List<String> namesSeen = new ArrayList<>();
+        final MetricObserver namingObserver = new BaseMetricObserver("naming") {
+            @Override
+            public void updateImpl(List<Metric> metrics) {
+                for (Metric metric : metrics) {
+                    ratesSeen.add(metric);
+                    namesSeen.add(servoToInfluxDbViaGraphiteNamingConvention.getName(metric));
+                }
+            }
+        };
+        final CounterToRateMetricTransform rateTransform =
+                new CounterToRateMetricTransform(namingObserver, 60, TimeUnit.SECONDS);
+
+        // The transform forgets counters whose timestamps are more than a heartbeat old, so the polls are recent
+        final long now = System.currentTimeMillis();
+        for (int i = 0; i < 4; i++) {
+            rateTransform.update(Collections.singletonList(new Metric(config, now + i * 1000L, i * 60L)));
+        }
+
+        assertEquals(3, namesSeen.size());
+        // Every poll hands the naming convention a new MonitorConfig, but it is equal to the last one
+        assertNotSame(ratesSeen.get(1).getConfig(), ratesSeen.get(2).getConfig());
+        assertSame(namesSeen.get(1), namesSeen.get(2));
+        assertSame(namesSeen.get(0), namesSeen.get(1));
+        assertEquals(1, servoToInfluxDbViaGraphiteNamingConvention.getNameCacheSize());
+    }
 }
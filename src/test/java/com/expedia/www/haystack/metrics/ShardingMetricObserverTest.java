@@ -0,0 +1,205 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import com.netflix.servo.publish.MetricObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static com.expedia.www.haystack.metrics.ShardingMetricObserver.OBSERVER_NAME;
+import static com.expedia.www.haystack.metrics.ShardingMetricObserver.RELAY_DOWN_MSG;
+import static com.expedia.www.haystack.metrics.ShardingMetricObserver.SIZE_MISMATCH_MSG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardingMetricObserverTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+    private static final String LOCAL_HOST_NAME = "localhost";
+    private static final long TIMESTAMP_SECONDS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final long TIMEOUT_MILLIS = 30000;
+    private static final int RELAY_COUNT = 3;
+    private static final int METRIC_COUNT = 300;
+    private static final int RETRY_POLLS = 2;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    private final List<FakeCarbonListener> fakeCarbonListeners = new ArrayList<>();
+    private final List<String> relayNames = new ArrayList<>();
+    private final List<BaseMetricObserver> senders = new ArrayList<>();
+
+    // Object under test
+    private ShardingMetricObserver shardingMetricObserver;
+
+    @Before
+    public void setUp() throws IOException {
+        final ServoToInfluxDbViaGraphiteNamingConvention namingConvention =
+                new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME);
+        for (int i = 0; i < RELAY_COUNT; i++) {
+            final FakeCarbonListener fakeCarbonListener = new FakeCarbonListener();
+            fakeCarbonListeners.add(fakeCarbonListener);
+            relayNames.add(HOST + ':' + fakeCarbonListener.getPort());
+            senders.add(new NioGraphiteMetricObserver(
+                    PREFIX, HOST, fakeCarbonListener.getPort(), namingConvention, mockPublishingMetrics));
+        }
+        // The senders are their own relay observers, so that each update is sent before it returns
+        shardingMetricObserver = new ShardingMetricObserver(namingConvention, relayNames,
+                new ArrayList<MetricObserver>(senders), senders, RETRY_POLLS,
+                ConsistentHashRing.DEFAULT_VIRTUAL_NODES, mockLogger);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (int i = 0; i < RELAY_COUNT; i++) {
+            ((NioGraphiteMetricObserver) senders.get(i)).stop();
+            fakeCarbonListeners.get(i).close();
+        }
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    @Test
+    public void testPublicConstructor() {
+        final ShardingMetricObserver observer = new ShardingMetricObserver(
+                new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME), relayNames,
+                new ArrayList<MetricObserver>(senders), senders);
+
+        assertEquals(OBSERVER_NAME, observer.getName());
+    }
+
+    @Test
+    public void testConstructorRejectsListsOfDifferentSizes() {
+        assertSizeMismatch(Collections.emptyList(), senders);
+        assertSizeMismatch(new ArrayList<MetricObserver>(senders), Collections.emptyList());
+    }
+
+    @Test
+    public void testMetricsAreSpreadOverEveryRelayAndStayThere() throws InterruptedException {
+        final List<Metric> metrics = createMetrics("METRIC_");
+
+        shardingMetricObserver.update(metrics);
+        shardingMetricObserver.update(metrics);
+
+        awaitLineCount(2 * METRIC_COUNT);
+        final Set<String> names = new HashSet<>();
+        for (FakeCarbonListener fakeCarbonListener : fakeCarbonListeners) {
+            assertTrue(fakeCarbonListener.getLineCount() > 0);
+            final List<String> lines = fakeCarbonListener.getLines();
+            final Set<String> relayNames = new HashSet<>();
+            for (String line : lines) {
+                relayNames.add(line.substring(0, line.indexOf(' ')));
+            }
+            // Each poll sent the same metrics to the same relay
+            assertEquals(2 * relayNames.size(), lines.size());
+            for (String name : relayNames) {
+                assertTrue(name, names.add(name));
+            }
+        }
+        assertEquals(METRIC_COUNT, names.size());
+        for (int i = 0; i < RELAY_COUNT; i++) {
+            assertTrue(shardingMetricObserver.isLive(i));
+        }
+    }
+
+    @Test
+    public void testMetricsOfADownRelayFailOverToTheOthersUntilItIsRetried() throws IOException, InterruptedException {
+        fakeCarbonListeners.get(1).close();
+
+        shardingMetricObserver.update(createMetrics("FIRST_"));
+        assertTrue(shardingMetricObserver.isLive(1));
+        assertEquals(1, senders.get(1).getFailedUpdateCount());
+
+        final List<Metric> second = createMetrics("SECOND_");
+        shardingMetricObserver.update(second);
+        assertFalse(shardingMetricObserver.isLive(1));
+        awaitAllMetrics(second, Arrays.asList(fakeCarbonListeners.get(0), fakeCarbonListeners.get(2)));
+
+        shardingMetricObserver.update(createMetrics("THIRD_"));
+        assertFalse(shardingMetricObserver.isLive(1));
+        shardingMetricObserver.update(createMetrics("FOURTH_"));
+        assertTrue(shardingMetricObserver.isLive(1));
+        shardingMetricObserver.update(createMetrics("FIFTH_"));
+        assertFalse(shardingMetricObserver.isLive(1));
+
+        assertEquals(2, senders.get(1).getFailedUpdateCount());
+        assertEquals(0, senders.get(0).getFailedUpdateCount() + senders.get(2).getFailedUpdateCount());
+        verify(mockLogger, times(2)).warn(String.format(RELAY_DOWN_MSG, relayNames.get(1), RETRY_POLLS));
+    }
+
+    private void assertSizeMismatch(List<MetricObserver> relayObservers, List<BaseMetricObserver> senders) {
+        try {
+            new ShardingMetricObserver(new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME), relayNames,
+                    relayObservers, senders);
+            fail("Lists of different sizes should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(String.format(SIZE_MISMATCH_MSG, RELAY_COUNT, relayObservers.size(), senders.size()),
+                    e.getMessage());
+        }
+    }
+
+    private void awaitLineCount(long expectedLineCount) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        long lineCount;
+        do {
+            Thread.sleep(5);
+            lineCount = 0;
+            for (FakeCarbonListener fakeCarbonListener : fakeCarbonListeners) {
+                lineCount += fakeCarbonListener.getLineCount();
+            }
+        } while (lineCount < expectedLineCount && System.currentTimeMillis() < deadline);
+        assertEquals(expectedLineCount, lineCount);
+    }
+
+    private static void awaitAllMetrics(List<Metric> metrics, List<FakeCarbonListener> listeners)
+            throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        int missingCount;
+        do {
+            final StringBuilder received = new StringBuilder();
+            for (FakeCarbonListener fakeCarbonListener : listeners) {
+                received.append(fakeCarbonListener.getLines());
+            }
+            missingCount = 0;
+            for (Metric metric : metrics) {
+                if (received.indexOf('.' + metric.getConfig().getName() + '_') < 0) {
+                    missingCount++;
+                }
+            }
+            Thread.sleep(5);
+        } while (missingCount > 0 && System.currentTimeMillis() < deadline);
+        assertEquals(0, missingCount);
+    }
+
+    private static List<Metric> createMetrics(String namePrefix) {
+        final List<Metric> metrics = new ArrayList<>(METRIC_COUNT);
+        for (int i = 0; i < METRIC_COUNT; i++) {
+            metrics.add(new Metric(MonitorConfig.builder(namePrefix + i).build(), TIMESTAMP_SECONDS * 1000, (long) i));
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,199 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.expedia.www.haystack.metrics.SpoolingMetricObserver.OBSERVER_NAME_PREFIX;
+import static com.expedia.www.haystack.metrics.SpoolingMetricObserver.SPOOL_FULL_MSG;
+import static com.expedia.www.haystack.metrics.SpoolingMetricObserver.UPDATE_FAILED_MSG;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SpoolingMetricObserverTest {
+    private static final String OBSERVER_NAME = "FakeGraphite";
+    private static final int MAX_BYTES = 64 * 1024;
+    private static final int REPLAY_BATCHES_PER_UPDATE = 3;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Mock
+    private Logger mockLogger;
+
+    private FakeObserver fakeObserver;
+    private File spoolFile;
+    private MetricSpool metricSpool;
+
+    // Object under test
+    private SpoolingMetricObserver spoolingMetricObserver;
+
+    @Before
+    public void setUp() throws IOException {
+        fakeObserver = new FakeObserver();
+        spoolFile = temporaryFolder.newFile();
+        metricSpool = new MetricSpool(spoolFile, MAX_BYTES);
+        spoolingMetricObserver = new SpoolingMetricObserver(
+                fakeObserver, metricSpool, REPLAY_BATCHES_PER_UPDATE, mockLogger);
+    }
+
+    @After
+    public void tearDown() {
+        spoolingMetricObserver.stop();
+        verifyNoMoreInteractions(mockLogger);
+    }
+
+    @Test
+    public void testPublicConstructor() throws IOException {
+        final SpoolingMetricObserver observer = new SpoolingMetricObserver(fakeObserver, spoolFile, MAX_BYTES);
+
+        assertEquals(OBSERVER_NAME_PREFIX + OBSERVER_NAME, observer.getName());
+    }
+
+    @Test
+    public void testUpdateSendsStraightThroughWhileObserverSucceeds() {
+        final List<Metric> metrics = createBatch(0);
+
+        spoolingMetricObserver.update(metrics);
+        spoolingMetricObserver.update(metrics);
+
+        assertEquals(2, fakeObserver.sentBatches.size());
+        assertEquals(0, spoolingMetricObserver.getSpooledBatchCount());
+        assertEquals(0, metricSpool.getUsedBytes());
+    }
+
+    @Test
+    public void testUpdateSpoolsWhileObserverFails() {
+        fakeObserver.failing = true;
+
+        spoolingMetricObserver.update(createBatch(0));
+        spoolingMetricObserver.update(createBatch(1));
+        spoolingMetricObserver.update(createBatch(2));
+
+        // Each update tries to send once: the first its own batch, then the oldest spooled batch
+        assertEquals(3, fakeObserver.getFailedUpdateCount());
+        assertEquals(0, fakeObserver.sentBatches.size());
+        assertEquals(3, spoolingMetricObserver.getSpooledBatchCount());
+        assertEquals(0, spoolingMetricObserver.getReplayedBatchCount());
+    }
+
+    @Test
+    public void testUpdateReplaysAtControlledRateWhenObserverRecovers() {
+        fakeObserver.failing = true;
+        for (int i = 0; i < 4; i++) {
+            spoolingMetricObserver.update(createBatch(i));
+        }
+
+        fakeObserver.failing = false;
+        spoolingMetricObserver.update(createBatch(4));
+        assertEquals(REPLAY_BATCHES_PER_UPDATE, fakeObserver.sentBatches.size());
+        spoolingMetricObserver.update(createBatch(5));
+        spoolingMetricObserver.update(createBatch(6));
+        spoolingMetricObserver.update(createBatch(7));
+
+        assertEquals(8, fakeObserver.sentBatches.size());
+        for (int i = 0; i < fakeObserver.sentBatches.size(); i++) {
+            assertEquals(createBatch(i).get(0).getConfig(), fakeObserver.sentBatches.get(i).get(0).getConfig());
+        }
+        // Batches 4 and 5 were queued behind the backlog; once it was replayed, 6 and 7 were sent straight through
+        assertEquals(6, spoolingMetricObserver.getSpooledBatchCount());
+        assertEquals(6, spoolingMetricObserver.getReplayedBatchCount());
+        assertEquals(0, metricSpool.getUsedBytes());
+    }
+
+    @Test
+    public void testUpdateStopsReplayingWhenSpoolIsEmpty() {
+        fakeObserver.failing = true;
+        spoolingMetricObserver.update(createBatch(0));
+        fakeObserver.failing = false;
+
+        spoolingMetricObserver.update(createBatch(1));
+
+        assertEquals(2, fakeObserver.sentBatches.size());
+        assertEquals(2, spoolingMetricObserver.getReplayedBatchCount());
+        assertEquals(0, metricSpool.getUsedBytes());
+    }
+
+    @Test
+    public void testUpdateStopsReplayingWhenObserverFailsAgain() {
+        fakeObserver.failing = true;
+        spoolingMetricObserver.update(createBatch(0));
+        fakeObserver.failuresLeft = 1;
+        fakeObserver.failing = false;
+
+        spoolingMetricObserver.update(createBatch(1));
+
+        assertEquals(0, fakeObserver.sentBatches.size());
+        assertEquals(2, spoolingMetricObserver.getSpooledBatchCount());
+        assertEquals(0, spoolingMetricObserver.getReplayedBatchCount());
+    }
+
+    @Test
+    public void testUpdateSpoolsWhenObserverThrows() {
+        fakeObserver.exception = new IllegalStateException("Test");
+
+        spoolingMetricObserver.update(createBatch(0));
+
+        assertEquals(1, spoolingMetricObserver.getSpooledBatchCount());
+        assertEquals(0, spoolingMetricObserver.getFailedUpdateCount());
+        verify(mockLogger).warn(String.format(UPDATE_FAILED_MSG, OBSERVER_NAME), fakeObserver.exception);
+    }
+
+    @Test
+    public void testUpdateDropsBatchWhenSpoolIsFull() throws IOException {
+        spoolingMetricObserver = new SpoolingMetricObserver(fakeObserver,
+                new MetricSpool(temporaryFolder.newFile(), MetricSpool.HEADER_BYTES + 16), REPLAY_BATCHES_PER_UPDATE,
+                mockLogger);
+        fakeObserver.failing = true;
+
+        spoolingMetricObserver.update(createBatch(0));
+
+        assertEquals(0, spoolingMetricObserver.getSpooledBatchCount());
+        assertEquals(1, spoolingMetricObserver.getDroppedBatchCount());
+        verify(mockLogger).warn(String.format(SPOOL_FULL_MSG, 1));
+    }
+
+    private static List<Metric> createBatch(int index) {
+        return Collections.singletonList(new Metric(MonitorConfig.builder("METRIC_" + index).build(), index, index));
+    }
+
+    private static final class FakeObserver extends BaseMetricObserver {
+        private final List<List<Metric>> sentBatches = new ArrayList<>();
+        private boolean failing;
+        private int failuresLeft;
+        private RuntimeException exception;
+
+        private FakeObserver() {
+            super(OBSERVER_NAME);
+        }
+
+        @Override
+        public void updateImpl(List<Metric> metrics) {
+            if (exception != null) {
+                throw exception;
+            }
+            if (failing || failuresLeft-- > 0) {
+                incrementFailedCount();
+                return;
+            }
+            sentBatches.add(metrics);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.Tag;
+import com.netflix.servo.tag.TagList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.netflix.servo.annotations.DataSourceType.COUNTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedResettingCounterTest {
+    private static final Random RANDOM = new Random();
+    private static final String COUNTER_NAME = RANDOM.nextLong() + "COUNTER_NAME";
+    private static final int POLLER_INDEX = RANDOM.nextInt();
+    private static final long AMOUNT = RANDOM.nextLong();
+    private static final int NUMBER_OF_THREADS = 16;
+    private static final int INCREMENTS_PER_THREAD = 10000;
+
+    private MonitorConfig monitorConfig;
+    private StripedResettingCounter stripedResettingCounter;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder(COUNTER_NAME).build();
+        stripedResettingCounter = new StripedResettingCounter(monitorConfig);
+    }
+
+    @Test
+    public void testConstructor() {
+        final TagList tags = stripedResettingCounter.getConfig().getTags();
+        assertEquals(1, tags.size());
+        for (Tag tag : tags) {
+            assertEquals(DataSourceType.KEY, tag.getKey());
+            assertEquals(COUNTER.toString(), tag.getValue());
+        }
+    }
+
+    @Test
+    public void testStripesRoundedUpToPowerOfTwo() {
+        assertEquals(1, new StripedResettingCounter(monitorConfig, 0).getStripes());
+        assertEquals(1, new StripedResettingCounter(monitorConfig, 1).getStripes());
+        assertEquals(2, new StripedResettingCounter(monitorConfig, 2).getStripes());
+        assertEquals(4, new StripedResettingCounter(monitorConfig, 3).getStripes());
+        assertEquals(64, new StripedResettingCounter(monitorConfig, 64).getStripes());
+    }
+
+    @Test
+    public void testIncrement() {
+        stripedResettingCounter.increment();
+
+        assertEquals(1L, stripedResettingCounter.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testIncrementWithValue() {
+        stripedResettingCounter.increment(AMOUNT);
+
+        assertEquals(AMOUNT, stripedResettingCounter.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testGetValue() {
+        stripedResettingCounter.increment(AMOUNT);
+
+        stripedResettingCounter.getValue(POLLER_INDEX);
+        assertEquals(0L, stripedResettingCounter.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testIncrementFromManyThreadsLosesNothing() throws InterruptedException {
+        final StripedResettingCounter counter = new StripedResettingCounter(monitorConfig, 4);
+        final List<Thread> threads = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < INCREMENTS_PER_THREAD; j++) {
+                    counter.increment();
+                }
+            }));
+        }
+        long total = 0;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            total += counter.getValue(POLLER_INDEX).longValue();
+            thread.join();
+        }
+        total += counter.getValue(POLLER_INDEX).longValue();
+
+        assertEquals((long) NUMBER_OF_THREADS * INCREMENTS_PER_THREAD, total);
+    }
+
+    @Test
+    public void testEquals() {
+        assertEquals(stripedResettingCounter, stripedResettingCounter);
+        assertNotEquals(stripedResettingCounter, null);
+        assertNotEquals(stripedResettingCounter, "Object that is not an instance of StripedResettingCounter");
+        final StripedResettingCounter otherStripedResettingCounter = new StripedResettingCounter(monitorConfig);
+        assertEquals(stripedResettingCounter, otherStripedResettingCounter);
+        otherStripedResettingCounter.increment();
+        assertNotEquals(stripedResettingCounter, otherStripedResettingCounter);
+        assertNotEquals(stripedResettingCounter, new StripedResettingCounter(MonitorConfig.builder("").build()));
+    }
+
+    @Test
+    public void testHashCode() {
+        stripedResettingCounter.increment(AMOUNT);
+        final StripedResettingCounter otherStripedResettingCounter = new StripedResettingCounter(monitorConfig);
+        otherStripedResettingCounter.increment(AMOUNT);
+        assertEquals(otherStripedResettingCounter.hashCode(), stripedResettingCounter.hashCode());
+        otherStripedResettingCounter.increment();
+        assertNotEquals(otherStripedResettingCounter.hashCode(), stripedResettingCounter.hashCode());
+    }
+
+    @Test
+    public void testToString() {
+        stripedResettingCounter.increment(AMOUNT);
+        final String expected = String.format("StripedResettingCounter{config=%s, count=%d}",
+                monitorConfig.withAdditionalTag(COUNTER), AMOUNT);
+        assertEquals(expected, stripedResettingCounter.toString());
+    }
+
+    @Test
+    public void testCheckAndClearUpdated() {
+        assertFalse(stripedResettingCounter.checkAndClearUpdated());
+
+        stripedResettingCounter.increment();
+        stripedResettingCounter.increment(AMOUNT);
+
+        assertTrue(stripedResettingCounter.checkAndClearUpdated());
+        assertFalse(stripedResettingCounter.checkAndClearUpdated());
+    }
+}
@@ -0,0 +1,122 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.publish.BaseMetricObserver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.expedia.www.haystack.metrics.SuppressingMetricObserver.HEARTBEAT_INTERVALS_MSG;
+import static com.expedia.www.haystack.metrics.SuppressingMetricObserver.OBSERVER_NAME_PREFIX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class SuppressingMetricObserverTest {
+    private static final String OBSERVER_NAME = "FakeGraphite";
+    private static final int HEARTBEAT_INTERVALS = 3;
+    private static final MonitorConfig COUNTER = MonitorConfig.builder("COUNTER").build();
+    private static final MonitorConfig GAUGE = MonitorConfig.builder("GAUGE").build();
+    private static final MonitorConfig NOT_A_NUMBER = MonitorConfig.builder("NOT_A_NUMBER").build();
+
+    private FakeObserver fakeObserver;
+
+    // Object under test
+    private SuppressingMetricObserver suppressingMetricObserver;
+
+    @Before
+    public void setUp() {
+        fakeObserver = new FakeObserver();
+        suppressingMetricObserver = new SuppressingMetricObserver(fakeObserver, HEARTBEAT_INTERVALS);
+    }
+
+    @Test
+    public void testConstructor() {
+        assertEquals(OBSERVER_NAME_PREFIX + OBSERVER_NAME, suppressingMetricObserver.getName());
+    }
+
+    @Test
+    public void testConstructorRejectsNonPositiveHeartbeatIntervals() {
+        try {
+            new SuppressingMetricObserver(fakeObserver, 0);
+            fail("A heartbeatIntervals of 0 should have been rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals(String.format(HEARTBEAT_INTERVALS_MSG, 0), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testZeroCounterIsSentWhenFirstSeenAndThenOnlyOnHeartbeats() {
+        for (int i = 0; i < 2 * HEARTBEAT_INTERVALS + 1; i++) {
+            suppressingMetricObserver.update(Collections.singletonList(new Metric(COUNTER, i, 0L)));
+        }
+
+        assertEquals(Arrays.asList(1, 0, 0, 1, 0, 0, 1), fakeObserver.sentCounts);
+        assertEquals(4, suppressingMetricObserver.getSuppressedMetricCount());
+    }
+
+    @Test
+    public void testNewSeriesIsSentAtOnceWhateverItsValue() {
+        for (int i = 0; i < HEARTBEAT_INTERVALS; i++) {
+            suppressingMetricObserver.update(Arrays.asList(new Metric(COUNTER, i, 7L), new Metric(GAUGE, i, 0.0)));
+        }
+
+        assertEquals(Arrays.asList(2, 0, 0), fakeObserver.sentCounts);
+    }
+
+    @Test
+    public void testChangedValuesAreAlwaysSent() {
+        final long[] values = {1, 2, 2, 0, 0, 0, 0, 5};
+
+        for (int i = 0; i < values.length; i++) {
+            suppressingMetricObserver.update(Collections.singletonList(new Metric(COUNTER, i, values[i])));
+        }
+
+        // 1 and 2 change, the second 2 is unchanged, 0 changes, the next two 0s are unchanged, the third is a heartbeat
+        assertEquals(Arrays.asList(1, 1, 0, 1, 0, 0, 1, 1), fakeObserver.sentCounts);
+    }
+
+    @Test
+    public void testUnchangedGaugeIsSuppressedAndNonNumbersAreNot() {
+        final List<Metric> metrics = Arrays.asList(
+                new Metric(GAUGE, 0, 1.5), new Metric(NOT_A_NUMBER, 0, "value"), new Metric(COUNTER, 0, 0L));
+
+        suppressingMetricObserver.update(metrics);
+        suppressingMetricObserver.update(metrics);
+
+        assertEquals(Arrays.asList(3, 1), fakeObserver.sentCounts);
+        assertEquals(NOT_A_NUMBER, fakeObserver.lastMetrics.get(0).getConfig());
+    }
+
+    @Test
+    public void testSeriesMissingFromPollAreForgotten() {
+        suppressingMetricObserver.update(Arrays.asList(new Metric(COUNTER, 0, 1L), new Metric(GAUGE, 0, 1.0)));
+        assertEquals(2, suppressingMetricObserver.getSeriesCount());
+
+        suppressingMetricObserver.update(Collections.singletonList(new Metric(GAUGE, 1, 1.0)));
+        assertEquals(1, suppressingMetricObserver.getSeriesCount());
+
+        suppressingMetricObserver.update(Collections.singletonList(new Metric(COUNTER, 2, 1L)));
+        assertEquals(Arrays.asList(2, 0, 1), fakeObserver.sentCounts);
+        assertEquals(1, suppressingMetricObserver.getSeriesCount());
+    }
+
+    private static final class FakeObserver extends BaseMetricObserver {
+        private final List<Integer> sentCounts = new ArrayList<>();
+        private List<Metric> lastMetrics;
+
+        private FakeObserver() {
+            super(OBSERVER_NAME);
+        }
+
+        @Override
+        public void updateImpl(List<Metric> metrics) {
+            sentCounts.add(metrics.size());
+            lastMetrics = metrics;
+        }
+    }
+}
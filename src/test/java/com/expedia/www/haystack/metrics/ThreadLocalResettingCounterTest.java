@@ -0,0 +1,142 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.tag.Tag;
+import com.netflix.servo.tag.TagList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.netflix.servo.annotations.DataSourceType.COUNTER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadLocalResettingCounterTest {
+    private static final Random RANDOM = new Random();
+    private static final String COUNTER_NAME = RANDOM.nextLong() + "COUNTER_NAME";
+    private static final int POLLER_INDEX = RANDOM.nextInt();
+    private static final long AMOUNT = RANDOM.nextInt(Integer.MAX_VALUE) + 1L;
+    private static final int NUMBER_OF_THREADS = 16;
+    private static final int INCREMENTS_PER_THREAD = 100000;
+
+    private MonitorConfig monitorConfig;
+
+    // Object under test
+    private ThreadLocalResettingCounter threadLocalResettingCounter;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder(COUNTER_NAME).build();
+        threadLocalResettingCounter = new ThreadLocalResettingCounter(monitorConfig);
+    }
+
+    @Test
+    public void testConstructor() {
+        final TagList tags = threadLocalResettingCounter.getConfig().getTags();
+        assertEquals(1, tags.size());
+        for (Tag tag : tags) {
+            assertEquals(DataSourceType.KEY, tag.getKey());
+            assertEquals(COUNTER.toString(), tag.getValue());
+        }
+        assertEquals(0, threadLocalResettingCounter.getCellCount());
+    }
+
+    @Test
+    public void testIncrement() {
+        threadLocalResettingCounter.increment();
+
+        assertEquals(1L, threadLocalResettingCounter.getValue(POLLER_INDEX));
+        assertEquals(1, threadLocalResettingCounter.getCellCount());
+    }
+
+    @Test
+    public void testIncrementWithValue() {
+        threadLocalResettingCounter.increment(AMOUNT);
+
+        assertEquals(AMOUNT, threadLocalResettingCounter.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testGetValue() {
+        threadLocalResettingCounter.increment(AMOUNT);
+
+        threadLocalResettingCounter.getValue(POLLER_INDEX);
+        assertEquals(0L, threadLocalResettingCounter.getValue(POLLER_INDEX));
+        threadLocalResettingCounter.increment();
+        assertEquals(1L, threadLocalResettingCounter.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testIncrementFromManyThreadsLosesNothing() throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < INCREMENTS_PER_THREAD; j++) {
+                    threadLocalResettingCounter.increment();
+                }
+            }));
+        }
+        long total = 0;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            total += threadLocalResettingCounter.getValue(POLLER_INDEX).longValue();
+            thread.join();
+        }
+        total += threadLocalResettingCounter.getValue(POLLER_INDEX).longValue();
+
+        assertEquals((long) NUMBER_OF_THREADS * INCREMENTS_PER_THREAD, total);
+        // The cells of the threads that have ended were dropped once they had been harvested
+        assertEquals(0, threadLocalResettingCounter.getCellCount());
+    }
+
+    @Test
+    public void testEquals() {
+        assertEquals(threadLocalResettingCounter, threadLocalResettingCounter);
+        assertNotEquals(threadLocalResettingCounter, null);
+        assertNotEquals(threadLocalResettingCounter, "Object that is not an instance of ThreadLocalResettingCounter");
+        final ThreadLocalResettingCounter otherCounter = new ThreadLocalResettingCounter(monitorConfig);
+        assertEquals(threadLocalResettingCounter, otherCounter);
+        otherCounter.increment();
+        assertNotEquals(threadLocalResettingCounter, otherCounter);
+        assertNotEquals(threadLocalResettingCounter, new ThreadLocalResettingCounter(MonitorConfig.builder("").build()));
+    }
+
+    @Test
+    public void testHashCode() {
+        threadLocalResettingCounter.increment(AMOUNT);
+        final ThreadLocalResettingCounter otherCounter = new ThreadLocalResettingCounter(monitorConfig);
+        otherCounter.increment(AMOUNT);
+        assertEquals(otherCounter.hashCode(), threadLocalResettingCounter.hashCode());
+        otherCounter.increment();
+        assertNotEquals(otherCounter.hashCode(), threadLocalResettingCounter.hashCode());
+    }
+
+    @Test
+    public void testToString() {
+        threadLocalResettingCounter.increment(AMOUNT);
+        final String expected = String.format("ThreadLocalResettingCounter{config=%s, count=%d}",
+                monitorConfig.withAdditionalTag(COUNTER), AMOUNT);
+        assertEquals(expected, threadLocalResettingCounter.toString());
+    }
+
+    @Test
+    public void testCheckAndClearUpdated() {
+        assertFalse(threadLocalResettingCounter.checkAndClearUpdated());
+
+        threadLocalResettingCounter.increment();
+        threadLocalResettingCounter.increment(AMOUNT);
+
+        assertTrue(threadLocalResettingCounter.checkAndClearUpdated());
+        assertFalse(threadLocalResettingCounter.checkAndClearUpdated());
+        threadLocalResettingCounter.getValue(POLLER_INDEX);
+        assertFalse(threadLocalResettingCounter.checkAndClearUpdated());
+    }
+}
@@ -0,0 +1,211 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.annotations.DataSourceType;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import com.netflix.servo.monitor.Stopwatch;
+import com.netflix.servo.tag.TagList;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_COUNT;
+import static com.expedia.www.haystack.metrics.HistogramTimer.STATISTIC_MAX;
+import static com.expedia.www.haystack.metrics.HistogramTimer.TAG_KEY_UNIT;
+import static com.expedia.www.haystack.metrics.ServoToInfluxDbViaGraphiteNamingConvention.TAG_KEY_STATISTIC;
+import static com.expedia.www.haystack.metrics.ThreadLocalTimer.STATISTIC_TOTAL_TIME;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadLocalTimerTest {
+    private static final Random RANDOM = new Random();
+    private static final String TIMER_NAME = RANDOM.nextLong() + "TIMER_NAME";
+    private static final int POLLER_INDEX = RANDOM.nextInt();
+    private static final String[] STATISTICS = {STATISTIC_COUNT, STATISTIC_TOTAL_TIME, STATISTIC_MAX};
+    private static final int NUMBER_OF_THREADS = 16;
+    private static final int RECORDS_PER_THREAD = 100000;
+
+    private MonitorConfig monitorConfig;
+
+    // Object under test
+    private ThreadLocalTimer threadLocalTimer;
+
+    @Before
+    public void setUp() {
+        monitorConfig = MonitorConfig.builder(TIMER_NAME).build();
+        threadLocalTimer = new ThreadLocalTimer(monitorConfig, MILLISECONDS);
+    }
+
+    @Test
+    public void testConstructor() {
+        assertEquals(MILLISECONDS.name(), threadLocalTimer.getConfig().getTags().getValue(TAG_KEY_UNIT));
+        assertEquals(MILLISECONDS, threadLocalTimer.getTimeUnit());
+        assertEquals(0L, (long) threadLocalTimer.getValue(POLLER_INDEX));
+        assertEquals(0, threadLocalTimer.getCellCount());
+    }
+
+    @Test
+    public void testGetMonitors() {
+        final List<Monitor<?>> monitors = threadLocalTimer.getMonitors();
+
+        assertEquals(STATISTICS.length, monitors.size());
+        for (int i = 0; i < STATISTICS.length; i++) {
+            final TagList tags = monitors.get(i).getConfig().getTags();
+            assertEquals(TIMER_NAME, monitors.get(i).getConfig().getName());
+            assertEquals(MILLISECONDS.name(), tags.getValue(TAG_KEY_UNIT));
+            assertEquals(DataSourceType.GAUGE.getValue(), tags.getValue(DataSourceType.KEY));
+            assertEquals(STATISTICS[i], tags.getValue(TAG_KEY_STATISTIC));
+        }
+    }
+
+    @Test
+    public void testRecord() {
+        threadLocalTimer.record(30);
+        threadLocalTimer.record(50);
+        threadLocalTimer.record(20);
+
+        assertArrayEquals(new long[]{3, 100, 50}, poll(threadLocalTimer));
+        assertEquals(3L, (long) threadLocalTimer.getValue(POLLER_INDEX));
+    }
+
+    @Test
+    public void testStatisticsResetEachInterval() {
+        threadLocalTimer.record(50);
+        poll(threadLocalTimer);
+        assertArrayEquals(new long[]{0, 0, 0}, poll(threadLocalTimer));
+
+        threadLocalTimer.record(10);
+        assertArrayEquals(new long[]{1, 10, 10}, poll(threadLocalTimer));
+    }
+
+    @Test
+    public void testStatisticsAreSnapshottedWhenAStatisticIsReadAgain() {
+        final List<Monitor<?>> monitors = threadLocalTimer.getMonitors();
+        threadLocalTimer.record(10);
+        assertEquals(10L, monitors.get(2).getValue());
+        threadLocalTimer.record(20);
+        assertEquals(1L, monitors.get(0).getValue());
+        assertEquals(1L, (long) threadLocalTimer.getValue(POLLER_INDEX));
+
+        assertEquals(20L, monitors.get(2).getValue());
+        assertEquals(1L, monitors.get(0).getValue());
+        assertEquals(0L, monitors.get(2).getValue());
+    }
+
+    @Test
+    public void testStatisticsAreSnapshottedEachPollWhenTheCountIsNotRead() {
+        final List<Monitor<?>> monitors = threadLocalTimer.getMonitors();
+        for (long duration = 10; duration <= 30; duration += 10) {
+            threadLocalTimer.record(duration);
+
+            assertEquals(duration, monitors.get(1).getValue());
+            assertEquals(duration, monitors.get(2).getValue());
+        }
+    }
+
+    @Test
+    public void testRecordNegativeDuration() {
+        threadLocalTimer.record(-RANDOM.nextInt(Integer.MAX_VALUE) - 1);
+
+        assertArrayEquals(new long[]{1, 0, 0}, poll(threadLocalTimer));
+    }
+
+    @Test
+    public void testRecordWithTimeUnit() {
+        threadLocalTimer.record(2, SECONDS);
+
+        assertArrayEquals(new long[]{1, 2000, 2000}, poll(threadLocalTimer));
+    }
+
+    @Test
+    public void testStart() {
+        final Stopwatch stopwatch = threadLocalTimer.start();
+        stopwatch.stop();
+
+        assertEquals(1L, poll(threadLocalTimer)[0]);
+    }
+
+    @Test
+    public void testRecordFromManyThreadsLosesNothing() throws InterruptedException {
+        final List<Thread> threads = new ArrayList<>(NUMBER_OF_THREADS);
+        for (int i = 0; i < NUMBER_OF_THREADS; i++) {
+            final int thread = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < RECORDS_PER_THREAD; j++) {
+                    threadLocalTimer.record(thread);
+                }
+            }));
+        }
+        long count = 0;
+        long totalTime = 0;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            final long[] statistics = poll(threadLocalTimer);
+            count += statistics[0];
+            totalTime += statistics[1];
+            thread.join();
+        }
+        final long[] statistics = poll(threadLocalTimer);
+        count += statistics[0];
+        totalTime += statistics[1];
+
+        assertEquals((long) NUMBER_OF_THREADS * RECORDS_PER_THREAD, count);
+        assertEquals((long) RECORDS_PER_THREAD * NUMBER_OF_THREADS * (NUMBER_OF_THREADS - 1) / 2, totalTime);
+        assertEquals(0, threadLocalTimer.getCellCount());
+    }
+
+    @Test
+    public void testCheckAndClearUpdated() {
+        assertFalse(threadLocalTimer.checkAndClearUpdated());
+
+        threadLocalTimer.record(1);
+        threadLocalTimer.record(2);
+
+        assertTrue(threadLocalTimer.checkAndClearUpdated());
+        assertFalse(threadLocalTimer.checkAndClearUpdated());
+        poll(threadLocalTimer);
+        assertFalse(threadLocalTimer.checkAndClearUpdated());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        final ThreadLocalTimer sameTimer = new ThreadLocalTimer(monitorConfig, MILLISECONDS);
+        final ThreadLocalTimer otherUnitTimer = new ThreadLocalTimer(monitorConfig, MICROSECONDS);
+        final ThreadLocalTimer otherNameTimer = new ThreadLocalTimer(MonitorConfig.builder("OTHER").build(),
+                MILLISECONDS);
+
+        assertEquals(threadLocalTimer, threadLocalTimer);
+        assertEquals(threadLocalTimer, sameTimer);
+        assertEquals(threadLocalTimer.hashCode(), sameTimer.hashCode());
+        assertNotEquals(threadLocalTimer, otherUnitTimer);
+        assertNotEquals(threadLocalTimer, otherNameTimer);
+        assertFalse(threadLocalTimer.equals(null));
+        assertFalse(threadLocalTimer.equals(TIMER_NAME));
+    }
+
+    @Test
+    public void testToString() {
+        assertEquals("ThreadLocalTimer{config=" + threadLocalTimer.getConfig() + ", timeUnit=MILLISECONDS}",
+                threadLocalTimer.toString());
+    }
+
+    private static long[] poll(ThreadLocalTimer timer) {
+        final List<Monitor<?>> monitors = timer.getMonitors();
+        final long[] statistics = new long[monitors.size()];
+        for (int i = 0; i < statistics.length; i++) {
+            statistics[i] = (Long) monitors.get(i).getValue();
+        }
+        return statistics;
+    }
+}
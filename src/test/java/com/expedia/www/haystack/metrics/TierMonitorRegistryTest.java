@@ -0,0 +1,74 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.BasicCounter;
+import com.netflix.servo.monitor.Monitor;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TierMonitorRegistryTest {
+    private static final Random RANDOM = new Random();
+    private static final MonitorConfig MONITOR_CONFIG = MonitorConfig.builder(RANDOM.nextLong() + "COUNTER").build();
+
+    // Object under test
+    private TierMonitorRegistry tierMonitorRegistry;
+
+    @Before
+    public void setUp() {
+        tierMonitorRegistry = new TierMonitorRegistry();
+    }
+
+    @Test
+    public void testRegisterAndUnregisterACounterWhoseHashCodeHasChanged() {
+        final BasicCounter counter = new BasicCounter(MONITOR_CONFIG);
+        tierMonitorRegistry.register(counter);
+        counter.increment();
+
+        assertTrue(tierMonitorRegistry.isRegistered(counter));
+        tierMonitorRegistry.unregister(counter);
+
+        assertFalse(tierMonitorRegistry.isRegistered(counter));
+        assertTrue(tierMonitorRegistry.getRegisteredMonitors().isEmpty());
+    }
+
+    @Test
+    public void testUnregisterLeavesAnotherInstanceWithTheSameConfig() {
+        final BasicCounter evicted = new BasicCounter(MONITOR_CONFIG);
+        final BasicCounter fresh = new BasicCounter(MONITOR_CONFIG);
+        tierMonitorRegistry.register(evicted);
+        tierMonitorRegistry.register(fresh);
+
+        tierMonitorRegistry.unregister(evicted);
+
+        assertFalse(tierMonitorRegistry.isRegistered(evicted));
+        assertTrue(tierMonitorRegistry.isRegistered(fresh));
+        final Collection<Monitor<?>> registeredMonitors = tierMonitorRegistry.getRegisteredMonitors();
+        assertEquals(1, registeredMonitors.size());
+        assertSame(fresh, registeredMonitors.iterator().next());
+    }
+
+    @Test
+    public void testUnregisterOfAMonitorThatWasNeverRegistered() {
+        tierMonitorRegistry.unregister(new BasicCounter(MONITOR_CONFIG));
+
+        assertTrue(tierMonitorRegistry.getRegisteredMonitors().isEmpty());
+    }
+
+    @Test
+    public void testGetRegisteredMonitorsIsALiveView() {
+        final Collection<Monitor<?>> registeredMonitors = tierMonitorRegistry.getRegisteredMonitors();
+
+        tierMonitorRegistry.register(new BasicCounter(MONITOR_CONFIG));
+
+        assertEquals(1, registeredMonitors.size());
+        assertSame(registeredMonitors, tierMonitorRegistry.getRegisteredMonitors());
+    }
+}
@@ -0,0 +1,269 @@
+package com.expedia.www.haystack.metrics;
+
+import com.expedia.www.haystack.metrics.UdpGraphiteMetricObserver.Factory;
+import com.netflix.servo.Metric;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.expedia.www.haystack.metrics.UdpGraphiteMetricObserver.DEFAULT_DATAGRAM_SIZE;
+import static com.expedia.www.haystack.metrics.UdpGraphiteMetricObserver.NAME_TOO_LONG_MSG;
+import static com.expedia.www.haystack.metrics.UdpGraphiteMetricObserver.OBSERVER_NAME_PREFIX;
+import static com.expedia.www.haystack.metrics.UdpGraphiteMetricObserver.SEND_FAILED_MSG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UdpGraphiteMetricObserverTest {
+    private static final Random RANDOM = new Random();
+    private static final String PREFIX = "haystack";
+    private static final String HOST = "127.0.0.1";
+    private static final String LOCAL_HOST_NAME = "localhost";
+    private static final long TIMESTAMP_SECONDS = RANDOM.nextInt(Integer.MAX_VALUE);
+    private static final long TIMEOUT_MILLIS = 30000;
+    private static final int SMALL_DATAGRAM_SIZE = 512;
+
+    @Mock
+    private Factory mockFactory;
+
+    @Mock
+    private Logger mockLogger;
+
+    @Mock
+    private PublishingMetrics mockPublishingMetrics;
+
+    private final Factory factory = new Factory();
+    private DatagramChannel receiver;
+    private int port;
+
+    // Object under test
+    private UdpGraphiteMetricObserver udpGraphiteMetricObserver;
+
+    @Before
+    public void setUp() throws IOException {
+        receiver = DatagramChannel.open();
+        receiver.bind(new InetSocketAddress(HOST, 0));
+        receiver.configureBlocking(false);
+        port = ((InetSocketAddress) receiver.getLocalAddress()).getPort();
+        udpGraphiteMetricObserver = createObserver(factory, DEFAULT_DATAGRAM_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        udpGraphiteMetricObserver.stop();
+        receiver.close();
+        verifyNoMoreInteractions(mockFactory, mockLogger);
+    }
+
+    private UdpGraphiteMetricObserver createObserver(Factory factory, int datagramSize) {
+        final GraphiteLineEncoder encoder = new GraphiteLineEncoder(
+                PREFIX, new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME));
+        return new UdpGraphiteMetricObserver(
+                PREFIX, HOST, port, encoder, factory, mockLogger, mockPublishingMetrics, datagramSize);
+    }
+
+    @Test
+    public void testPublicConstructor() {
+        final UdpGraphiteMetricObserver observer = new UdpGraphiteMetricObserver(
+                PREFIX, HOST, port, new ServoToInfluxDbViaGraphiteNamingConvention(LOCAL_HOST_NAME));
+
+        assertEquals(OBSERVER_NAME_PREFIX + PREFIX, observer.getName());
+        assertFalse(observer.isOpen());
+    }
+
+    @Test
+    public void testUpdate() throws IOException, InterruptedException {
+        final List<Metric> metrics = Arrays.asList(
+                createMetric("COUNTER", 42L),
+                new Metric(MonitorConfig.builder("NOT_A_NUMBER").build(), 0, "value"),
+                createMetric("TIMER", 1.5));
+
+        udpGraphiteMetricObserver.update(metrics);
+        udpGraphiteMetricObserver.update(Collections.emptyList());
+
+        final List<String> datagrams = receive(1);
+        assertEquals(Collections.singletonList(
+                "haystack.MISSING_TAG_subsystem.MISSING_TAG_application.localhost.MISSING_TAG_class.COUNTER_"
+                        + "MISSING_TAG_type 42 " + TIMESTAMP_SECONDS + '\n'
+                + "haystack.MISSING_TAG_subsystem.MISSING_TAG_application.localhost.MISSING_TAG_class.TIMER_"
+                        + "MISSING_TAG_type 1.5 " + TIMESTAMP_SECONDS + '\n'), datagrams);
+        assertTrue(udpGraphiteMetricObserver.isOpen());
+        assertEquals(1, udpGraphiteMetricObserver.getSentDatagramCount());
+        assertEquals(0, udpGraphiteMetricObserver.getDroppedDatagramCount());
+        verify(mockPublishingMetrics).recordConnect();
+        verify(mockPublishingMetrics).recordUpdate(
+                anyLong(), anyLong(), eq((long) datagrams.get(0).getBytes(StandardCharsets.UTF_8).length));
+        verify(mockPublishingMetrics).recordUpdate(anyLong(), anyLong(), eq(0L));
+    }
+
+    @Test
+    public void testUpdatePacksWholeLinesIntoEachDatagram() throws IOException, InterruptedException {
+        udpGraphiteMetricObserver = createObserver(factory, SMALL_DATAGRAM_SIZE);
+        final List<Metric> metrics = createMetrics(50);
+
+        udpGraphiteMetricObserver.update(metrics);
+
+        final long datagramCount = udpGraphiteMetricObserver.getSentDatagramCount();
+        final List<String> datagrams = receive(datagramCount);
+        assertEquals(datagramCount, datagrams.size());
+        assertTrue(datagramCount > 1 && datagramCount < metrics.size());
+        final List<String> lines = new ArrayList<>();
+        for (String datagram : datagrams) {
+            assertTrue(datagram.getBytes(StandardCharsets.UTF_8).length <= SMALL_DATAGRAM_SIZE);
+            assertTrue(datagram.endsWith("\n"));
+            lines.addAll(Arrays.asList(datagram.split("\n")));
+        }
+        assertEquals(metrics.size(), lines.size());
+        for (int i = 0; i < metrics.size(); i++) {
+            assertTrue(lines.get(i), lines.get(i).endsWith("METRIC_" + i + "_MISSING_TAG_type " + i + ' '
+                    + TIMESTAMP_SECONDS));
+        }
+    }
+
+    @Test
+    public void testUpdateSkipsLineTooLongForDatagram() {
+        udpGraphiteMetricObserver = createObserver(factory, 64);
+        final Metric metric = createMetric("COUNTER", 1);
+
+        udpGraphiteMetricObserver.update(Collections.singletonList(metric));
+        udpGraphiteMetricObserver.update(Collections.singletonList(metric));
+
+        assertEquals(0, udpGraphiteMetricObserver.getSentDatagramCount());
+        assertEquals(0, udpGraphiteMetricObserver.getFailedUpdateCount());
+        verify(mockLogger).warn(String.format(NAME_TOO_LONG_MSG, metric.getConfig(), 64));
+    }
+
+    @Test
+    public void testUpdateDropsDatagramWhenSendBufferIsFull() throws IOException {
+        udpGraphiteMetricObserver = createObserver(mockFactory, DEFAULT_DATAGRAM_SIZE);
+        whensForOpen();
+        when(mockFactory.send(any(DatagramChannel.class), any(ByteBuffer.class), any(SocketAddress.class)))
+                .thenReturn(0);
+
+        udpGraphiteMetricObserver.update(Collections.singletonList(createMetric("COUNTER", 1)));
+
+        assertEquals(0, udpGraphiteMetricObserver.getSentDatagramCount());
+        assertEquals(1, udpGraphiteMetricObserver.getDroppedDatagramCount());
+        assertEquals(0, udpGraphiteMetricObserver.getFailedUpdateCount());
+        assertTrue(udpGraphiteMetricObserver.isOpen());
+        verifiesForOpen();
+        verify(mockPublishingMetrics).recordDroppedDatagram();
+        verify(mockFactory).send(any(DatagramChannel.class), any(ByteBuffer.class), eq(new InetSocketAddress(HOST, port)));
+    }
+
+    @Test
+    public void testUpdateWhenSendFails() throws IOException {
+        udpGraphiteMetricObserver = createObserver(mockFactory, DEFAULT_DATAGRAM_SIZE);
+        whensForOpen();
+        final IOException ioException = new IOException("Test");
+        when(mockFactory.send(any(DatagramChannel.class), any(ByteBuffer.class), any(SocketAddress.class)))
+                .thenThrow(ioException);
+
+        udpGraphiteMetricObserver.update(Collections.singletonList(createMetric("COUNTER", 1)));
+
+        assertEquals(1, udpGraphiteMetricObserver.getDroppedDatagramCount());
+        assertEquals(1, udpGraphiteMetricObserver.getFailedUpdateCount());
+        assertFalse(udpGraphiteMetricObserver.isOpen());
+        verifiesForOpen();
+        verify(mockFactory).send(any(DatagramChannel.class), any(ByteBuffer.class), any(SocketAddress.class));
+        verify(mockPublishingMetrics).recordConnect();
+        verify(mockPublishingMetrics).recordSendFailure();
+        verify(mockPublishingMetrics).recordDroppedDatagram();
+        verify(mockLogger).warn(String.format(SEND_FAILED_MSG, HOST, port), ioException);
+    }
+
+    @Test
+    public void testUpdateWhenHostIsUnresolved() {
+        udpGraphiteMetricObserver = createObserver(mockFactory, DEFAULT_DATAGRAM_SIZE);
+        when(mockFactory.createSocketAddress(anyString(), anyInt()))
+                .thenReturn(InetSocketAddress.createUnresolved(HOST, port));
+
+        udpGraphiteMetricObserver.update(Collections.singletonList(createMetric("COUNTER", 1)));
+
+        assertEquals(0, udpGraphiteMetricObserver.getDroppedDatagramCount());
+        assertEquals(1, udpGraphiteMetricObserver.getFailedUpdateCount());
+        assertFalse(udpGraphiteMetricObserver.isOpen());
+        verify(mockFactory).createSocketAddress(HOST, port);
+        verify(mockLogger).warn(eq(String.format(SEND_FAILED_MSG, HOST, port)), any(UnknownHostException.class));
+    }
+
+    @Test
+    public void testStopWhenNotOpen() {
+        udpGraphiteMetricObserver.stop();
+
+        assertFalse(udpGraphiteMetricObserver.isOpen());
+    }
+
+    @Test
+    public void testFactoryOpenNonBlockingDatagramChannel() throws IOException {
+        try (DatagramChannel datagramChannel = factory.openNonBlockingDatagramChannel()) {
+            assertFalse(datagramChannel.isBlocking());
+        }
+    }
+
+    private void whensForOpen() throws IOException {
+        when(mockFactory.createSocketAddress(anyString(), anyInt())).thenReturn(new InetSocketAddress(HOST, port));
+        when(mockFactory.openNonBlockingDatagramChannel()).thenReturn(factory.openNonBlockingDatagramChannel());
+    }
+
+    private void verifiesForOpen() throws IOException {
+        verify(mockFactory).createSocketAddress(HOST, port);
+        verify(mockFactory).openNonBlockingDatagramChannel();
+    }
+
+    private List<String> receive(long expectedDatagramCount) throws IOException, InterruptedException {
+        final List<String> datagrams = new ArrayList<>();
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (datagrams.size() < expectedDatagramCount && System.currentTimeMillis() < deadline) {
+            if (receiver.receive(buffer) == null) {
+                Thread.sleep(5);
+            } else {
+                buffer.flip();
+                datagrams.add(StandardCharsets.UTF_8.decode(buffer).toString());
+                buffer.clear();
+            }
+        }
+        return datagrams;
+    }
+
+    private static Metric createMetric(String name, Object value) {
+        return new Metric(MonitorConfig.builder(name).build(), TIMESTAMP_SECONDS * 1000, value);
+    }
+
+    private static List<Metric> createMetrics(int count) {
+        final List<Metric> metrics = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            metrics.add(createMetric("METRIC_" + i, (long) i));
+        }
+        return metrics;
+    }
+}
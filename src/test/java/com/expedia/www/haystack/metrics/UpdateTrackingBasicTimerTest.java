@@ -0,0 +1,49 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateTrackingBasicTimerTest {
+    private static final Random RANDOM = new Random();
+    private static final String TIMER_NAME = RANDOM.nextLong() + "TIMER_NAME";
+
+    // Object under test
+    private UpdateTrackingBasicTimer updateTrackingBasicTimer;
+
+    @Before
+    public void setUp() {
+        updateTrackingBasicTimer = new UpdateTrackingBasicTimer(MonitorConfig.builder(TIMER_NAME).build(),
+                MILLISECONDS);
+    }
+
+    @Test
+    public void testRecordSetsUpdated() {
+        assertFalse(updateTrackingBasicTimer.checkAndClearUpdated());
+
+        updateTrackingBasicTimer.record(1);
+        updateTrackingBasicTimer.record(2);
+
+        assertTrue(updateTrackingBasicTimer.checkAndClearUpdated());
+        assertFalse(updateTrackingBasicTimer.checkAndClearUpdated());
+        assertEquals(2, updateTrackingBasicTimer.getCount().intValue());
+    }
+
+    @Test
+    public void testRecordWithTimeUnitSetsUpdated() {
+        updateTrackingBasicTimer.record(1, SECONDS);
+        updateTrackingBasicTimer.record(2, SECONDS);
+
+        assertTrue(updateTrackingBasicTimer.checkAndClearUpdated());
+        assertFalse(updateTrackingBasicTimer.checkAndClearUpdated());
+        assertEquals(3000L, updateTrackingBasicTimer.getTotalTime().longValue());
+    }
+}
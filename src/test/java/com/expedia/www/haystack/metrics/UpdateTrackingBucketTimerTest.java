@@ -0,0 +1,41 @@
+package com.expedia.www.haystack.metrics;
+
+import com.netflix.servo.monitor.BucketConfig;
+import com.netflix.servo.monitor.MonitorConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdateTrackingBucketTimerTest {
+    private static final Random RANDOM = new Random();
+    private static final String TIMER_NAME = RANDOM.nextLong() + "TIMER_NAME";
+
+    // Object under test
+    private UpdateTrackingBucketTimer updateTrackingBucketTimer;
+
+    @Before
+    public void setUp() {
+        final BucketConfig bucketConfig = new BucketConfig.Builder().withBuckets(new long[]{10, 100}).build();
+        updateTrackingBucketTimer = new UpdateTrackingBucketTimer(MonitorConfig.builder(TIMER_NAME).build(),
+                bucketConfig, MILLISECONDS);
+    }
+
+    @Test
+    public void testRecordSetsUpdated() {
+        assertFalse(updateTrackingBucketTimer.checkAndClearUpdated());
+
+        updateTrackingBucketTimer.record(1);
+        updateTrackingBucketTimer.record(1, SECONDS);
+
+        assertTrue(updateTrackingBucketTimer.checkAndClearUpdated());
+        assertFalse(updateTrackingBucketTimer.checkAndClearUpdated());
+        assertEquals(1001L, updateTrackingBucketTimer.getTotalTime().longValue());
+    }
+}
@@ -0,0 +1,44 @@
+package com.expedia.www.haystack.metrics;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Utf8EncoderTest {
+    // Object under test
+    private final Utf8Encoder utf8Encoder = new Utf8Encoder();
+
+    @Test
+    public void testAscii() {
+        assertEncodesLikeGetBytes("haystack.metric_name=42");
+    }
+
+    @Test
+    public void testTwoAndThreeByteCharacters() {
+        assertEncodesLikeGetBytes("aé߿bࠀ€￿");
+    }
+
+    @Test
+    public void testSurrogatePair() {
+        assertEncodesLikeGetBytes("a😀b");
+    }
+
+    @Test
+    public void testLoneSurrogatesAreReplaced() {
+        assertEncodesLikeGetBytes("\uDE00a\uD83Db\uD83D");
+    }
+
+    private void assertEncodesLikeGetBytes(String string) {
+        final byte[] expected = string.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+
+        utf8Encoder.put(buffer, string);
+
+        assertEquals(expected.length, utf8Encoder.length(string));
+        assertArrayEquals(expected, buffer.array());
+    }
+}